@@ -110,6 +110,7 @@ public abstract class AbstractContextServiceClient
 		pd.register(ContextServicePacket.PacketType.VALUE_UPDATE_MSG_FROM_GNS_REPLY, this);
 		pd.register(ContextServicePacket.PacketType.QUERY_MSG_FROM_USER_REPLY, this);
 		pd.register(ContextServicePacket.PacketType.REFRESH_TRIGGER, this);
+		pd.register(ContextServicePacket.PacketType.SEARCH_EXPIRED_MESSAGE, this);
 		pd.register(ContextServicePacket.PacketType.GET_REPLY_MESSAGE, this);
 		pd.register(ContextServicePacket.PacketType.CONFIG_REPLY, this);
 		
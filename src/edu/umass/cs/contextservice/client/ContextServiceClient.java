@@ -34,13 +34,17 @@ import edu.umass.cs.contextservice.client.anonymizedID.HyperspaceBasedSymmetricK
 import edu.umass.cs.contextservice.client.callback.implementations.BlockingCallBack;
 import edu.umass.cs.contextservice.client.callback.implementations.BlockingSearchReply;
 import edu.umass.cs.contextservice.client.callback.implementations.BlockingUpdateReply;
+import edu.umass.cs.contextservice.client.callback.implementations.LiveResultSet;
 import edu.umass.cs.contextservice.client.callback.implementations.PrivacyCallBack;
 import edu.umass.cs.contextservice.client.callback.implementations.PrivacyUpdateReply;
 import edu.umass.cs.contextservice.client.callback.implementations.NoopCallBack;
 import edu.umass.cs.contextservice.client.callback.implementations.NoopSearchReply;
 import edu.umass.cs.contextservice.client.callback.implementations.NoopUpdateReply;
+import edu.umass.cs.contextservice.client.callback.implementations.StreamingCallBack;
+import edu.umass.cs.contextservice.client.callback.implementations.StreamingSearchReply;
 import edu.umass.cs.contextservice.client.callback.interfaces.CallBackInterface;
 import edu.umass.cs.contextservice.client.callback.interfaces.SearchReplyInterface;
+import edu.umass.cs.contextservice.client.callback.interfaces.StreamingCallBackInterface;
 import edu.umass.cs.contextservice.client.callback.interfaces.UpdateReplyInterface;
 import edu.umass.cs.contextservice.client.common.AnonymizedIDEntry;
 import edu.umass.cs.contextservice.client.csprivacytransform.CSPrivacyTransformInterface;
@@ -58,6 +62,7 @@ import edu.umass.cs.contextservice.client.storage.UpdateStorage;
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.config.ContextServiceConfig.PrivacySchemes;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
 import edu.umass.cs.contextservice.messages.ClientConfigReply;
 import edu.umass.cs.contextservice.messages.ClientConfigRequest;
 import edu.umass.cs.contextservice.messages.ContextServicePacket;
@@ -66,6 +71,7 @@ import edu.umass.cs.contextservice.messages.GetReplyMessage;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUser;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUserReply;
 import edu.umass.cs.contextservice.messages.RefreshTrigger;
+import edu.umass.cs.contextservice.messages.SearchExpiredMessage;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNS;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNSReply;
 import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
@@ -101,11 +107,25 @@ public class ContextServiceClient extends AbstractContextServiceClient
 	
 	public static final String GNSCLIENT_CONF_FILE_NAME					= "gnsclient.contextservice.properties";
 	
+	// triggers kept for continuous searches waiting for their reply, 
+	// the oldest are dropped beyond it.
+	public static final int MAX_UNROUTED_TRIGGERS						= 10000;
+	
 	
 	private Queue<JSONObject> refreshTriggerQueue;
 	
 	private final Object refreshTriggerClientWaitLock 					= new Object();
 	
+	// result sets of continuous search queries, key is the group GUID.
+	private HashMap<String, List<LiveResultSet>> liveResultSetMap;
+	// triggers that came while a continuous search waits for its reply, 
+	// as the search's group GUID is only known from the reply.
+	private LinkedList<UnroutedTrigger> unroutedTriggers;
+	// continuous searches waiting for their reply, key is the 
+	// result set's callerReqID.
+	private HashMap<Long, UnboundLiveResultSet> unboundLiveResultSets;
+	private final Object liveResultSetLock 								= new Object();
+	
 	private GNSClient gnsClient;
 	
 	// asymmetric key id creation.
@@ -230,6 +250,74 @@ public class ContextServiceClient extends AbstractContextServiceClient
 				searchRep, callback, PrivacySchemes.NO_PRIVACY.ordinal());
 	}
 	
+	/**
+	 * Sends a search query and returns without waiting for the reply.
+	 * The returned reply is an iterator over the results, which 
+	 * returns results as they arrive when search replies are streamed.
+	 * @param searchQuery
+	 * @param expiryTime
+	 * @return
+	 */
+	public StreamingSearchReply sendSearchQueryStreaming(String searchQuery, long expiryTime)
+	{
+		long currBlockingId;
+		synchronized( this.blockingReqIDLock )
+		{
+			currBlockingId = this.blockingReqID++;
+		}
+		
+		StreamingSearchReply streamingSearch = new StreamingSearchReply(currBlockingId);
+		
+		sendSearchQueryToCS(searchQuery, expiryTime, 
+				streamingSearch, new StreamingCallBack(), PrivacySchemes.NO_PRIVACY.ordinal());
+		
+		return streamingSearch;
+	}
+	
+	/**
+	 * Sends a continuous search query and returns without waiting for the reply.
+	 * The returned result set starts with the search result and is kept up 
+	 * to date from the query's refresh triggers until the query expires, 
+	 * so the search doesn't need to be sent again to see the changes.
+	 * Triggers whose groups all belong to continuous queries are not 
+	 * returned by getQueryUpdateTriggers.
+	 * @param searchQuery
+	 * @param expiryTime
+	 * @return
+	 */
+	public LiveResultSet sendContinuousSearchQuery(String searchQuery, long expiryTime)
+	{
+		long currBlockingId;
+		synchronized( this.blockingReqIDLock )
+		{
+			currBlockingId = this.blockingReqID++;
+		}
+		
+		LiveResultSet liveResultSet = new LiveResultSet(currBlockingId, searchQuery);
+		
+		synchronized( liveResultSetLock )
+		{
+			long currTime = System.currentTimeMillis();
+			unboundLiveResultSets.put(currBlockingId, 
+					new UnboundLiveResultSet(liveResultSet, currTime, currTime+expiryTime));
+		}
+		
+		boolean sent = sendSearchQueryToCS(searchQuery, expiryTime, 
+				liveResultSet, new NoopCallBack(), PrivacySchemes.NO_PRIVACY.ordinal());
+		
+		// no reply will come for it.
+		if( !sent )
+		{
+			synchronized( liveResultSetLock )
+			{
+				unboundLiveResultSets.remove(currBlockingId);
+				pruneUnroutedTriggers(System.currentTimeMillis());
+			}
+			liveResultSet.setExpired();
+		}
+		return liveResultSet;
+	}
+	
 	public JSONObject sendGetRequest(String GUID)
 	{
 		long currId;
@@ -540,6 +628,39 @@ public class ContextServiceClient extends AbstractContextServiceClient
 		return blockingSearch.getReplySize();		
 	}
 
+	@Override
+	public JSONObject sendAggregateQuery(String aggregateQuery, long expiryTime)
+	{
+		if( QueryParser.parseSearchAggregates(aggregateQuery) == null )
+		{
+			ContextServiceLogger.getLogger().warning("no aggregates in "
+					+ "sendAggregateQuery query "+aggregateQuery);
+			return null;
+		}
+		
+		long currBlockingId;
+		synchronized( this.blockingReqIDLock )
+		{
+			currBlockingId = this.blockingReqID++;
+		}
+		
+		BlockingSearchReply blockingSearch = new BlockingSearchReply(currBlockingId);
+		
+		sendSearchQueryToCS(aggregateQuery, expiryTime, 
+				blockingSearch, this.blockingCallBack, PrivacySchemes.NO_PRIVACY.ordinal() );
+		
+		blockingSearch.waitForCompletion();
+		
+		try
+		{
+			return blockingSearch.getSearchReplyArray().getJSONObject(0);
+		} catch ( JSONException e )
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	@Override
 	public void sendUpdateSecure(String GUID, GuidEntry myGUIDInfo, 
 			JSONObject attrValuePairs, long versionNum,
@@ -1152,7 +1273,10 @@ public class ContextServiceClient extends AbstractContextServiceClient
 	}
 	
 	
-	private void sendSearchQueryToCS(String searchQuery, 
+	/**
+	 * Returns false if the search could not be sent.
+	 */
+	private boolean sendSearchQueryToCS(String searchQuery, 
 			long expiryTime, SearchReplyInterface searchRep, 
 			CallBackInterface callback, int privacySchemeOrdinal )
 	{
@@ -1180,6 +1304,7 @@ public class ContextServiceClient extends AbstractContextServiceClient
 		try 
 		{
 			niot.sendToAddress(sockAddr, qmesgU.toJSONObject());
+			return true;
 		} catch (IOException e) 
 		{
 			e.printStackTrace();
@@ -1187,6 +1312,8 @@ public class ContextServiceClient extends AbstractContextServiceClient
 		{
 			e.printStackTrace();
 		}
+		this.pendingSearches.remove(currId);
+		return false;
 	}
 	
 	
@@ -1216,9 +1343,180 @@ public class ContextServiceClient extends AbstractContextServiceClient
 		return csAttrValuePairs;
 	}
 	
+	/**
+	 * Sets the search result of a continuous query, and applies the 
+	 * triggers of its group that came before the reply.
+	 */
+	private void bindLiveResultSet( LiveResultSet liveResultSet, String groupGUID, 
+			JSONArray resultArrays ) throws JSONException
+	{
+		synchronized( liveResultSetLock )
+		{
+			try
+			{
+				liveResultSet.setInitialResult(groupGUID, resultArrays);
+				
+				List<LiveResultSet> groupResultSets = liveResultSetMap.get(groupGUID);
+				if( groupResultSets == null )
+				{
+					groupResultSets = new LinkedList<LiveResultSet>();
+					liveResultSetMap.put(groupGUID, groupResultSets);
+				}
+				groupResultSets.add(liveResultSet);
+				
+				List<LiveResultSet> boundSet = new LinkedList<LiveResultSet>();
+				boundSet.add(liveResultSet);
+				for( UnroutedTrigger unroutedTrig : unroutedTriggers )
+				{
+					applyTrigger(unroutedTrig.refTrig, groupGUID, boundSet);
+				}
+			}
+			finally
+			{
+				unboundLiveResultSets.remove(liveResultSet.getCallerReqId());
+				pruneUnroutedTriggers(System.currentTimeMillis());
+			}
+		}
+	}
+	
+	/**
+	 * Drops the continuous searches whose reply didn't come before they 
+	 * expired, and the triggers that came before all the searches still 
+	 * waiting for their reply were sent, as those can't be for them. 
+	 * Keeps at most MAX_UNROUTED_TRIGGERS triggers.
+	 * Must be called with liveResultSetLock held.
+	 */
+	private void pruneUnroutedTriggers( long currTime )
+	{
+		long oldestSendTime = Long.MAX_VALUE;
+		Iterator<Long> reqIdIter = unboundLiveResultSets.keySet().iterator();
+		while( reqIdIter.hasNext() )
+		{
+			UnboundLiveResultSet unbound = unboundLiveResultSets.get(reqIdIter.next());
+			if( unbound.expiryTime <= currTime )
+			{
+				reqIdIter.remove();
+				unbound.liveResultSet.setExpired();
+				ContextServiceLogger.getLogger().warning("Continuous search "
+						+unbound.liveResultSet.getCallerReqId()+" expired without a reply");
+			}
+			else
+			{
+				oldestSendTime = Math.min(oldestSendTime, unbound.sendTime);
+			}
+		}
+		
+		while( !unroutedTriggers.isEmpty() && 
+				( (unroutedTriggers.peekFirst().recvTime < oldestSendTime) 
+					|| (unroutedTriggers.size() > MAX_UNROUTED_TRIGGERS) ) )
+		{
+			unroutedTriggers.removeFirst();
+		}
+	}
+	
+	/**
+	 * Applies a trigger to the continuous queries of its groups.
+	 * Returns true if all its groups belong to continuous queries.
+	 */
+	private boolean routeToLiveResultSets( RefreshTrigger refTrig ) throws JSONException
+	{
+		synchronized( liveResultSetLock )
+		{
+			long currTime = System.currentTimeMillis();
+			pruneUnroutedTriggers(currTime);
+			
+			if( liveResultSetMap.isEmpty() && unboundLiveResultSets.isEmpty() )
+				return false;
+			
+			if( !unboundLiveResultSets.isEmpty() )
+			{
+				unroutedTriggers.add(new UnroutedTrigger(refTrig, currTime));
+				pruneUnroutedTriggers(currTime);
+			}
+			return applyTrigger(refTrig, null, null);
+		}
+	}
+	
+	/**
+	 * Applies the groups of a trigger to the result sets of their group, or only 
+	 * the groups equal to onlyGroupGUID to onlyResultSets if it is not null.
+	 * Returns true if all groups of the trigger had result sets.
+	 * Must be called with liveResultSetLock held.
+	 */
+	private boolean applyTrigger( RefreshTrigger refTrig, String onlyGroupGUID, 
+			List<LiveResultSet> onlyResultSets ) throws JSONException
+	{
+		JSONArray toBeRemoved = refTrig.getToBeRemovedGroupGUIDs();
+		JSONArray toBeAdded = refTrig.getToBeAddedGroupGUIDs();
+		boolean allApplied = (toBeRemoved.length() + toBeAdded.length()) > 0;
+		
+		for( int i=0; i<toBeRemoved.length()+toBeAdded.length(); i++ )
+		{
+			boolean added = (i >= toBeRemoved.length());
+			int index = added? (i - toBeRemoved.length()) : i;
+			String groupGUID = added? toBeAdded.getString(index) : toBeRemoved.getString(index);
+			
+			String updateGUID = refTrig.getUpdateGUID();
+			long updateSeqNum = refTrig.getUpdateSeqNum();
+			if( refTrig.isBatched() )
+			{
+				JSONArray updateGUIDs = added? refTrig.getAddedUpdateGUIDs() 
+						: refTrig.getRemovedUpdateGUIDs();
+				JSONArray updateSeqNums = added? refTrig.getAddedUpdateSeqNums() 
+						: refTrig.getRemovedUpdateSeqNums();
+				updateGUID = updateGUIDs.getString(index);
+				updateSeqNum = (updateSeqNums != null)? updateSeqNums.getLong(index) : -1;
+			}
+			
+			List<LiveResultSet> groupResultSets;
+			if( onlyGroupGUID != null )
+			{
+				groupResultSets = onlyGroupGUID.equals(groupGUID)? onlyResultSets : null;
+			}
+			else
+			{
+				groupResultSets = liveResultSetMap.get(groupGUID);
+			}
+			
+			if( groupResultSets == null )
+			{
+				allApplied = false;
+				continue;
+			}
+			
+			for( LiveResultSet liveResultSet : groupResultSets )
+			{
+				liveResultSet.applyTrigger(updateGUID, added, updateSeqNum);
+			}
+		}
+		return allApplied;
+	}
+	
+	/**
+	 * Returns true if the expired query's group had continuous queries.
+	 */
+	private boolean expireLiveResultSets( String groupGUID )
+	{
+		synchronized( liveResultSetLock )
+		{
+			List<LiveResultSet> groupResultSets = liveResultSetMap.remove(groupGUID);
+			if( groupResultSets == null )
+				return false;
+			
+			for( LiveResultSet liveResultSet : groupResultSets )
+			{
+				liveResultSet.setExpired();
+			}
+			return true;
+		}
+	}
+	
 	private void initializeClient() throws NoSuchAlgorithmException
 	{	
 		refreshTriggerQueue = new LinkedList<JSONObject>();
+		liveResultSetMap = new HashMap<String, List<LiveResultSet>>();
+		unroutedTriggers = new LinkedList<UnroutedTrigger>();
+		unboundLiveResultSets = new HashMap<Long, UnboundLiveResultSet>();
 		// FIXME: add a timeout mechanism here.
 		sendConfigRequest();
 		
@@ -1324,6 +1622,39 @@ public class ContextServiceClient extends AbstractContextServiceClient
 						+" avgRemovedTrigger "+avgRemovedTrigger);
 	}
 	
+	/**
+	 * A continuous search waiting for its reply.
+	 */
+	private static class UnboundLiveResultSet
+	{
+		private final LiveResultSet liveResultSet;
+		private final long sendTime;
+		private final long expiryTime;
+		
+		private UnboundLiveResultSet( LiveResultSet liveResultSet, 
+				long sendTime, long expiryTime )
+		{
+			this.liveResultSet = liveResultSet;
+			this.sendTime = sendTime;
+			this.expiryTime = expiryTime;
+		}
+	}
+	
+	/**
+	 * A trigger kept for the continuous searches waiting for their reply.
+	 */
+	private static class UnroutedTrigger
+	{
+		private final RefreshTrigger refTrig;
+		private final long recvTime;
+		
+		private UnroutedTrigger( RefreshTrigger refTrig, long recvTime )
+		{
+			this.refTrig = refTrig;
+			this.recvTime = recvTime;
+		}
+	}
+	
 	
 	private class HandleMessageThread implements Runnable
 	{
@@ -1350,6 +1681,10 @@ public class ContextServiceClient extends AbstractContextServiceClient
 						== ContextServicePacket.PacketType.REFRESH_TRIGGER.getInt() )
 				{
 					handleRefreshTrigger(mesgJSON);
+				} else if( mesgJSON.getInt(ContextServicePacket.PACKET_TYPE)
+						== ContextServicePacket.PacketType.SEARCH_EXPIRED_MESSAGE.getInt() )
+				{
+					handleSearchExpired(mesgJSON);
 				} else if( mesgJSON.getInt(ContextServicePacket.PACKET_TYPE)
 						== ContextServicePacket.PacketType.GET_REPLY_MESSAGE.getInt() )
 				{
@@ -1477,10 +1812,74 @@ public class ContextServiceClient extends AbstractContextServiceClient
 				long reqID = qmur.getUserReqNum();
 				SearchQueryStorage replySearchObj 
 										= pendingSearches.get(reqID);
-				replySearchObj.queryMsgFromUserReply = qmur;
 				
-				JSONArray result = qmur.getResultGUIDs();
-				int resultSize = qmur.getReplySize();
+				boolean streamingCallBack 
+						= (replySearchObj.callback instanceof StreamingCallBackInterface);
+				
+				boolean searchCompl = false;
+				
+				// chunks and the last reply can be processed concurrently 
+				// and in any order.
+				synchronized( replySearchObj )
+				{
+					if( !qmur.isLastChunk() )
+					{
+						replySearchObj.numChunksRecvd++;
+						
+						if( streamingCallBack )
+						{
+							((StreamingCallBackInterface)replySearchObj.callback).searchReplyChunk
+								(replySearchObj.searchRep, qmur.getResultGUIDs());
+						}
+						else
+						{
+							// same format as an unstreamed reply, an array of result arrays.
+							if( replySearchObj.chunkReplyArray == null )
+							{
+								replySearchObj.chunkReplyArray = new JSONArray();
+							}
+							replySearchObj.chunkReplyArray.put(qmur.getResultGUIDs());
+						}
+					}
+					else
+					{
+						replySearchObj.queryMsgFromUserReply = qmur;
+					}
+					
+					searchCompl = (replySearchObj.queryMsgFromUserReply != null) && 
+						(replySearchObj.numChunksRecvd == 
+							replySearchObj.queryMsgFromUserReply.getChunkNum());
+				}
+				
+				if( !searchCompl )
+				{
+					return;
+				}
+				
+				QueryMsgFromUserReply lastReply = replySearchObj.queryMsgFromUserReply;
+				
+				JSONArray result = lastReply.getResultGUIDs();
+				int resultSize = lastReply.getReplySize();
+				
+				if( lastReply.getAggregates() != null )
+				{
+					// the result of an aggregate query is its aggregates.
+					result = new JSONArray();
+					result.put(lastReply.getAggregates());
+				}
+				else if( replySearchObj.chunkReplyArray != null )
+				{
+					result = replySearchObj.chunkReplyArray;
+				}
+				else if( streamingCallBack )
+				{
+					// results of an unstreamed reply, one array per node.
+					for( int i=0; i<result.length(); i++ )
+					{
+						((StreamingCallBackInterface)replySearchObj.callback).searchReplyChunk
+							(replySearchObj.searchRep, result.getJSONArray(i));
+					}
+				}
 				
 				// FIXME: in privacy case the client must do decryption and conjunction here.
 				// But if we are measuring server capacity and have limited clients to send 
@@ -1488,6 +1887,12 @@ public class ContextServiceClient extends AbstractContextServiceClient
 				replySearchObj.searchRep.setSearchReplyArray(result);
 				replySearchObj.searchRep.setReplySize(resultSize);
 				
+				if( replySearchObj.searchRep instanceof LiveResultSet )
+				{
+					bindLiveResultSet((LiveResultSet)replySearchObj.searchRep, 
+							lastReply.getQueryGUID(), result);
+				}
+				
 				replySearchObj.callback.searchCompletion(replySearchObj.searchRep);
 				
 				pendingSearches.remove(reqID);
@@ -1498,6 +1903,32 @@ public class ContextServiceClient extends AbstractContextServiceClient
 			}
 		}
 		
+		/**
+		 * The expiry of a search query is given to the application 
+		 * with the refresh triggers, as after it the query's group gets no triggers.
+		 */
+		private void handleSearchExpired(JSONObject jso)
+		{
+			if( ContextServiceClient.EXPERIMENT_MODE )
+				return;
+			
+			try
+			{
+				SearchExpiredMessage searchExpired = new SearchExpiredMessage(jso);
+				if( expireLiveResultSets(searchExpired.getGroupGUID()) )
+					return;
+			} catch (JSONException e)
+			{
+				e.printStackTrace();
+			}
+			
+			synchronized( refreshTriggerClientWaitLock )
+			{
+				refreshTriggerQueue.add(jso);
+				refreshTriggerClientWaitLock.notify();
+			}
+		}
+		
 		private void handleRefreshTrigger(JSONObject jso)
 		{
 			try
@@ -1535,7 +1966,7 @@ public class ContextServiceClient extends AbstractContextServiceClient
 							lastPrintTime = currTime;
 						}
 					}
-					else
+					else if( !routeToLiveResultSets(qmur) )
 					{
 						refreshTriggerQueue.add(qmur.toJSONObject());
 						refreshTriggerClientWaitLock.notify();
@@ -38,6 +38,19 @@ public interface ContextServiceClientInterfaceWithoutPrivacy
 	public int sendSearchQuery(String searchQuery, JSONArray replyArray, 
 			long expiryTime);
 	
+	//blocking call
+	/**
+	 * Context service aggregate query call, for a query 
+	 * "SELECT agg, agg... WHERE predicates", like 
+	 * "SELECT COUNT(*), AVG(attr1), HISTOGRAM(attr1, 10) WHERE attr0 >= 10 AND attr0 <= 20".
+	 * Returns the aggregates keyed by their labels, or null if 
+	 * the query has no aggregates.
+	 * @param aggregateQuery
+	 * @param expiryTime
+	 * @return
+	 */
+	public JSONObject sendAggregateQuery(String aggregateQuery, long expiryTime);
+	
 	// blocking call
 	/**
 	 * performs a get object, based on GUID
@@ -49,7 +62,8 @@ public interface ContextServiceClientInterfaceWithoutPrivacy
 	/**
 	 * Returns query update triggers as a JSONArray,
 	 * Each JSONObject in the trigger is a RefreshTrigger meesage in
-	 * JSONObject form
+	 * JSONObject form, or a SearchExpiredMessage when a search query 
+	 * stored for triggers expires
 	 * @return
 	 */
 	public  void getQueryUpdateTriggers(JSONArray triggerArray);
@@ -0,0 +1,367 @@
+package edu.umass.cs.contextservice.client.callback.implementations;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.client.callback.interfaces.SearchReplyInterface;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+
+/**
+ * Result set of a continuous search query, kept up to date by the client
+ * from the refresh triggers of the query's group, so the application
+ * doesn't need to search again to see GUIDs join or leave the result.
+ *
+ * It starts with the result of the search, and the GUIDs added and removed
+ * by triggers are applied to it. The changes of a GUID are applied in the
+ * order of the GUID's updates, using the update sequence number in the
+ * triggers, a trigger older than the last applied change of its GUID is ignored.
+ * Triggers that arrive before the search reply are applied too, and take
+ * precedence over the search result for their GUIDs.
+ *
+ * Each change of the result set increases its version, and the changes are
+ * kept in order as deltas for the application to take. If the application
+ * doesn't take them, only the last MAX_PENDING_DELTAS are kept.
+ * Needs the triggers to have the group GUIDs, that is,
+ * sendFullRepliesToClient set on the context service.
+ * @author ayadav
+ */
+public class LiveResultSet implements SearchReplyInterface
+{
+	public static final int MAX_PENDING_DELTAS				= 10000;
+
+	private final long callerReqID;
+	private final String query;
+
+	// null until the search reply arrives.
+	private String groupGUID;
+	private JSONArray replyArray;
+	private int replySize;
+
+	private final HashSet<String> members;
+	// sequence number of the last update applied for a GUID.
+	private final HashMap<String, Long> lastSeqNums;
+	private LinkedList<Delta> pendingDeltas;
+	private boolean deltasLost;
+	private long version;
+	private boolean initialized;
+	private boolean expired;
+
+	private final Object lock 	= new Object();
+
+	/**
+	 * A GUID added to or removed from the result set.
+	 */
+	public static class Delta
+	{
+		private final String GUID;
+		private final boolean added;
+		private final long updateSeqNum;
+		private final long version;
+
+		public Delta( String GUID, boolean added, long updateSeqNum, long version )
+		{
+			this.GUID = GUID;
+			this.added = added;
+			this.updateSeqNum = updateSeqNum;
+			this.version = version;
+		}
+
+		public String getGUID()
+		{
+			return this.GUID;
+		}
+
+		public boolean isAdded()
+		{
+			return this.added;
+		}
+
+		/**
+		 * -1 for the GUIDs of the search result.
+		 */
+		public long getUpdateSeqNum()
+		{
+			return this.updateSeqNum;
+		}
+
+		/**
+		 * Version of the result set after this change.
+		 */
+		public long getVersion()
+		{
+			return this.version;
+		}
+	}
+
+	public LiveResultSet( long callerReqID, String query )
+	{
+		this.callerReqID = callerReqID;
+		this.query = query;
+		this.groupGUID = null;
+		members = new HashSet<String>();
+		lastSeqNums = new HashMap<String, Long>();
+		pendingDeltas = new LinkedList<Delta>();
+		deltasLost = false;
+		version = 0;
+		initialized = false;
+		expired = false;
+	}
+
+	@Override
+	public long getCallerReqId()
+	{
+		return callerReqID;
+	}
+
+	@Override
+	public void setSearchReplyArray(JSONArray replyArray)
+	{
+		this.replyArray = replyArray;
+	}
+
+	@Override
+	public void setReplySize(int replySize)
+	{
+		this.replySize = replySize;
+	}
+
+	@Override
+	public int getReplySize()
+	{
+		return replySize;
+	}
+
+	@Override
+	public JSONArray getSearchReplyArray()
+	{
+		return replyArray;
+	}
+
+	public String getQuery()
+	{
+		return this.query;
+	}
+
+	/**
+	 * Returns null until the search reply arrives.
+	 */
+	public String getGroupGUID()
+	{
+		synchronized( lock )
+		{
+			return this.groupGUID;
+		}
+	}
+
+	/**
+	 * Returns true once the query expired at the context service,
+	 * after that the result set doesn't change.
+	 */
+	public boolean isExpired()
+	{
+		synchronized( lock )
+		{
+			return this.expired;
+		}
+	}
+
+	public long getVersion()
+	{
+		synchronized( lock )
+		{
+			return this.version;
+		}
+	}
+
+	/**
+	 * Returns a copy of the current result set.
+	 */
+	public Set<String> getMembers()
+	{
+		synchronized( lock )
+		{
+			return new HashSet<String>(members);
+		}
+	}
+
+	/**
+	 * Returns the changes since the last call, in the order applied.
+	 * Returns null if some changes were dropped as they were not taken,
+	 * then getMembers gives the current result set.
+	 */
+	public List<Delta> takeDeltas()
+	{
+		synchronized( lock )
+		{
+			if( deltasLost )
+			{
+				deltasLost = false;
+				pendingDeltas.clear();
+				return null;
+			}
+			List<Delta> deltas = pendingDeltas;
+			pendingDeltas = new LinkedList<Delta>();
+			return deltas;
+		}
+	}
+
+	/**
+	 * Blocks until the version is greater than sinceVersion, or the
+	 * query expires, and returns the current version.
+	 */
+	public long waitForChange( long sinceVersion )
+	{
+		synchronized( lock )
+		{
+			while( (version <= sinceVersion) && !expired )
+			{
+				try
+				{
+					lock.wait();
+				}
+				catch ( InterruptedException e )
+				{
+					e.printStackTrace();
+				}
+			}
+			return version;
+		}
+	}
+
+	/**
+	 * Blocks until the search reply arrives.
+	 */
+	public void waitForInitialResult()
+	{
+		synchronized( lock )
+		{
+			while( !initialized )
+			{
+				try
+				{
+					lock.wait();
+				}
+				catch ( InterruptedException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Called with the search reply, an array of result arrays.
+	 */
+	public void setInitialResult( String groupGUID, JSONArray resultArrays )
+			throws JSONException
+	{
+		synchronized( lock )
+		{
+			this.groupGUID = groupGUID;
+
+			for( int i=0; i<resultArrays.length(); i++ )
+			{
+				JSONArray resultArray = resultArrays.getJSONArray(i);
+				for( int j=0; j<resultArray.length(); j++ )
+				{
+					Object result = resultArray.get(j);
+					String GUID;
+					if( result instanceof JSONObject )
+					{
+						GUID = SearchReplyGUIDRepresentationJSON.fromJSONObject
+									((JSONObject)result).getID();
+					}
+					else
+					{
+						GUID = result.toString();
+					}
+					GUID = normalizeGUID(GUID);
+
+					// a trigger that came before the reply is at least as recent.
+					if( !lastSeqNums.containsKey(GUID) && members.add(GUID) )
+					{
+						addDelta(GUID, true, -1);
+					}
+				}
+			}
+			initialized = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Applies a GUID added to or removed from the group by the update
+	 * with the given sequence number, -1 if unknown.
+	 */
+	public void applyTrigger( String GUID, boolean added, long updateSeqNum )
+	{
+		GUID = normalizeGUID(GUID);
+
+		synchronized( lock )
+		{
+			if( expired )
+				return;
+
+			if( updateSeqNum >= 0 )
+			{
+				Long lastSeqNum = lastSeqNums.get(GUID);
+				if( (lastSeqNum != null) && (lastSeqNum >= updateSeqNum) )
+				{
+					// an older update of the GUID, arrived late.
+					return;
+				}
+				lastSeqNums.put(GUID, updateSeqNum);
+			}
+
+			boolean changed = added? members.add(GUID) : members.remove(GUID);
+			if( changed )
+			{
+				addDelta(GUID, added, updateSeqNum);
+				lock.notifyAll();
+			}
+		}
+	}
+
+	public void setExpired()
+	{
+		synchronized( lock )
+		{
+			expired = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Must be called with lock held.
+	 */
+	private void addDelta( String GUID, boolean added, long updateSeqNum )
+	{
+		version++;
+		if( deltasLost )
+			return;
+
+		if( pendingDeltas.size() >= MAX_PENDING_DELTAS )
+		{
+			deltasLost = true;
+			pendingDeltas.clear();
+			return;
+		}
+		pendingDeltas.add(new Delta(GUID, added, updateSeqNum, version));
+	}
+
+	/**
+	 * Search replies have GUIDs in lower case hex,
+	 * updates have them as the application gave them.
+	 */
+	private static String normalizeGUID( String GUID )
+	{
+		return GUID.toLowerCase();
+	}
+}
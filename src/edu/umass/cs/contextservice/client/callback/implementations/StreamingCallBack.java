@@ -0,0 +1,31 @@
+package edu.umass.cs.contextservice.client.callback.implementations;
+
+import org.json.JSONArray;
+
+import edu.umass.cs.contextservice.client.callback.interfaces.SearchReplyInterface;
+import edu.umass.cs.contextservice.client.callback.interfaces.StreamingCallBackInterface;
+import edu.umass.cs.contextservice.client.callback.interfaces.UpdateReplyInterface;
+
+public class StreamingCallBack implements StreamingCallBackInterface
+{
+	public StreamingCallBack()
+	{
+	}
+	
+	@Override
+	public void searchReplyChunk(SearchReplyInterface searchRep, JSONArray replyChunk)
+	{
+		((StreamingSearchReply) searchRep).addReplyChunk(replyChunk);
+	}
+	
+	@Override
+	public void searchCompletion(SearchReplyInterface searchRep)
+	{
+		((StreamingSearchReply) searchRep).notifyCompletion();
+	}
+	
+	@Override
+	public void updateCompletion(UpdateReplyInterface updateRep)
+	{
+	}
+}
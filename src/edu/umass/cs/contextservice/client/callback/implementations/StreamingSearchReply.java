@@ -0,0 +1,159 @@
+package edu.umass.cs.contextservice.client.callback.implementations;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.client.callback.interfaces.SearchReplyInterface;
+
+/**
+ * Search reply whose results can be iterated over while they are 
+ * still arriving. hasNext blocks until the next result arrives or 
+ * the search completes. Each result is a SearchReplyGUIDRepresentationJSON 
+ * in JSONObject form. Used with StreamingCallBack.
+ * @author ayadav
+ */
+public class StreamingSearchReply implements SearchReplyInterface, Iterator<JSONObject>
+{
+	private final long callerReqID;
+	private JSONArray replyArray;
+	private int replySize;
+	
+	// chunks received but not yet iterated over.
+	private final LinkedList<JSONArray> chunkList;
+	private JSONArray currChunk;
+	private int currIndex;
+	
+	private final Object lock 	= new Object();
+	private boolean completion 	= false;
+	
+	public StreamingSearchReply( long callerReqID )
+	{
+		this.callerReqID = callerReqID;
+		chunkList = new LinkedList<JSONArray>();
+		currChunk = null;
+		currIndex = 0;
+		completion = false;
+	}
+	
+	@Override
+	public long getCallerReqId()
+	{
+		return callerReqID;
+	}
+	
+	@Override
+	public void setSearchReplyArray(JSONArray replyArray)
+	{
+		this.replyArray = replyArray;
+	}
+	
+	@Override
+	public void setReplySize(int replySize)
+	{
+		assert(replySize >= 0);
+		this.replySize = replySize;
+	}
+	
+	/**
+	 * Returns the total number of results, 
+	 * valid after the iteration is over.
+	 */
+	@Override
+	public int getReplySize()
+	{
+		return replySize;
+	}
+	
+	@Override
+	public JSONArray getSearchReplyArray()
+	{
+		return replyArray;
+	}
+	
+	public void addReplyChunk(JSONArray replyChunk)
+	{
+		synchronized( lock )
+		{
+			chunkList.add(replyChunk);
+			lock.notifyAll();
+		}
+	}
+	
+	public void notifyCompletion()
+	{
+		synchronized( lock )
+		{
+			completion = true;
+			lock.notifyAll();
+		}
+	}
+	
+	@Override
+	public boolean hasNext()
+	{
+		synchronized( lock )
+		{
+			while( true )
+			{
+				if( (currChunk != null) && (currIndex < currChunk.length()) )
+				{
+					return true;
+				}
+				
+				if( !chunkList.isEmpty() )
+				{
+					currChunk = chunkList.removeFirst();
+					currIndex = 0;
+					continue;
+				}
+				
+				if( completion )
+				{
+					return false;
+				}
+				
+				try
+				{
+					lock.wait();
+				}
+				catch ( InterruptedException e )
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public JSONObject next()
+	{
+		synchronized( lock )
+		{
+			if( !hasNext() )
+			{
+				throw new NoSuchElementException();
+			}
+			
+			try
+			{
+				return currChunk.getJSONObject(currIndex++);
+			}
+			catch ( JSONException e )
+			{
+				e.printStackTrace();
+				throw new NoSuchElementException(e.getMessage());
+			}
+		}
+	}
+	
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+}
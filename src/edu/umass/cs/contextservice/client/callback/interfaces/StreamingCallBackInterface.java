@@ -0,0 +1,22 @@
+package edu.umass.cs.contextservice.client.callback.interfaces;
+
+import org.json.JSONArray;
+
+/**
+ * Call back interface for consuming search replies incrementally.
+ * When the context service streams search replies, searchReplyChunk is
+ * called for each chunk of results as it arrives, and searchCompletion 
+ * once all chunks have been received. When replies are not streamed, 
+ * searchReplyChunk is called once for the results of each node before 
+ * searchCompletion.
+ * @author ayadav
+ */
+public interface StreamingCallBackInterface extends CallBackInterface
+{
+	/**
+	 * Should be a nonblocking method.
+	 * @param searchRep
+	 * @param replyChunk JSONArray of SearchReplyGUIDRepresentationJSON objects
+	 */
+	public void searchReplyChunk(SearchReplyInterface searchRep, JSONArray replyChunk);
+}
@@ -1,5 +1,7 @@
 package edu.umass.cs.contextservice.client.storage;
 
+import org.json.JSONArray;
+
 import edu.umass.cs.contextservice.client.callback.interfaces.CallBackInterface;
 import edu.umass.cs.contextservice.client.callback.interfaces.SearchReplyInterface;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUser;
@@ -12,4 +14,9 @@ public class SearchQueryStorage
 	public QueryMsgFromUserReply queryMsgFromUserReply;
 	public SearchReplyInterface searchRep;
 	public CallBackInterface callback;
+	
+	// for streamed replies, number of result chunks received 
+	// and, if callback doesn't take chunks, the chunks received so far.
+	public int numChunksRecvd;
+	public JSONArray chunkReplyArray;
 }
\ No newline at end of file
@@ -96,6 +96,114 @@ public class CSConfigFileLoader
 			  	(ContextServiceConfig.BULK_LOADING_FILE_STRING, 
 			  			ContextServiceConfig.bulkLoadingFilePath);
 	  
+	  ContextServiceConfig.groupCommitEnabled = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.GROUP_COMMIT_ENABLE_STRING, 
+	    				ContextServiceConfig.groupCommitEnabled+"") );
+	  
+	  ContextServiceConfig.groupCommitBatchSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.GROUP_COMMIT_BATCH_SIZE_STRING, 
+	    				ContextServiceConfig.groupCommitBatchSize+"") );
+	  
+	  ContextServiceConfig.groupCommitWindowMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.GROUP_COMMIT_WINDOW_MS_STRING, 
+	    				ContextServiceConfig.groupCommitWindowMs+"") );
+	  
+	  ContextServiceConfig.sqlDBType = ContextServiceConfig.SQL_DB_TYPE.valueOf(
+	    		properties.getProperty(ContextServiceConfig.SQL_DB_TYPE_STRING, 
+	    				ContextServiceConfig.sqlDBType.toString()) );
+	  
+	  ContextServiceConfig.streamSearchReplies = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.STREAM_SEARCH_REPLIES_STRING, 
+	    				ContextServiceConfig.streamSearchReplies+"") );
+	  
+	  ContextServiceConfig.searchReplyChunkSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_REPLY_CHUNK_SIZE_STRING, 
+	    				ContextServiceConfig.searchReplyChunkSize+"") );
+	  
+	  ContextServiceConfig.binaryWireFormat = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.BINARY_WIRE_FORMAT_STRING, 
+	    				ContextServiceConfig.binaryWireFormat+"") );
+	  
+	  ContextServiceConfig.inlineQueryReplyProcessing = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.INLINE_QUERY_REPLY_PROCESSING_STRING, 
+	    				ContextServiceConfig.inlineQueryReplyProcessing+"") );
+	  
+	  ContextServiceConfig.coalesceGUIDUpdates = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.COALESCE_GUID_UPDATES_STRING, 
+	    				ContextServiceConfig.coalesceGUIDUpdates+"") );
+	  
+	  ContextServiceConfig.requestTimeoutMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.REQUEST_TIMEOUT_MS_STRING, 
+	    				ContextServiceConfig.requestTimeoutMs+"") );
+	  
+	  ContextServiceConfig.searchTimeoutRetries = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_TIMEOUT_RETRIES_STRING, 
+	    				ContextServiceConfig.searchTimeoutRetries+"") );
+	  
+	  ContextServiceConfig.timerWheelTickMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.TIMER_WHEEL_TICK_MS_STRING, 
+	    				ContextServiceConfig.timerWheelTickMs+"") );
+	  
+	  ContextServiceConfig.inMemoryTriggerIndex = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.IN_MEMORY_TRIGGER_INDEX_STRING, 
+	    				ContextServiceConfig.inMemoryTriggerIndex+"") );
+	  
+	  ContextServiceConfig.triggerBatchIntervalMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.TRIGGER_BATCH_INTERVAL_MS_STRING, 
+	    				ContextServiceConfig.triggerBatchIntervalMs+"") );
+	  
+	  ContextServiceConfig.triggerBatchMaxSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.TRIGGER_BATCH_MAX_SIZE_STRING, 
+	    				ContextServiceConfig.triggerBatchMaxSize+"") );
+	  
+	  ContextServiceConfig.searchExpiryBatchSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_EXPIRY_BATCH_SIZE_STRING, 
+	    				ContextServiceConfig.searchExpiryBatchSize+"") );
+	  
+	  ContextServiceConfig.triggerEvalThreadPoolSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.TRIGGER_EVAL_THREAD_POOL_SIZE_STRING, 
+	    				ContextServiceConfig.triggerEvalThreadPoolSize+"") );
+	  
+	  ContextServiceConfig.triggerSummaryNumBuckets = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.TRIGGER_SUMMARY_NUM_BUCKETS_STRING, 
+	    				ContextServiceConfig.triggerSummaryNumBuckets+"") );
+	  
+	  ContextServiceConfig.searchCacheSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_CACHE_SIZE_STRING, 
+	    				ContextServiceConfig.searchCacheSize+"") );
+	  
+	  ContextServiceConfig.searchCacheTtlMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_CACHE_TTL_MS_STRING, 
+	    				ContextServiceConfig.searchCacheTtlMs+"") );
+	  
+	  ContextServiceConfig.searchCachePreciseInvalidation = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_CACHE_PRECISE_INVALIDATION_STRING, 
+	    				ContextServiceConfig.searchCachePreciseInvalidation+"") );
+	  
+	  ContextServiceConfig.searchQueryPlannerEnabled = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_QUERY_PLANNER_ENABLED_STRING, 
+	    				ContextServiceConfig.searchQueryPlannerEnabled+"") );
+	  
+	  ContextServiceConfig.searchPlannerSampleSize = Integer.parseInt(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_PLANNER_SAMPLE_SIZE_STRING, 
+	    				ContextServiceConfig.searchPlannerSampleSize+"") );
+	  
+	  ContextServiceConfig.searchCompositeIndexes = 
+	    		properties.getProperty(ContextServiceConfig.SEARCH_COMPOSITE_INDEXES_STRING, 
+	    				ContextServiceConfig.searchCompositeIndexes).trim();
+	  
+	  ContextServiceConfig.adaptiveReplicaSelection = Boolean.parseBoolean(
+	    		properties.getProperty(ContextServiceConfig.ADAPTIVE_REPLICA_SELECTION_STRING, 
+	    				ContextServiceConfig.adaptiveReplicaSelection+"") );
+	  
+	  ContextServiceConfig.searchHedgePercentile = Double.parseDouble(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_HEDGE_PERCENTILE_STRING, 
+	    				ContextServiceConfig.searchHedgePercentile+"") );
+	  
+	  ContextServiceConfig.searchHedgeMinDelayMs = Long.parseLong(
+	    		properties.getProperty(ContextServiceConfig.SEARCH_HEDGE_MIN_DELAY_MS_STRING, 
+	    				ContextServiceConfig.searchHedgeMinDelayMs+"") );
+	  
 	  
 	  System.out.println(" ContextServiceConfig.TRIGGER_ENABLED "+ContextServiceConfig.triggerEnabled
     		+" ContextServiceConfig.numAttrsPerSubspace "+ContextServiceConfig.numAttrsPerSubspace 
@@ -104,7 +212,35 @@ public class CSConfigFileLoader
     		+" ContextServiceConfig.THREAD_POOL_SIZE "+ContextServiceConfig.threadPoolSize
     		+" ContextServiceConfig.regionMappingPolicy "+ContextServiceConfig.regionMappingPolicy
     		+" ContextServiceConfig.enableBulkLoading "+ContextServiceConfig.enableBulkLoading
-    		+" ContextServiceConfig.bulkLoadingFilePath "+ContextServiceConfig.bulkLoadingFilePath);
+    		+" ContextServiceConfig.bulkLoadingFilePath "+ContextServiceConfig.bulkLoadingFilePath
+    		+" ContextServiceConfig.groupCommitEnabled "+ContextServiceConfig.groupCommitEnabled
+    		+" ContextServiceConfig.groupCommitBatchSize "+ContextServiceConfig.groupCommitBatchSize
+    		+" ContextServiceConfig.groupCommitWindowMs "+ContextServiceConfig.groupCommitWindowMs
+    		+" ContextServiceConfig.sqlDBType "+ContextServiceConfig.sqlDBType
+    		+" ContextServiceConfig.streamSearchReplies "+ContextServiceConfig.streamSearchReplies
+    		+" ContextServiceConfig.searchReplyChunkSize "+ContextServiceConfig.searchReplyChunkSize
+    		+" ContextServiceConfig.binaryWireFormat "+ContextServiceConfig.binaryWireFormat
+    		+" ContextServiceConfig.inlineQueryReplyProcessing "+ContextServiceConfig.inlineQueryReplyProcessing
+    		+" ContextServiceConfig.coalesceGUIDUpdates "+ContextServiceConfig.coalesceGUIDUpdates
+    		+" ContextServiceConfig.requestTimeoutMs "+ContextServiceConfig.requestTimeoutMs
+    		+" ContextServiceConfig.searchTimeoutRetries "+ContextServiceConfig.searchTimeoutRetries
+    		+" ContextServiceConfig.timerWheelTickMs "+ContextServiceConfig.timerWheelTickMs
+    		+" ContextServiceConfig.inMemoryTriggerIndex "+ContextServiceConfig.inMemoryTriggerIndex
+    		+" ContextServiceConfig.triggerBatchIntervalMs "+ContextServiceConfig.triggerBatchIntervalMs
+    		+" ContextServiceConfig.triggerBatchMaxSize "+ContextServiceConfig.triggerBatchMaxSize
+    		+" ContextServiceConfig.searchExpiryBatchSize "+ContextServiceConfig.searchExpiryBatchSize
+    		+" ContextServiceConfig.triggerEvalThreadPoolSize "+ContextServiceConfig.triggerEvalThreadPoolSize
+    		+" ContextServiceConfig.triggerSummaryNumBuckets "+ContextServiceConfig.triggerSummaryNumBuckets
+    		+" ContextServiceConfig.searchCacheSize "+ContextServiceConfig.searchCacheSize
+    		+" ContextServiceConfig.searchCacheTtlMs "+ContextServiceConfig.searchCacheTtlMs
+    		+" ContextServiceConfig.searchCachePreciseInvalidation "
+    		+ContextServiceConfig.searchCachePreciseInvalidation
+    		+" ContextServiceConfig.searchQueryPlannerEnabled "+ContextServiceConfig.searchQueryPlannerEnabled
+    		+" ContextServiceConfig.searchPlannerSampleSize "+ContextServiceConfig.searchPlannerSampleSize
+    		+" ContextServiceConfig.searchCompositeIndexes "+ContextServiceConfig.searchCompositeIndexes
+    		+" ContextServiceConfig.adaptiveReplicaSelection "+ContextServiceConfig.adaptiveReplicaSelection
+    		+" ContextServiceConfig.searchHedgePercentile "+ContextServiceConfig.searchHedgePercentile
+    		+" ContextServiceConfig.searchHedgeMinDelayMs "+ContextServiceConfig.searchHedgeMinDelayMs);
   }
   
   /**
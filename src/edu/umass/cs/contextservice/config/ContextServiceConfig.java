@@ -17,6 +17,33 @@ public class ContextServiceConfig
 	public static final String THREAD_POOL_SIZE_STRING				= "threadPoolSize";
 	public static final String BULK_LOADING_ENABLE_STRING			= "enableBulkLoading";
 	public static final String BULK_LOADING_FILE_STRING				= "bulkLoadingFile";
+	public static final String GROUP_COMMIT_ENABLE_STRING			= "groupCommitEnable";
+	public static final String GROUP_COMMIT_BATCH_SIZE_STRING		= "groupCommitBatchSize";
+	public static final String GROUP_COMMIT_WINDOW_MS_STRING		= "groupCommitWindowMs";
+	public static final String SQL_DB_TYPE_STRING					= "sqlDBType";
+	public static final String STREAM_SEARCH_REPLIES_STRING			= "streamSearchReplies";
+	public static final String SEARCH_REPLY_CHUNK_SIZE_STRING		= "searchReplyChunkSize";
+	public static final String BINARY_WIRE_FORMAT_STRING			= "binaryWireFormat";
+	public static final String INLINE_QUERY_REPLY_PROCESSING_STRING	= "inlineQueryReplyProcessing";
+	public static final String COALESCE_GUID_UPDATES_STRING			= "coalesceGUIDUpdates";
+	public static final String REQUEST_TIMEOUT_MS_STRING			= "requestTimeoutMs";
+	public static final String SEARCH_TIMEOUT_RETRIES_STRING		= "searchTimeoutRetries";
+	public static final String TIMER_WHEEL_TICK_MS_STRING			= "timerWheelTickMs";
+	public static final String IN_MEMORY_TRIGGER_INDEX_STRING		= "inMemoryTriggerIndex";
+	public static final String TRIGGER_BATCH_INTERVAL_MS_STRING		= "triggerBatchIntervalMs";
+	public static final String TRIGGER_BATCH_MAX_SIZE_STRING		= "triggerBatchMaxSize";
+	public static final String SEARCH_EXPIRY_BATCH_SIZE_STRING		= "searchExpiryBatchSize";
+	public static final String TRIGGER_EVAL_THREAD_POOL_SIZE_STRING	= "triggerEvalThreadPoolSize";
+	public static final String TRIGGER_SUMMARY_NUM_BUCKETS_STRING	= "triggerSummaryNumBuckets";
+	public static final String SEARCH_CACHE_SIZE_STRING				= "searchCacheSize";
+	public static final String SEARCH_CACHE_TTL_MS_STRING			= "searchCacheTtlMs";
+	public static final String SEARCH_CACHE_PRECISE_INVALIDATION_STRING	= "searchCachePreciseInvalidation";
+	public static final String SEARCH_QUERY_PLANNER_ENABLED_STRING	= "searchQueryPlannerEnabled";
+	public static final String SEARCH_PLANNER_SAMPLE_SIZE_STRING	= "searchPlannerSampleSize";
+	public static final String SEARCH_COMPOSITE_INDEXES_STRING		= "searchCompositeIndexes";
+	public static final String ADAPTIVE_REPLICA_SELECTION_STRING	= "adaptiveReplicaSelection";
+	public static final String SEARCH_HEDGE_PERCENTILE_STRING		= "searchHedgePercentile";
+	public static final String SEARCH_HEDGE_MIN_DELAY_MS_STRING		= "searchHedgeMinDelayMs";
 	
 	// region Mapping policies
 	public static final String DEMAND_AWARE							= "DEMAND_AWARE";
@@ -114,6 +141,16 @@ public class ContextServiceConfig
 	//FIXED 1 below is wrong it should be Integer.MIN_VALUE , http://stackoverflow.com/questions/3443937/java-heap-memory-error
 	public static final int MYSQL_CURSOR_FETCH_SIZE					= Integer.MIN_VALUE;
 	
+	// number of prepared statements cached per pooled connection. 
+	// SQLGUIDStorage uses one statement template per attribute-set shape,
+	// so this should be at least the number of distinct query and update shapes.
+	public static final int PREPARED_STMT_CACHE_SIZE				= 200;
+	
+	// jdbc url arguments so that mysql parses a prepared statement once
+	// on the server and rewrites jdbc batches into multi-row statements.
+	public static final String MYSQL_PREPARED_STMT_ARGUMENTS		
+								= "useServerPrepStmts=true&cachePrepStmts=true&rewriteBatchedStatements=true";
+	
 	
 	// this gives minimum of 2^10 subspace partitions if there are 10 
 	// attributes and each parititioned twice. 
@@ -183,8 +220,9 @@ public class ContextServiceConfig
 	// attributes to save space.
 	public static final boolean NULL_DEFAULT_ENABLED				= true;
 	
-	// SQL database types
-	public static enum SQL_DB_TYPE	{MYSQL, SQLITE};
+	// SQL database types. IN_MEMORY stores GUIDs and triggers in 
+	// in-memory indexes instead of SQL tables.
+	public static enum SQL_DB_TYPE	{MYSQL, SQLITE, IN_MEMORY};
 	
 	public static SQL_DB_TYPE sqlDBType								= SQL_DB_TYPE.MYSQL;
 	
@@ -211,4 +249,132 @@ public class ContextServiceConfig
 	// only set to true in running tests.
 	// otherwise db should be dropped manually external to CNS
 	public static boolean dropLocalDB								= false;
-}
\ No newline at end of file
+	
+	// if true, attribute-index writes from all worker threads are collected 
+	// and applied in one transaction, instead of one autocommit per write.
+	public static boolean groupCommitEnabled						= true;
+	
+	// maximum number of writes in one group commit.
+	public static int groupCommitBatchSize							= 100;
+	
+	// time a group commit waits for more writes after the first one.
+	public static long groupCommitWindowMs							= 1;
+	
+	// if true, search results are read with a row by row cursor and 
+	// sent in chunks of searchReplyChunkSize GUIDs, from region nodes to the 
+	// query coordinator and from the coordinator to the client, 
+	// instead of in one reply per node. Only used with full replies.
+	public static boolean streamSearchReplies						= false;
+	
+	public static int searchReplyChunkSize							= 1000;
+	
+	// if true, nodes send the query and update messages exchanged between 
+	// context service nodes in the compact binary format of 
+	// messages.wireformat, instead of JSON. Nodes always accept both formats,
+	// so this can be turned on after all nodes run a version that decodes it. 
+	// Messages to and from clients always use JSON.
+	public static boolean binaryWireFormat							= false;
+	
+	// if true, a node aggregates the search replies from other nodes on the 
+	// thread that receives them, instead of handing each reply to the 
+	// node's thread pool. The thread also sends the complete reply to the 
+	// user, so this is best used with streamSearchReplies or limited replies.
+	public static boolean inlineQueryReplyProcessing				= false;
+	
+	// if true, an update to a GUID that arrives while an update of the GUID 
+	// is already queued behind the outstanding one is merged into the queued 
+	// update, the later value of an attribute wins. Each merged update is 
+	// still replied to when the queued update completes. This bounds the 
+	// updates queued per GUID under high update rates of a few GUIDs, 
+	// but intermediate values of a GUID are not indexed and don't fire triggers.
+	public static boolean coalesceGUIDUpdates						= false;
+	
+	// time after which a node gives up waiting for the other nodes' replies 
+	// to a search or update that it started. A search is then retried at another 
+	// replica of the regions of nodes that didn't reply, up to searchTimeoutRetries 
+	// times, and finally the user gets the results received so far, 
+	// marked as partial. An update is replied to as timed out and the next update 
+	// of the GUID is started. 0 disables the deadlines, requests then wait 
+	// for all replies.
+	public static long requestTimeoutMs								= 0;
+	
+	public static int searchTimeoutRetries							= 1;
+	
+	// resolution of the request deadlines.
+	public static long timerWheelTickMs								= 100;
+	
+	// if true, the SQL trigger storage also keeps the stored search queries in 
+	// an in-memory interval index and finds the groups an update affects 
+	// with it, the SQL table is then only written to and read back on restart.
+	public static boolean inMemoryTriggerIndex						= false;
+	
+	// if more than 0, the refresh triggers for a client are queued and sent 
+	// as one RefreshTrigger every triggerBatchIntervalMs, or once 
+	// triggerBatchMaxSize group changes are queued for the client. A group 
+	// added and removed for a GUID within a batch is not sent. 
+	// 0 sends a RefreshTrigger for each update.
+	public static long triggerBatchIntervalMs						= 0;
+	
+	public static int triggerBatchMaxSize							= 100;
+	
+	// maximum number of expired search queries deleted at once, 
+	// so that a large delete doesn't hold up the trigger lookups of updates.
+	public static int searchExpiryBatchSize							= 1000;
+	
+	// threads that find the triggered groups of an update while the 
+	// update is written to the attribute index. 0 finds them before the write 
+	// on the thread processing the update.
+	public static int triggerEvalThreadPoolSize						= 4;
+	
+	// each attribute's value range is split into this many buckets, and a 
+	// node counts the stored queries covering each bucket. An update whose 
+	// old and new values fall in a bucket no query covers, for some attribute, 
+	// can't trigger any group, so the node skips its trigger lookup.
+	// 0 looks up the triggers of every update.
+	public static int triggerSummaryNumBuckets						= 64;
+	
+	// maximum number of search results cached at the node that receives 
+	// searches from users, keyed by the canonical query. The least recently 
+	// used result is evicted first. 0 disables the cache. Results streamed 
+	// to the client, with streamSearchReplies, are not cached.
+	public static int searchCacheSize								= 0;
+	
+	// a cached result is used for at most this long.
+	public static long searchCacheTtlMs								= 60000;
+	
+	// if true, the nodes a cached search went to send an invalidation 
+	// when an update changes a GUID the search could have returned, so a 
+	// cached result is never older than the last update. If false, 
+	// cached results are only dropped after searchCacheTtlMs.
+	public static boolean searchCachePreciseInvalidation			= true;
+	
+	// if true, a MySQL node keeps equi-depth histograms of the attribute values 
+	// it stores, and hints the index, or the index intersection or table scan, 
+	// that it estimates is cheapest for each attribute-index search. 
+	// If false, the index choice is left to MySQL.
+	public static boolean searchQueryPlannerEnabled					= false;
+	
+	// number of written values sampled per attribute for the histograms.
+	public static int searchPlannerSampleSize						= 4096;
+	
+	// composite indexes created on the attribute-index table in MySQL, 
+	// as attribute lists separated by ';', e.g., "latitude,longitude;attr0,attr1".
+	// The planner uses one when its first attribute is in a search.
+	public static String searchCompositeIndexes						= "";
+	
+	// if true, the node that sends a search to the nodes of the overlapping 
+	// regions sends it to the replica of each region that replies faster, by 
+	// the average latency of the replicas' replies and the searches they haven't 
+	// replied to yet, the better of two random replicas. If false, a random 
+	// replica is chosen.
+	public static boolean adaptiveReplicaSelection					= false;
+	
+	// if more than 0, a search that a node hasn't replied to after this 
+	// percentile of the recent reply latencies, and at least searchHedgeMinDelayMs, 
+	// is also sent to other replicas of the node's regions, and the replies 
+	// that arrive first are used. The delay is rounded up to timerWheelTickMs. 
+	// 0 disables hedged searches.
+	public static double searchHedgePercentile						= 0;
+	
+	public static long searchHedgeMinDelayMs						= 10;
+}
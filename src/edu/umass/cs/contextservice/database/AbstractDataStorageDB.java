@@ -3,21 +3,30 @@ package edu.umass.cs.contextservice.database;
 import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.util.HashMap;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
+import edu.umass.cs.contextservice.database.guidattributes.SearchResultChunkCallback;
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.database.triggers.GroupGUIDInfoClass;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
 
 public abstract class AbstractDataStorageDB
 {	
 	public abstract int processSearchQueryUsingAttrIndex
-			( HashMap<String, AttributeValueRange> 
-					queryAttrValRange, JSONArray resultArray );
+			( List<HashMap<String, AttributeValueRange>> 
+					queryBoxes, SearchQueryOptions queryOptions, 
+					JSONArray resultArray, SearchResultChunkCallback chunkCallback );
+	
+	public abstract SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex
+			( List<HashMap<String, AttributeValueRange>> queryBoxes, 
+					SearchAggregates searchAggregates );
 	
 	public abstract HashIndexGUIDRecord getGUIDStoredUsingHashIndex
 												( String guid, Connection myConn );
@@ -33,7 +42,16 @@ public abstract class AbstractDataStorageDB
 			int requestType, JSONObject newUnsetAttrs, boolean firstTimeInsert) 
 					throws InterruptedException;
 	
-	public abstract int deleteExpiredSearchQueries();
+	/**
+	 * Returns false if the update can't trigger any stored query's group.
+	 */
+	public abstract boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec, 
+			JSONObject updateAttrJSON, int requestType, JSONObject newUnsetAttrs, 
+			boolean firstTimeInsert );
+	
+	public abstract int deleteExpiredSearchQueries( long currTime, int maxNum );
+	
+	public abstract long getNextSearchQueryExpiryTime();
 	
 	public abstract void storeGUIDUsingHashIndex( String nodeGUID, 
     		JSONObject jsonToWrite, int updateOrInsert, Connection myConn) 
@@ -44,9 +62,22 @@ public abstract class AbstractDataStorageDB
 	
 	public abstract void deleteGUIDFromTable(String tableName, String nodeGUID);
 	
+	/**
+	 * Performs an insert, update or delete in the attribute index.
+	 * The write may be group committed with writes from other threads, 
+	 * onCommit is run once the write is durable, or has failed.
+	 * @param writeType DBConstants.INSERT_REC, UPDATE_REC or DELETE_REC
+	 */
+	public abstract void storeGUIDUsingAttrIndex( String tableName, String nodeGUID, 
+    		JSONObject jsonToWrite, int writeType, Runnable onCommit ) throws JSONException;
+	
 	public abstract boolean checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace
 			( String groupGUID, String userIP, int userPort ) 
 															throws UnknownHostException;
 	
+	public abstract void deleteSearchQueryRecordFromPrimaryTriggerSubspace
+			( String groupGUID, String userIP, int userPort ) 
+															throws UnknownHostException;
+	
 	public abstract AbstractDataSource getDataSource();
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ public class DBConstants
 {
 	public static final int UPDATE_REC 								= 1;
 	public static final int INSERT_REC 								= 2;
+	public static final int DELETE_REC 								= 3;
 	
 	// maximum query length of 1000bytes
 	public static final int MAX_QUERY_LENGTH						= 1000;
@@ -4,21 +4,29 @@ import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.config.ContextServiceConfig.SQL_DB_TYPE;
+import edu.umass.cs.contextservice.database.guidattributes.AttrIndexGroupCommitter;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
 import edu.umass.cs.contextservice.database.guidattributes.SQLGUIDStorage;
+import edu.umass.cs.contextservice.database.guidattributes.SearchResultChunkCallback;
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
 import edu.umass.cs.contextservice.database.guidattributes.GUIDStorageInterface;
 import edu.umass.cs.contextservice.database.triggers.GroupGUIDInfoClass;
+import edu.umass.cs.contextservice.database.triggers.InMemoryTriggerStorage;
 import edu.umass.cs.contextservice.database.triggers.TriggerInformationStorage;
 import edu.umass.cs.contextservice.database.triggers.TriggerInformationStorageInterface;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.profilers.CNSProfiler;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
 
 
@@ -31,6 +39,9 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 	
 	private AbstractDataSource dataSource;
 	
+	// null if group commit is disabled.
+	private AttrIndexGroupCommitter groupCommitter;
+	
 	public RegionMappingDataStorageDB( Integer myNodeID, 
 			AbstractDataSource abstractDataSource, CNSProfiler cnsProfiler)
 			throws Exception
@@ -38,8 +49,24 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 		this.dataSource = abstractDataSource;
 		this.cnsprofiler = cnsProfiler;
 		
-		guidAttributesStorage = new SQLGUIDStorage
+		if( ContextServiceConfig.sqlDBType == SQL_DB_TYPE.IN_MEMORY )
+		{
+			// in-memory writes are applied directly, without group commit.
+			guidAttributesStorage = new InMemoryGUIDStorage(myNodeID, cnsprofiler);
+		}
+		else
+		{
+			SQLGUIDStorage sqlGUIDStorage = new SQLGUIDStorage
 							(myNodeID, abstractDataSource, cnsprofiler );
+			guidAttributesStorage = sqlGUIDStorage;
+			
+			if( ContextServiceConfig.groupCommitEnabled )
+			{
+				groupCommitter = new AttrIndexGroupCommitter
+							(sqlGUIDStorage, abstractDataSource, cnsprofiler);
+				new Thread(groupCommitter).start();
+			}
+		}
 		
 		if( ContextServiceConfig.triggerEnabled )
 		{
@@ -48,8 +75,15 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 			// components.
 			ContextServiceLogger.getLogger().fine( "HyperspaceMySQLDB "
 					+ " TRIGGER_ENABLED "+ContextServiceConfig.triggerEnabled );
-			triggerInformationStorage = new TriggerInformationStorage
+			if( ContextServiceConfig.sqlDBType == SQL_DB_TYPE.IN_MEMORY )
+			{
+				triggerInformationStorage = new InMemoryTriggerStorage(myNodeID);
+			}
+			else
+			{
+				triggerInformationStorage = new TriggerInformationStorage
 											(myNodeID , abstractDataSource);
+			}
 		}
 		
 		createTables();
@@ -90,20 +124,31 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 	 * This function is implemented here as it involves 
 	 * joining guidAttrValueStorage and privacy storage tables.
 	 * @param subspaceId
-	 * @param query
+	 * @param queryBoxes
+	 * @param queryOptions ORDER BY and LIMIT of the query
 	 * @param resultArray
+	 * @param chunkCallback null if results are not streamed
 	 * @return
 	 */
-	public int processSearchQueryUsingAttrIndex( HashMap<String, AttributeValueRange> 
-			queryAttrValRange, JSONArray resultArray )
+	public int processSearchQueryUsingAttrIndex( List<HashMap<String, AttributeValueRange>> 
+			queryBoxes, SearchQueryOptions queryOptions, JSONArray resultArray, 
+			SearchResultChunkCallback chunkCallback )
 	{
 		int resultSize 
 			= this.guidAttributesStorage.processSearchQueryUsingAttrIndex
-												(queryAttrValRange, resultArray);
+							(queryBoxes, queryOptions, resultArray, chunkCallback);
 		
 		return resultSize;	
 	}
 	
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex
+			( List<HashMap<String, AttributeValueRange>> queryBoxes, 
+					SearchAggregates searchAggregates )
+	{
+		return this.guidAttributesStorage.processAggregateQueryUsingAttrIndex
+							(queryBoxes, searchAggregates);
+	}
+	
 	
 	public HashIndexGUIDRecord getGUIDStoredUsingHashIndex( String guid, Connection myConn )
 	{
@@ -143,14 +188,27 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 				newValGroupGUIDMap, requestType, newUnsetAttrs, firstTimeInsert );
 	}
 	
+	public boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec, 
+			JSONObject updateAttrJSON, int requestType, JSONObject newUnsetAttrs, 
+			boolean firstTimeInsert )
+	{
+		return this.triggerInformationStorage.mayTriggerGroups
+			( oldGuidRec, updateAttrJSON, requestType, newUnsetAttrs, firstTimeInsert );
+	}
+	
 	/**
 	 * this function runs independently on every node 
 	 * and deletes expired queries.
 	 * @return
 	 */
-	public int deleteExpiredSearchQueries()
+	public int deleteExpiredSearchQueries( long currTime, int maxNum )
 	{
-		return this.triggerInformationStorage.deleteExpiredSearchQueries();
+		return this.triggerInformationStorage.deleteExpiredSearchQueries(currTime, maxNum);
+	}
+	
+	public long getNextSearchQueryExpiryTime()
+	{
+		return this.triggerInformationStorage.getNextSearchQueryExpiryTime();
 	}
 	
 	public void storeGUIDUsingHashIndex( String nodeGUID, 
@@ -184,10 +242,49 @@ public class RegionMappingDataStorageDB extends AbstractDataStorageDB
 		this.guidAttributesStorage.deleteGUIDFromTable(tableName, nodeGUID);
 	}
 	
+	public void storeGUIDUsingAttrIndex( String tableName, String nodeGUID, 
+    		JSONObject jsonToWrite, int writeType, Runnable onCommit ) throws JSONException
+	{
+		if( groupCommitter != null )
+		{
+			groupCommitter.submitWrite(tableName, nodeGUID, jsonToWrite, writeType, onCommit);
+			return;
+		}
+		
+		// a write that failed is replied to as well, like 
+		// failed writes of a group commit.
+		try
+		{
+			if( writeType == DBConstants.DELETE_REC )
+			{
+				this.guidAttributesStorage.deleteGUIDFromTable(tableName, nodeGUID);
+			}
+			else
+			{
+				this.guidAttributesStorage.storeGUIDUsingAttrIndex
+							(tableName, nodeGUID, jsonToWrite, writeType);
+			}
+		}
+		finally
+		{
+			if( onCommit != null )
+			{
+				onCommit.run();
+			}
+		}
+	}
+	
 	public boolean checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace( String groupGUID, 
 			String userIP, int userPort ) throws UnknownHostException
 	{
 		return triggerInformationStorage.checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace
 				(groupGUID, userIP, userPort);
 	}
+	
+	public void deleteSearchQueryRecordFromPrimaryTriggerSubspace( String groupGUID, 
+			String userIP, int userPort ) throws UnknownHostException
+	{
+		triggerInformationStorage.deleteSearchQueryRecordFromPrimaryTriggerSubspace
+				(groupGUID, userIP, userPort);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package edu.umass.cs.contextservice.database.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Data source used with SQL_DB_TYPE.IN_MEMORY.
+ * The in-memory GUID and trigger storages don't use
+ * JDBC connections, so there is no connection pool and
+ * getConnection returns null.
+ * @author ayadav
+ */
+public class InMemoryDataSource extends AbstractDataSource
+{
+	public InMemoryDataSource( int myNodeID )
+	{
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException
+	{
+		return null;
+	}
+
+	@Override
+	public String getCmdLineConnString()
+	{
+		return null;
+	}
+}
@@ -51,11 +51,13 @@ public class MySQLDataSource extends AbstractDataSource
     	dataSource.setDriverClass("com.mysql.jdbc.Driver"); //loads the jdbc driver
         if(arguments.length() > 0)
         {
-        	dataSource.setJdbcUrl("jdbc:mysql://localhost:"+portNum+"/"+dbName+"?"+arguments);
+        	dataSource.setJdbcUrl("jdbc:mysql://localhost:"+portNum+"/"+dbName+"?"+arguments
+        			+"&"+ContextServiceConfig.MYSQL_PREPARED_STMT_ARGUMENTS);
         }
         else
         {
-        	dataSource.setJdbcUrl("jdbc:mysql://localhost:"+portNum+"/"+dbName);
+        	dataSource.setJdbcUrl("jdbc:mysql://localhost:"+portNum+"/"+dbName
+        			+"?"+ContextServiceConfig.MYSQL_PREPARED_STMT_ARGUMENTS);
         }
         
         
@@ -82,7 +84,9 @@ public class MySQLDataSource extends AbstractDataSource
         
         dataSource.setAutoCommitOnClose(false);
         
-        //cpds.setMaxStatements(180);
+        // prepared statements are cached per connection by the pool, so 
+        // SQLGUIDStorage statement templates are not prepared again on every request.
+        dataSource.setMaxStatementsPerConnection(ContextServiceConfig.PREPARED_STMT_CACHE_SIZE);
         ContextServiceLogger.getLogger().fine("HyperspaceMySQLDB datasource "
         		+ "max pool size "+dataSource.getMaxPoolSize());
     }
@@ -23,6 +23,7 @@ public class SQLiteDataSource extends AbstractDataSource
 
     	searchPool.setMaxPoolSize(ContextServiceConfig.mysqlMaxConnections);
     	searchPool.setAutoCommitOnClose(true);
+    	searchPool.setMaxStatementsPerConnection(ContextServiceConfig.PREPARED_STMT_CACHE_SIZE);
     }
 
     public Connection getConnection() throws SQLException 
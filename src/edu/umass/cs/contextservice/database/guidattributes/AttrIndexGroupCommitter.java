@@ -0,0 +1,267 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.profilers.CNSProfiler;
+
+/**
+ * Group commit for attribute-index writes.
+ * Worker threads submit inserts, updates and deletes, which are queued
+ * and return immediately. This thread collects the queued writes, up to
+ * groupCommitBatchSize writes or groupCommitWindowMs after the first one,
+ * applies them in one transaction using JDBC batches, and then runs the
+ * per-write callbacks, which send the update replies.
+ *
+ * There is one committer thread and writes are applied in the order
+ * they were submitted, so the writes of a GUID are applied in order.
+ * @author ayadav
+ */
+public class AttrIndexGroupCommitter implements Runnable
+{
+	private final SQLGUIDStorage guidStorage;
+	private final AbstractDataSource dataSource;
+	private final CNSProfiler cnsProfiler;
+
+	private final LinkedBlockingQueue<AttrIndexWrite> writeQueue;
+
+	public AttrIndexGroupCommitter( SQLGUIDStorage guidStorage,
+			AbstractDataSource dataSource, CNSProfiler cnsProfiler )
+	{
+		this.guidStorage = guidStorage;
+		this.dataSource = dataSource;
+		this.cnsProfiler = cnsProfiler;
+		this.writeQueue = new LinkedBlockingQueue<AttrIndexWrite>();
+	}
+
+	/**
+	 * Queues a write. onCommit is run by the committer thread
+	 * after the transaction containing the write commits.
+	 * @param tableName
+	 * @param nodeGUID
+	 * @param jsonToWrite null for deletes
+	 * @param writeType DBConstants.INSERT_REC, UPDATE_REC or DELETE_REC
+	 * @param onCommit can be null
+	 */
+	public void submitWrite( String tableName, String nodeGUID,
+			JSONObject jsonToWrite, int writeType, Runnable onCommit )
+	{
+		writeQueue.add(new AttrIndexWrite(tableName, nodeGUID,
+				jsonToWrite, writeType, onCommit));
+	}
+
+	@Override
+	public void run()
+	{
+		int maxBatchSize = ContextServiceConfig.groupCommitBatchSize;
+		List<AttrIndexWrite> writeList = new ArrayList<AttrIndexWrite>(maxBatchSize);
+
+		while( true )
+		{
+			try
+			{
+				writeList.add(writeQueue.take());
+
+				// writes that queued up during the previous commit
+				// go in without waiting.
+				writeQueue.drainTo(writeList, maxBatchSize - writeList.size());
+
+				long windowEnd = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(ContextServiceConfig.groupCommitWindowMs);
+
+				while( writeList.size() < maxBatchSize )
+				{
+					long waitTime = windowEnd - System.nanoTime();
+					if( waitTime <= 0 )
+						break;
+
+					AttrIndexWrite nextWrite = writeQueue.poll(waitTime, TimeUnit.NANOSECONDS);
+					if( nextWrite == null )
+						break;
+
+					writeList.add(nextWrite);
+					writeQueue.drainTo(writeList, maxBatchSize - writeList.size());
+				}
+
+				commitWrites(writeList);
+			}
+			catch( InterruptedException e )
+			{
+				e.printStackTrace();
+			}
+			catch( Exception | Error ex )
+			{
+				// committer thread should not die.
+				ex.printStackTrace();
+			}
+			finally
+			{
+				writeList.clear();
+			}
+		}
+	}
+
+	private void commitWrites( List<AttrIndexWrite> writeList )
+	{
+		long start = System.currentTimeMillis();
+
+		Connection myConn = null;
+		SQLStatementBatch batch = null;
+		boolean committed = false;
+
+		try
+		{
+			myConn = dataSource.getConnection();
+			myConn.setAutoCommit(false);
+			batch = new SQLStatementBatch(myConn);
+
+			for( int i=0; i<writeList.size(); i++ )
+			{
+				AttrIndexWrite write = writeList.get(i);
+
+				if( write.writeType == DBConstants.DELETE_REC )
+				{
+					guidStorage.addGUIDDeleteToBatch(batch, write.tableName, write.nodeGUID);
+				}
+				else
+				{
+					guidStorage.addGUIDStoreToBatch(batch, write.tableName,
+							write.nodeGUID, write.jsonToWrite, write.writeType);
+				}
+			}
+			batch.execute();
+			myConn.commit();
+			committed = true;
+			
+			// the writes of a batch that fails are recorded 
+			// when they are applied individually.
+			for( int i=0; i<writeList.size(); i++ )
+			{
+				AttrIndexWrite write = writeList.get(i);
+				if( write.writeType != DBConstants.DELETE_REC )
+				{
+					guidStorage.recordAppliedWrite(write.jsonToWrite);
+				}
+			}
+		}
+		catch( SQLException | JSONException ex )
+		{
+			ex.printStackTrace();
+			if( myConn != null )
+			{
+				try
+				{
+					myConn.rollback();
+				}
+				catch( SQLException sqlex )
+				{
+					sqlex.printStackTrace();
+				}
+			}
+		}
+		finally
+		{
+			if( batch != null )
+				batch.close();
+
+			try
+			{
+				if( myConn != null )
+				{
+					myConn.setAutoCommit(true);
+					myConn.close();
+				}
+			}
+			catch( SQLException sqlex )
+			{
+				sqlex.printStackTrace();
+			}
+		}
+
+		if( !committed )
+		{
+			// one bad row shouldn't fail the other writes in the window,
+			// so the rolled back writes are applied one at a time.
+			ContextServiceLogger.getLogger().warning("Group commit of "+writeList.size()
+					+" writes failed, applying them individually");
+			applyIndividually(writeList);
+		}
+
+		long end = System.currentTimeMillis();
+
+		if( ContextServiceConfig.PROFILER_ENABLED )
+		{
+			cnsProfiler.addGroupCommitStats(writeList.size(), end-start);
+		}
+
+		for( int i=0; i<writeList.size(); i++ )
+		{
+			Runnable onCommit = writeList.get(i).onCommit;
+			if( onCommit == null )
+				continue;
+
+			try
+			{
+				onCommit.run();
+			}
+			catch( Exception | Error ex )
+			{
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	private void applyIndividually( List<AttrIndexWrite> writeList )
+	{
+		for( int i=0; i<writeList.size(); i++ )
+		{
+			AttrIndexWrite write = writeList.get(i);
+			try
+			{
+				if( write.writeType == DBConstants.DELETE_REC )
+				{
+					guidStorage.deleteGUIDFromTable(write.tableName, write.nodeGUID);
+				}
+				else
+				{
+					guidStorage.storeGUIDUsingAttrIndex(write.tableName,
+							write.nodeGUID, write.jsonToWrite, write.writeType);
+				}
+			}
+			catch( JSONException e )
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static class AttrIndexWrite
+	{
+		final String tableName;
+		final String nodeGUID;
+		final JSONObject jsonToWrite;
+		final int writeType;
+		final Runnable onCommit;
+
+		AttrIndexWrite( String tableName, String nodeGUID, JSONObject jsonToWrite,
+				int writeType, Runnable onCommit )
+		{
+			this.tableName = tableName;
+			this.nodeGUID = nodeGUID;
+			this.jsonToWrite = jsonToWrite;
+			this.writeType = writeType;
+			this.onCommit = onCommit;
+		}
+	}
+}
@@ -2,12 +2,15 @@ package edu.umass.cs.contextservice.database.guidattributes;
 
 import java.sql.Connection;
 import java.util.HashMap;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
 
 
@@ -22,9 +25,27 @@ public interface GUIDStorageInterface
 {
 	public void createDataStorageTables();
 	
+	/**
+	 * Returns the number of GUIDs that satisfy the query, the union of the 
+	 * boxes of queryBoxes, see QueryParser.parseQueryBoxes, at most the result 
+	 * limit of queryOptions. A GUID in more than one box is returned once. Results are added to resultArray if chunkCallback 
+	 * is null, otherwise they are passed in chunks to chunkCallback and 
+	 * resultArray is not used. With ORDER BY, results are returned in that 
+	 * order, with unset values first in ascending order, like in SQL, 
+	 * and each result has its ORDER BY value.
+	 */
 	public int processSearchQueryUsingAttrIndex
-						( HashMap<String, AttributeValueRange> queryAttrValMap, 
-								JSONArray resultArray);
+						( List<HashMap<String, AttributeValueRange>> queryBoxes, 
+								SearchQueryOptions queryOptions, JSONArray resultArray, 
+								SearchResultChunkCallback chunkCallback );
+	
+	/**
+	 * Returns the partial aggregates of the GUIDs that satisfy the query,
+	 * the union of the boxes of queryBoxes, computed without reading the GUIDs.
+	 */
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex
+						( List<HashMap<String, AttributeValueRange>> queryBoxes, 
+								SearchAggregates searchAggregates );
 	
 	public HashIndexGUIDRecord getGUIDStoredUsingHashIndex
 											( String guid, Connection myConn );
@@ -0,0 +1,1011 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+import edu.umass.cs.contextservice.profilers.CNSProfiler;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.utils.Utils;
+
+/**
+ * Implements GUIDStorageInterface in memory, without JDBC.
+ * The hash index is a map from the 20 byte GUID, kept as primitive fields,
+ * to a record with the attribute values stored column wise.
+ * The attribute index keeps a record per GUID and, for each attribute,
+ * a skip list of (value, GUID) entries. A search walks the ranges of all query
+ * attributes in lockstep to find the one with the fewest entries, scans that
+ * range, and checks the other attributes on the record.
+ *
+ * Searches and updates have the same semantics as SQLGUIDStorage, including
+ * NULL for unset attributes and the split of circular query ranges.
+ * There is no durability, it is meant for deployments where replication
+ * rather than MySQL provides it.
+ * @author ayadav
+ */
+public class InMemoryGUIDStorage implements GUIDStorageInterface
+{
+	private static final int NUM_LOCK_STRIPES							= 256;
+
+	private final int myNodeID;
+	private final CNSProfiler cnsProfiler;
+	private final AttrValueSchema schema;
+
+	private final ConcurrentHashMap<GUIDKey, HashIndexRow> hashIndexMap;
+	private final ConcurrentHashMap<GUIDKey, AttrIndexRow> attrIndexMap;
+
+	// skip list of (value, GUID) entries for each attribute ordinal.
+	private final List<ConcurrentSkipListSet<AttrIndexEntry>> attrIndexes;
+
+	// writes to a GUID are serialized on its stripe, so that the skip list
+	// entries of a GUID match its record.
+	private final Object[] lockStripes;
+
+	public InMemoryGUIDStorage( int myNodeID, CNSProfiler cnsProfiler )
+	{
+		this.myNodeID = myNodeID;
+		this.cnsProfiler = cnsProfiler;
+		this.schema = new AttrValueSchema(AttributeTypes.attributeInOrderList,
+				AttributeTypes.attributeMap);
+
+		hashIndexMap = new ConcurrentHashMap<GUIDKey, HashIndexRow>();
+		attrIndexMap = new ConcurrentHashMap<GUIDKey, AttrIndexRow>();
+		attrIndexes = new ArrayList<ConcurrentSkipListSet<AttrIndexEntry>>();
+
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			attrIndexes.add(new ConcurrentSkipListSet<AttrIndexEntry>
+									(new AttrIndexEntryComparator(i)));
+		}
+
+		lockStripes = new Object[NUM_LOCK_STRIPES];
+		for( int i=0; i<NUM_LOCK_STRIPES; i++ )
+		{
+			lockStripes[i] = new Object();
+		}
+	}
+
+	@Override
+	public void createDataStorageTables()
+	{
+		// the maps and indexes are created in the constructor.
+		ContextServiceLogger.getLogger().fine("InMemoryGUIDStorage "+myNodeID
+				+" storing "+schema.getNumAttrs()+" attributes in memory");
+	}
+
+	/**
+	 * Search of a single box, as in processSearchQueryUsingAttrIndex with a list of boxes.
+	 */
+	public int processSearchQueryUsingAttrIndex(
+			HashMap<String, AttributeValueRange> queryAttrValMap, SearchQueryOptions queryOptions,
+			JSONArray resultArray, SearchResultChunkCallback chunkCallback )
+	{
+		return processSearchQueryUsingAttrIndex(Collections.singletonList(queryAttrValMap),
+				queryOptions, resultArray, chunkCallback);
+	}
+
+	@Override
+	public int processSearchQueryUsingAttrIndex(
+			List<HashMap<String, AttributeValueRange>> queryBoxes, SearchQueryOptions queryOptions,
+			JSONArray resultArray, SearchResultChunkCallback chunkCallback )
+	{
+		long start = System.currentTimeMillis();
+		int resultLimit = queryOptions.getResultLimit();
+
+		AttrRangePredicate[][] boxPredicates = getBoxPredicates(queryBoxes);
+		if( (boxPredicates.length == 0) || (resultLimit == 0) )
+			return 0;
+
+		// with ORDER BY, the first resultLimit matches in the order are kept
+		// in a heap whose head is the last of them, and sent after the scan.
+		int orderOrdinal = -1;
+		PriorityQueue<AttrIndexRow> orderHeap = null;
+		if( queryOptions.hasOrderBy() && ContextServiceConfig.sendFullRepliesWithinCS )
+		{
+			orderOrdinal = schema.getOrdinal(queryOptions.getOrderByAttr());
+			assert( orderOrdinal >= 0 );
+			orderHeap = new PriorityQueue<AttrIndexRow>(11, Collections.reverseOrder(
+					new ResultOrderComparator(orderOrdinal, queryOptions.isDescending())));
+		}
+
+		int resultSize = 0;
+		JSONArray currChunk = (chunkCallback != null)? new JSONArray() : resultArray;
+		try
+		{
+			boxLoop:
+			for( int b=0; b<boxPredicates.length; b++ )
+			{
+				AttrRangePredicate[] predicates = boxPredicates[b];
+				int drivingIndex = findSmallestRange(predicates);
+				RangeCursor cursor = new RangeCursor(predicates[drivingIndex]);
+				AttrIndexRow row;
+				while( (row = nextMatch(cursor, predicates, drivingIndex)) != null )
+				{
+					if( matchesEarlierBox(row, boxPredicates, b) )
+						continue;
+
+					if( orderHeap != null )
+					{
+						orderHeap.add(row);
+						if( (resultLimit != SearchQueryOptions.NO_LIMIT) 
+								&& (orderHeap.size() > resultLimit) )
+						{
+							orderHeap.poll();
+						}
+						continue;
+					}
+
+					if( ContextServiceConfig.sendFullRepliesWithinCS )
+					{
+						currChunk = putResult(row, orderOrdinal, currChunk, chunkCallback);
+					}
+					resultSize++;
+
+					if( resultSize == resultLimit )
+						break boxLoop;
+				}
+			}
+
+			if( orderHeap != null )
+			{
+				AttrIndexRow[] orderedRows = new AttrIndexRow[orderHeap.size()];
+				for( int i=orderedRows.length-1; i>=0; i-- )
+				{
+					orderedRows[i] = orderHeap.poll();
+				}
+				for( int i=0; i<orderedRows.length; i++ )
+				{
+					currChunk = putResult(orderedRows[i], orderOrdinal, currChunk, chunkCallback);
+				}
+				resultSize = orderedRows.length;
+			}
+
+			if( (chunkCallback != null) && (currChunk.length() > 0) )
+			{
+				chunkCallback.processResultChunk(currChunk);
+			}
+		}
+		catch( JSONException e )
+		{
+			e.printStackTrace();
+		}
+
+		ContextServiceLogger.getLogger().fine("In-memory query exec time "
+				+(System.currentTimeMillis()-start)+" resultSize "+resultSize
+				+" numBoxes "+boxPredicates.length);
+		return resultSize;
+	}
+
+	/**
+	 * Aggregates of a single box, as in processAggregateQueryUsingAttrIndex with a list of boxes.
+	 */
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex(
+			HashMap<String, AttributeValueRange> queryAttrValMap, SearchAggregates searchAggregates )
+	{
+		return processAggregateQueryUsingAttrIndex(Collections.singletonList(queryAttrValMap),
+				searchAggregates);
+	}
+
+	@Override
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex(
+			List<HashMap<String, AttributeValueRange>> queryBoxes, SearchAggregates searchAggregates )
+	{
+		long start = System.currentTimeMillis();
+		SearchAggregates.Accumulator accumulator = searchAggregates.newAccumulator();
+
+		AttrRangePredicate[][] boxPredicates = getBoxPredicates(queryBoxes);
+		if( boxPredicates.length == 0 )
+			return accumulator;
+
+		List<SearchAggregates.Aggregate> aggregateList = searchAggregates.getAggregateList();
+		int[] aggOrdinals = new int[aggregateList.size()];
+		for( int i=0; i<aggOrdinals.length; i++ )
+		{
+			String attrName = aggregateList.get(i).getAttrName();
+			aggOrdinals[i] = (attrName == null)? -1 : schema.getOrdinal(attrName);
+		}
+
+		for( int b=0; b<boxPredicates.length; b++ )
+		{
+			AttrRangePredicate[] predicates = boxPredicates[b];
+			int drivingIndex = findSmallestRange(predicates);
+			RangeCursor cursor = new RangeCursor(predicates[drivingIndex]);
+			AttrIndexRow row;
+			while( (row = nextMatch(cursor, predicates, drivingIndex)) != null )
+			{
+				if( matchesEarlierBox(row, boxPredicates, b) )
+					continue;
+
+				accumulator.addGUIDs(1);
+				for( int i=0; i<aggOrdinals.length; i++ )
+				{
+					int ord = aggOrdinals[i];
+					if( (ord < 0) || !row.isSet[ord] )
+						continue;
+
+					if( aggregateList.get(i).isStringAttr() )
+						accumulator.addStringValue(i, row.strVals[ord]);
+					else
+						accumulator.addNumericValue(i, row.numVals[ord]);
+				}
+			}
+		}
+
+		ContextServiceLogger.getLogger().fine("In-memory aggregate query exec time "
+				+(System.currentTimeMillis()-start)+" numGUIDs "+accumulator.getNumGUIDs());
+		return accumulator;
+	}
+
+	/**
+	 * Returns the next row of the driving range cursor that matches all predicates,
+	 * or null at the end of the range.
+	 */
+	private AttrIndexRow nextMatch( RangeCursor cursor, AttrRangePredicate[] predicates,
+			int drivingIndex )
+	{
+		int ord = predicates[drivingIndex].ordinal;
+		AttrIndexEntry entry;
+		while( (entry = cursor.next()) != null )
+		{
+			AttrIndexRow row = attrIndexMap.get(entry.guidKey);
+			if( row == null )
+				continue;
+
+			// entry left over from a concurrent update of this GUID.
+			if( !row.isSet[ord] || (schema.compare(ord, row.numVals[ord], row.strVals[ord],
+						entry.numVal, entry.strVal) != 0) )
+				continue;
+
+			boolean matches = true;
+			for( int i=0; i<predicates.length; i++ )
+			{
+				if( (i != drivingIndex) && !predicates[i].matches(row) )
+				{
+					matches = false;
+					break;
+				}
+			}
+
+			if( matches )
+				return row;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the predicates of each box of the query, skipping boxes without attributes.
+	 */
+	private AttrRangePredicate[][] getBoxPredicates( List<HashMap<String, AttributeValueRange>> queryBoxes )
+	{
+		List<AttrRangePredicate[]> boxPredicates = new ArrayList<AttrRangePredicate[]>();
+		for( int i=0; i<queryBoxes.size(); i++ )
+		{
+			if( queryBoxes.get(i).size() > 0 )
+				boxPredicates.add(getPredicates(queryBoxes.get(i)));
+		}
+		return boxPredicates.toArray(new AttrRangePredicate[boxPredicates.size()][]);
+	}
+
+	/**
+	 * A row matching an earlier box was already returned by the scan of that box,
+	 * so the boxes of a query give each GUID once without keeping a set of GUIDs.
+	 */
+	private boolean matchesEarlierBox( AttrIndexRow row, AttrRangePredicate[][] boxPredicates,
+			int currBox )
+	{
+		for( int b=0; b<currBox; b++ )
+		{
+			boolean matches = true;
+			for( int i=0; i<boxPredicates[b].length; i++ )
+			{
+				if( !boxPredicates[b][i].matches(row) )
+				{
+					matches = false;
+					break;
+				}
+			}
+			if( matches )
+				return true;
+		}
+		return false;
+	}
+
+	private AttrRangePredicate[] getPredicates( HashMap<String, AttributeValueRange> queryAttrValMap )
+	{
+		AttrRangePredicate[] predicates = new AttrRangePredicate[queryAttrValMap.size()];
+		int index = 0;
+
+		Iterator<String> attrIter = queryAttrValMap.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			int ordinal = schema.getOrdinal(attrName);
+			assert( ordinal >= 0 );
+			predicates[index++] = new AttrRangePredicate
+							(ordinal, queryAttrValMap.get(attrName));
+		}
+		return predicates;
+	}
+
+	@Override
+	public HashIndexGUIDRecord getGUIDStoredUsingHashIndex( String guid, Connection myConn )
+	{
+		long start = System.currentTimeMillis();
+
+		JSONObject attrValJSON  = new JSONObject();
+		JSONObject unsetAttrJSON = null;
+		JSONArray anonymizedIDMapping = null;
+
+		HashIndexRow row = hashIndexMap.get(GUIDKey.fromHexString(guid));
+
+		if( row != null )
+		{
+			try
+			{
+				for( int i=0; i<schema.getNumAttrs(); i++ )
+				{
+					if( row.attrVals[i] != null )
+					{
+						attrValJSON.put(schema.getAttrName(i), row.attrVals[i]);
+					}
+				}
+				// a new JSONObject every time, as callers modify it.
+				unsetAttrJSON = new JSONObject(row.unsetAttrs);
+			}
+			catch( JSONException e )
+			{
+				e.printStackTrace();
+			}
+			anonymizedIDMapping = row.anonymizedIDs;
+		}
+
+		long end = System.currentTimeMillis();
+
+		if(ContextServiceConfig.PROFILER_ENABLED)
+		{
+			cnsProfiler.addGetGUIDUsingHashIndexTime(end-start);
+		}
+
+		return new HashIndexGUIDRecord(attrValJSON, unsetAttrJSON, anonymizedIDMapping);
+	}
+
+	@Override
+	public void storeGUIDUsingHashIndex( String nodeGUID, JSONObject jsonToWrite,
+			int updateOrInsert, Connection myConn ) throws JSONException
+	{
+		long start = System.currentTimeMillis();
+		GUIDKey guidKey = GUIDKey.fromHexString(nodeGUID);
+
+		synchronized( getLockStripe(guidKey) )
+		{
+			HashIndexRow oldRow = hashIndexMap.get(guidKey);
+
+			if( (updateOrInsert == DBConstants.UPDATE_REC) && (oldRow == null) )
+			{
+				// same as an SQL update that matches no row.
+				ContextServiceLogger.getLogger().fine("Hash index update of missing GUID "
+						+nodeGUID);
+				return;
+			}
+
+			String[] attrVals = new String[schema.getNumAttrs()];
+			String unsetAttrs = "{}";
+			JSONArray anonymizedIDs = null;
+
+			if( updateOrInsert == DBConstants.UPDATE_REC )
+			{
+				System.arraycopy(oldRow.attrVals, 0, attrVals, 0, attrVals.length);
+				unsetAttrs = oldRow.unsetAttrs;
+				anonymizedIDs = oldRow.anonymizedIDs;
+			}
+			else
+			{
+				setDefaultValues(attrVals);
+			}
+
+			for( int i=0; i<attrVals.length; i++ )
+			{
+				String attrName = schema.getAttrName(i);
+				if( jsonToWrite.has(attrName) )
+				{
+					attrVals[i] = jsonToWrite.getString(attrName);
+				}
+			}
+
+			if( jsonToWrite.has(DBConstants.UNSET_ATTR_COLNAME) )
+			{
+				unsetAttrs = jsonToWrite.getJSONObject(DBConstants.UNSET_ATTR_COLNAME).toString();
+			}
+
+			if( jsonToWrite.has(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
+			{
+				anonymizedIDs = jsonToWrite.getJSONArray(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
+			}
+
+			hashIndexMap.put(guidKey, new HashIndexRow(attrVals, unsetAttrs, anonymizedIDs));
+		}
+
+		long end = System.currentTimeMillis();
+
+		if(ContextServiceConfig.PROFILER_ENABLED)
+		{
+			cnsProfiler.addStoreGuidUsingHashIndexTime(end-start);
+		}
+	}
+
+	@Override
+	public void storeGUIDUsingAttrIndex( String tableName, String nodeGUID,
+			JSONObject updatedAttrValMap, int updateOrInsert ) throws JSONException
+	{
+		long start = System.currentTimeMillis();
+		GUIDKey guidKey = GUIDKey.fromHexString(nodeGUID);
+
+		synchronized( getLockStripe(guidKey) )
+		{
+			AttrIndexRow oldRow = attrIndexMap.get(guidKey);
+
+			if( (updateOrInsert == DBConstants.UPDATE_REC) && (oldRow == null) )
+			{
+				ContextServiceLogger.getLogger().fine("Attr index update of missing GUID "
+						+nodeGUID);
+				return;
+			}
+
+			int numAttrs = schema.getNumAttrs();
+			double[] numVals = new double[numAttrs];
+			String[] strVals = new String[numAttrs];
+			boolean[] isSet = new boolean[numAttrs];
+			JSONArray anonymizedIDs = null;
+
+			// an insert of an existing GUID replaces its record.
+			if( updateOrInsert == DBConstants.UPDATE_REC )
+			{
+				System.arraycopy(oldRow.numVals, 0, numVals, 0, numAttrs);
+				System.arraycopy(oldRow.strVals, 0, strVals, 0, numAttrs);
+				System.arraycopy(oldRow.isSet, 0, isSet, 0, numAttrs);
+				anonymizedIDs = oldRow.anonymizedIDs;
+			}
+			else if( !ContextServiceConfig.NULL_DEFAULT_ENABLED )
+			{
+				for( int i=0; i<numAttrs; i++ )
+				{
+					setValue(i, schema.getAttrMetaInfo(i).getDefaultValue(),
+							numVals, strVals, isSet);
+				}
+			}
+
+			for( int i=0; i<numAttrs; i++ )
+			{
+				String attrName = schema.getAttrName(i);
+				if( updatedAttrValMap.has(attrName) )
+				{
+					setValue(i, updatedAttrValMap.getString(attrName), numVals, strVals, isSet);
+				}
+			}
+
+			if( updatedAttrValMap.has(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
+			{
+				anonymizedIDs = updatedAttrValMap.getJSONArray
+									(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
+			}
+
+			AttrIndexRow newRow = new AttrIndexRow(guidKey, numVals, strVals,
+					isSet, anonymizedIDs);
+
+			// record first, then new entries, then removal of old entries,
+			// so a concurrent search skips stale entries instead of missing the GUID.
+			attrIndexMap.put(guidKey, newRow);
+			updateAttrIndexEntries(oldRow, newRow);
+		}
+
+		long end = System.currentTimeMillis();
+
+		if(ContextServiceConfig.PROFILER_ENABLED)
+		{
+			cnsProfiler.addStoreGuidUsingAttrIndexTime(end-start);
+		}
+	}
+
+	@Override
+	public void deleteGUIDFromTable( String tableName, String nodeGUID )
+	{
+		GUIDKey guidKey = GUIDKey.fromHexString(nodeGUID);
+
+		synchronized( getLockStripe(guidKey) )
+		{
+			if( DBConstants.GUID_HASH_TABLE_NAME.equals(tableName) )
+			{
+				hashIndexMap.remove(guidKey);
+			}
+			else
+			{
+				AttrIndexRow oldRow = attrIndexMap.remove(guidKey);
+				if( oldRow != null )
+				{
+					updateAttrIndexEntries(oldRow, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * There are no SQL tables in the in-memory storage.
+	 * Bulk loading with the MySQL dump syntax is not supported.
+	 */
+	@Override
+	public String getAttrIndexTableCreationCmd()
+	{
+		return null;
+	}
+
+	@Override
+	public String getHashIndexTableCreationCmd()
+	{
+		return null;
+	}
+
+	private void updateAttrIndexEntries( AttrIndexRow oldRow, AttrIndexRow newRow )
+	{
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			boolean oldSet = (oldRow != null) && oldRow.isSet[i];
+			boolean newSet = (newRow != null) && newRow.isSet[i];
+
+			boolean changed = (oldSet != newSet) || ( oldSet && (schema.compare(i,
+					oldRow.numVals[i], oldRow.strVals[i],
+					newRow.numVals[i], newRow.strVals[i]) != 0) );
+
+			if( !changed )
+				continue;
+
+			ConcurrentSkipListSet<AttrIndexEntry> attrIndex = attrIndexes.get(i);
+			if( newSet )
+			{
+				attrIndex.add(new AttrIndexEntry(newRow.numVals[i], newRow.strVals[i],
+						newRow.guidKey));
+			}
+			if( oldSet )
+			{
+				attrIndex.remove(new AttrIndexEntry(oldRow.numVals[i], oldRow.strVals[i],
+						oldRow.guidKey));
+			}
+		}
+	}
+
+	private void setDefaultValues( String[] attrVals )
+	{
+		if( ContextServiceConfig.NULL_DEFAULT_ENABLED )
+			return;
+
+		for( int i=0; i<attrVals.length; i++ )
+		{
+			attrVals[i] = schema.getAttrMetaInfo(i).getDefaultValue();
+		}
+	}
+
+	private void setValue( int ordinal, String value, double[] numVals,
+			String[] strVals, boolean[] isSet )
+	{
+		if( value == null )
+		{
+			isSet[ordinal] = false;
+			strVals[ordinal] = null;
+			return;
+		}
+
+		if( schema.isStringAttr(ordinal) )
+		{
+			strVals[ordinal] = value;
+		}
+		else
+		{
+			numVals[ordinal] = schema.toNumeric(ordinal, value);
+		}
+		isSet[ordinal] = true;
+	}
+
+	/**
+	 * Walks the ranges of all predicates in lockstep and returns the
+	 * index of the predicate whose range runs out first, so the cost is
+	 * proportional to the number of predicates times the smallest range.
+	 */
+	private int findSmallestRange( AttrRangePredicate[] predicates )
+	{
+		if( predicates.length == 1 )
+			return 0;
+
+		RangeCursor[] cursors = new RangeCursor[predicates.length];
+		for( int i=0; i<predicates.length; i++ )
+		{
+			cursors[i] = new RangeCursor(predicates[i]);
+		}
+
+		while( true )
+		{
+			for( int i=0; i<cursors.length; i++ )
+			{
+				if( cursors[i].next() == null )
+				{
+					return i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the search reply of a row to the current chunk and returns the
+	 * chunk to add the next reply to. orderOrdinal is the ordinal of the
+	 * ORDER BY attribute, whose value is added to the reply, or -1.
+	 */
+	private JSONArray putResult( AttrIndexRow row, int orderOrdinal, JSONArray currChunk,
+			SearchResultChunkCallback chunkCallback ) throws JSONException
+	{
+		JSONArray anonymizedIDs = ContextServiceConfig.privacyEnabled? row.anonymizedIDs : null;
+		String orderValue = (orderOrdinal >= 0)? getValueString(row, orderOrdinal) : null;
+
+		SearchReplyGUIDRepresentationJSON searchReplyRep = new SearchReplyGUIDRepresentationJSON
+				(row.guidKey.toHexString(), anonymizedIDs, orderValue);
+		currChunk.put(searchReplyRep.toJSONObject());
+
+		if( (chunkCallback != null) &&
+				(currChunk.length() >= ContextServiceConfig.searchReplyChunkSize) )
+		{
+			chunkCallback.processResultChunk(currChunk);
+			currChunk = new JSONArray();
+		}
+		return currChunk;
+	}
+
+	/**
+	 * Returns the value of an attribute of the row as MySQL returns
+	 * it for the column, null if it is not set.
+	 */
+	private String getValueString( AttrIndexRow row, int ordinal )
+	{
+		if( !row.isSet[ordinal] )
+			return null;
+
+		if( schema.isStringAttr(ordinal) )
+			return row.strVals[ordinal];
+
+		switch( schema.getAttrMetaInfo(ordinal).getDataType() )
+		{
+			case AttributeTypes.IntType:
+			case AttributeTypes.LongType:
+				return Long.toString((long)row.numVals[ordinal]);
+			default:
+				return Double.toString(row.numVals[ordinal]);
+		}
+	}
+
+	private Object getLockStripe( GUIDKey guidKey )
+	{
+		return lockStripes[(guidKey.hashCode() & 0x7fffffff) % NUM_LOCK_STRIPES];
+	}
+
+
+	/**
+	 * Range constraint of one query attribute. A circular range, where the
+	 * lower bound is greater than the upper bound, is split into
+	 * [min, upper] and [lower, max] as in SQLGUIDStorage.
+	 */
+	private class AttrRangePredicate
+	{
+		final int ordinal;
+		final int numIntervals;
+		final double[] lowerNum		= new double[2];
+		final double[] upperNum		= new double[2];
+		final String[] lowerStr		= new String[2];
+		final String[] upperStr		= new String[2];
+
+		AttrRangePredicate( int ordinal, AttributeValueRange attrValRange )
+		{
+			this.ordinal = ordinal;
+			AttributeMetaInfo attrMetaInfo = schema.getAttrMetaInfo(ordinal);
+
+			if( AttributeTypes.compareTwoValues(attrValRange.getLowerBound(),
+					attrValRange.getUpperBound(), attrMetaInfo.getDataType()) )
+			{
+				setInterval(0, attrValRange.getLowerBound(), attrValRange.getUpperBound());
+				numIntervals = 1;
+			}
+			else
+			{
+				setInterval(0, attrMetaInfo.getMinValue(), attrValRange.getUpperBound());
+				setInterval(1, attrValRange.getLowerBound(), attrMetaInfo.getMaxValue());
+				numIntervals = 2;
+			}
+		}
+
+		private void setInterval( int index, String lower, String upper )
+		{
+			if( schema.isStringAttr(ordinal) )
+			{
+				lowerStr[index] = lower;
+				upperStr[index] = upper;
+			}
+			else
+			{
+				lowerNum[index] = schema.toNumeric(ordinal, lower);
+				upperNum[index] = schema.toNumeric(ordinal, upper);
+			}
+		}
+
+		boolean isEmptyInterval( int index )
+		{
+			return schema.compare(ordinal, lowerNum[index], lowerStr[index],
+					upperNum[index], upperStr[index]) > 0;
+		}
+
+		boolean matches( AttrIndexRow row )
+		{
+			if( !row.isSet[ordinal] )
+				return false;
+
+			for( int i=0; i<numIntervals; i++ )
+			{
+				if( (schema.compare(ordinal, row.numVals[ordinal], row.strVals[ordinal],
+						lowerNum[i], lowerStr[i]) >= 0) &&
+					(schema.compare(ordinal, row.numVals[ordinal], row.strVals[ordinal],
+						upperNum[i], upperStr[i]) <= 0) )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Iterates over the skip list entries in the intervals of a predicate.
+	 */
+	private class RangeCursor
+	{
+		private final AttrRangePredicate pred;
+		private int intervalIndex;
+		private Iterator<AttrIndexEntry> currIter;
+
+		RangeCursor( AttrRangePredicate pred )
+		{
+			this.pred = pred;
+			this.intervalIndex = -1;
+			this.currIter = null;
+		}
+
+		/**
+		 * Returns null when all intervals are exhausted.
+		 */
+		AttrIndexEntry next()
+		{
+			while( (currIter == null) || !currIter.hasNext() )
+			{
+				intervalIndex++;
+				if( intervalIndex >= pred.numIntervals )
+					return null;
+
+				if( pred.isEmptyInterval(intervalIndex) )
+				{
+					currIter = null;
+					continue;
+				}
+
+				AttrIndexEntry fromEntry = new AttrIndexEntry(pred.lowerNum[intervalIndex],
+						pred.lowerStr[intervalIndex], GUIDKey.MIN_KEY);
+				AttrIndexEntry toEntry = new AttrIndexEntry(pred.upperNum[intervalIndex],
+						pred.upperStr[intervalIndex], GUIDKey.MAX_KEY);
+
+				NavigableSet<AttrIndexEntry> range = attrIndexes.get(pred.ordinal)
+						.subSet(fromEntry, true, toEntry, true);
+				currIter = range.iterator();
+			}
+			return currIter.next();
+		}
+	}
+
+	private class AttrIndexEntryComparator implements Comparator<AttrIndexEntry>
+	{
+		private final int ordinal;
+
+		AttrIndexEntryComparator( int ordinal )
+		{
+			this.ordinal = ordinal;
+		}
+
+		@Override
+		public int compare( AttrIndexEntry entry1, AttrIndexEntry entry2 )
+		{
+			int valCompare = schema.compare(ordinal, entry1.numVal, entry1.strVal,
+					entry2.numVal, entry2.strVal);
+			if( valCompare != 0 )
+				return valCompare;
+			return entry1.guidKey.compareTo(entry2.guidKey);
+		}
+	}
+
+	/**
+	 * Order of search results on an attribute, with unset values first
+	 * in ascending order like NULL in MySQL, and ties broken on the GUID.
+	 */
+	private class ResultOrderComparator implements Comparator<AttrIndexRow>
+	{
+		private final int ordinal;
+		private final boolean descending;
+
+		ResultOrderComparator( int ordinal, boolean descending )
+		{
+			this.ordinal = ordinal;
+			this.descending = descending;
+		}
+
+		@Override
+		public int compare( AttrIndexRow row1, AttrIndexRow row2 )
+		{
+			int valCompare;
+			if( row1.isSet[ordinal] && row2.isSet[ordinal] )
+			{
+				valCompare = schema.compare(ordinal, row1.numVals[ordinal], row1.strVals[ordinal],
+						row2.numVals[ordinal], row2.strVals[ordinal]);
+			}
+			else
+			{
+				valCompare = (row1.isSet[ordinal]?1:0) - (row2.isSet[ordinal]?1:0);
+			}
+
+			if( valCompare == 0 )
+				valCompare = row1.guidKey.compareTo(row2.guidKey);
+			return descending? -valCompare : valCompare;
+		}
+	}
+
+	private static class AttrIndexEntry
+	{
+		final double numVal;
+		final String strVal;
+		final GUIDKey guidKey;
+
+		AttrIndexEntry( double numVal, String strVal, GUIDKey guidKey )
+		{
+			this.numVal = numVal;
+			this.strVal = strVal;
+			this.guidKey = guidKey;
+		}
+	}
+
+	/**
+	 * Attribute index record, not modified after creation.
+	 */
+	private static class AttrIndexRow
+	{
+		final GUIDKey guidKey;
+		final double[] numVals;
+		final String[] strVals;
+		// false denotes NULL.
+		final boolean[] isSet;
+		final JSONArray anonymizedIDs;
+
+		AttrIndexRow( GUIDKey guidKey, double[] numVals, String[] strVals,
+				boolean[] isSet, JSONArray anonymizedIDs )
+		{
+			this.guidKey = guidKey;
+			this.numVals = numVals;
+			this.strVals = strVals;
+			this.isSet = isSet;
+			this.anonymizedIDs = anonymizedIDs;
+		}
+	}
+
+	/**
+	 * Hash index record, not modified after creation.
+	 * Attribute values are kept in the string form they are read in.
+	 */
+	private static class HashIndexRow
+	{
+		// null denotes NULL.
+		final String[] attrVals;
+		final String unsetAttrs;
+		final JSONArray anonymizedIDs;
+
+		HashIndexRow( String[] attrVals, String unsetAttrs, JSONArray anonymizedIDs )
+		{
+			this.attrVals = attrVals;
+			this.unsetAttrs = unsetAttrs;
+			this.anonymizedIDs = anonymizedIDs;
+		}
+	}
+
+	/**
+	 * 20 byte GUID stored as primitive fields. Shorter GUIDs are zero padded,
+	 * the same as in the Binary(20) column of the SQL tables.
+	 */
+	static class GUIDKey implements Comparable<GUIDKey>
+	{
+		private static final int GUID_NUM_BYTES								= 20;
+
+		static final GUIDKey MIN_KEY
+					= new GUIDKey(Long.MIN_VALUE, Long.MIN_VALUE, Integer.MIN_VALUE);
+		static final GUIDKey MAX_KEY
+					= new GUIDKey(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+
+		private final long high;
+		private final long mid;
+		private final int low;
+
+		private GUIDKey( long high, long mid, int low )
+		{
+			this.high = high;
+			this.mid = mid;
+			this.low = low;
+		}
+
+		static GUIDKey fromHexString( String guid )
+		{
+			byte[] guidBytes = Utils.hexStringToByteArray(guid);
+			assert( guidBytes.length <= GUID_NUM_BYTES );
+
+			ByteBuffer buf = ByteBuffer.allocate(GUID_NUM_BYTES);
+			buf.put(guidBytes, 0, Math.min(guidBytes.length, GUID_NUM_BYTES));
+			return new GUIDKey(buf.getLong(0), buf.getLong(8), buf.getInt(16));
+		}
+
+		String toHexString()
+		{
+			ByteBuffer buf = ByteBuffer.allocate(GUID_NUM_BYTES);
+			buf.putLong(high);
+			buf.putLong(mid);
+			buf.putInt(low);
+			return Utils.byteArrayToHex(buf.array());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			long hash = high * 31 + mid;
+			hash = hash * 31 + low;
+			return (int)(hash ^ (hash >>> 32));
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( !(obj instanceof GUIDKey) )
+				return false;
+			GUIDKey other = (GUIDKey)obj;
+			return (high == other.high) && (mid == other.mid) && (low == other.low);
+		}
+
+		@Override
+		public int compareTo( GUIDKey other )
+		{
+			int cmp = Long.compare(high, other.high);
+			if( cmp != 0 )
+				return cmp;
+			cmp = Long.compare(mid, other.mid);
+			if( cmp != 0 )
+				return cmp;
+			return Integer.compare(low, other.low);
+		}
+	}
+}
@@ -2,10 +2,12 @@ package edu.umass.cs.contextservice.database.guidattributes;
 
 import java.nio.ByteBuffer;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -25,6 +27,8 @@ import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
 import edu.umass.cs.contextservice.profilers.CNSProfiler;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
 import edu.umass.cs.contextservice.utils.Utils;
 
@@ -41,12 +45,32 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 	private final AbstractDataSource dataSource;
 	private final CNSProfiler cnsProfiler;
 	
+	// parameterized statements, cached per attribute-set shape.
+	private final SQLStatementTemplates statementTemplates;
+	
+	// chooses index hints for searches, null if disabled or not MySQL.
+	private final SearchQueryPlanner queryPlanner;
+	
 	public SQLGUIDStorage( int myNodeID, AbstractDataSource dataSource ,
 			CNSProfiler cnsProfiler )
 	{
 		this.myNodeID = myNodeID;
 		this.dataSource = dataSource;
 		this.cnsProfiler = cnsProfiler;
+		this.statementTemplates 
+				= new SQLStatementTemplates(AttributeTypes.attributeInOrderList);
+		
+		if( ContextServiceConfig.searchQueryPlannerEnabled 
+				&& (ContextServiceConfig.sqlDBType == SQL_DB_TYPE.MYSQL) )
+		{
+			this.queryPlanner = new SearchQueryPlanner(
+					ContextServiceConfig.searchPlannerSampleSize, 
+					ContextServiceConfig.searchCompositeIndexes);
+		}
+		else
+		{
+			this.queryPlanner = null;
+		}
 	}
 	
 	
@@ -196,43 +220,73 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 		return newTableCommand;
 	}
 	
+
 	public int processSearchQueryUsingAttrIndex
-			(HashMap<String, AttributeValueRange> queryAttrValRange, 
-					JSONArray resultArray)
-	{	
-		String mysqlQuery = getMySQLQueryForProcessingSearchQuery(queryAttrValRange);
-		
+			(HashMap<String, AttributeValueRange> queryAttrValRange, SearchQueryOptions queryOptions,
+					JSONArray resultArray, SearchResultChunkCallback chunkCallback)
+	{
+		return processSearchQueryUsingAttrIndex(Collections.singletonList(queryAttrValRange),
+				queryOptions, resultArray, chunkCallback);
+	}
+
+	public int processSearchQueryUsingAttrIndex
+			(List<HashMap<String, AttributeValueRange>> queryBoxes, SearchQueryOptions queryOptions,
+					JSONArray resultArray, SearchResultChunkCallback chunkCallback)
+	{
+		int resultLimit = queryOptions.getResultLimit();
+		if( queryBoxes.size() == 0 )
+			return 0;
+
+		// the planner's costs are for reading all the results, with a limit
+		// MySQL's own optimizer, which accounts for it, chooses the access path.
+		// the union of several boxes is also left to MySQL, which may merge indexes for it.
+		SearchQueryPlan plan = ( (queryPlanner != null) && (queryBoxes.size() == 1)
+				&& (resultLimit == SearchQueryOptions.NO_LIMIT) )? 
+				queryPlanner.planSearch(queryBoxes.get(0)) : null;
+		String mysqlQuery = statementTemplates.getSearchTemplate(queryBoxes, plan,
+				queryOptions);
+
 		assert(mysqlQuery != null);
-		
-		Connection myConn  = null;
-		Statement stmt     = null;
-		
+
+		Connection myConn  		= null;
+		PreparedStatement stmt  = null;
+
 		int resultSize = 0;
+		
+		// results are added to the current chunk, which is resultArray
+		// if results are not streamed.
+		JSONArray currChunk = (chunkCallback != null)? new JSONArray() : resultArray;
 		try
 		{
 			long s = System.currentTimeMillis();
 			myConn = this.dataSource.getConnection();
 			long e = System.currentTimeMillis();
 			// for row by row fetching, otherwise default is fetching whole result
-			// set in memory. 
+			// set in memory.
 			// http://dev.mysql.com/doc/connector-j/en/connector-j-reference-implementation-notes.html
-			if( ContextServiceConfig.ROW_BY_ROW_FETCHING_ENABLED )
+			// streamed results are always read row by row, so that only 
+			// one chunk is in memory.
+			if( ContextServiceConfig.ROW_BY_ROW_FETCHING_ENABLED || 
+					( (chunkCallback != null) && 
+							(ContextServiceConfig.sqlDBType == SQL_DB_TYPE.MYSQL) ) )
 			{
-				stmt   = myConn.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, 
+				stmt   = myConn.prepareStatement(mysqlQuery, java.sql.ResultSet.TYPE_FORWARD_ONLY,
 					java.sql.ResultSet.CONCUR_READ_ONLY);
 				stmt.setFetchSize(ContextServiceConfig.MYSQL_CURSOR_FETCH_SIZE);
 			}
 			else
 			{
 				// fetches all result in memory once
-				stmt   = myConn.createStatement();
+				stmt   = myConn.prepareStatement(mysqlQuery);
 			}
-			
+
+			statementTemplates.bindSearchValues(stmt, queryBoxes, plan, queryOptions);
+
 			long start = System.currentTimeMillis();
-			
-			ResultSet rs = stmt.executeQuery(mysqlQuery);
+
+			ResultSet rs = stmt.executeQuery();
 			while( rs.next() )
-			{	
+			{
 				// it is actually a JSONArray in hexformat byte array representation.
 				// reverse conversion is byte array to String and then string to JSONArray.
 				// byte[] realIDEncryptedArray = rs.getBytes(ACLattr);
@@ -241,50 +295,53 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 				if(ContextServiceConfig.sendFullRepliesWithinCS)
 				{
 					byte[] nodeGUIDBytes = rs.getBytes("nodeGUID");
-					
+
 					String nodeGUID = Utils.byteArrayToHex(nodeGUIDBytes);
-					
+
 					//String anonymizedIDToGUIDMapping = null;
 					JSONArray anonymizedIDToGuidArray = null;
 					if( ContextServiceConfig.privacyEnabled )
 					{
-						byte[] anonymizedIDToGUIDMappingBA 
+						byte[] anonymizedIDToGUIDMappingBA
 							= rs.getBytes(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
-						
+
 						if(anonymizedIDToGUIDMappingBA != null)
 						{
 							if(anonymizedIDToGUIDMappingBA.length > 0)
 							{
-								anonymizedIDToGuidArray 
+								anonymizedIDToGuidArray
 									= this.deserializeByteArrayToAnonymizedIDJSONArray
 										(anonymizedIDToGUIDMappingBA);
 							}
 						}
 					}
+
+					// the coordinator merges the ordered results of nodes on it.
+					String orderValue = queryOptions.hasOrderBy()?
+							rs.getString(queryOptions.getOrderByAttr()) : null;
+
+					SearchReplyGUIDRepresentationJSON searchReplyRep
+						= new SearchReplyGUIDRepresentationJSON(nodeGUID,
+								anonymizedIDToGuidArray, orderValue);
+
+					currChunk.put(searchReplyRep.toJSONObject());
+
+					resultSize++;
 					
-					if(anonymizedIDToGuidArray != null)
-					{
-						SearchReplyGUIDRepresentationJSON searchReplyRep 
-							= new SearchReplyGUIDRepresentationJSON(nodeGUID, 
-									anonymizedIDToGuidArray);
-					
-						resultArray.put(searchReplyRep.toJSONObject());
-					}
-					else
+					if( (chunkCallback != null) && 
+							(currChunk.length() >= ContextServiceConfig.searchReplyChunkSize) )
 					{
-						SearchReplyGUIDRepresentationJSON searchReplyRep 
-							= new SearchReplyGUIDRepresentationJSON(nodeGUID);
-				
-						resultArray.put(searchReplyRep.toJSONObject());
+						chunkCallback.processResultChunk(currChunk);
+						currChunk = new JSONArray();
 					}
-					
-					resultSize++;
 				}
 				else
 				{
 					if(ContextServiceConfig.ONLY_RESULT_COUNT_ENABLE)
 					{
 						resultSize = rs.getInt("RESULT_SIZE");
+						if( (resultLimit != SearchQueryOptions.NO_LIMIT) && (resultSize > resultLimit) )
+							resultSize = resultLimit;
 					}
 					else
 					{
@@ -292,17 +349,22 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 					}
 				}
 			}
-			
+
+			if( (chunkCallback != null) && (currChunk.length() > 0) )
+			{
+				chunkCallback.processResultChunk(currChunk);
+			}
+
 			System.out.println("MySQL query exec time "
-					+(System.currentTimeMillis()-start)+" query "+mysqlQuery 
+					+(System.currentTimeMillis()-start)+" query "+mysqlQuery
 					+" conn acquire time "+(e-s));
-			
+
 			rs.close();
 			stmt.close();
 		} catch(SQLException sqlex)
 		{
 			sqlex.printStackTrace();
-		} catch (JSONException e) 
+		} catch (JSONException e)
 		{
 			e.printStackTrace();
 		}
@@ -318,53 +380,107 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 			{
 				sqlex.printStackTrace();
 			}
-		}	
+		}
 		return resultSize;
 	}
-	
-	
+
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex
+			(HashMap<String, AttributeValueRange> queryAttrValRange,
+					SearchAggregates searchAggregates)
+	{
+		return processAggregateQueryUsingAttrIndex(Collections.singletonList(queryAttrValRange),
+				searchAggregates);
+	}
+
+	public SearchAggregates.Accumulator processAggregateQueryUsingAttrIndex
+			(List<HashMap<String, AttributeValueRange>> queryBoxes,
+					SearchAggregates searchAggregates)
+	{
+		SearchAggregates.Accumulator accumulator = searchAggregates.newAccumulator();
+		if( queryBoxes.size() == 0 )
+			return accumulator;
+
+		String mysqlQuery = statementTemplates.getAggregateTemplate(queryBoxes,
+				searchAggregates);
+
+		Connection myConn  		= null;
+		PreparedStatement stmt  = null;
+		try
+		{
+			myConn = this.dataSource.getConnection();
+			stmt = myConn.prepareStatement(mysqlQuery);
+			statementTemplates.bindAggregateValues(stmt, queryBoxes, searchAggregates);
+
+			long start = System.currentTimeMillis();
+			ResultSet rs = stmt.executeQuery();
+			// aggregates without GROUP BY return one row.
+			if( rs.next() )
+			{
+				statementTemplates.readAggregateColumns(rs, searchAggregates, accumulator);
+			}
+			rs.close();
+
+			ContextServiceLogger.getLogger().fine("MySQL aggregate query exec time "
+					+(System.currentTimeMillis()-start)+" query "+mysqlQuery);
+		} catch(SQLException sqlex)
+		{
+			sqlex.printStackTrace();
+		}
+		finally
+		{
+			try
+			{
+				if( stmt != null )
+					stmt.close();
+				if( myConn != null )
+					myConn.close();
+			} catch(SQLException sqlex)
+			{
+				sqlex.printStackTrace();
+			}
+		}
+		return accumulator;
+	}
+
+
 	public HashIndexGUIDRecord getGUIDStoredUsingHashIndex
 											( String guid, Connection myConn )
 	{
 		long start = System.currentTimeMillis();
-		Statement stmt 			= null;
-		
-		String selectQuery 		= "SELECT * ";
-		String tableName 		= DBConstants.GUID_HASH_TABLE_NAME;
-		
+		PreparedStatement stmt 	= null;
+
 		//JSONObject oldValueJSON = new JSONObject();
 		JSONObject attrValJSON  = new JSONObject();
 		JSONObject unsetAttrJSON = null;
 		JSONArray anonymizedIDMapping = null;
-		
-		selectQuery = selectQuery + " FROM "+tableName+" WHERE nodeGUID = X'"+guid+"'";
-		
+
 		try
 		{
-			stmt = myConn.createStatement();
-			ResultSet rs = stmt.executeQuery(selectQuery);
-					
+			stmt = myConn.prepareStatement(statementTemplates.getHashIndexSelectTemplate());
+			SQLStatementTemplates.bindGUID(stmt, 1, guid);
+			ResultSet rs = stmt.executeQuery();
+
 			while( rs.next() )
 			{
 				ResultSetMetaData rsmd = rs.getMetaData();
-				
+
 				int columnCount = rsmd.getColumnCount();
-				
+
 				// The column count starts from 1
-				for (int i = 1; i <= columnCount; i++ ) 
+				for (int i = 1; i <= columnCount; i++ )
 				{
 					String colName = rsmd.getColumnName(i);
-					
+
 					// doing translation here saves multiple strng to JSON translations later in code.
 					if(colName.equals(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME))
 					{
 						byte[] colValBA = rs.getBytes(colName);
-						
+
 						if(colValBA != null)
 						{
 							if(colValBA.length > 0)
-							{								
-								anonymizedIDMapping 
+							{
+								anonymizedIDMapping
 									= this.deserializeByteArrayToAnonymizedIDJSONArray(colValBA);
 							}
 						}
@@ -374,7 +490,7 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 						try
 						{
 							unsetAttrJSON = new JSONObject(colVal);
-						} catch (JSONException e) 
+						} catch (JSONException e)
 						{
 							e.printStackTrace();
 						}
@@ -382,11 +498,11 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 					else
 					{
 						String colVal = rs.getString(colName);
-						
+
 						try
 						{
 							attrValJSON.put(colName, colVal);
-						} catch (JSONException e) 
+						} catch (JSONException e)
 						{
 							e.printStackTrace();
 						}
@@ -409,21 +525,21 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 				e.printStackTrace();
 			}
 		}
-		
+
 		long end = System.currentTimeMillis();
-		
+
 		if(ContextServiceConfig.PROFILER_ENABLED)
 		{
 			cnsProfiler.addGetGUIDUsingHashIndexTime(end-start);
 		}
-		
+
 		HashIndexGUIDRecord guidRec = new HashIndexGUIDRecord(
 				attrValJSON, unsetAttrJSON, anonymizedIDMapping);
-		
+
 		return guidRec;
 	}
-	
-	
+
+
 	/**
      * Stores GUID in a subspace. The decision to store a guid on this node
      * in this subspace is not made in this function.
@@ -433,7 +549,7 @@ public class SQLGUIDStorage implements GUIDStorageInterface
      * @return
      * @throws JSONException
      */
-    public void storeGUIDUsingHashIndex( String nodeGUID, 
+    public void storeGUIDUsingHashIndex( String nodeGUID,
     		JSONObject jsonToWrite, int updateOrInsert , Connection myConn) throws JSONException
     {
     	long start = System.currentTimeMillis();
@@ -448,13 +564,13 @@ public class SQLGUIDStorage implements GUIDStorageInterface
     				(nodeGUID, jsonToWrite, myConn);
     	}
     	long end = System.currentTimeMillis();
-    	
+
     	if(ContextServiceConfig.PROFILER_ENABLED)
 		{
     		cnsProfiler.addStoreGuidUsingHashIndexTime(end-start);
 		}
     }
-	
+
 	/**
      * Stores GUID in a subspace. The decision to store a guid on this node
      * in this subspace is not made in this function.
@@ -464,40 +580,45 @@ public class SQLGUIDStorage implements GUIDStorageInterface
      * @return
      * @throws JSONException
      */
-    public void storeGUIDUsingAttrIndex( String tableName, String nodeGUID, 
+    public void storeGUIDUsingAttrIndex( String tableName, String nodeGUID,
     		JSONObject updatedAttrValJSON, int updateOrInsert ) throws JSONException
     {
     	long start = System.currentTimeMillis();
+    	boolean applied = false;
     	if( updateOrInsert == DBConstants.INSERT_REC )
     	{
-    		this.performStoreGUIDInSecondarySubspaceInsert
-    			(tableName, nodeGUID, updatedAttrValJSON);	
+    		applied = this.performStoreGUIDInSecondarySubspaceInsert
+    			(tableName, nodeGUID, updatedAttrValJSON);
     	}
     	else if( updateOrInsert == DBConstants.UPDATE_REC )
     	{
-    		this.performStoreGUIDInSecondarySubspaceUpdate
+    		applied = this.performStoreGUIDInSecondarySubspaceUpdate
     				( tableName, nodeGUID, updatedAttrValJSON );
     	}
-    	long end = System.currentTimeMillis();
     	
+    	if( applied )
+    	{
+    		recordAppliedWrite(updatedAttrValJSON);
+    	}
+    	long end = System.currentTimeMillis();
+
     	if(ContextServiceConfig.PROFILER_ENABLED)
 		{
     		cnsProfiler.addStoreGuidUsingAttrIndexTime(end-start);
 		}
     }
-    
+
     public void deleteGUIDFromTable(String tableName, String nodeGUID)
 	{
-		String deleteCommand = "DELETE FROM "+tableName
-							+" WHERE nodeGUID= X'"+nodeGUID+"'";
-		Connection myConn 	= null;
-		Statement stmt 		= null;
-		
+		Connection myConn 		= null;
+		PreparedStatement stmt 	= null;
+
 		try
 		{
 			myConn = this.dataSource.getConnection();
-			stmt = myConn.createStatement();
-			stmt.executeUpdate(deleteCommand);
+			stmt = myConn.prepareStatement(statementTemplates.getDeleteTemplate(tableName));
+			SQLStatementTemplates.bindGUID(stmt, 1, nodeGUID);
+			stmt.executeUpdate();
 		} catch(SQLException sqex)
 		{
 			sqex.printStackTrace();
@@ -506,157 +627,84 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 		{
 			try
 			{
-				if(myConn != null)
-				{
-					myConn.close();
-				}
 				if(	stmt != null )
 				{
 					stmt.close();
 				}
+				if(myConn != null)
+				{
+					myConn.close();
+				}
 			} catch(SQLException sqex)
 			{
 				sqex.printStackTrace();
 			}
 		}
 	}
-    
-    
+
     /**
-	 * Returns the search query, it doesn't execute. This
-	 * is done so that this can be executed as a nested query in privacy case.
-	 * HyperspaceMySQLDB calling this function has more info.
-	 * @param subspaceId
-	 * @param query
-	 * @param resultArray
-	 * @return
-	 */
-	private String getMySQLQueryForProcessingSearchQuery( HashMap<String, AttributeValueRange> 
-			queryAttrValSpace )
-	{		
-		String tableName = DBConstants.ATTR_INDEX_TABLE_NAME;
-		String mysqlQuery = "";	
-		
-		// if privacy is enabled then we also fetch 
-		// anonymizedIDToGuidMapping set.
-		if(ContextServiceConfig.privacyEnabled)
-		{
-			mysqlQuery = "SELECT nodeGUID , "+DBConstants.ANONYMIZEDID_TO_GUID_COLNAME
-					+" from "+tableName+" WHERE ( ";
-		}
-		else
-		{
-			if(ContextServiceConfig.ONLY_RESULT_COUNT_ENABLE)
-			{
-				mysqlQuery = "SELECT COUNT(nodeGUID) AS RESULT_SIZE from "+tableName+" WHERE ( ";
-			}
-			else
-			{
-				mysqlQuery = "SELECT nodeGUID from "+tableName+" WHERE ( ";
-			}
-		}
-		
-		Iterator<String> attrIter = queryAttrValSpace.keySet().iterator();
-		
-		int counter = 0;
-		try
-		{
-			while(attrIter.hasNext())
-			{
-				String attrName = attrIter.next();
-				//ProcessingQueryComponent pqc = queryComponents.get(attrName);
-				AttributeValueRange attrValRange = queryAttrValSpace.get(attrName);
-				AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
-				
-				assert(attrMetaInfo != null);
-				
-				String dataType = attrMetaInfo.getDataType();
-				
-				// normal case of lower value being lesser than the upper value
-				if(AttributeTypes.compareTwoValues(attrValRange.getLowerBound(), 
-												attrValRange.getUpperBound(), dataType))
-				{
-					String queryMin  
-						= AttributeTypes.convertStringToDataTypeForMySQL
-											(attrValRange.getLowerBound(), dataType)+"";
-					String queryMax  
-						= AttributeTypes.convertStringToDataTypeForMySQL
-											(attrValRange.getUpperBound(), dataType)+"";
-					
-					if( counter == (queryAttrValSpace.size()-1) )
-					{
-						// it is assumed that the strings in query(pqc.getLowerBound() or pqc.getUpperBound()) 
-						// will have single or double quotes in them so we don't need to them separately in mysql query
-						mysqlQuery = mysqlQuery + " ( "+attrName +" >= "+queryMin +" AND " 
-								+attrName +" <= "+queryMax+" ) )";
-					}
-					else
-					{
-						mysqlQuery = mysqlQuery + " ( "+attrName +" >= "+queryMin +" AND " 
-												+ attrName +" <= "+queryMax+" ) AND ";
-					}
-				}
-				else
-				{
-					if(counter == (queryAttrValSpace.size()-1) )
-					{
-						String queryMin  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-											(attrMetaInfo.getMinValue(), dataType)+"";
-						String queryMax  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-											(attrValRange.getUpperBound(), dataType)+"";
-						
-						mysqlQuery = mysqlQuery + " ( "
-								+" ( "+attrName +" >= "+queryMin +" AND " 
-								+ attrName +" <= "+queryMax+" ) OR ";
-								
-						queryMin  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-													(attrValRange.getLowerBound(), dataType)+"";
-						queryMax  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-													(attrMetaInfo.getMaxValue(), dataType)+"";
-						
-						mysqlQuery = mysqlQuery +" ( "+attrName +" >= "+queryMin +" AND " 
-								+ attrName +" <= "+queryMax+" ) ) )";
-					}
-					else
-					{
-						String queryMin  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-												(attrMetaInfo.getMinValue(), dataType)+"";
-						String queryMax  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-												(attrValRange.getUpperBound(), dataType)+"";
-						
-						mysqlQuery = mysqlQuery + " ( "
-								+ " ( "+attrName +" >= "+queryMin +" AND " 
-								+ attrName +" <= "+queryMax+" ) OR ";
-								
-						queryMin  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-										(attrValRange.getLowerBound(), dataType)+"";
-						queryMax  
-							= AttributeTypes.convertStringToDataTypeForMySQL
-										(attrMetaInfo.getMaxValue(), dataType)+"";
-						
-						mysqlQuery = mysqlQuery +" ( "+attrName +" >= "+queryMin +" AND " 
-								+attrName +" <= "+queryMax+" ) ) AND ";
-					}
-				}
-				
-				counter++;
-			}
-			return mysqlQuery;
-		} catch(Exception | Error ex)
-		{
-			ex.printStackTrace();
-		}
-		return null;
-	}
-	
+     * Samples the attribute values of an insert or update of the attribute 
+     * index for the search planner, called once the write is applied.
+     */
+    public void recordAppliedWrite( JSONObject updatedAttrValJSON )
+    {
+    	if( queryPlanner != null )
+    	{
+    		queryPlanner.recordWrite(updatedAttrValJSON);
+    	}
+    }
     
+    /**
+     * Adds an insert or update of a GUID in the attribute index table
+     * to a batch, instead of executing it on its own connection.
+     * The caller executes and commits the batch, and records the 
+     * write with recordAppliedWrite once it is committed.
+     * @param batch
+     * @param tableName
+     * @param nodeGUID
+     * @param updatedAttrValJSON
+     * @param updateOrInsert
+     * @throws SQLException
+     * @throws JSONException
+     */
+    public void addGUIDStoreToBatch( SQLStatementBatch batch, String tableName,
+    		String nodeGUID, JSONObject updatedAttrValJSON, int updateOrInsert )
+    				throws SQLException, JSONException
+    {
+    	String sqlTemplate = null;
+    	if( updateOrInsert == DBConstants.INSERT_REC )
+    	{
+    		sqlTemplate = statementTemplates.getInsertTemplate(tableName, updatedAttrValJSON);
+    	}
+    	else
+    	{
+    		assert( updateOrInsert == DBConstants.UPDATE_REC );
+    		sqlTemplate = statementTemplates.getUpdateTemplate(tableName, updatedAttrValJSON);
+    	}
+
+    	PreparedStatement pstmt = batch.getStatement(sqlTemplate);
+    	int paramIndex = bindColumnValues(pstmt, updatedAttrValJSON);
+    	SQLStatementTemplates.bindGUID(pstmt, paramIndex, nodeGUID);
+    	batch.addRow();
+    }
+
+    /**
+     * Adds a delete of a GUID to a batch.
+     * @param batch
+     * @param tableName
+     * @param nodeGUID
+     * @throws SQLException
+     */
+    public void addGUIDDeleteToBatch( SQLStatementBatch batch, String tableName,
+    		String nodeGUID ) throws SQLException
+    {
+    	PreparedStatement pstmt = batch.getStatement
+    				(statementTemplates.getDeleteTemplate(tableName));
+    	SQLStatementTemplates.bindGUID(pstmt, 1, nodeGUID);
+    	batch.addRow();
+    }
+
+
 	/**
 	 * only need to update attributes in atToValRep,
 	 *  as other attributes are already there.
@@ -664,95 +712,40 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 	 * @param nodeGUID
 	 * @param atrToValueRep
 	 */
-	private void performStoreGUIDInSecondarySubspaceUpdate( 
+	private boolean performStoreGUIDInSecondarySubspaceUpdate(
 			String tableName, String nodeGUID, JSONObject toWriteJSON )
 	{
 		ContextServiceLogger.getLogger().fine("STARTED "
 				+ " performStoreGUIDInSecondarySubspaceUpdate "+tableName
 				+ " nodeGUID "+nodeGUID);
-    	
+
         Connection myConn      			= null;
-        Statement stmt         			= null;
-        
-        String updateSqlQuery     		= "UPDATE "+tableName
-                + " SET ";
-        
+
         try
         {
-        	@SuppressWarnings("unchecked")
-			Iterator<String> colIter 	= toWriteJSON.keys();
-        	int i = 0;
-	        while( colIter.hasNext() )
-	        {
-	            String colName = colIter.next();  
-	            //AttrValueRepresentationJSON attrValRep 
-	            //		= atrToValueRep.get(attrName);
-	            String colValue = "";
-	            
-	            if( colName.equals(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
-	            {
-	            	JSONArray jsonArr  = toWriteJSON.getJSONArray
-	            					(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
-	            	
-	            	assert( jsonArr.length() > 0 );
-	            	
-	            	byte[] fullBArray = this.serializeAnonymizedIDJSONArrayToByteArray(jsonArr);
-	            	
-	            	colValue = "X'"+Utils.byteArrayToHex(fullBArray)+"'";
-	            }
-	            else
-	            {
-	            	String newVal   = toWriteJSON.getString(colName);
-		            
-		            AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(colName);
-					assert(attrMetaInfo != null);
-		            String dataType = attrMetaInfo.getDataType();
-					
-		            colValue = AttributeTypes.convertStringToDataTypeForMySQL
-							(newVal, dataType)+"";	
-	            }
-	            
-				
-	            //oldValueJSON.put(attrName, AttributeTypes.NOT_SET);
-	           
-	            if(i == 0)
-	            {
-	                updateSqlQuery = updateSqlQuery + colName +" = "+colValue;
-	            }
-	            else
-	            {
-	                updateSqlQuery = updateSqlQuery +" , "+ colName +" = "+colValue;
-	            }
-	            i++;
-	        }
-	        
-	        updateSqlQuery = updateSqlQuery + " WHERE nodeGUID = X'"+nodeGUID+"'";
-            
+        	String updateSqlQuery = statementTemplates.getUpdateTemplate(tableName, toWriteJSON);
+
             myConn = this.dataSource.getConnection();
-            stmt = myConn.createStatement();
-            
-        	// if update fails then insert
-        	int rowCount = stmt.executeUpdate(updateSqlQuery);
-        	
-        	// update failed try insert
+
+        	int rowCount = executeGUIDWrite(updateSqlQuery, nodeGUID, toWriteJSON, myConn);
+
         	if(rowCount == 0)
         	{
         		ContextServiceLogger.getLogger().fine("ASSERTION FAIL");
         		// should not happen, rowCount should always be 1
         		assert(false);
         	}
-        } 
+        	return true;
+        }
         catch ( Exception  | Error ex )
         {
             ex.printStackTrace();
-        } 
+            return false;
+        }
         finally
         {
             try
             {
-                if ( stmt != null )
-                    stmt.close();
-                
                 if ( myConn != null )
                     myConn.close();
             }
@@ -762,111 +755,39 @@ public class SQLGUIDStorage implements GUIDStorageInterface
             }
         }
 	}
-	
-	@SuppressWarnings("unchecked")
-	private void performStoreGUIDInSecondarySubspaceInsert( String tableName, String nodeGUID, 
+
+	private boolean performStoreGUIDInSecondarySubspaceInsert( String tableName, String nodeGUID,
     		JSONObject toWriteJSON )
 	{
 		ContextServiceLogger.getLogger().fine( "STARTED performStoreGUIDInSubspaceInsert "
 				+tableName+" nodeGUID "+nodeGUID );
-    	
+
         Connection myConn      	   = null;
-        Statement stmt         	   = null;
-        
-        String insertQuery         = "INSERT INTO "+tableName+ " (";
-        
+
         try
         {
-        	// insert happens for all attributes,
-        	// updated attributes are taken from atrToValueRep and
-        	// other attributes are taken from oldValJSON
-			Iterator<String> colIter = toWriteJSON.keys();
-    		
-        	boolean first = true;
-        	// just a way to iterate over attributes.
-    		while( colIter.hasNext() )
-    		{
-    			String colName = colIter.next();
-//    			String currAttrName = attrIter.next();
-				if(first)
-	            {
-	                insertQuery = insertQuery + colName;
-	                first = false;
-	            }
-	            else
-	            {
-	                insertQuery = insertQuery +", "+colName;
-	            }
-    		}
-    		insertQuery = insertQuery + ", nodeGUID) " + "VALUES"+ "(";
-    		
-    		first = true;
-    		colIter = toWriteJSON.keys();
-        	// just a way to iterate over attributes.
-    		while( colIter.hasNext() )
-    		{
-    			String colName = colIter.next();
-    			// at least one replica and all replica have same default value for each attribute.
-    			
-				String colValue = "";
-				
-				if(colName.equals(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME))
-				{
-					JSONArray jsonArr = toWriteJSON.getJSONArray
-										(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
-					assert(jsonArr != null);
-					assert( jsonArr.length() > 0 );
-	            	
-	            	byte[] fullBArray = this.serializeAnonymizedIDJSONArrayToByteArray(jsonArr);
-	            	
-	            	colValue = "X'"+Utils.byteArrayToHex(fullBArray)+"'";
-				}
-				else
-				{
-					colValue = toWriteJSON.getString(colName);
-    				
-    				AttributeMetaInfo attrMetaInfo 
-    							= AttributeTypes.attributeMap.get(colName);
-    				assert(attrMetaInfo != null);
-    			    String dataType = attrMetaInfo.getDataType();
-    				
-    			    colValue = AttributeTypes.convertStringToDataTypeForMySQL
-    						(colValue, dataType)+"";
-				}
-			    
-				if(first)
-	            {
-					insertQuery = insertQuery + colValue;
-	                first = false;
-	            }
-	            else
-	            {
-	            	insertQuery = insertQuery +" , "+colValue;
-	            }
-    		}
-    		insertQuery = insertQuery +" , X'"+nodeGUID+"' )";
-    		
+        	String insertQuery = statementTemplates.getInsertTemplate(tableName, toWriteJSON);
+
     		myConn = this.dataSource.getConnection();
-            stmt = myConn.createStatement();  
-            
+
     		ContextServiceLogger.getLogger().fine
     					(this.myNodeID+" EXECUTING INSERT "+insertQuery);
-    		int rowCount = stmt.executeUpdate(insertQuery);
-    		
+
+    		int rowCount = executeGUIDWrite(insertQuery, nodeGUID, toWriteJSON, myConn);
+
     		ContextServiceLogger.getLogger().fine
     					(this.myNodeID+" EXECUTING INSERT rowCount "
     					+rowCount+" insertQuery "+insertQuery);
+    		return true;
         }
         catch ( Exception | Error ex )
         {
             ex.printStackTrace();
+            return false;
         } finally
         {
             try
             {
-                if ( stmt != null )
-                    stmt.close();
-                
                 if ( myConn != null )
                     myConn.close();
             }
@@ -876,7 +797,7 @@ public class SQLGUIDStorage implements GUIDStorageInterface
             }
         }
 	}
-	
+
 	/**
 	 * Only need to update attributes in atToValRep,
 	 * as other attribtues are already there.
@@ -884,88 +805,22 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 	 * @param nodeGUID
 	 * @param atrToValueRep
 	 */
-	private void performStoreGUIDInPrimarySubspaceUpdate( String nodeGUID, 
+	private void performStoreGUIDInPrimarySubspaceUpdate( String nodeGUID,
     		JSONObject jsonToWrite, Connection myConn )
 	{
 		ContextServiceLogger.getLogger().fine(
 				"performStoreGUIDInPrimarySubspaceUpdate "
 				+ DBConstants.GUID_HASH_TABLE_NAME
 				+ " nodeGUID "+nodeGUID);
-		
-        Statement stmt         		= null;
+
         String tableName 			= DBConstants.GUID_HASH_TABLE_NAME;
-        
-        String updateSqlQuery     	= "UPDATE "+tableName+ " SET ";
-        
+
         try
         {
-        	@SuppressWarnings("unchecked")
-			Iterator<String> colNameIter = jsonToWrite.keys();
-        	int i = 0;
-	        
-        	while( colNameIter.hasNext() )
-	        {
-	            String colName  = colNameIter.next();
-	            String colValue = "";
-	            
-	            if( colName.equals(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
-	            {
-	            	JSONArray anonymizedIDToGuidList = jsonToWrite.getJSONArray(
-	            			DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
-	            	
-	            	// if it is null in no privacy case, then it should be even inserted 
-	            	// in towritejson.
-	            	assert( anonymizedIDToGuidList != null );
-	            	assert( anonymizedIDToGuidList.length() > 0 );
-	            	
-	            	byte[] fullBArray = this.serializeAnonymizedIDJSONArrayToByteArray
-	            				(anonymizedIDToGuidList);
-	            	
-	            	colValue = "X'"+Utils.byteArrayToHex(fullBArray)+"'";
-	            }
-	            else if( colName.equals(DBConstants.UNSET_ATTR_COLNAME) )
-	            {
-	            	JSONObject unsetAttrsJSON 
-	            					= jsonToWrite.getJSONObject(DBConstants.UNSET_ATTR_COLNAME);
-	            	
-	            	assert(unsetAttrsJSON != null);
-	            	
-	            	colValue = "'"+unsetAttrsJSON.toString()+"'";
-	            }
-	            else // else case can only be of attribute names.
-	            {
-	            	assert( AttributeTypes.attributeMap.containsKey(colName) );
-	            	
-	            	String attrVal   = jsonToWrite.getString(colName);
-		            
-		            AttributeMetaInfo attrMetaInfo 
-		            			= AttributeTypes.attributeMap.get(colName);
-					assert(attrMetaInfo != null);
-		            String dataType = attrMetaInfo.getDataType();
-					
-		            colValue = AttributeTypes.convertStringToDataTypeForMySQL
-							(attrVal, dataType)+"";
-	            }
-	            
-	            if( i == 0 )
-	            {
-	                updateSqlQuery = updateSqlQuery + colName +" = "+colValue;
-	            }
-	            else
-	            {
-	                updateSqlQuery = updateSqlQuery +" , "+ colName +" = "+colValue;
-	            }
-	            i++;
-	        }
-            
-	        updateSqlQuery = updateSqlQuery + " WHERE nodeGUID = X'"+nodeGUID+"'";
-            
-            stmt = myConn.createStatement();
-            
-        	// if update fails then insert
-        	int rowCount = stmt.executeUpdate(updateSqlQuery);
-        	
-        	// update failed try insert
+        	String updateSqlQuery = statementTemplates.getUpdateTemplate(tableName, jsonToWrite);
+
+        	int rowCount = executeGUIDWrite(updateSqlQuery, nodeGUID, jsonToWrite, myConn);
+
         	if(rowCount == 0)
         	{
         		// should not happen, rowCount should always be 1
@@ -974,142 +829,88 @@ public class SQLGUIDStorage implements GUIDStorageInterface
         } catch ( Exception  | Error ex )
         {
             ex.printStackTrace();
-        } finally
-        {
-            try
-            {
-                if ( stmt != null )
-                    stmt.close();
-            }
-            catch( SQLException e )
-            {
-            	e.printStackTrace();
-            }
         }
 	}
-	
-	@SuppressWarnings("unchecked")
+
 	private void performStoreGUIDInPrimarySubspaceInsert
 					( String nodeGUID, JSONObject jsonToWrite , Connection myConn)
 	{
 		ContextServiceLogger.getLogger().fine("performStoreGUIDInPrimarySubspaceInsert "
 				+DBConstants.GUID_HASH_TABLE_NAME+" nodeGUID "+nodeGUID );
-		
-        Statement stmt         	   = null;
-        
+
         String tableName = DBConstants.GUID_HASH_TABLE_NAME;
-        
-        // delayed insert performs better than just insert
-        String insertQuery         = "INSERT INTO "+tableName+ " (";
-        
+
         try
         {
-			Iterator<String> colIter = jsonToWrite.keys();
-        	
-        	boolean first = true;
-        	// just a way to iterate over attributes.
-    		while( colIter.hasNext() )
-    		{
-				String colName = colIter.next();
-				
-				if( first )
-	            {
-	                insertQuery = insertQuery + colName;
-	                first = false;
-	            }
-	            else
-	            {
-	                insertQuery = insertQuery +", "+colName;
-	            }
-    		}
-    		
-    		insertQuery = insertQuery + ", nodeGUID) " + "VALUES"+ "(";
-    		
-    		first = true;
-    		colIter = jsonToWrite.keys();
-    		
-			while( colIter.hasNext() )
-			{
-				String colName = colIter.next();
-				String colValue = "";
-				
-				if( colName.equals(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
-	            {
-	            	JSONArray anonymizedIDToGuidList = jsonToWrite.getJSONArray(
-	            			DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
-	            	
-	            	// if it is null in no privacy case, then it should be even inserted 
-	            	// in towritejson.
-	            	assert( anonymizedIDToGuidList != null );
-	            	assert( anonymizedIDToGuidList.length() > 0 );
-	            	
-	            	byte[] fullBArray = this.serializeAnonymizedIDJSONArrayToByteArray(anonymizedIDToGuidList);
-	            	
-	            	//System.out.println("fullBArray "+fullBArray.length);
-	            	colValue = "X'"+Utils.byteArrayToHex(fullBArray)+"'";
-	            }
-	            else if( colName.equals(DBConstants.UNSET_ATTR_COLNAME) )
-	            {
-	            	JSONObject unsetAttrsJSON 
-	            					= jsonToWrite.getJSONObject(DBConstants.UNSET_ATTR_COLNAME);
-	            	
-	            	assert(unsetAttrsJSON != null);
-	            	
-	            	colValue = "'"+unsetAttrsJSON.toString()+"'";
-	            }
-	            else // else case can only be of attribute names.
-	            {
-	            	assert( AttributeTypes.attributeMap.containsKey(colName) );
-	            	
-	            	String attrVal   = jsonToWrite.getString(colName);
-		            
-		            AttributeMetaInfo attrMetaInfo 
-		            			= AttributeTypes.attributeMap.get(colName);
-					assert(attrMetaInfo != null);
-		            String dataType = attrMetaInfo.getDataType();
-					
-		            colValue = AttributeTypes.convertStringToDataTypeForMySQL
-							(attrVal, dataType)+"";
-	            }
-			    
-				if( first )
-	            {
-					insertQuery = insertQuery + colValue;
-	                first = false;
-	            }
-	            else
-	            {
-	            	insertQuery = insertQuery +" , "+colValue;
-	            }
-			}
-			
-			insertQuery = insertQuery +" , X'"+nodeGUID+"' )";
-			
-            stmt = myConn.createStatement();  
-            
+        	String insertQuery = statementTemplates.getInsertTemplate(tableName, jsonToWrite);
+
     		ContextServiceLogger.getLogger().fine(this.myNodeID+" EXECUTING INSERT "+insertQuery);
-    		
-    		int rowCount = stmt.executeUpdate(insertQuery);
-    		
+
+    		int rowCount = executeGUIDWrite(insertQuery, nodeGUID, jsonToWrite, myConn);
+
     		ContextServiceLogger.getLogger().fine(this.myNodeID+" EXECUTING INSERT rowCount "+rowCount
-    					+" insertQuery "+insertQuery);	
+    					+" insertQuery "+insertQuery);
         }
         catch ( Exception  | Error ex )
         {
         	ex.printStackTrace();
         }
-        finally
-        {
-            try
-            {
-                if ( stmt != null )
-                    stmt.close();
-            }
-            catch(SQLException e)
-            {
-            	e.printStackTrace();
-            }
-        }
+	}
+
+	/**
+	 * Prepares the insert or update template, binds the column values
+	 * and the nodeGUID, and executes it. Returns the number of rows updated.
+	 */
+	private int executeGUIDWrite( String sqlTemplate, String nodeGUID,
+			JSONObject toWriteJSON, Connection myConn ) throws SQLException, JSONException
+	{
+		PreparedStatement pstmt = null;
+		try
+		{
+			pstmt = myConn.prepareStatement(sqlTemplate);
+			int paramIndex = bindColumnValues(pstmt, toWriteJSON);
+			SQLStatementTemplates.bindGUID(pstmt, paramIndex, nodeGUID);
+			return pstmt.executeUpdate();
+		}
+		finally
+		{
+			if( pstmt != null )
+				pstmt.close();
+		}
+	}
+
+	/**
+	 * Binds the columns of toWriteJSON in the order of the
+	 * SQLStatementTemplates insert and update templates.
+	 * Returns the parameter index of the nodeGUID.
+	 */
+	private int bindColumnValues( PreparedStatement pstmt, JSONObject toWriteJSON )
+			throws SQLException, JSONException
+	{
+		int paramIndex = statementTemplates.bindAttributeColumns(pstmt, toWriteJSON);
+
+		if( toWriteJSON.has(DBConstants.UNSET_ATTR_COLNAME) )
+		{
+			JSONObject unsetAttrsJSON
+				= toWriteJSON.getJSONObject(DBConstants.UNSET_ATTR_COLNAME);
+			assert(unsetAttrsJSON != null);
+			pstmt.setString(paramIndex++, unsetAttrsJSON.toString());
+		}
+
+		if( toWriteJSON.has(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME) )
+		{
+			JSONArray anonymizedIDToGuidList = toWriteJSON.getJSONArray(
+					DBConstants.ANONYMIZEDID_TO_GUID_COLNAME);
+
+			// if it is null in no privacy case, then it should be even inserted
+			// in towritejson.
+			assert( anonymizedIDToGuidList != null );
+			assert( anonymizedIDToGuidList.length() > 0 );
+
+			pstmt.setBytes(paramIndex++,
+					this.serializeAnonymizedIDJSONArrayToByteArray(anonymizedIDToGuidList));
+		}
+		return paramIndex;
 	}
 	
 	
@@ -1146,6 +947,24 @@ public class SQLGUIDStorage implements GUIDStorageInterface
 							+" , "+ "INDEX USING BTREE("+attrName+")";
 			}
 		}
+		
+		if( ContextServiceConfig.sqlDBType == SQL_DB_TYPE.MYSQL )
+		{
+			List<String[]> compositeIndexes 
+				= SearchQueryPlanner.parseCompositeIndexes(ContextServiceConfig.searchCompositeIndexes);
+			for( int i=0; i<compositeIndexes.size(); i++ )
+			{
+				String[] indexAttrs = compositeIndexes.get(i);
+				String indexCols = indexAttrs[0];
+				for( int j=1; j<indexAttrs.length; j++ )
+				{
+					indexCols = indexCols + ", "+indexAttrs[j];
+				}
+				newTableCommand = newTableCommand +" , "+ "INDEX "
+						+SearchQueryPlanner.getCompositeIndexName(indexAttrs)
+						+" USING BTREE("+indexCols+")";
+			}
+		}
 		return newTableCommand;
 	}
 	
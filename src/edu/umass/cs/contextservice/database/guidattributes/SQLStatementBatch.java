@@ -0,0 +1,128 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Coalesces row writes on one connection into JDBC batches.
+ * Consecutive rows that use the same SQL template go into one batch.
+ * When the template changes, the pending batch is executed first,
+ * so rows are applied in the order they were added.
+ * Prepared statements are reused across batches until close.
+ * This class is not thread safe; it is used by one writer at a time.
+ * @author ayadav
+ */
+public class SQLStatementBatch
+{
+	private final Connection myConn;
+
+	private final HashMap<String, PreparedStatement> statementMap;
+
+	private PreparedStatement currStmt;
+	private int numPendingRows;
+	private int numRowsUpdated;
+
+	public SQLStatementBatch( Connection myConn )
+	{
+		this.myConn = myConn;
+		this.statementMap = new HashMap<String, PreparedStatement>();
+		this.currStmt = null;
+		this.numPendingRows = 0;
+		this.numRowsUpdated = 0;
+	}
+
+	public Connection getConnection()
+	{
+		return myConn;
+	}
+
+	/**
+	 * Returns the prepared statement for the template, to be bound by
+	 * the caller and then added with addRow. If the template differs from
+	 * the previous one, the rows pending on the previous statement are
+	 * executed first.
+	 * @throws SQLException
+	 */
+	public PreparedStatement getStatement( String sqlTemplate ) throws SQLException
+	{
+		PreparedStatement pstmt = statementMap.get(sqlTemplate);
+
+		if( pstmt == null )
+		{
+			pstmt = myConn.prepareStatement(sqlTemplate);
+			statementMap.put(sqlTemplate, pstmt);
+		}
+
+		if( pstmt != currStmt )
+		{
+			executePending();
+			currStmt = pstmt;
+		}
+		return pstmt;
+	}
+
+	/**
+	 * Adds the currently bound parameters of the statement returned by
+	 * the last getStatement call as a row of the batch.
+	 * @throws SQLException
+	 */
+	public void addRow() throws SQLException
+	{
+		assert( currStmt != null );
+		currStmt.addBatch();
+		numPendingRows++;
+	}
+
+	/**
+	 * Executes all pending rows and returns the number of rows
+	 * updated since this batch was created.
+	 * Commit is left to the caller.
+	 * @throws SQLException
+	 */
+	public int execute() throws SQLException
+	{
+		executePending();
+		return numRowsUpdated;
+	}
+
+	public void close()
+	{
+		Iterator<PreparedStatement> stmtIter = statementMap.values().iterator();
+		while( stmtIter.hasNext() )
+		{
+			try
+			{
+				stmtIter.next().close();
+			}
+			catch( SQLException sqlex )
+			{
+				sqlex.printStackTrace();
+			}
+		}
+		statementMap.clear();
+		currStmt = null;
+		numPendingRows = 0;
+	}
+
+	private void executePending() throws SQLException
+	{
+		if( (currStmt == null) || (numPendingRows == 0) )
+			return;
+
+		int[] counts = currStmt.executeBatch();
+		numPendingRows = 0;
+
+		for( int i=0; i<counts.length; i++ )
+		{
+			// Statement.SUCCESS_NO_INFO is negative, when the
+			// driver rewrites a batch into a multi-row statement.
+			if( counts[i] > 0 )
+			{
+				numRowsUpdated = numRowsUpdated + counts[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,934 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.utils.Utils;
+
+/**
+ * Caches parameterized SQL templates used by SQLGUIDStorage.
+ * A template is keyed by the shape of a request, i.e., the set of
+ * attributes in a search query, with circular ranges marked separately,
+ * or the set of columns in an insert or update. Queries and writes
+ * with the same shape share one SQL string, so the JDBC driver and the
+ * connection pool can reuse the prepared statement instead of parsing
+ * a new literal string on every request.
+ *
+ * Placeholders are always generated in the order of
+ * AttributeTypes.attributeInOrderList followed by the unset attribute
+ * and anonymized ID columns, and the bind methods in this class follow
+ * the same order.
+ * @author ayadav
+ */
+public class SQLStatementTemplates
+{
+	private static final char SEARCH_OP					= 'S';
+	private static final char AGGREGATE_OP				= 'A';
+	private static final char INSERT_OP					= 'I';
+	private static final char UPDATE_OP					= 'U';
+
+	private static final char ATTR_ABSENT				= '0';
+	private static final char ATTR_PRESENT				= '1';
+	private static final char ATTR_CIRCULAR				= '2';
+	private static final char BOX_SEPARATOR				= '+';
+
+	private final List<String> attrOrderList;
+
+	// key is operation, table name and shape, value is the SQL template.
+	private final ConcurrentHashMap<String, String> templateMap;
+
+	private final String hashIndexSelectTemplate;
+
+	public SQLStatementTemplates( List<String> attrOrderList )
+	{
+		this.attrOrderList = attrOrderList;
+		this.templateMap = new ConcurrentHashMap<String, String>();
+
+		this.hashIndexSelectTemplate = "SELECT * FROM "+DBConstants.GUID_HASH_TABLE_NAME
+				+" WHERE nodeGUID = ?";
+	}
+
+	public String getHashIndexSelectTemplate()
+	{
+		return hashIndexSelectTemplate;
+	}
+
+	public String getDeleteTemplate( String tableName )
+	{
+		return "DELETE FROM "+tableName+" WHERE nodeGUID = ?";
+	}
+
+	/**
+	 * Returns the search template for the attribute-index table.
+	 * A circular range, where the lower bound is greater than the upper bound,
+	 * is split into two ORed ranges, [min, upper] and [lower, max],
+	 * the same as in the earlier string based query.
+	 * @param queryAttrValSpace
+	 * @return
+	 */
+	public String getSearchTemplate( HashMap<String, AttributeValueRange> queryAttrValSpace )
+	{
+		return getSearchTemplate(queryAttrValSpace, null);
+	}
+
+	/**
+	 * Returns the search template with the index hints of the plan,
+	 * or without hints if the plan is null.
+	 * An index intersection scans the two indexes in derived tables,
+	 * which select DISTINCT so that MySQL materializes them instead of
+	 * merging them into the outer query, and joins them with STRAIGHT_JOIN
+	 * before the rows are read by primary key.
+	 */
+	public String getSearchTemplate( HashMap<String, AttributeValueRange> queryAttrValSpace,
+			SearchQueryPlan plan )
+	{
+		return getSearchTemplate(queryAttrValSpace, plan, SearchQueryOptions.NO_OPTIONS);
+	}
+
+	/**
+	 * Returns the search template with the index hints of the plan and
+	 * the ORDER BY and LIMIT of the options. With ORDER BY, the ORDER BY
+	 * attribute is also selected. The limit is a placeholder, bound
+	 * after the ranges, and not used if only the result count is fetched.
+	 */
+	public String getSearchTemplate( HashMap<String, AttributeValueRange> queryAttrValSpace,
+			SearchQueryPlan plan, SearchQueryOptions queryOptions )
+	{
+		String tableName = DBConstants.ATTR_INDEX_TABLE_NAME;
+		StringBuilder keyBuilder = new StringBuilder(tableName.length()+attrOrderList.size()+1);
+		keyBuilder.append(SEARCH_OP);
+
+		appendShape(keyBuilder, queryAttrValSpace);
+		if( plan != null )
+		{
+			keyBuilder.append(plan.getKey());
+		}
+		boolean orderBy = hasOrderBy(queryOptions);
+		appendOptionsKey(keyBuilder, queryOptions);
+		keyBuilder.append(tableName);
+		String key = keyBuilder.toString();
+
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		boolean intersect = (plan != null)
+				&& (plan.getStrategy() == SearchQueryPlan.Strategy.INDEX_INTERSECTION);
+		String colPrefix = intersect? "T." : "";
+		String orderCol = orderBy? (" , "+colPrefix+queryOptions.getOrderByAttr()) : "";
+		StringBuilder sqlBuilder = new StringBuilder();
+
+		appendSearchColumns(sqlBuilder, intersect, colPrefix, orderCol);
+
+		if( intersect )
+		{
+			String[] intersectAttrs = plan.getIntersectAttrs();
+			for( int i=0; i<intersectAttrs.length; i++ )
+			{
+				String attrName = intersectAttrs[i];
+				String alias = "I"+i;
+				if( i > 0 )
+				{
+					sqlBuilder.append(" INNER JOIN ");
+				}
+				sqlBuilder.append("( SELECT DISTINCT nodeGUID from "+tableName
+						+" FORCE INDEX ("+attrName+") WHERE ");
+				appendRangeCondition(sqlBuilder, attrName,
+						key.charAt(1+attrOrderList.indexOf(attrName)));
+				sqlBuilder.append(" ) AS "+alias);
+				if( i > 0 )
+				{
+					sqlBuilder.append(" ON "+alias+".nodeGUID = I0.nodeGUID");
+				}
+			}
+			sqlBuilder.append(" INNER JOIN "+tableName
+					+" AS T ON T.nodeGUID = I0.nodeGUID WHERE ( ");
+		}
+		else
+		{
+			sqlBuilder.append(tableName);
+			if( plan != null )
+			{
+				sqlBuilder.append(plan.getStrategy() == SearchQueryPlan.Strategy.TABLE_SCAN?
+						" IGNORE INDEX (" : " FORCE INDEX (");
+				String[] indexNames = plan.getIndexNames();
+				for( int i=0; i<indexNames.length; i++ )
+				{
+					if( i > 0 )
+						sqlBuilder.append(", ");
+					sqlBuilder.append(indexNames[i]);
+				}
+				sqlBuilder.append(")");
+			}
+			sqlBuilder.append(" WHERE ( ");
+		}
+
+		boolean first = true;
+		int index = 1;
+		for( String attrName : attrOrderList )
+		{
+			char state = key.charAt(index++);
+			// the ranges of an intersection are checked in the derived tables.
+			if( (state == ATTR_ABSENT) || (intersect && isIntersectAttr(plan, attrName)) )
+				continue;
+
+			if( !first )
+			{
+				sqlBuilder.append(" AND ");
+			}
+			first = false;
+			appendRangeCondition(sqlBuilder, colPrefix+attrName, state);
+		}
+		if( first )
+		{
+			// an intersection of all the query attributes.
+			sqlBuilder.append(" 1 = 1");
+		}
+		sqlBuilder.append(" )");
+
+		appendSearchOptions(sqlBuilder, colPrefix, queryOptions);
+
+		template = sqlBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Binds the query ranges in the order of the search template.
+	 * Returns the next free parameter index.
+	 * @throws SQLException
+	 */
+	public int bindSearchValues( PreparedStatement pstmt,
+			HashMap<String, AttributeValueRange> queryAttrValSpace ) throws SQLException
+	{
+		return bindSearchValues(pstmt, queryAttrValSpace, null);
+	}
+
+	/**
+	 * Binds the query ranges in the order of the search template of the plan,
+	 * the ranges of an intersection come first.
+	 * Returns the next free parameter index.
+	 * @throws SQLException
+	 */
+	public int bindSearchValues( PreparedStatement pstmt,
+			HashMap<String, AttributeValueRange> queryAttrValSpace, SearchQueryPlan plan )
+					throws SQLException
+	{
+		return bindSearchValues(pstmt, queryAttrValSpace, plan, SearchQueryOptions.NO_OPTIONS);
+	}
+
+	/**
+	 * Binds the query ranges in the order of the search template of the plan,
+	 * followed by the limit of the options.
+	 * Returns the next free parameter index.
+	 * @throws SQLException
+	 */
+	public int bindSearchValues( PreparedStatement pstmt,
+			HashMap<String, AttributeValueRange> queryAttrValSpace, SearchQueryPlan plan,
+			SearchQueryOptions queryOptions ) throws SQLException
+	{
+		boolean intersect = (plan != null)
+				&& (plan.getStrategy() == SearchQueryPlan.Strategy.INDEX_INTERSECTION);
+		int paramIndex = 1;
+
+		if( intersect )
+		{
+			String[] intersectAttrs = plan.getIntersectAttrs();
+			for( int i=0; i<intersectAttrs.length; i++ )
+			{
+				paramIndex = bindRange(pstmt, paramIndex, intersectAttrs[i],
+						queryAttrValSpace.get(intersectAttrs[i]));
+			}
+		}
+
+		for( String attrName : attrOrderList )
+		{
+			AttributeValueRange attrValRange = queryAttrValSpace.get(attrName);
+			if( (attrValRange == null) || (intersect && isIntersectAttr(plan, attrName)) )
+				continue;
+
+			paramIndex = bindRange(pstmt, paramIndex, attrName, attrValRange);
+		}
+
+		if( hasLimitPlaceholder(queryOptions) )
+		{
+			pstmt.setInt(paramIndex++, queryOptions.getResultLimit());
+		}
+		return paramIndex;
+	}
+
+	/**
+	 * Returns the search template for the union of the boxes of a query,
+	 * which are ORed in one statement so that each matching GUID is
+	 * returned once. A single box gets the template of the plan, the
+	 * union has no index hints and MySQL may merge the indexes for it.
+	 */
+	public String getSearchTemplate( List<HashMap<String, AttributeValueRange>> queryBoxes,
+			SearchQueryPlan plan, SearchQueryOptions queryOptions )
+	{
+		if( queryBoxes.size() == 1 )
+			return getSearchTemplate(queryBoxes.get(0), plan, queryOptions);
+
+		String tableName = DBConstants.ATTR_INDEX_TABLE_NAME;
+		StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder.append(SEARCH_OP);
+		appendBoxShapes(keyBuilder, queryBoxes);
+		appendOptionsKey(keyBuilder, queryOptions);
+		keyBuilder.append(tableName);
+		String key = keyBuilder.toString();
+
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		String orderCol = hasOrderBy(queryOptions)? (" , "+queryOptions.getOrderByAttr()) : "";
+		StringBuilder sqlBuilder = new StringBuilder();
+		appendSearchColumns(sqlBuilder, false, "", orderCol);
+		sqlBuilder.append(tableName+" WHERE ");
+		appendUnionCondition(sqlBuilder, key, queryBoxes.size());
+		appendSearchOptions(sqlBuilder, "", queryOptions);
+
+		template = sqlBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Binds the ranges of each box, in the order of the union search template,
+	 * followed by the limit of the options.
+	 * Returns the next free parameter index.
+	 * @throws SQLException
+	 */
+	public int bindSearchValues( PreparedStatement pstmt,
+			List<HashMap<String, AttributeValueRange>> queryBoxes, SearchQueryPlan plan,
+			SearchQueryOptions queryOptions ) throws SQLException
+	{
+		if( queryBoxes.size() == 1 )
+			return bindSearchValues(pstmt, queryBoxes.get(0), plan, queryOptions);
+
+		int paramIndex = 1;
+		for( int i=0; i<queryBoxes.size(); i++ )
+		{
+			paramIndex = bindBoxRanges(pstmt, paramIndex, queryBoxes.get(i));
+		}
+
+		if( hasLimitPlaceholder(queryOptions) )
+		{
+			pstmt.setInt(paramIndex++, queryOptions.getResultLimit());
+		}
+		return paramIndex;
+	}
+
+	/**
+	 * Returns the template of an aggregate query, which selects COUNT(*) and,
+	 * for each aggregate, the count, sum, min and max of its attribute,
+	 * without the sum for a String attribute, or for a histogram the count 
+	 * of each bucket. The bucket bounds are placeholders before the ranges.
+	 */
+	public String getAggregateTemplate( HashMap<String, AttributeValueRange> queryAttrValSpace,
+			SearchAggregates searchAggregates )
+	{
+		String tableName = DBConstants.ATTR_INDEX_TABLE_NAME;
+		StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder.append(AGGREGATE_OP);
+
+		appendShape(keyBuilder, queryAttrValSpace);
+		keyBuilder.append(searchAggregates.toString());
+		keyBuilder.append(tableName);
+		String key = keyBuilder.toString();
+
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		StringBuilder sqlBuilder = new StringBuilder();
+		appendAggregateColumns(sqlBuilder, searchAggregates);
+		sqlBuilder.append(" from "+tableName+" WHERE ( ");
+
+		boolean first = true;
+		int index = 1;
+		for( String attrName : attrOrderList )
+		{
+			char state = key.charAt(index++);
+			if( state == ATTR_ABSENT )
+				continue;
+
+			if( !first )
+			{
+				sqlBuilder.append(" AND ");
+			}
+			first = false;
+			appendRangeCondition(sqlBuilder, attrName, state);
+		}
+		sqlBuilder.append(" )");
+
+		template = sqlBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Binds the bucket bounds of the histograms and then the query 
+	 * ranges, in the order of the aggregate template.
+	 * Returns the next free parameter index.
+	 * @throws SQLException
+	 */
+	public int bindAggregateValues( PreparedStatement pstmt,
+			HashMap<String, AttributeValueRange> queryAttrValSpace,
+			SearchAggregates searchAggregates ) throws SQLException
+	{
+		int paramIndex = bindBucketBounds(pstmt, searchAggregates);
+		return bindBoxRanges(pstmt, paramIndex, queryAttrValSpace);
+	}
+
+	/**
+	 * Returns the template of an aggregate query over the union of the boxes,
+	 * each matching GUID is aggregated once.
+	 */
+	public String getAggregateTemplate( List<HashMap<String, AttributeValueRange>> queryBoxes,
+			SearchAggregates searchAggregates )
+	{
+		if( queryBoxes.size() == 1 )
+			return getAggregateTemplate(queryBoxes.get(0), searchAggregates);
+
+		String tableName = DBConstants.ATTR_INDEX_TABLE_NAME;
+		StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder.append(AGGREGATE_OP);
+		appendBoxShapes(keyBuilder, queryBoxes);
+		keyBuilder.append(searchAggregates.toString());
+		keyBuilder.append(tableName);
+		String key = keyBuilder.toString();
+
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		StringBuilder sqlBuilder = new StringBuilder();
+		appendAggregateColumns(sqlBuilder, searchAggregates);
+		sqlBuilder.append(" from "+tableName+" WHERE ");
+		appendUnionCondition(sqlBuilder, key, queryBoxes.size());
+
+		template = sqlBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Binds the bucket bounds of the histograms and then the ranges
+	 * of each box, in the order of the union aggregate template.
+	 * @throws SQLException
+	 */
+	public int bindAggregateValues( PreparedStatement pstmt,
+			List<HashMap<String, AttributeValueRange>> queryBoxes,
+			SearchAggregates searchAggregates ) throws SQLException
+	{
+		if( queryBoxes.size() == 1 )
+			return bindAggregateValues(pstmt, queryBoxes.get(0), searchAggregates);
+
+		int paramIndex = bindBucketBounds(pstmt, searchAggregates);
+		for( int i=0; i<queryBoxes.size(); i++ )
+		{
+			paramIndex = bindBoxRanges(pstmt, paramIndex, queryBoxes.get(i));
+		}
+		return paramIndex;
+	}
+
+	/**
+	 * Adds the row of an aggregate template to the accumulator.
+	 * @throws SQLException
+	 */
+	public void readAggregateColumns( ResultSet rs, SearchAggregates searchAggregates,
+			SearchAggregates.Accumulator accumulator ) throws SQLException
+	{
+		int colIndex = 1;
+		accumulator.addGUIDs(rs.getLong(colIndex++));
+
+		List<SearchAggregates.Aggregate> aggregateList = searchAggregates.getAggregateList();
+		for( int i=0; i<aggregateList.size(); i++ )
+		{
+			SearchAggregates.Aggregate aggregate = aggregateList.get(i);
+			if( aggregate.getAttrName() == null )
+				continue;
+
+			if( aggregate.getFunction() == SearchAggregates.Function.HISTOGRAM )
+			{
+				for( int j=0; j<aggregate.getNumBuckets(); j++ )
+				{
+					// SUM of no rows is NULL, which getLong returns as 0.
+					accumulator.addBucketCount(i, j, rs.getLong(colIndex++));
+				}
+			}
+			else if( aggregate.isStringAttr() )
+			{
+				long count = rs.getLong(colIndex++);
+				String min = rs.getString(colIndex++);
+				String max = rs.getString(colIndex++);
+				accumulator.addStringSummary(i, count, min, max);
+			}
+			else
+			{
+				long count = rs.getLong(colIndex++);
+				double sum = rs.getDouble(colIndex++);
+				double min = rs.getDouble(colIndex++);
+				double max = rs.getDouble(colIndex++);
+				accumulator.addNumericSummary(i, count, sum, min, max);
+			}
+		}
+	}
+
+	/**
+	 * Returns an insert template for the columns in toWriteJSON.
+	 * The nodeGUID placeholder is always the last one.
+	 */
+	public String getInsertTemplate( String tableName, JSONObject toWriteJSON )
+	{
+		String key = getWriteKey(INSERT_OP, tableName, toWriteJSON);
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		StringBuilder colBuilder = new StringBuilder("INSERT INTO "+tableName+" (");
+		StringBuilder valBuilder = new StringBuilder(" VALUES (");
+
+		int index = 1;
+		for( String attrName : attrOrderList )
+		{
+			if( key.charAt(index++) == ATTR_PRESENT )
+			{
+				colBuilder.append(attrName+", ");
+				valBuilder.append("?, ");
+			}
+		}
+		if( key.charAt(index++) == ATTR_PRESENT )
+		{
+			colBuilder.append(DBConstants.UNSET_ATTR_COLNAME+", ");
+			valBuilder.append("?, ");
+		}
+		if( key.charAt(index++) == ATTR_PRESENT )
+		{
+			colBuilder.append(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME+", ");
+			valBuilder.append("?, ");
+		}
+		colBuilder.append("nodeGUID)");
+		valBuilder.append("?)");
+
+		template = colBuilder.toString()+valBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Returns an update template for the columns in toWriteJSON.
+	 * The nodeGUID placeholder in the where clause is always the last one.
+	 */
+	public String getUpdateTemplate( String tableName, JSONObject toWriteJSON )
+	{
+		String key = getWriteKey(UPDATE_OP, tableName, toWriteJSON);
+		String template = templateMap.get(key);
+		if( template != null )
+		{
+			return template;
+		}
+
+		StringBuilder sqlBuilder = new StringBuilder("UPDATE "+tableName+" SET ");
+		boolean first = true;
+		int index = 1;
+		for( String attrName : attrOrderList )
+		{
+			if( key.charAt(index++) == ATTR_PRESENT )
+			{
+				sqlBuilder.append(first?"":" , ");
+				sqlBuilder.append(attrName+" = ?");
+				first = false;
+			}
+		}
+		if( key.charAt(index++) == ATTR_PRESENT )
+		{
+			sqlBuilder.append(first?"":" , ");
+			sqlBuilder.append(DBConstants.UNSET_ATTR_COLNAME+" = ?");
+			first = false;
+		}
+		if( key.charAt(index++) == ATTR_PRESENT )
+		{
+			sqlBuilder.append(first?"":" , ");
+			sqlBuilder.append(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME+" = ?");
+			first = false;
+		}
+		sqlBuilder.append(" WHERE nodeGUID = ?");
+
+		template = sqlBuilder.toString();
+		templateMap.put(key, template);
+		return template;
+	}
+
+	/**
+	 * Binds the attribute columns of toWriteJSON, in the order of the
+	 * insert and update templates. The unset attribute and anonymized ID
+	 * columns are bound by the caller, as their serialization depends
+	 * on the storage. Returns the next free parameter index.
+	 */
+	public int bindAttributeColumns( PreparedStatement pstmt, JSONObject toWriteJSON )
+			throws SQLException
+	{
+		int paramIndex = 1;
+		for( String attrName : attrOrderList )
+		{
+			if( toWriteJSON.has(attrName) )
+			{
+				AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+				bindAttributeValue(pstmt, paramIndex++,
+						toWriteJSON.optString(attrName, null), attrMetaInfo.getDataType());
+			}
+		}
+		return paramIndex;
+	}
+
+	/**
+	 * Binds a value given as a string using the setter of its attribute
+	 * data type, so the driver sends it in its native type.
+	 * @throws SQLException
+	 */
+	public static void bindAttributeValue( PreparedStatement pstmt, int paramIndex,
+			String value, String dataType ) throws SQLException
+	{
+		switch( dataType )
+		{
+			case AttributeTypes.IntType:
+			{
+				if( value == null )
+					pstmt.setNull(paramIndex, Types.INTEGER);
+				else
+					pstmt.setInt(paramIndex, Integer.parseInt(value));
+				break;
+			}
+			case AttributeTypes.LongType:
+			{
+				if( value == null )
+					pstmt.setNull(paramIndex, Types.BIGINT);
+				else
+					pstmt.setLong(paramIndex, Long.parseLong(value));
+				break;
+			}
+			case AttributeTypes.DoubleType:
+			{
+				if( value == null )
+					pstmt.setNull(paramIndex, Types.DOUBLE);
+				else
+					pstmt.setDouble(paramIndex, Double.parseDouble(value));
+				break;
+			}
+			case AttributeTypes.StringType:
+			{
+				if( value == null )
+					pstmt.setNull(paramIndex, Types.VARCHAR);
+				else
+					pstmt.setString(paramIndex, value);
+				break;
+			}
+			default:
+				assert(false);
+		}
+	}
+
+	/**
+	 * GUIDs are stored as Binary(20), the same bytes as the X'hex'
+	 * literal used earlier.
+	 * @throws SQLException
+	 */
+	public static void bindGUID( PreparedStatement pstmt, int paramIndex, String nodeGUID )
+			throws SQLException
+	{
+		pstmt.setBytes(paramIndex, Utils.hexStringToByteArray(nodeGUID));
+	}
+
+	private String getWriteKey( char op, String tableName, JSONObject toWriteJSON )
+	{
+		StringBuilder keyBuilder
+			= new StringBuilder(tableName.length()+attrOrderList.size()+3);
+		keyBuilder.append(op);
+		for( String attrName : attrOrderList )
+		{
+			keyBuilder.append(toWriteJSON.has(attrName)?ATTR_PRESENT:ATTR_ABSENT);
+		}
+		keyBuilder.append(toWriteJSON.has(DBConstants.UNSET_ATTR_COLNAME)
+				?ATTR_PRESENT:ATTR_ABSENT);
+		keyBuilder.append(toWriteJSON.has(DBConstants.ANONYMIZEDID_TO_GUID_COLNAME)
+				?ATTR_PRESENT:ATTR_ABSENT);
+		keyBuilder.append(tableName);
+		return keyBuilder.toString();
+	}
+
+	private void appendShape( StringBuilder keyBuilder,
+			HashMap<String, AttributeValueRange> queryAttrValSpace )
+	{
+		for( String attrName : attrOrderList )
+		{
+			AttributeValueRange attrValRange = queryAttrValSpace.get(attrName);
+			if( attrValRange == null )
+			{
+				keyBuilder.append(ATTR_ABSENT);
+			}
+			else if( isCircularRange(attrName, attrValRange) )
+			{
+				keyBuilder.append(ATTR_CIRCULAR);
+			}
+			else
+			{
+				keyBuilder.append(ATTR_PRESENT);
+			}
+		}
+	}
+
+	/**
+	 * The shapes of the boxes of a union, separated by BOX_SEPARATOR.
+	 */
+	private void appendBoxShapes( StringBuilder keyBuilder,
+			List<HashMap<String, AttributeValueRange>> queryBoxes )
+	{
+		for( int i=0; i<queryBoxes.size(); i++ )
+		{
+			if( i > 0 )
+				keyBuilder.append(BOX_SEPARATOR);
+			appendShape(keyBuilder, queryBoxes.get(i));
+		}
+	}
+
+	/**
+	 * Appends the ORed range conditions of the boxes whose shapes
+	 * follow the operation character in the key.
+	 */
+	private void appendUnionCondition( StringBuilder sqlBuilder, String key, int numBoxes )
+	{
+		sqlBuilder.append("( ");
+		int index = 1;
+		for( int i=0; i<numBoxes; i++ )
+		{
+			if( i > 0 )
+			{
+				sqlBuilder.append(" OR ");
+				// skips the separator.
+				index++;
+			}
+			sqlBuilder.append("(");
+			boolean first = true;
+			for( String attrName : attrOrderList )
+			{
+				char state = key.charAt(index++);
+				if( state == ATTR_ABSENT )
+					continue;
+
+				if( !first )
+				{
+					sqlBuilder.append(" AND ");
+				}
+				first = false;
+				appendRangeCondition(sqlBuilder, attrName, state);
+			}
+			sqlBuilder.append(" )");
+		}
+		sqlBuilder.append(" )");
+	}
+
+	private void appendOptionsKey( StringBuilder keyBuilder, SearchQueryOptions queryOptions )
+	{
+		if( hasOrderBy(queryOptions) )
+		{
+			keyBuilder.append(queryOptions.isDescending()?"|D:":"|A:");
+			keyBuilder.append(queryOptions.getOrderByAttr());
+		}
+		if( hasLimitPlaceholder(queryOptions) )
+		{
+			keyBuilder.append("|L");
+		}
+	}
+
+	private static void appendSearchColumns( StringBuilder sqlBuilder, boolean intersect,
+			String colPrefix, String orderCol )
+	{
+		// if privacy is enabled then we also fetch
+		// anonymizedIDToGuidMapping set.
+		if( ContextServiceConfig.privacyEnabled )
+		{
+			sqlBuilder.append("SELECT "+(intersect?"STRAIGHT_JOIN ":"")+colPrefix+"nodeGUID , "
+					+colPrefix+DBConstants.ANONYMIZEDID_TO_GUID_COLNAME+orderCol+" from ");
+		}
+		else if( ContextServiceConfig.ONLY_RESULT_COUNT_ENABLE )
+		{
+			sqlBuilder.append("SELECT "+(intersect?"STRAIGHT_JOIN ":"")+"COUNT("+colPrefix
+					+"nodeGUID) AS RESULT_SIZE from ");
+		}
+		else
+		{
+			sqlBuilder.append("SELECT "+(intersect?"STRAIGHT_JOIN ":"")+colPrefix
+					+"nodeGUID"+orderCol+" from ");
+		}
+	}
+
+	private static void appendSearchOptions( StringBuilder sqlBuilder, String colPrefix,
+			SearchQueryOptions queryOptions )
+	{
+		if( hasOrderBy(queryOptions) )
+		{
+			sqlBuilder.append(" ORDER BY "+colPrefix+queryOptions.getOrderByAttr()
+					+(queryOptions.isDescending()?" DESC":" ASC"));
+		}
+		if( hasLimitPlaceholder(queryOptions) )
+		{
+			sqlBuilder.append(" LIMIT ?");
+		}
+	}
+
+	private static void appendAggregateColumns( StringBuilder sqlBuilder,
+			SearchAggregates searchAggregates )
+	{
+		sqlBuilder.append("SELECT COUNT(*)");
+		List<SearchAggregates.Aggregate> aggregateList = searchAggregates.getAggregateList();
+		for( int i=0; i<aggregateList.size(); i++ )
+		{
+			SearchAggregates.Aggregate aggregate = aggregateList.get(i);
+			String colName = aggregate.getAttrName();
+			if( colName == null )
+				continue;
+
+			if( aggregate.getFunction() == SearchAggregates.Function.HISTOGRAM )
+			{
+				for( int j=0; j<aggregate.getNumBuckets(); j++ )
+				{
+					boolean lastBucket = (j == aggregate.getNumBuckets()-1);
+					sqlBuilder.append(" , SUM(CASE WHEN "+colName+" >= ? AND "+colName
+							+(lastBucket?" <= ?":" < ?")+" THEN 1 ELSE 0 END)");
+				}
+			}
+			else
+			{
+				sqlBuilder.append(" , COUNT("+colName+")");
+				if( !aggregate.isStringAttr() )
+					sqlBuilder.append(" , SUM("+colName+")");
+				sqlBuilder.append(" , MIN("+colName+") , MAX("+colName+")");
+			}
+		}
+	}
+
+	private static int bindBucketBounds( PreparedStatement pstmt,
+			SearchAggregates searchAggregates ) throws SQLException
+	{
+		int paramIndex = 1;
+		List<SearchAggregates.Aggregate> aggregateList = searchAggregates.getAggregateList();
+		for( int i=0; i<aggregateList.size(); i++ )
+		{
+			SearchAggregates.Aggregate aggregate = aggregateList.get(i);
+			if( aggregate.getFunction() != SearchAggregates.Function.HISTOGRAM )
+				continue;
+
+			for( int j=0; j<aggregate.getNumBuckets(); j++ )
+			{
+				pstmt.setDouble(paramIndex++, aggregate.getBucketBound(j));
+				pstmt.setDouble(paramIndex++, aggregate.getBucketBound(j+1));
+			}
+		}
+		return paramIndex;
+	}
+
+	private int bindBoxRanges( PreparedStatement pstmt, int paramIndex,
+			HashMap<String, AttributeValueRange> queryAttrValSpace ) throws SQLException
+	{
+		for( String attrName : attrOrderList )
+		{
+			AttributeValueRange attrValRange = queryAttrValSpace.get(attrName);
+			if( attrValRange == null )
+				continue;
+
+			paramIndex = bindRange(pstmt, paramIndex, attrName, attrValRange);
+		}
+		return paramIndex;
+	}
+
+	private static boolean hasOrderBy( SearchQueryOptions queryOptions )
+	{
+		return queryOptions.hasOrderBy() && !ContextServiceConfig.ONLY_RESULT_COUNT_ENABLE;
+	}
+
+	private static boolean hasLimitPlaceholder( SearchQueryOptions queryOptions )
+	{
+		return (queryOptions.getResultLimit() != SearchQueryOptions.NO_LIMIT)
+				&& !ContextServiceConfig.ONLY_RESULT_COUNT_ENABLE;
+	}
+
+	private void appendRangeCondition( StringBuilder sqlBuilder, String colName, char state )
+	{
+		if( state == ATTR_PRESENT )
+		{
+			sqlBuilder.append(" ( "+colName+" >= ? AND "+colName+" <= ? )");
+		}
+		else
+		{
+			assert( state == ATTR_CIRCULAR );
+			sqlBuilder.append(" ( ( "+colName+" >= ? AND "+colName+" <= ? ) OR "
+					+ " ( "+colName+" >= ? AND "+colName+" <= ? ) )");
+		}
+	}
+
+	private int bindRange( PreparedStatement pstmt, int paramIndex, String attrName,
+			AttributeValueRange attrValRange ) throws SQLException
+	{
+		AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+		String dataType = attrMetaInfo.getDataType();
+
+		if( isCircularRange(attrName, attrValRange) )
+		{
+			bindAttributeValue(pstmt, paramIndex++, attrMetaInfo.getMinValue(), dataType);
+			bindAttributeValue(pstmt, paramIndex++, attrValRange.getUpperBound(), dataType);
+			bindAttributeValue(pstmt, paramIndex++, attrValRange.getLowerBound(), dataType);
+			bindAttributeValue(pstmt, paramIndex++, attrMetaInfo.getMaxValue(), dataType);
+		}
+		else
+		{
+			bindAttributeValue(pstmt, paramIndex++, attrValRange.getLowerBound(), dataType);
+			bindAttributeValue(pstmt, paramIndex++, attrValRange.getUpperBound(), dataType);
+		}
+		return paramIndex;
+	}
+
+	private static boolean isIntersectAttr( SearchQueryPlan plan, String attrName )
+	{
+		String[] intersectAttrs = plan.getIntersectAttrs();
+		for( int i=0; i<intersectAttrs.length; i++ )
+		{
+			if( intersectAttrs[i].equals(attrName) )
+				return true;
+		}
+		return false;
+	}
+
+	private boolean isCircularRange( String attrName, AttributeValueRange attrValRange )
+	{
+		AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+		assert( attrMetaInfo != null );
+		return !AttributeTypes.compareTwoValues(attrValRange.getLowerBound(),
+				attrValRange.getUpperBound(), attrMetaInfo.getDataType());
+	}
+}
@@ -0,0 +1,108 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.util.Arrays;
+
+/**
+ * Access path chosen by SearchQueryPlanner for an attribute-index search,
+ * which SQLStatementTemplates turns into index hints.
+ * Plans with the same key give the same SQL template for a query shape.
+ * @author ayadav
+ */
+public class SearchQueryPlan
+{
+	public static enum Strategy
+	{
+		// reads the whole table, ignoring the indexes of the query attributes.
+		TABLE_SCAN,
+		// range scan of the index of one attribute, the other
+		// attributes are checked on the rows it returns.
+		DRIVING_INDEX,
+		// range scans of the indexes of two attributes, which only read
+		// the index entries, joined on nodeGUID before the rows are read.
+		INDEX_INTERSECTION,
+		// range scan of a composite index on its first attribute, with the
+		// other attributes of the index checked on the index entries.
+		COMPOSITE_INDEX
+	}
+
+	private final Strategy strategy;
+	// indexes to force, or to ignore for a table scan.
+	private final String[] indexNames;
+	// for an intersection, the attributes whose indexes are scanned,
+	// in the order of indexNames.
+	private final String[] intersectAttrs;
+	private final double estimatedSelectivity;
+	private final double estimatedCost;
+	private final String key;
+
+	public SearchQueryPlan( Strategy strategy, String[] indexNames, String[] intersectAttrs,
+			double estimatedSelectivity, double estimatedCost )
+	{
+		this.strategy = strategy;
+		this.indexNames = indexNames;
+		this.intersectAttrs = intersectAttrs;
+		this.estimatedSelectivity = estimatedSelectivity;
+		this.estimatedCost = estimatedCost;
+
+		StringBuilder keyBuilder = new StringBuilder();
+		keyBuilder.append('|');
+		keyBuilder.append(strategy.ordinal());
+		for( int i=0; i<indexNames.length; i++ )
+		{
+			keyBuilder.append(':');
+			keyBuilder.append(indexNames[i]);
+		}
+		keyBuilder.append('|');
+		this.key = keyBuilder.toString();
+	}
+
+	public Strategy getStrategy()
+	{
+		return this.strategy;
+	}
+
+	public String[] getIndexNames()
+	{
+		return this.indexNames;
+	}
+
+	/**
+	 * Returns null if the strategy is not INDEX_INTERSECTION.
+	 */
+	public String[] getIntersectAttrs()
+	{
+		return this.intersectAttrs;
+	}
+
+	/**
+	 * Estimated fraction of the stored GUIDs that satisfy the query,
+	 * assuming the attributes are independent.
+	 */
+	public double getEstimatedSelectivity()
+	{
+		return this.estimatedSelectivity;
+	}
+
+	/**
+	 * Estimated cost, in units of sequentially read rows per stored row.
+	 */
+	public double getEstimatedCost()
+	{
+		return this.estimatedCost;
+	}
+
+	/**
+	 * Part of the SQL template cache key.
+	 */
+	public String getKey()
+	{
+		return this.key;
+	}
+
+	@Override
+	public String toString()
+	{
+		return strategy+" "+Arrays.toString(indexNames)
+				+" selectivity "+estimatedSelectivity+" cost "+estimatedCost;
+	}
+}
@@ -0,0 +1,609 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Chooses the access path of attribute-index searches on a MySQL node.
+ * MySQL estimates each range from its index statistics and often drives
+ * a multi-attribute search from an index that returns most of the table.
+ * The planner keeps, for each attribute, a reservoir sample of the values
+ * written to the attribute-index table and an equi-depth histogram built
+ * from it, estimates the selectivity of each range of a search, and picks
+ * the cheapest of a table scan, the most selective index with the other
+ * ranges as a residual filter, the intersection of the two most selective
+ * indexes, or a composite index whose first attribute is in the search.
+ * Attributes are assumed independent.
+ *
+ * The sample is of written values, which follows the stored values as long
+ * as GUIDs are updated at similar rates. Until every attribute of a search
+ * has MIN_SAMPLES values, the planner returns null and MySQL picks the index.
+ * Thread safe, writes of different attributes don't wait for each other.
+ * @author ayadav
+ */
+public class SearchQueryPlanner
+{
+	public static final String COMPOSITE_INDEX_PREFIX					= "comp_";
+
+	private static final int NUM_HISTOGRAM_BUCKETS						= 64;
+	private static final int MIN_SAMPLES								= 256;
+	// the histogram is rebuilt after this fraction of the
+	// sample has been written since the last build.
+	private static final int REBUILD_FRACTION							= 4;
+
+	// costs per row of the table, relative to reading a row in a table scan.
+	private static final double TABLE_SCAN_ROW_COST						= 1.0;
+	private static final double INDEX_ENTRY_COST						= 1.0;
+	// reading a row by its primary key, from an index entry.
+	private static final double ROW_LOOKUP_COST							= 4.0;
+	// writing an index entry of an intersection to a temporary
+	// table and probing it in the join.
+	private static final double MATERIALIZE_COST						= 1.0;
+
+	private final AttrValueSchema schema;
+	private final int sampleSize;
+	// indexed by attribute ordinal.
+	private final AttrStatistics[] attrStats;
+	private final List<CompositeIndex> compositeIndexes;
+
+	private static class CompositeIndex
+	{
+		final String indexName;
+		final String[] attrNames;
+
+		CompositeIndex( String[] attrNames )
+		{
+			this.indexName = getCompositeIndexName(attrNames);
+			this.attrNames = attrNames;
+		}
+	}
+
+	public SearchQueryPlanner( int sampleSize, String compositeIndexesConfig )
+	{
+		this.schema = new AttrValueSchema(AttributeTypes.attributeInOrderList,
+				AttributeTypes.attributeMap);
+		this.sampleSize = Math.max(sampleSize, MIN_SAMPLES);
+
+		attrStats = new AttrStatistics[schema.getNumAttrs()];
+		for( int i=0; i<attrStats.length; i++ )
+		{
+			attrStats[i] = new AttrStatistics(i);
+		}
+
+		compositeIndexes = new ArrayList<CompositeIndex>();
+		List<String[]> indexAttrsList = parseCompositeIndexes(compositeIndexesConfig);
+		for( int i=0; i<indexAttrsList.size(); i++ )
+		{
+			compositeIndexes.add(new CompositeIndex(indexAttrsList.get(i)));
+		}
+	}
+
+	/**
+	 * Parses the composite indexes configured as attribute lists separated
+	 * by ';'. Lists with fewer than two known attributes are skipped.
+	 */
+	public static List<String[]> parseCompositeIndexes( String compositeIndexesConfig )
+	{
+		List<String[]> indexAttrsList = new ArrayList<String[]>();
+		if( (compositeIndexesConfig == null) || (compositeIndexesConfig.length() == 0) )
+			return indexAttrsList;
+
+		String[] indexStrs = compositeIndexesConfig.split(";");
+		for( int i=0; i<indexStrs.length; i++ )
+		{
+			String[] attrNames = indexStrs[i].split(",");
+			List<String> knownAttrs = new ArrayList<String>();
+			for( int j=0; j<attrNames.length; j++ )
+			{
+				String attrName = attrNames[j].trim();
+				if( AttributeTypes.attributeMap.containsKey(attrName) )
+				{
+					knownAttrs.add(attrName);
+				}
+				else if( attrName.length() > 0 )
+				{
+					ContextServiceLogger.getLogger().warning("Composite index attribute "
+							+attrName+" is not an attribute, ignored");
+				}
+			}
+
+			if( knownAttrs.size() >= 2 )
+			{
+				indexAttrsList.add(knownAttrs.toArray(new String[knownAttrs.size()]));
+			}
+		}
+		return indexAttrsList;
+	}
+
+	public static String getCompositeIndexName( String[] attrNames )
+	{
+		StringBuilder nameBuilder = new StringBuilder(COMPOSITE_INDEX_PREFIX);
+		for( int i=0; i<attrNames.length; i++ )
+		{
+			if( i > 0 )
+				nameBuilder.append('_');
+			nameBuilder.append(attrNames[i]);
+		}
+		return nameBuilder.toString();
+	}
+
+	/**
+	 * Samples the attribute values of an insert or update
+	 * of the attribute-index table.
+	 */
+	public void recordWrite( JSONObject toWriteJSON )
+	{
+		for( int i=0; i<attrStats.length; i++ )
+		{
+			String attrName = schema.getAttrName(i);
+			if( !toWriteJSON.has(attrName) || toWriteJSON.isNull(attrName) )
+				continue;
+
+			attrStats[i].addValue(toWriteJSON.optString(attrName, null));
+		}
+	}
+
+	/**
+	 * Returns the estimated fraction of the stored values of the attribute
+	 * in the range, or -1 if there are not enough samples yet.
+	 * A circular range is the sum of its two parts.
+	 */
+	public double estimateSelectivity( String attrName, AttributeValueRange attrValRange )
+	{
+		int ordinal = schema.getOrdinal(attrName);
+		if( ordinal < 0 )
+			return -1;
+
+		EquiDepthHistogram histogram = attrStats[ordinal].histogram;
+		if( histogram == null )
+			return -1;
+
+		AttributeMetaInfo attrMetaInfo = schema.getAttrMetaInfo(ordinal);
+		try
+		{
+			double selectivity;
+			if( AttributeTypes.compareTwoValues(attrValRange.getLowerBound(),
+					attrValRange.getUpperBound(), attrMetaInfo.getDataType()) )
+			{
+				selectivity = histogram.estimateRange(attrValRange.getLowerBound(),
+						attrValRange.getUpperBound());
+			}
+			else
+			{
+				selectivity = histogram.estimateRange(attrMetaInfo.getMinValue(),
+										attrValRange.getUpperBound())
+							+ histogram.estimateRange(attrValRange.getLowerBound(),
+										attrMetaInfo.getMaxValue());
+			}
+			return Math.max(Math.min(selectivity, 1.0), histogram.minSelectivity);
+		}
+		catch( NumberFormatException nfe )
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the cheapest plan of the search, or null if the selectivity
+	 * of some range can't be estimated, in which case no hints are used.
+	 */
+	public SearchQueryPlan planSearch( HashMap<String, AttributeValueRange> queryAttrValMap )
+	{
+		if( queryAttrValMap.size() == 0 )
+			return null;
+
+		HashMap<String, Double> attrSelectivities = new HashMap<String, Double>();
+		Iterator<String> attrIter = queryAttrValMap.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			double selectivity = estimateSelectivity(attrName, queryAttrValMap.get(attrName));
+			if( selectivity < 0 )
+				return null;
+
+			attrSelectivities.put(attrName, selectivity);
+		}
+
+		List<SearchQueryPlan> plans = enumeratePlans(attrSelectivities);
+		SearchQueryPlan bestPlan = plans.get(0);
+		for( int i=1; i<plans.size(); i++ )
+		{
+			if( plans.get(i).getEstimatedCost() < bestPlan.getEstimatedCost() )
+				bestPlan = plans.get(i);
+		}
+
+		ContextServiceLogger.getLogger().fine("Search plan "+bestPlan
+				+" for "+attrSelectivities);
+		return bestPlan;
+	}
+
+	/**
+	 * Returns the plans of a search, with their costs for the given
+	 * selectivities of its attributes. The first plan is the table scan.
+	 */
+	public List<SearchQueryPlan> enumeratePlans( HashMap<String, Double> attrSelectivities )
+	{
+		// query attributes in increasing order of selectivity,
+		// ties broken by the attribute order.
+		String[] queryAttrs = new String[attrSelectivities.size()];
+		int numAttrs = 0;
+		for( String attrName : AttributeTypes.attributeInOrderList )
+		{
+			if( attrSelectivities.containsKey(attrName) )
+				queryAttrs[numAttrs++] = attrName;
+		}
+		assert( numAttrs == queryAttrs.length );
+		sortBySelectivity(queryAttrs, attrSelectivities);
+
+		double resultSelectivity = 1.0;
+		for( int i=0; i<queryAttrs.length; i++ )
+		{
+			resultSelectivity = resultSelectivity*attrSelectivities.get(queryAttrs[i]);
+		}
+
+		List<SearchQueryPlan> plans = new ArrayList<SearchQueryPlan>();
+		List<String> ignoredIndexes = new ArrayList<String>(Arrays.asList(queryAttrs));
+		for( int i=0; i<compositeIndexes.size(); i++ )
+		{
+			CompositeIndex compIndex = compositeIndexes.get(i);
+			if( attrSelectivities.containsKey(compIndex.attrNames[0]) )
+				ignoredIndexes.add(compIndex.indexName);
+		}
+		plans.add(new SearchQueryPlan(SearchQueryPlan.Strategy.TABLE_SCAN,
+				ignoredIndexes.toArray(new String[ignoredIndexes.size()]), null,
+				resultSelectivity, TABLE_SCAN_ROW_COST));
+
+		String firstAttr = queryAttrs[0];
+		double firstSel = attrSelectivities.get(firstAttr);
+		plans.add(new SearchQueryPlan(SearchQueryPlan.Strategy.DRIVING_INDEX,
+				new String[]{firstAttr}, null, resultSelectivity, getDrivingIndexCost(firstSel)));
+
+		if( queryAttrs.length >= 2 )
+		{
+			String secondAttr = queryAttrs[1];
+			double secondSel = attrSelectivities.get(secondAttr);
+			plans.add(new SearchQueryPlan(SearchQueryPlan.Strategy.INDEX_INTERSECTION,
+					new String[]{firstAttr, secondAttr}, new String[]{firstAttr, secondAttr},
+					resultSelectivity, getIntersectionCost(firstSel, secondSel)));
+		}
+
+		for( int i=0; i<compositeIndexes.size(); i++ )
+		{
+			CompositeIndex compIndex = compositeIndexes.get(i);
+			if( !attrSelectivities.containsKey(compIndex.attrNames[0]) )
+				continue;
+
+			plans.add(new SearchQueryPlan(SearchQueryPlan.Strategy.COMPOSITE_INDEX,
+					new String[]{compIndex.indexName}, null, resultSelectivity,
+					getCompositeIndexCost(compIndex, attrSelectivities)));
+		}
+		return plans;
+	}
+
+	/**
+	 * Returns the cost of a plan of this planner for the given
+	 * selectivities of the search attributes.
+	 */
+	public double getPlanCost( SearchQueryPlan plan, HashMap<String, Double> attrSelectivities )
+	{
+		String[] indexNames = plan.getIndexNames();
+		switch( plan.getStrategy() )
+		{
+			case TABLE_SCAN:
+				return TABLE_SCAN_ROW_COST;
+			case DRIVING_INDEX:
+				return getDrivingIndexCost(attrSelectivities.get(indexNames[0]));
+			case INDEX_INTERSECTION:
+				return getIntersectionCost(attrSelectivities.get(indexNames[0]),
+						attrSelectivities.get(indexNames[1]));
+			default:
+			{
+				for( int i=0; i<compositeIndexes.size(); i++ )
+				{
+					if( compositeIndexes.get(i).indexName.equals(indexNames[0]) )
+						return getCompositeIndexCost(compositeIndexes.get(i), attrSelectivities);
+				}
+				throw new IllegalArgumentException("Unknown index "+indexNames[0]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of values sampled for the attribute.
+	 */
+	public int getNumSamples( String attrName )
+	{
+		int ordinal = schema.getOrdinal(attrName);
+		assert( ordinal >= 0 );
+		return attrStats[ordinal].getNumSamples();
+	}
+
+	private static double getDrivingIndexCost( double selectivity )
+	{
+		return selectivity*(INDEX_ENTRY_COST+ROW_LOOKUP_COST);
+	}
+
+	private static double getIntersectionCost( double firstSel, double secondSel )
+	{
+		return (firstSel+secondSel)*(INDEX_ENTRY_COST+MATERIALIZE_COST)
+				+ firstSel*secondSel*ROW_LOOKUP_COST;
+	}
+
+	/**
+	 * The other index attributes in the search are checked on the index
+	 * entries, so only the rows that satisfy them are read.
+	 */
+	private static double getCompositeIndexCost( CompositeIndex compIndex,
+			HashMap<String, Double> attrSelectivities )
+	{
+		double leadSel = attrSelectivities.get(compIndex.attrNames[0]);
+		double indexSel = leadSel;
+		for( int i=1; i<compIndex.attrNames.length; i++ )
+		{
+			Double attrSel = attrSelectivities.get(compIndex.attrNames[i]);
+			if( attrSel != null )
+				indexSel = indexSel*attrSel;
+		}
+		return leadSel*INDEX_ENTRY_COST + indexSel*ROW_LOOKUP_COST;
+	}
+
+	/**
+	 * Insertion sort, a search has a few attributes.
+	 */
+	private static void sortBySelectivity( String[] queryAttrs,
+			HashMap<String, Double> attrSelectivities )
+	{
+		for( int i=1; i<queryAttrs.length; i++ )
+		{
+			String attrName = queryAttrs[i];
+			double selectivity = attrSelectivities.get(attrName);
+			int j = i-1;
+			while( (j >= 0) && (attrSelectivities.get(queryAttrs[j]) > selectivity) )
+			{
+				queryAttrs[j+1] = queryAttrs[j];
+				j--;
+			}
+			queryAttrs[j+1] = attrName;
+		}
+	}
+
+	/**
+	 * Reservoir sample of the values written for one attribute,
+	 * and the histogram last built from it.
+	 */
+	private class AttrStatistics
+	{
+		private final int ordinal;
+		private final double[] numSample;
+		private final String[] strSample;
+		private final Random rand;
+		private int numSamples;
+		private long numSeen;
+		private int numSinceBuild;
+
+		// replaced, never modified, so searches read it without the lock.
+		volatile EquiDepthHistogram histogram;
+
+		AttrStatistics( int ordinal )
+		{
+			this.ordinal = ordinal;
+			if( schema.isStringAttr(ordinal) )
+			{
+				numSample = null;
+				strSample = new String[sampleSize];
+			}
+			else
+			{
+				numSample = new double[sampleSize];
+				strSample = null;
+			}
+			rand = new Random(ordinal);
+			numSamples = 0;
+			numSeen = 0;
+			numSinceBuild = 0;
+			histogram = null;
+		}
+
+		synchronized void addValue( String value )
+		{
+			double numVal = 0;
+			if( numSample != null )
+			{
+				try
+				{
+					numVal = schema.toNumeric(ordinal, value);
+				}
+				catch( NumberFormatException nfe )
+				{
+					return;
+				}
+			}
+
+			numSeen++;
+			int slot;
+			if( numSamples < sampleSize )
+			{
+				slot = numSamples++;
+			}
+			else
+			{
+				long randIndex = (long)(rand.nextDouble()*numSeen);
+				if( randIndex >= sampleSize )
+					return;
+				slot = (int)randIndex;
+			}
+
+			if( numSample != null )
+				numSample[slot] = numVal;
+			else
+				strSample[slot] = value;
+
+			numSinceBuild++;
+			if( (numSamples >= MIN_SAMPLES) &&
+					((histogram == null) || (numSinceBuild >= numSamples/REBUILD_FRACTION)) )
+			{
+				histogram = (numSample != null)?
+						new EquiDepthHistogram(ordinal, Arrays.copyOf(numSample, numSamples), null)
+						: new EquiDepthHistogram(ordinal, null, Arrays.copyOf(strSample, numSamples));
+				numSinceBuild = 0;
+			}
+		}
+
+		synchronized int getNumSamples()
+		{
+			return numSamples;
+		}
+	}
+
+	/**
+	 * Bucket boundaries such that each bucket has the same number of
+	 * sampled values. The fraction of values up to a point is the number of
+	 * buckets before it, plus the part of its bucket, interpolated linearly
+	 * for numeric attributes and taken as half for String attributes.
+	 * A frequent value spans several buckets with the same boundaries.
+	 */
+	private class EquiDepthHistogram
+	{
+		private final int ordinal;
+		// numBuckets+1 boundaries, the first is the smallest sampled value.
+		private final double[] numBounds;
+		private final String[] strBounds;
+		private final int numBuckets;
+		// estimate of a range no sampled value falls in.
+		final double minSelectivity;
+
+		EquiDepthHistogram( int ordinal, double[] numValues, String[] strValues )
+		{
+			this.ordinal = ordinal;
+			int numValuesSampled = (numValues != null)? numValues.length : strValues.length;
+			numBuckets = Math.min(NUM_HISTOGRAM_BUCKETS, numValuesSampled-1);
+			minSelectivity = 1.0/(2*numValuesSampled);
+
+			if( numValues != null )
+			{
+				Arrays.sort(numValues);
+				numBounds = new double[numBuckets+1];
+				strBounds = null;
+			}
+			else
+			{
+				Arrays.sort(strValues);
+				numBounds = null;
+				strBounds = new String[numBuckets+1];
+			}
+
+			for( int i=0; i<=numBuckets; i++ )
+			{
+				int index = (int)(((long)i*(numValuesSampled-1))/numBuckets);
+				if( numValues != null )
+					numBounds[i] = numValues[index];
+				else
+					strBounds[i] = strValues[index];
+			}
+		}
+
+		double estimateRange( String lower, String upper )
+		{
+			double numLower = 0;
+			double numUpper = 0;
+			if( numBounds != null )
+			{
+				numLower = schema.toNumeric(ordinal, lower);
+				numUpper = schema.toNumeric(ordinal, upper);
+				if( numLower > numUpper )
+					return 0;
+			}
+			else if( lower.compareTo(upper) > 0 )
+			{
+				return 0;
+			}
+			return fractionAtMost(numUpper, upper) - fractionBelow(numLower, lower);
+		}
+
+		/**
+		 * Fraction of the values <= the given value.
+		 */
+		private double fractionAtMost( double numVal, String strVal )
+		{
+			if( compareToBound(numVal, strVal, 0) < 0 )
+				return 0;
+			if( compareToBound(numVal, strVal, numBuckets) >= 0 )
+				return 1;
+
+			// last boundary <= value, it is before the last one.
+			int low = 0;
+			int high = numBuckets-1;
+			while( low < high )
+			{
+				int mid = (low+high+1)/2;
+				if( compareToBound(numVal, strVal, mid) >= 0 )
+					low = mid;
+				else
+					high = mid-1;
+			}
+			return (low + fractionInBucket(numVal, strVal, low))/numBuckets;
+		}
+
+		/**
+		 * Fraction of the values < the given value.
+		 */
+		private double fractionBelow( double numVal, String strVal )
+		{
+			if( compareToBound(numVal, strVal, 0) <= 0 )
+				return 0;
+			if( compareToBound(numVal, strVal, numBuckets) > 0 )
+				return 1;
+
+			// first boundary >= value, it is after the first one.
+			int low = 1;
+			int high = numBuckets;
+			while( low < high )
+			{
+				int mid = (low+high)/2;
+				if( compareToBound(numVal, strVal, mid) <= 0 )
+					high = mid;
+				else
+					low = mid+1;
+			}
+			return (low-1 + fractionInBucket(numVal, strVal, low-1))/numBuckets;
+		}
+
+		/**
+		 * Part of the bucket starting at boundary index below the value,
+		 * the value is in [bound[index], bound[index+1]].
+		 */
+		private double fractionInBucket( double numVal, String strVal, int index )
+		{
+			if( numBounds != null )
+			{
+				double width = numBounds[index+1] - numBounds[index];
+				return (width > 0)? (numVal - numBounds[index])/width : 0;
+			}
+
+			if( strVal.equals(strBounds[index]) )
+				return 0;
+			if( strVal.equals(strBounds[index+1]) )
+				return 1;
+			return 0.5;
+		}
+
+		private int compareToBound( double numVal, String strVal, int index )
+		{
+			if( numBounds != null )
+				return Double.compare(numVal, numBounds[index]);
+			return strVal.compareTo(strBounds[index]);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package edu.umass.cs.contextservice.database.guidattributes;
+
+import org.json.JSONArray;
+
+/**
+ * Receives the results of a search in chunks, as they are read from the storage,
+ * instead of all results in one JSONArray.
+ * @author ayadav
+ */
+public interface SearchResultChunkCallback
+{
+	/**
+	 * Called with every searchReplyChunkSize results and once more with the
+	 * remaining results, if any. The storage doesn't modify the array after
+	 * this call.
+	 * @param resultChunk JSONArray of SearchReplyGUIDRepresentationJSON objects
+	 */
+	public void processResultChunk( JSONArray resultChunk );
+}
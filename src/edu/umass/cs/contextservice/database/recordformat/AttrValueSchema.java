@@ -0,0 +1,114 @@
+package edu.umass.cs.contextservice.database.recordformat;
+
+import java.util.HashMap;
+import java.util.List;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+
+/**
+ * Column layout used by the in-memory storage.
+ * Each attribute gets an ordinal, its position in the attribute order list,
+ * and a row stores its attribute values in arrays indexed by that ordinal.
+ * Int, Long and Double attributes are stored as primitive doubles,
+ * String attributes as Strings.
+ * Comparisons follow the SQL semantics of the corresponding column type.
+ * @author ayadav
+ */
+public class AttrValueSchema
+{
+	private final String[] attrNames;
+	private final AttributeMetaInfo[] attrMetaInfos;
+	private final boolean[] isStringAttr;
+	private final HashMap<String, Integer> ordinalMap;
+
+	public AttrValueSchema( List<String> attrOrderList,
+			HashMap<String, AttributeMetaInfo> attributeMap )
+	{
+		int numAttrs = attrOrderList.size();
+		attrNames = new String[numAttrs];
+		attrMetaInfos = new AttributeMetaInfo[numAttrs];
+		isStringAttr = new boolean[numAttrs];
+		ordinalMap = new HashMap<String, Integer>();
+
+		int ordinal = 0;
+		for( String attrName : attrOrderList )
+		{
+			AttributeMetaInfo attrMetaInfo = attributeMap.get(attrName);
+			assert( attrMetaInfo != null );
+
+			attrNames[ordinal] = attrName;
+			attrMetaInfos[ordinal] = attrMetaInfo;
+			isStringAttr[ordinal]
+					= AttributeTypes.StringType.equals(attrMetaInfo.getDataType());
+			ordinalMap.put(attrName, ordinal);
+			ordinal++;
+		}
+	}
+
+	public int getNumAttrs()
+	{
+		return attrNames.length;
+	}
+
+	/**
+	 * Returns -1 if the attribute is not known.
+	 */
+	public int getOrdinal( String attrName )
+	{
+		Integer ordinal = ordinalMap.get(attrName);
+		return (ordinal == null)? -1 : ordinal;
+	}
+
+	public String getAttrName( int ordinal )
+	{
+		return attrNames[ordinal];
+	}
+
+	public AttributeMetaInfo getAttrMetaInfo( int ordinal )
+	{
+		return attrMetaInfos[ordinal];
+	}
+
+	public boolean isStringAttr( int ordinal )
+	{
+		return isStringAttr[ordinal];
+	}
+
+	/**
+	 * Parses a numeric attribute value.
+	 * Should not be called for String attributes.
+	 */
+	public double toNumeric( int ordinal, String value )
+	{
+		assert( !isStringAttr[ordinal] );
+		switch( attrMetaInfos[ordinal].getDataType() )
+		{
+			case AttributeTypes.IntType:
+				return Integer.parseInt(value);
+			case AttributeTypes.LongType:
+				return Long.parseLong(value);
+			default:
+				return Double.parseDouble(value);
+		}
+	}
+
+	/**
+	 * Compares two values of an attribute. For String attributes only
+	 * the String arguments are used, otherwise only the double arguments.
+	 */
+	public int compare( int ordinal, double numVal1, String strVal1,
+			double numVal2, String strVal2 )
+	{
+		if( isStringAttr[ordinal] )
+		{
+			return strVal1.compareTo(strVal2);
+		}
+		// not Double.compare, as SQL treats -0.0 and 0.0 as equal.
+		if( numVal1 < numVal2 )
+			return -1;
+		if( numVal1 > numVal2 )
+			return 1;
+		return 0;
+	}
+}
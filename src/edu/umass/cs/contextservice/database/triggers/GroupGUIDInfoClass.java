@@ -57,6 +57,21 @@ public class GroupGUIDInfoClass
 		return this.userPort;
 	}
 	
+	/**
+	 * Key of a subscription, groupGUID:userIP:userPort.
+	 * Several clients can subscribe to the same group, so maps of
+	 * triggered groups are keyed by this and not by the groupGUID.
+	 */
+	public String getSubscriptionKey()
+	{
+		return getSubscriptionKey(groupGUID, userIP, userPort);
+	}
+	
+	public static String getSubscriptionKey( String groupGUID, String userIP, int userPort )
+	{
+		return groupGUID+":"+userIP+":"+userPort;
+	}
+	
 	public static void main(String[] args)
 	{
 	}
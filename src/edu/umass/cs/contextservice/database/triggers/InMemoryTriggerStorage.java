@@ -0,0 +1,140 @@
+package edu.umass.cs.contextservice.database.triggers;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.utils.Utils;
+
+/**
+ * Implements the trigger storage in memory.
+ * The stored queries are kept in a TriggerStabbingIndex, which 
+ * matches them against the old and new value of an updated GUID
+ * with the same predicates that TriggerInformationStorage
+ * uses in its SQL queries.
+ * @author ayadav
+ */
+public class InMemoryTriggerStorage implements TriggerInformationStorageInterface
+{
+	private final Integer myNodeID;
+	private final TriggerStabbingIndex triggerIndex;
+
+	// stores groupGUID, userIP and userPort keys from the primary trigger subspace.
+	private final ConcurrentHashMap<String, Boolean> primaryTriggerMap;
+
+	public InMemoryTriggerStorage( Integer myNodeID )
+	{
+		this.myNodeID = myNodeID;
+		this.triggerIndex = new TriggerStabbingIndex(new AttrValueSchema(
+				AttributeTypes.attributeInOrderList, AttributeTypes.attributeMap));
+		primaryTriggerMap = new ConcurrentHashMap<String, Boolean>();
+	}
+
+	@Override
+	public void createTriggerStorageTables()
+	{
+		ContextServiceLogger.getLogger().fine("InMemoryTriggerStorage "+myNodeID
+				+" created");
+	}
+
+	@Override
+	public void insertIntoTriggerDataStorage( String userQuery,
+			String groupGUID, String userIP, int userPort,
+			long expiryTimeFromNow )
+	{
+		HashMap<String, AttributeValueRange> valSpaceBoundary
+							= QueryParser.parseQuery(userQuery);
+		try
+		{
+			triggerIndex.addTrigger(valSpaceBoundary, groupGUID,
+					InetAddress.getByName(userIP).getHostAddress(), userPort,
+					expiryTimeFromNow);
+		}
+		catch( UnknownHostException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void getTriggerDataInfo( HashIndexGUIDRecord oldGuidRec,
+			JSONObject onlyUpdateAttrValJSON,
+			HashMap<String, GroupGUIDInfoClass> removedGroupGUIDMap,
+			HashMap<String, GroupGUIDInfoClass> addedGroupGUIDMap,
+			int requestType, JSONObject newUnsetAttrs,
+			boolean firstTimeInsert ) throws InterruptedException
+	{
+		assert(removedGroupGUIDMap != null);
+		assert(addedGroupGUIDMap != null);
+
+		try
+		{
+			triggerIndex.getTriggerDataInfo(oldGuidRec, onlyUpdateAttrValJSON,
+					removedGroupGUIDMap, addedGroupGUIDMap, requestType,
+					newUnsetAttrs, firstTimeInsert);
+		}
+		catch( JSONException jsonEx )
+		{
+			jsonEx.printStackTrace();
+		}
+	}
+
+	@Override
+	public boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec,
+			JSONObject updateAttrJSON, int requestType, JSONObject newUnsetAttrs,
+			boolean firstTimeInsert )
+	{
+		SubscriptionSummary summary = triggerIndex.getSummary();
+		if( summary == null )
+			return true;
+
+		return summary.mayTriggerGroups(oldGuidRec, updateAttrJSON, requestType,
+				newUnsetAttrs, firstTimeInsert);
+	}
+
+	@Override
+	public int deleteExpiredSearchQueries( long currTime, int maxNum )
+	{
+		return triggerIndex.removeExpiredTriggers(currTime, maxNum);
+	}
+	
+	@Override
+	public long getNextSearchQueryExpiryTime()
+	{
+		return triggerIndex.getNextExpiryTime();
+	}
+
+	@Override
+	public boolean checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace
+			( String groupGUID, String userIP, int userPort )
+					throws UnknownHostException
+	{
+		return primaryTriggerMap.putIfAbsent(getPrimaryKey(groupGUID, userIP, userPort), 
+				true) != null;
+	}
+
+	@Override
+	public void deleteSearchQueryRecordFromPrimaryTriggerSubspace
+			( String groupGUID, String userIP, int userPort )
+					throws UnknownHostException
+	{
+		primaryTriggerMap.remove(getPrimaryKey(groupGUID, userIP, userPort));
+	}
+
+	private static String getPrimaryKey( String groupGUID, String userIP, int userPort )
+			throws UnknownHostException
+	{
+		return Utils.byteArrayToHex(Utils.hexStringToByteArray(groupGUID))+":"
+				+InetAddress.getByName(userIP).getHostAddress()+":"+userPort;
+	}
+}
@@ -0,0 +1,221 @@
+package edu.umass.cs.contextservice.database.triggers;
+
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Interval tree over closed numeric intervals [low, high], used to find
+ * the stored queries whose range of an attribute contains a value.
+ *
+ * It is a treap ordered by the low end of the intervals, each node also
+ * stores the highest high end in its subtree, so a stabbing query skips
+ * the subtrees that can't contain the value. Insert, remove and stabbing
+ * take O(log n) expected time, plus the number of intervals returned.
+ * Several intervals can have the same low end, an interval is identified
+ * by its low end and an ID given by the caller.
+ *
+ * Not thread safe, callers have to synchronize.
+ * @author ayadav
+ */
+public class IntervalTree<V>
+{
+	private final Random priorityRand;
+	private Node<V> root;
+	private int size;
+
+	private static class Node<V>
+	{
+		final double low;
+		final double high;
+		final long id;
+		final V value;
+		final int priority;
+
+		double maxHigh;
+		Node<V> left;
+		Node<V> right;
+
+		Node( double low, double high, long id, V value, int priority )
+		{
+			this.low = low;
+			this.high = high;
+			this.id = id;
+			this.value = value;
+			this.priority = priority;
+			this.maxHigh = high;
+		}
+	}
+
+	public IntervalTree()
+	{
+		priorityRand = new Random();
+		root = null;
+		size = 0;
+	}
+
+	/**
+	 * Adds the interval [low, high] with the given value.
+	 * The pair of low and id must not be in the tree already.
+	 */
+	public void insert( double low, double high, long id, V value )
+	{
+		root = insert(root, new Node<V>(low, high, id, value, priorityRand.nextInt()));
+		size++;
+	}
+
+	/**
+	 * Removes the interval with the given low end and id.
+	 * Returns false if there is no such interval.
+	 */
+	public boolean remove( double low, long id )
+	{
+		int sizeBefore = size;
+		root = remove(root, low, id);
+		return size < sizeBefore;
+	}
+
+	/**
+	 * Adds the values of all intervals that contain the point to result.
+	 */
+	public void stab( double point, Collection<V> result )
+	{
+		stab(root, point, result);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private Node<V> insert( Node<V> node, Node<V> newNode )
+	{
+		if( node == null )
+			return newNode;
+
+		if( compareKeys(newNode.low, newNode.id, node) < 0 )
+		{
+			node.left = insert(node.left, newNode);
+			if( node.left.priority > node.priority )
+				node = rotateRight(node);
+		}
+		else
+		{
+			node.right = insert(node.right, newNode);
+			if( node.right.priority > node.priority )
+				node = rotateLeft(node);
+		}
+		updateMaxHigh(node);
+		return node;
+	}
+
+	private Node<V> remove( Node<V> node, double low, long id )
+	{
+		if( node == null )
+			return null;
+
+		int cmp = compareKeys(low, id, node);
+		if( cmp < 0 )
+		{
+			node.left = remove(node.left, low, id);
+		}
+		else if( cmp > 0 )
+		{
+			node.right = remove(node.right, low, id);
+		}
+		else
+		{
+			size--;
+			return merge(node.left, node.right);
+		}
+		updateMaxHigh(node);
+		return node;
+	}
+
+	/**
+	 * Merges two treaps, all keys in left are smaller than the keys in right.
+	 */
+	private Node<V> merge( Node<V> left, Node<V> right )
+	{
+		if( left == null )
+			return right;
+		if( right == null )
+			return left;
+
+		if( left.priority > right.priority )
+		{
+			left.right = merge(left.right, right);
+			updateMaxHigh(left);
+			return left;
+		}
+		else
+		{
+			right.left = merge(left, right.left);
+			updateMaxHigh(right);
+			return right;
+		}
+	}
+
+	private void stab( Node<V> node, double point, Collection<V> result )
+	{
+		while( node != null )
+		{
+			// no interval in this subtree reaches the point.
+			if( node.maxHigh < point )
+				return;
+
+			stab(node.left, point, result);
+
+			// intervals in the right subtree start at or after this one.
+			if( node.low > point )
+				return;
+
+			if( node.high >= point )
+				result.add(node.value);
+
+			node = node.right;
+		}
+	}
+
+	private Node<V> rotateRight( Node<V> node )
+	{
+		Node<V> newRoot = node.left;
+		node.left = newRoot.right;
+		newRoot.right = node;
+		updateMaxHigh(node);
+		updateMaxHigh(newRoot);
+		return newRoot;
+	}
+
+	private Node<V> rotateLeft( Node<V> node )
+	{
+		Node<V> newRoot = node.right;
+		node.right = newRoot.left;
+		newRoot.left = node;
+		updateMaxHigh(node);
+		updateMaxHigh(newRoot);
+		return newRoot;
+	}
+
+	private void updateMaxHigh( Node<V> node )
+	{
+		double maxHigh = node.high;
+		if( (node.left != null) && (node.left.maxHigh > maxHigh) )
+			maxHigh = node.left.maxHigh;
+		if( (node.right != null) && (node.right.maxHigh > maxHigh) )
+			maxHigh = node.right.maxHigh;
+		node.maxHigh = maxHigh;
+	}
+
+	/**
+	 * Orders by the low end and then the id, -0.0 and 0.0 are the same low end,
+	 * as values are compared like SQL does.
+	 */
+	private static int compareKeys( double low, long id, Node<?> node )
+	{
+		if( low < node.low )
+			return -1;
+		if( low > node.low )
+			return 1;
+		return Long.compare(id, node.id);
+	}
+}
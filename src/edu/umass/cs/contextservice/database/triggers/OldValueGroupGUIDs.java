@@ -109,7 +109,7 @@ public class OldValueGroupGUIDs implements Runnable
 				
 				GroupGUIDInfoClass groupGUIDInfo = new GroupGUIDInfoClass(
 						groupGUIDString, userIPString, userPort);
-				oldValGroupGUIDMap.put(groupGUIDString, groupGUIDInfo);
+				oldValGroupGUIDMap.put(groupGUIDInfo.getSubscriptionKey(), groupGUIDInfo);
 			}
 			rs.close();
 		} 
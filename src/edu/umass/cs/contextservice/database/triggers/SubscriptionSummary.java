@@ -0,0 +1,430 @@
+package edu.umass.cs.contextservice.database.triggers;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Compact summary of the search queries stored at a node, used to skip
+ * the trigger lookup of updates that no stored query can be triggered by.
+ *
+ * The value range of each numeric attribute is split into numBuckets equal
+ * buckets, values outside the range go to the first or the last bucket.
+ * A query is counted in the buckets of one attribute, its anchor, which is
+ * the numeric attribute whose range covers the fewest buckets, as an
+ * attribute the query doesn't specify covers all of them. A value can
+ * satisfy a query only if the value's bucket of the query's anchor attribute
+ * is covered by the query, so if for every attribute the value's bucket
+ * has a count of 0, no stored query is satisfied by the value.
+ * Queries with no numeric attribute are counted separately, and
+ * may be satisfied by any value.
+ * The summary never says no for a value that satisfies a query,
+ * it can say yes for a value that satisfies none.
+ *
+ * Queries are added and removed by key, a query added n times under a key
+ * is counted once and removed after n removes. Thread safe.
+ * @author ayadav
+ */
+public class SubscriptionSummary
+{
+	private final AttrValueSchema schema;
+	private final int numBuckets;
+
+	// range of each numeric attribute.
+	private final double[] minNums;
+	private final double[] maxNums;
+
+	// number of queries anchored at an attribute covering each bucket, 
+	// indexed by attribute ordinal, null for String attributes.
+	private final int[][] bucketCounts;
+	private int numUnanchored;
+	private final HashMap<String, SummaryEntry> entryMap;
+
+	// updates checked, and the ones that can't trigger any group.
+	private long numChecked;
+	private long numSkipped;
+
+	/**
+	 * The buckets a query covers, of its anchor attribute.
+	 */
+	private static class SummaryEntry
+	{
+		// -1 if the query has no numeric attribute.
+		int anchorOrd;
+		// first greater than last for a circular range.
+		int firstBucket;
+		int lastBucket;
+		int refCount;
+
+		SummaryEntry()
+		{
+			anchorOrd = -1;
+			refCount = 0;
+		}
+	}
+
+	public SubscriptionSummary( AttrValueSchema schema, int numBuckets )
+	{
+		assert( numBuckets > 0 );
+		this.schema = schema;
+		this.numBuckets = numBuckets;
+
+		int numAttrs = schema.getNumAttrs();
+		minNums = new double[numAttrs];
+		maxNums = new double[numAttrs];
+		bucketCounts = new int[numAttrs][];
+
+		for( int i=0; i<numAttrs; i++ )
+		{
+			if( schema.isStringAttr(i) )
+				continue;
+
+			minNums[i] = schema.toNumeric(i, schema.getAttrMetaInfo(i).getMinValue());
+			maxNums[i] = schema.toNumeric(i, schema.getAttrMetaInfo(i).getMaxValue());
+			bucketCounts[i] = new int[numBuckets];
+		}
+		numUnanchored = 0;
+		entryMap = new HashMap<String, SummaryEntry>();
+		numChecked = 0;
+		numSkipped = 0;
+	}
+
+	/**
+	 * Adds a query, the attributes not in valSpaceBoundary cover all buckets.
+	 */
+	public void addQuery( String key, HashMap<String, AttributeValueRange> valSpaceBoundary )
+	{
+		String[] lowerBounds = new String[schema.getNumAttrs()];
+		String[] upperBounds = new String[schema.getNumAttrs()];
+
+		Iterator<String> attrIter = valSpaceBoundary.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			int ordinal = schema.getOrdinal(attrName);
+			if( ordinal < 0 )
+				continue;
+
+			AttributeValueRange attrValRange = valSpaceBoundary.get(attrName);
+			lowerBounds[ordinal] = attrValRange.getLowerBound();
+			upperBounds[ordinal] = attrValRange.getUpperBound();
+		}
+		addQuery(key, lowerBounds, upperBounds);
+	}
+
+	/**
+	 * Adds a query with its bounds indexed by attribute ordinal,
+	 * a null bound covers all buckets of the attribute.
+	 */
+	public synchronized void addQuery( String key, String[] lowerBounds, String[] upperBounds )
+	{
+		SummaryEntry entry = entryMap.get(key);
+		if( entry == null )
+		{
+			entry = new SummaryEntry();
+			int anchorWidth = Integer.MAX_VALUE;
+
+			for( int i=0; i<schema.getNumAttrs(); i++ )
+			{
+				if( bucketCounts[i] == null )
+					continue;
+
+				int[] buckets = getBuckets(i, lowerBounds[i], upperBounds[i]);
+				int width = (buckets[0] <= buckets[1])? (buckets[1] - buckets[0] + 1)
+						: (numBuckets - buckets[0] + buckets[1] + 1);
+
+				if( width < anchorWidth )
+				{
+					anchorWidth = width;
+					entry.anchorOrd = i;
+					entry.firstBucket = buckets[0];
+					entry.lastBucket = buckets[1];
+				}
+			}
+			updateCounts(entry, 1);
+			entryMap.put(key, entry);
+		}
+		entry.refCount++;
+	}
+
+	/**
+	 * Removes a query added under the key.
+	 */
+	public synchronized void removeQuery( String key )
+	{
+		SummaryEntry entry = entryMap.get(key);
+		if( entry == null )
+			return;
+
+		entry.refCount--;
+		if( entry.refCount > 0 )
+			return;
+
+		updateCounts(entry, -1);
+		entryMap.remove(key);
+	}
+
+	/**
+	 * Returns false if the update can't add or remove the GUID
+	 * from any stored query's group, the arguments are those of
+	 * TriggerInformationStorageInterface.getTriggerDataInfo.
+	 */
+	public boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec,
+			JSONObject onlyUpdateAttrValJSON, int requestType,
+			JSONObject newUnsetAttrs, boolean firstTimeInsert )
+	{
+		boolean mayTrigger = false;
+		try
+		{
+			String[][] valuesToCheck = getValuesToCheck(oldGuidRec, onlyUpdateAttrValJSON,
+					requestType, newUnsetAttrs, firstTimeInsert);
+			for( int i=0; (i<valuesToCheck.length) && !mayTrigger; i++ )
+			{
+				mayTrigger = mayMatch(valuesToCheck[i]);
+			}
+		}
+		catch( JSONException jsonEx )
+		{
+			jsonEx.printStackTrace();
+			mayTrigger = true;
+		}
+
+		synchronized( this )
+		{
+			numChecked++;
+			if( !mayTrigger )
+				numSkipped++;
+		}
+		return mayTrigger;
+	}
+
+	/**
+	 * Returns the values of a GUID with which an update can change the
+	 * result of a query, each indexed by attribute ordinal. The new value
+	 * for a first time insert or an ADD_ENTRY, as the GUID joins the results
+	 * it satisfies, the old value for a REMOVE_ENTRY, and both for an UPDATE_ENTRY.
+	 */
+	public String[][] getValuesToCheck( HashIndexGUIDRecord oldGuidRec,
+			JSONObject onlyUpdateAttrValJSON, int requestType,
+			JSONObject newUnsetAttrs, boolean firstTimeInsert ) throws JSONException
+	{
+		if( firstTimeInsert &&
+				( (requestType == ValueUpdateToSubspaceRegionMessage.ADD_ENTRY) ||
+				  (requestType == ValueUpdateToSubspaceRegionMessage.UPDATE_ENTRY) ) )
+		{
+			// no old value.
+			return new String[][]{getNewValues(oldGuidRec, onlyUpdateAttrValJSON,
+					newUnsetAttrs)};
+		}
+		else if( requestType == ValueUpdateToSubspaceRegionMessage.REMOVE_ENTRY )
+		{
+			return new String[][]{getOldValues(oldGuidRec)};
+		}
+		else if( requestType == ValueUpdateToSubspaceRegionMessage.ADD_ENTRY )
+		{
+			return new String[][]{getNewValues(oldGuidRec, onlyUpdateAttrValJSON,
+					newUnsetAttrs)};
+		}
+		return new String[][]{getOldValues(oldGuidRec),
+				getNewValues(oldGuidRec, onlyUpdateAttrValJSON, newUnsetAttrs)};
+	}
+
+	/**
+	 * Returns false if no stored query can be satisfied by the values,
+	 * indexed by attribute ordinal. A null value is not known and
+	 * doesn't rule out any query.
+	 */
+	public synchronized boolean mayMatch( String[] values )
+	{
+		if( entryMap.isEmpty() )
+			return false;
+		if( numUnanchored > 0 )
+			return true;
+
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			if( bucketCounts[i] == null )
+				continue;
+
+			int bucket = (values[i] == null)? -1 : getBucket(i, values[i]);
+			if( bucket < 0 )
+			{
+				// any query anchored here may be satisfied.
+				if( hasAnchoredQueries(i) )
+					return true;
+			}
+			else if( bucketCounts[i][bucket] > 0 )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of distinct queries summarized.
+	 */
+	public synchronized int getNumQueries()
+	{
+		return entryMap.size();
+	}
+
+	public synchronized long getNumChecked()
+	{
+		return numChecked;
+	}
+
+	public synchronized long getNumSkipped()
+	{
+		return numSkipped;
+	}
+
+	/**
+	 * Returns the first and last bucket of a query's range of an attribute.
+	 */
+	private int[] getBuckets( int ordinal, String lower, String upper )
+	{
+		int firstBucket = (lower == null)? 0 : getBucket(ordinal, lower);
+		int lastBucket = (upper == null)? numBuckets-1 : getBucket(ordinal, upper);
+
+		if( (firstBucket < 0) || (lastBucket < 0) )
+		{
+			// bound not parsed, the query may cover any value.
+			firstBucket = 0;
+			lastBucket = numBuckets-1;
+		}
+		else if( (firstBucket == lastBucket) && (lower != null) && (upper != null)
+				&& (schema.toNumeric(ordinal, lower) > schema.toNumeric(ordinal, upper)) )
+		{
+			// circular range with both bounds in one bucket,
+			// covers everything but part of that bucket.
+			firstBucket = 0;
+			lastBucket = numBuckets-1;
+		}
+		return new int[]{firstBucket, lastBucket};
+	}
+
+	private void updateCounts( SummaryEntry entry, int delta )
+	{
+		if( entry.anchorOrd < 0 )
+		{
+			numUnanchored += delta;
+			return;
+		}
+
+		int firstBucket = entry.firstBucket;
+		int lastBucket = entry.lastBucket;
+		int[] counts = bucketCounts[entry.anchorOrd];
+
+		if( firstBucket <= lastBucket )
+		{
+			for( int b=firstBucket; b<=lastBucket; b++ )
+				counts[b] += delta;
+		}
+		else
+		{
+			// circular range, [min, upper] and [lower, max].
+			for( int b=0; b<=lastBucket; b++ )
+				counts[b] += delta;
+			for( int b=firstBucket; b<numBuckets; b++ )
+				counts[b] += delta;
+		}
+	}
+
+	private boolean hasAnchoredQueries( int ordinal )
+	{
+		int[] counts = bucketCounts[ordinal];
+		for( int b=0; b<numBuckets; b++ )
+		{
+			if( counts[b] > 0 )
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns -1 if the value can't be parsed.
+	 */
+	private int getBucket( int ordinal, String value )
+	{
+		double num;
+		try
+		{
+			num = schema.toNumeric(ordinal, value);
+		}
+		catch( NumberFormatException nfe )
+		{
+			return -1;
+		}
+		if( Double.isNaN(num) )
+			return -1;
+
+		double minNum = minNums[ordinal];
+		double maxNum = maxNums[ordinal];
+		if( (num <= minNum) || (maxNum <= minNum) )
+			return 0;
+		if( num >= maxNum )
+			return numBuckets-1;
+
+		int bucket = (int)( ((num - minNum)/(maxNum - minNum)) * numBuckets );
+		return Math.min(bucket, numBuckets-1);
+	}
+
+	/**
+	 * Same values as TriggerStabbingIndex matches the old value with.
+	 */
+	private String[] getOldValues( HashIndexGUIDRecord oldGuidRec ) throws JSONException
+	{
+		JSONObject oldUnsetAttrs = oldGuidRec.getUnsetAttrJSON();
+		String[] oldValues = new String[schema.getNumAttrs()];
+
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			String attrName = schema.getAttrName(i);
+			if( (oldUnsetAttrs != null) && oldUnsetAttrs.has(attrName) )
+			{
+				oldValues[i] = schema.getAttrMetaInfo(i).getDefaultValue();
+			}
+			else if( oldGuidRec.getAttrValJSON().has(attrName) )
+			{
+				oldValues[i] = oldGuidRec.getAttrValJSON().getString(attrName);
+			}
+		}
+		return oldValues;
+	}
+
+	/**
+	 * Same values as TriggerStabbingIndex matches the new value with.
+	 */
+	private String[] getNewValues( HashIndexGUIDRecord oldGuidRec,
+			JSONObject newJSONToWrite, JSONObject newUnsetAttrs ) throws JSONException
+	{
+		String[] newValues = new String[schema.getNumAttrs()];
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			String attrName = schema.getAttrName(i);
+			String attrVal = schema.getAttrMetaInfo(i).getDefaultValue();
+
+			if( !newUnsetAttrs.has(attrName) )
+			{
+				if( newJSONToWrite.has(attrName) )
+				{
+					attrVal = newJSONToWrite.getString(attrName);
+				}
+				else if( oldGuidRec.getAttrValJSON().has(attrName) )
+				{
+					attrVal = oldGuidRec.getAttrValJSON().getString(attrName);
+				}
+			}
+			newValues[i] = attrVal;
+		}
+		return newValues;
+	}
+}
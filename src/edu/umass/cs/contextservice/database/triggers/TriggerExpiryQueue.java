@@ -0,0 +1,125 @@
+package edu.umass.cs.contextservice.database.triggers;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Stored search queries ordered by their expiry time, so that
+ * the expired ones can be found without scanning the trigger table.
+ * Thread safe.
+ * @author ayadav
+ */
+public class TriggerExpiryQueue
+{
+	private final PriorityQueue<ExpiringTrigger> expiryQueue;
+
+	/**
+	 * A stored query, identified like a row of the trigger table.
+	 */
+	public static class ExpiringTrigger
+	{
+		private final String groupGUID;
+		private final String userIP;
+		private final int userPort;
+		private final long expiryTime;
+		// when the query is polled, its expiry time unless 
+		// the delete of its row is retried.
+		private final long pollTime;
+
+		public ExpiringTrigger( String groupGUID, String userIP, int userPort,
+				long expiryTime )
+		{
+			this(groupGUID, userIP, userPort, expiryTime, expiryTime);
+		}
+
+		private ExpiringTrigger( String groupGUID, String userIP, int userPort,
+				long expiryTime, long pollTime )
+		{
+			this.groupGUID = groupGUID;
+			this.userIP = userIP;
+			this.userPort = userPort;
+			this.expiryTime = expiryTime;
+			this.pollTime = pollTime;
+		}
+
+		public String getGroupGUID()
+		{
+			return this.groupGUID;
+		}
+
+		public String getUserIP()
+		{
+			return this.userIP;
+		}
+
+		public int getUserPort()
+		{
+			return this.userPort;
+		}
+
+		public long getExpiryTime()
+		{
+			return this.expiryTime;
+		}
+	}
+
+	public TriggerExpiryQueue()
+	{
+		expiryQueue = new PriorityQueue<ExpiringTrigger>(11, new Comparator<ExpiringTrigger>()
+		{
+			@Override
+			public int compare( ExpiringTrigger trig1, ExpiringTrigger trig2 )
+			{
+				return Long.compare(trig1.pollTime, trig2.pollTime);
+			}
+		});
+	}
+
+	public synchronized void add( ExpiringTrigger expiringTrigger )
+	{
+		expiryQueue.add(expiringTrigger);
+	}
+
+	/**
+	 * Adds back expired queries whose rows could not be deleted,
+	 * so that they are polled again at retryTime.
+	 */
+	public synchronized void addForRetry( List<ExpiringTrigger> failedList, long retryTime )
+	{
+		for( ExpiringTrigger failed : failedList )
+		{
+			expiryQueue.add(new ExpiringTrigger(failed.groupGUID, failed.userIP,
+					failed.userPort, failed.expiryTime, retryTime));
+		}
+	}
+
+	/**
+	 * Returns the time the next query is to be polled, 
+	 * Long.MAX_VALUE if there are no queries.
+	 */
+	public synchronized long getNextExpiryTime()
+	{
+		ExpiringTrigger first = expiryQueue.peek();
+		return (first == null)? Long.MAX_VALUE : first.pollTime;
+	}
+
+	/**
+	 * Removes up to maxNum queries whose expiry time, or retry time, 
+	 * is not after currTime, earliest first, and adds them to expiredList.
+	 */
+	public synchronized void pollExpired( long currTime, int maxNum,
+			List<ExpiringTrigger> expiredList )
+	{
+		while( (expiredList.size() < maxNum) && !expiryQueue.isEmpty()
+				&& (expiryQueue.peek().pollTime <= currTime) )
+		{
+			expiredList.add(expiryQueue.poll());
+		}
+	}
+
+	public synchronized int size()
+	{
+		return expiryQueue.size();
+	}
+}
@@ -8,6 +8,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -18,6 +23,7 @@ import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.config.ContextServiceConfig.SQL_DB_TYPE;
 import edu.umass.cs.contextservice.database.DBConstants;
 import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
@@ -34,16 +40,71 @@ import edu.umass.cs.contextservice.utils.Utils;
 public class TriggerInformationStorage implements 
 										TriggerInformationStorageInterface
 {
+	// the delete of expired queries whose rows couldn't be deleted is retried after this.
+	private static final long DELETE_RETRY_DELAY_MS					= 1000;
+	
 	//private final Integer myNodeID;
 	//private final HashMap<Integer, Vector<SubspaceInfo>> subspaceInfoMap;
 	private final AbstractDataSource dataSource;
 	
+	// null if ContextServiceConfig.inMemoryTriggerIndex is false, 
+	// otherwise the triggers are found using it and the table
+	// is only a durable log of the stored queries.
+	private final TriggerStabbingIndex triggerIndex;
+	
+	// stored queries by expiry time, so that exactly the expired rows are deleted.
+	private final TriggerExpiryQueue expiryQueue;
+	
+	// summary of the stored queries, the trigger index's one if there is 
+	// an index, null if ContextServiceConfig.triggerSummaryNumBuckets is 0.
+	private final SubscriptionSummary summary;
+	
+	// fetches the removed groups of an update while the calling thread 
+	// fetches the added groups, null if ContextServiceConfig.triggerEvalThreadPoolSize is 0.
+	private final ExecutorService oldGroupsES;
+	
 	public TriggerInformationStorage( Integer myNodeID, 
 			AbstractDataSource dataSource )
 	{
 		//this.myNodeID = myNodeID;
 		//this.subspaceInfoMap = subspaceInfoMap;
 		this.dataSource = dataSource;
+		
+		if( ContextServiceConfig.inMemoryTriggerIndex )
+		{
+			triggerIndex = new TriggerStabbingIndex(new AttrValueSchema(
+					AttributeTypes.attributeInOrderList, AttributeTypes.attributeMap));
+		}
+		else
+		{
+			triggerIndex = null;
+		}
+		expiryQueue = new TriggerExpiryQueue();
+		
+		if( triggerIndex != null )
+		{
+			summary = triggerIndex.getSummary();
+		}
+		else if( ContextServiceConfig.triggerSummaryNumBuckets > 0 )
+		{
+			summary = new SubscriptionSummary(new AttrValueSchema(
+					AttributeTypes.attributeInOrderList, AttributeTypes.attributeMap), 
+					ContextServiceConfig.triggerSummaryNumBuckets);
+		}
+		else
+		{
+			summary = null;
+		}
+		
+		if( ContextServiceConfig.triggerEvalThreadPoolSize > 0 )
+		{
+			oldGroupsES = Utils.createBoundedExecutor
+					(ContextServiceConfig.triggerEvalThreadPoolSize);
+		}
+		else
+		{
+			oldGroupsES = null;
+		}
 	}
 	
 	
@@ -135,6 +196,90 @@ public class TriggerInformationStorage implements
 				sqex.printStackTrace();
 			}
 		}
+		
+		loadStoredTriggers();
+	}
+	
+	/**
+	 * Adds the queries already stored in the table, like after a restart, 
+	 * to the expiry queue and the in-memory trigger index.
+	 */
+	private void loadStoredTriggers()
+	{
+		Connection myConn  = null;
+		Statement  stmt    = null;
+		
+		String tableName = DBConstants.ATTR_INDEX_TRIGGER_TABLE_NAME;
+		int numAttrs = AttributeTypes.attributeInOrderList.size();
+		int numLoaded = 0;
+		
+		try
+		{
+			myConn = dataSource.getConnection();
+			stmt   = myConn.createStatement();
+			
+			// the expired ones are also loaded, they are deleted 
+			// when the expiry thread next runs.
+			ResultSet rs = stmt.executeQuery("SELECT * FROM "+tableName);
+			
+			while( rs.next() )
+			{
+				String groupGUIDString = Utils.byteArrayToHex(rs.getBytes("groupGUID"));
+				String userIPString 
+					= InetAddress.getByAddress(rs.getBytes("userIP")).getHostAddress();
+				int userPort = rs.getInt("userPort");
+				long expiryTime = rs.getLong("expiryTime");
+				
+				expiryQueue.add(new TriggerExpiryQueue.ExpiringTrigger(groupGUIDString, 
+						userIPString, userPort, expiryTime));
+				
+				if( (triggerIndex != null) || (summary != null) )
+				{
+					String[] lowerBounds = new String[numAttrs];
+					String[] upperBounds = new String[numAttrs];
+					
+					for( int i=0; i<numAttrs; i++ )
+					{
+						String attrName = AttributeTypes.attributeInOrderList.get(i);
+						lowerBounds[i] = rs.getString("lower"+attrName);
+						upperBounds[i] = rs.getString("upper"+attrName);
+					}
+					
+					if( triggerIndex != null )
+					{
+						triggerIndex.addTrigger(lowerBounds, upperBounds, groupGUIDString, 
+								userIPString, userPort, expiryTime);
+					}
+					else
+					{
+						summary.addQuery(groupGUIDString, lowerBounds, upperBounds);
+					}
+				}
+				numLoaded++;
+			}
+			rs.close();
+			
+			ContextServiceLogger.getLogger().fine("loadStoredTriggers loaded "+numLoaded
+					+" queries");
+		} catch( SQLException mysqlEx )
+		{
+			mysqlEx.printStackTrace();
+		} catch( UnknownHostException e )
+		{
+			e.printStackTrace();
+		} finally
+		{
+			try
+			{
+				if( stmt != null )
+					stmt.close();
+				if( myConn != null )
+					myConn.close();
+			} catch(SQLException sqex)
+			{
+				sqex.printStackTrace();
+			}
+		}
 	}
 	
 	
@@ -203,6 +348,21 @@ public class TriggerInformationStorage implements
 			// execute insert SQL stetement
 			stmt.executeUpdate(insertTableSQL);
 			
+			// only after the insert succeeds, so that the index and the expiry 
+			// queue have the same queries as the table, which rejects duplicate ones.
+			String userIPString = InetAddress.getByName(userIP).getHostAddress();
+			expiryQueue.add(new TriggerExpiryQueue.ExpiringTrigger(groupGUID, 
+					userIPString, userPort, expiryTimeFromNow));
+			
+			if( triggerIndex != null )
+			{
+				triggerIndex.addTrigger(valSpaceBoundary, groupGUID, 
+						userIPString, userPort, expiryTimeFromNow);
+			}
+			else if( summary != null )
+			{
+				summary.addQuery(normalizeGUID(groupGUID), valSpaceBoundary);
+			}
 		} catch(SQLException sqlex)
 		{
 			sqlex.printStackTrace();
@@ -250,6 +410,20 @@ public class TriggerInformationStorage implements
 		// oldValJSON should contain all attribtues.
 		// newUpdateVal contains only updated attr:val pairs
 		
+		if( triggerIndex != null )
+		{
+			try
+			{
+				triggerIndex.getTriggerDataInfo(oldGuidRec, onlyUpdateAttrValJSON, 
+						removedGroupGUIDMap, addedGroupGUIDMap, requestType, 
+						newUnsetAttrs, firstTimeInsert);
+			}
+			catch(JSONException jsonEx)
+			{
+				jsonEx.printStackTrace();
+			}
+			return;
+		}
 		
 		if( requestType == ValueUpdateToSubspaceRegionMessage.REMOVE_ENTRY )
 		{
@@ -293,174 +467,52 @@ public class TriggerInformationStorage implements
 			{
 				// both old and new value GUIDs stored at same nodes,
 				// makes it possible to find which groupGUIDs needs to be triggered.
-				// in parallel
-				
-				
-				HashMap<String, GroupGUIDInfoClass> oldSatisfyingGroups 
-												= new HashMap<String, GroupGUIDInfoClass>();
-				
-				HashMap<String, GroupGUIDInfoClass> newSatisfyingGroups 
-												= new HashMap<String, GroupGUIDInfoClass>();
-				getOldAndNewValueSatisfyingGroups
-					(oldGuidRec, onlyUpdateAttrValJSON,  oldSatisfyingGroups, newSatisfyingGroups,
-							newUnsetAttrs);
-				
-				// computing removed groups
-				Iterator<String> groupGUIDIter = oldSatisfyingGroups.keySet().iterator();
-				
-				while( groupGUIDIter.hasNext() )
+				// removed groups are fetched on another thread in parallel 
+				// with the added groups, each on its own connection.
+				try
 				{
-					String oldGrpGUID = groupGUIDIter.next();
+					String queriesWithAttrs 
+						= getQueriesThatContainAttrsInUpdate
+						(onlyUpdateAttrValJSON);
+				
+					String oldGroupsQuery 
+						= getQueryToGetOldValueGroups(oldGuidRec);
+					
+					String newGroupsQuery = getQueryToGetNewValueGroups
+							( oldGuidRec, onlyUpdateAttrValJSON, newUnsetAttrs );
 					
-					// if newSatisfying GUID don;t have old value group GUID 
-					// then it is a removedGUIDTrigger
-					if( !newSatisfyingGroups.containsKey(oldGrpGUID) )
+					OldValueGroupGUIDs old = new OldValueGroupGUIDs
+					(oldGuidRec, removedGroupGUIDMap,
+							 dataSource, oldGroupsQuery, newGroupsQuery, queriesWithAttrs);
+					
+					Future<?> oldFuture = null;
+					if( oldGroupsES != null )
 					{
-						removedGroupGUIDMap.put(oldGrpGUID, oldSatisfyingGroups.get(oldGrpGUID));				
+						oldFuture = oldGroupsES.submit(old);
 					}
-				}
-				
-				// for added trigger
-				groupGUIDIter = newSatisfyingGroups.keySet().iterator();
-				
-				while( groupGUIDIter.hasNext() )
-				{
-					String newGrpGUID = groupGUIDIter.next();
+					else
+					{
+						old.run();
+					}
+					
+					returnAddedGroupGUIDs(oldGuidRec, 
+							onlyUpdateAttrValJSON, addedGroupGUIDMap, newUnsetAttrs, firstTimeInsert );
 					
-					// if oldSatisfyingGroups  don;t have new value group GUID 
-					// then it is a addedGUIDTrigger
-					if( !oldSatisfyingGroups.containsKey(newGrpGUID) )
+					if( oldFuture != null )
 					{
-						addedGroupGUIDMap.put(newGrpGUID, newSatisfyingGroups.get(newGrpGUID));				
+						oldFuture.get();
 					}
 				}
-				
-			}
-		}
-	}
-	
-	
-	private void getOldAndNewValueSatisfyingGroups
-				( HashIndexGUIDRecord oldGuidRec, JSONObject updateValJSON, 
-				HashMap<String, GroupGUIDInfoClass> oldSatisfyingGroups, 
-				HashMap<String, GroupGUIDInfoClass> newSatisfyingGroups
-				, JSONObject newUnsetAttrs )
-	{
-		String tableName 			= DBConstants.ATTR_INDEX_TRIGGER_TABLE_NAME;
-		
-		JSONObject oldUnsetAttrs 	= oldGuidRec.getUnsetAttrJSON();
-		
-		// it can be empty but should not be null
-		assert( oldUnsetAttrs != null );
-		
-		Connection myConn 			= null;
-		Statement stmt 				= null;
-		
-		//FIXME: DONE: it could be changed to calculating tobe removed GUIDs right here.
-		// in one single mysql query once can check to old group guid and new group guids
-		// and return groupGUIDs which are in old value but no in new value.
-		// but usually complex queries have more cost, so not sure if it would help.
-		// but this optimization can be checked later on if number of group guids returned becomes 
-		// an issue later on. 
-		
-		try
-		{
-			String queriesWithAttrs 
-				= getQueriesThatContainAttrsInUpdate(updateValJSON);
-			
-			String oldGroupsQuery 
-				= getQueryToGetOldValueGroups(oldGuidRec);
-			
-			String oldGroupQuery = "SELECT groupGUID, userIP, userPort FROM "+tableName
-					+ " WHERE "
-					+ " groupGUID IN ( "+queriesWithAttrs+" ) AND "
- 				    + " groupGUID IN ( "+oldGroupsQuery+" ) ";
-			
-			ContextServiceLogger.getLogger().fine("returnOldValueGroupGUIDs getTriggerInfo "
-												+oldGroupQuery);
-			myConn 	     = dataSource.getConnection();
-			stmt   		 = myConn.createStatement();
-			
-			ResultSet rs = stmt.executeQuery(oldGroupQuery);
-			
-			while( rs.next() )
-			{
-				// FIXME: need to replace these with macros
-				byte[] groupGUIDBytes = rs.getBytes("groupGUID");
-				String groupGUIDString = Utils.byteArrayToHex(groupGUIDBytes);
-				byte[] ipAddressBytes = rs.getBytes("userIP");
-				String userIPString = InetAddress.getByAddress(ipAddressBytes).getHostAddress();
-				int userPort = rs.getInt("userPort");
-				
-				GroupGUIDInfoClass groupGUIDInfo = new GroupGUIDInfoClass(
-						groupGUIDString, userIPString, userPort);
-				oldSatisfyingGroups.put(groupGUIDString, groupGUIDInfo);
-			}
-			rs.close();
-			
-			
-			// for new value
-			
-//			String queriesWithAttrs = TriggerInformationStorage.getQueriesThatContainAttrsInUpdate
-//					(newUpdateVal, subspaceId);
-			
-			String selectQuery = "SELECT groupGUID, userIP, userPort FROM "+tableName
-					+" WHERE ";
-			
-			String newGroupsQuery = 
-					getQueryToGetNewValueGroups
-					( oldGuidRec, updateValJSON, 
-							newUnsetAttrs);
-			
-			selectQuery = selectQuery 
-					+ " groupGUID IN ( "+queriesWithAttrs+" ) AND "
-//					+ " groupGUID NOT IN ( "+oldGroupsQuery+" ) AND "
-					+ " groupGUID IN ( "+newGroupsQuery+" ) ";
-			
-			rs = stmt.executeQuery(selectQuery);
-			
-			while( rs.next() )
-			{
-				// FIXME: need to replace these with macros
-				byte[] groupGUIDBytes = rs.getBytes("groupGUID");
-				String groupGUIDString = Utils.byteArrayToHex(groupGUIDBytes);
-				byte[] ipAddressBytes = rs.getBytes("userIP");
-				String userIPString = InetAddress.getByAddress(ipAddressBytes).getHostAddress();
-				int userPort = rs.getInt("userPort");
-				
-				GroupGUIDInfoClass groupGUIDInfo = new GroupGUIDInfoClass(
-						groupGUIDString, userIPString, userPort);
-				newSatisfyingGroups.put(groupGUIDString, groupGUIDInfo);
+				catch(JSONException jsonEx)
+				{
+					jsonEx.printStackTrace();
+				}
+				catch(ExecutionException execEx)
+				{
+					execEx.printStackTrace();
+				}
 			}
-			rs.close();
-			
-		}
-		catch (SQLException e)
-		{
-			e.printStackTrace();
-		}
-		catch (JSONException e)
-		{
-			e.printStackTrace();
 		}
-		catch (UnknownHostException e)
-		{
-			e.printStackTrace();
-		}
-		finally
-		{
-			try
-			{
-				if (stmt != null)
-					stmt.close();
-				if (myConn != null)
-					myConn.close();
-			}
-			catch(SQLException e)
-			{
-				e.printStackTrace();
-			}
-		}	
 	}
 	
 	/**
@@ -716,41 +768,104 @@ public class TriggerInformationStorage implements
 	 * and deletes expired queries.
 	 * @return
 	 */
-	public int deleteExpiredSearchQueries()
+	public int deleteExpiredSearchQueries( long currTime, int maxNum )
 	{
-		long currTime = System.currentTimeMillis();
-		int rumRowsDeleted = -1;
+		int rumRowsDeleted = 0;
+		
+		List<TriggerExpiryQueue.ExpiringTrigger> expiredList 
+					= new LinkedList<TriggerExpiryQueue.ExpiringTrigger>();
+		expiryQueue.pollExpired(currTime, maxNum, expiredList);
+		
+		if( expiredList.isEmpty() )
+			return 0;
 		
 		String tableName = DBConstants.ATTR_INDEX_TRIGGER_TABLE_NAME;
 		
-		String deleteCommand = "DELETE FROM "+tableName+" WHERE expiryTime <= "+currTime;
-		Connection myConn 	= null;
-		Statement stmt 		= null;
+		// deletes exactly the expired rows, instead of a range delete 
+		// on expiryTime that locks the rows the trigger lookups read.
+		String deleteCommand = "DELETE FROM "+tableName+" WHERE ";
+		List<TriggerExpiryQueue.ExpiringTrigger> toDeleteList 
+					= new LinkedList<TriggerExpiryQueue.ExpiringTrigger>();
 		
-		try
+		Iterator<TriggerExpiryQueue.ExpiringTrigger> expiredIter = expiredList.iterator();
+		while( expiredIter.hasNext() )
 		{
-			myConn = this.dataSource.getConnection();
-			stmt = myConn.createStatement();
-			rumRowsDeleted = stmt.executeUpdate(deleteCommand);
-		} catch(SQLException sqex)
-		{
-			sqex.printStackTrace();
+			TriggerExpiryQueue.ExpiringTrigger expired = expiredIter.next();
+			String ipInHex;
+			try
+			{
+				ipInHex = Utils.byteArrayToHex
+						(InetAddress.getByName(expired.getUserIP()).getAddress());
+			} catch(UnknownHostException e)
+			{
+				// its row wasn't stored either, as it is stored with the same address.
+				e.printStackTrace();
+				continue;
+			}
+			
+			if( !toDeleteList.isEmpty() )
+				deleteCommand = deleteCommand + " OR ";
+			
+			deleteCommand = deleteCommand + "( groupGUID = X'"+expired.getGroupGUID()
+					+"' AND userIP = X'"+ipInHex+"' AND userPort = "+expired.getUserPort()
+					+" AND expiryTime = "+expired.getExpiryTime()+" )";
+			toDeleteList.add(expired);
 		}
-		finally
+		
+		boolean deleted = toDeleteList.isEmpty();
+		Connection myConn 	= null;
+		Statement stmt 		= null;
+		
+		if( !deleted )
 		{
 			try
 			{
-				if(myConn != null)
+				myConn = this.dataSource.getConnection();
+				stmt = myConn.createStatement();
+				rumRowsDeleted = stmt.executeUpdate(deleteCommand);
+				deleted = true;
+			} catch(SQLException sqex)
+			{
+				sqex.printStackTrace();
+			}
+			finally
+			{
+				try
 				{
-					myConn.close();
-				}
-				if(	stmt != null )
+					if(	stmt != null )
+					{
+						stmt.close();
+					}
+					if(myConn != null)
+					{
+						myConn.close();
+					}
+				} catch(SQLException sqex)
 				{
-					stmt.close();
+					sqex.printStackTrace();
 				}
-			} catch(SQLException sqex)
+			}
+		}
+		
+		if( triggerIndex != null )
+		{
+			triggerIndex.removeExpiredTriggers(currTime, maxNum);
+		}
+		
+		if( !deleted )
+		{
+			// the rows are still in the table, their delete is retried.
+			expiryQueue.addForRetry(toDeleteList, currTime+DELETE_RETRY_DELAY_MS);
+			return 0;
+		}
+		
+		// the summary of the index is updated by the index.
+		if( (triggerIndex == null) && (summary != null) )
+		{
+			expiredIter = expiredList.iterator();
+			while( expiredIter.hasNext() )
 			{
-				sqex.printStackTrace();
+				summary.removeQuery(normalizeGUID(expiredIter.next().getGroupGUID()));
 			}
 		}
 		
@@ -758,6 +873,34 @@ public class TriggerInformationStorage implements
 	}
 	
 	
+	@Override
+	public long getNextSearchQueryExpiryTime()
+	{
+		return expiryQueue.getNextExpiryTime();
+	}
+	
+	@Override
+	public boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec, 
+			JSONObject updateAttrJSON, int requestType, JSONObject newUnsetAttrs,
+			boolean firstTimeInsert )
+	{
+		if( summary == null )
+			return true;
+		
+		return summary.mayTriggerGroups(oldGuidRec, updateAttrJSON, requestType, 
+				newUnsetAttrs, firstTimeInsert);
+	}
+	
+	/**
+	 * groupGUIDs are summarized in the hex format of the ones 
+	 * read from the BINARY column.
+	 */
+	private static String normalizeGUID( String groupGUID )
+	{
+		return Utils.byteArrayToHex(Utils.hexStringToByteArray(groupGUID));
+	}
+	
+	
 	private void returnAddedGroupGUIDs( HashIndexGUIDRecord oldGuidRec, 
 			JSONObject newUpdateVal, 
 			HashMap<String, GroupGUIDInfoClass> newValGroupGUIDMap, 
@@ -820,7 +963,7 @@ public class TriggerInformationStorage implements
 				int userPort = rs.getInt("userPort");
 				GroupGUIDInfoClass groupGUIDInfoClass = new GroupGUIDInfoClass(
 						groupGUIDString, userIPString, userPort);
-				newValGroupGUIDMap.put(groupGUIDString, groupGUIDInfoClass);
+				newValGroupGUIDMap.put(groupGUIDInfoClass.getSubscriptionKey(), groupGUIDInfoClass);
 			}
 			rs.close();
 		} catch (SQLException e)
@@ -913,6 +1056,46 @@ public class TriggerInformationStorage implements
 	}
 	
 	
+	public void deleteSearchQueryRecordFromPrimaryTriggerSubspace
+			(String groupGUID, String userIP, int userPort) 
+					throws UnknownHostException
+	{
+		String tableName 			= DBConstants.HASH_INDEX_TRIGGER_TABLE_NAME;
+		
+		String ipInHex = Utils.byteArrayToHex
+						(InetAddress.getByName(userIP).getAddress());
+		
+		String deleteCommand 		= "DELETE FROM "+tableName+" WHERE groupGUID = X'"+groupGUID
+				+"'"+" AND userIP = X'"+ipInHex+"'"+" AND userPort = "+userPort;
+		
+		Connection myConn 			= null;
+		Statement stmt 				= null;
+		
+		try
+		{
+			myConn 		 	= this.dataSource.getConnection();
+			stmt 		 	= myConn.createStatement();
+			stmt.executeUpdate(deleteCommand);
+		} catch (SQLException e)
+		{
+			e.printStackTrace();
+		} finally
+		{
+			try
+			{
+				if (stmt != null)
+					stmt.close();
+				if (myConn != null)
+					myConn.close();
+			}
+			catch(SQLException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	
 	private String getPartitionInfoStorageString(String newTableCommand)
 	{
 		// query and default value mechanics
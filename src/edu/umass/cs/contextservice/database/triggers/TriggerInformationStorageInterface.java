@@ -30,9 +30,37 @@ public interface TriggerInformationStorageInterface
 			int requestType, JSONObject newUnsetAttrs,
 			boolean firstTimeInsert ) throws InterruptedException;
 	
-	public int deleteExpiredSearchQueries();
+	/**
+	 * Returns false if the update can't add or remove the GUID from any 
+	 * stored query's group, so getTriggerDataInfo need not be called.
+	 * Returns true if that is not known.
+	 */
+	public boolean mayTriggerGroups( HashIndexGUIDRecord oldGuidRec, 
+			JSONObject updateAttrJSON, int requestType, JSONObject newUnsetAttrs,
+			boolean firstTimeInsert );
+	
+	/**
+	 * Deletes up to maxNum stored queries whose expiry time 
+	 * is not after currTime, earliest first.
+	 * Returns the number of queries deleted.
+	 */
+	public int deleteExpiredSearchQueries( long currTime, int maxNum );
+	
+	/**
+	 * Returns the earliest expiry time of the stored queries, 
+	 * Long.MAX_VALUE if there are none.
+	 */
+	public long getNextSearchQueryExpiryTime();
 	
 	public boolean checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace
 			( String groupGUID, String userIP, int userPort )
 					throws UnknownHostException;
+	
+	/**
+	 * Deletes the record inserted by checkAndInsertSearchQueryRecordFromPrimaryTriggerSubspace, 
+	 * once the query expires.
+	 */
+	public void deleteSearchQueryRecordFromPrimaryTriggerSubspace
+			( String groupGUID, String userIP, int userPort )
+					throws UnknownHostException;
 }
\ No newline at end of file
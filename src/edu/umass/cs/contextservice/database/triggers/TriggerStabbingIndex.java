@@ -0,0 +1,810 @@
+package edu.umass.cs.contextservice.database.triggers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.utils.Utils;
+
+/**
+ * In-memory index of stored search queries, that finds the groups
+ * whose query box contains a GUID's value without looking at every query.
+ *
+ * A trigger row stores the lower and upper bound of every attribute,
+ * with the attributes not in the query set to the whole range
+ * including the default value, as in the SQL trigger table.
+ * Each row is put in the interval tree of one numeric attribute, its anchor,
+ * which is the attribute whose range covers the smallest fraction of the
+ * attribute's value space. A circular range, lower bound greater than upper
+ * bound, is put in the tree as the two intervals [min, upper] and [lower, max].
+ * To find the rows a value satisfies, the tree of each attribute is stabbed
+ * with the value of that attribute, and the rows found are checked on all
+ * attributes, with the same predicates that TriggerInformationStorage
+ * uses in its SQL queries. Rows that have no numeric attribute are
+ * checked for every lookup.
+ *
+ * Subscriptions to the same query share one row, as identical queries
+ * get the same groupGUID. The row keeps the list of its subscribers,
+ * each with its own expiry time, so a query is checked once per update
+ * however many clients subscribed to it, and the result is fanned out
+ * to all subscribers. The row is removed when its last subscriber expires.
+ *
+ * The rows are also counted in a SubscriptionSummary, which tells
+ * without a lookup that an update can't trigger any group.
+ *
+ * Lookups take a read lock, so updates of different GUIDs look up
+ * in parallel, inserting and removing rows takes the write lock.
+ * @author ayadav
+ */
+public class TriggerStabbingIndex
+{
+	private final AttrValueSchema schema;
+
+	// query bounds used for the attributes not specified in a query.
+	private final String[] queryMinDefaults;
+	private final String[] queryMaxDefaults;
+
+	private final List<IntervalTree<TriggerRow>> attrTrees;
+	private final List<TriggerRow> unanchoredRows;
+	// key is the normalized groupGUID, one row per distinct query.
+	private final HashMap<String, TriggerRow> groupRowMap;
+	private final PriorityQueue<Subscriber> expiryQueue;
+	private final ReentrantReadWriteLock rwLock;
+	// null if ContextServiceConfig.triggerSummaryNumBuckets is 0.
+	private final SubscriptionSummary summary;
+
+	// guarded by the write lock.
+	private long nextRowId;
+	private int numSubscribers;
+
+	public TriggerStabbingIndex( AttrValueSchema schema )
+	{
+		this.schema = schema;
+
+		int numAttrs = schema.getNumAttrs();
+		queryMinDefaults = new String[numAttrs];
+		queryMaxDefaults = new String[numAttrs];
+		attrTrees = new ArrayList<IntervalTree<TriggerRow>>(numAttrs);
+
+		for( int i=0; i<numAttrs; i++ )
+		{
+			setQueryDefaults(i);
+			attrTrees.add(new IntervalTree<TriggerRow>());
+		}
+
+		unanchoredRows = new ArrayList<TriggerRow>();
+		groupRowMap = new HashMap<String, TriggerRow>();
+		expiryQueue = new PriorityQueue<Subscriber>(11, new Comparator<Subscriber>()
+		{
+			@Override
+			public int compare( Subscriber sub1, Subscriber sub2 )
+			{
+				return Long.compare(sub1.expiryTime, sub2.expiryTime);
+			}
+		});
+		rwLock = new ReentrantReadWriteLock();
+		
+		if( ContextServiceConfig.triggerSummaryNumBuckets > 0 )
+		{
+			summary = new SubscriptionSummary(schema, 
+					ContextServiceConfig.triggerSummaryNumBuckets);
+		}
+		else
+		{
+			summary = null;
+		}
+		nextRowId = 0;
+		numSubscribers = 0;
+	}
+
+	/**
+	 * Adds a query, the attributes not in valSpaceBoundary get the default bounds.
+	 * userIP should be in the InetAddress.getHostAddress format, the format
+	 * that the triggers are returned in.
+	 */
+	public void addTrigger( HashMap<String, AttributeValueRange> valSpaceBoundary,
+			String groupGUID, String userIP, int userPort, long expiryTime )
+	{
+		String[] lowerBounds = new String[schema.getNumAttrs()];
+		String[] upperBounds = new String[schema.getNumAttrs()];
+
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			AttributeValueRange attrValRange = valSpaceBoundary.get(schema.getAttrName(i));
+
+			if( attrValRange != null )
+			{
+				lowerBounds[i] = attrValRange.getLowerBound();
+				upperBounds[i] = attrValRange.getUpperBound();
+			}
+			else
+			{
+				lowerBounds[i] = queryMinDefaults[i];
+				upperBounds[i] = queryMaxDefaults[i];
+			}
+		}
+		addTrigger(lowerBounds, upperBounds, groupGUID, userIP, userPort, expiryTime);
+	}
+
+	/**
+	 * Adds a query with the bounds of every attribute given,
+	 * indexed by the attribute ordinal.
+	 * If the group's query is already stored, userIP:userPort is added to its
+	 * subscribers, and a subscriber that is already there keeps the later
+	 * of its two expiry times.
+	 */
+	public void addTrigger( String[] lowerBounds, String[] upperBounds,
+			String groupGUID, String userIP, int userPort, long expiryTime )
+	{
+		String normGroupGUID = normalizeGUID(groupGUID);
+
+		rwLock.writeLock().lock();
+		try
+		{
+			TriggerRow triggerRow = groupRowMap.get(normGroupGUID);
+			if( triggerRow == null )
+			{
+				triggerRow = new TriggerRow(normGroupGUID);
+				for( int i=0; i<schema.getNumAttrs(); i++ )
+				{
+					triggerRow.setBounds(i, lowerBounds[i], upperBounds[i]);
+				}
+				triggerRow.rowId = nextRowId++;
+				indexRow(triggerRow);
+				groupRowMap.put(normGroupGUID, triggerRow);
+				if( summary != null )
+				{
+					summary.addQuery(normGroupGUID, lowerBounds, upperBounds);
+				}
+			}
+
+			String ipPortKey = userIP+":"+userPort;
+			Subscriber currSub = triggerRow.subscribers.get(ipPortKey);
+			if( (currSub != null) && (currSub.expiryTime >= expiryTime) )
+				return;
+
+			if( currSub == null )
+				numSubscribers++;
+
+			// the old entry of the subscriber, if any, stays in the
+			// expiry queue and is skipped when it is polled.
+			Subscriber subscriber = new Subscriber(triggerRow, userIP, userPort, expiryTime);
+			triggerRow.subscribers.put(ipPortKey, subscriber);
+			expiryQueue.add(subscriber);
+		}
+		finally
+		{
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes up to maxNum subscriptions whose expiry time is not after currTime,
+	 * earliest first, and the queries that have no subscribers left.
+	 * Returns the number of subscriptions removed.
+	 */
+	public int removeExpiredTriggers( long currTime, int maxNum )
+	{
+		int numRemoved = 0;
+		rwLock.writeLock().lock();
+		try
+		{
+			while( (numRemoved < maxNum) && !expiryQueue.isEmpty() 
+					&& (expiryQueue.peek().expiryTime <= currTime) )
+			{
+				Subscriber subscriber = expiryQueue.poll();
+				TriggerRow triggerRow = subscriber.triggerRow;
+				String ipPortKey = subscriber.userIP+":"+subscriber.userPort;
+
+				// entry replaced by a later expiry of the same subscriber.
+				if( triggerRow.subscribers.get(ipPortKey) != subscriber )
+					continue;
+
+				triggerRow.subscribers.remove(ipPortKey);
+				numSubscribers--;
+				numRemoved++;
+
+				if( triggerRow.subscribers.isEmpty() )
+				{
+					unindexRow(triggerRow);
+					groupRowMap.remove(triggerRow.groupGUID);
+					if( summary != null )
+					{
+						summary.removeQuery(triggerRow.groupGUID);
+					}
+				}
+			}
+		}
+		finally
+		{
+			rwLock.writeLock().unlock();
+		}
+		return numRemoved;
+	}
+	
+	/**
+	 * Returns Long.MAX_VALUE if there are no queries.
+	 */
+	public long getNextExpiryTime()
+	{
+		rwLock.readLock().lock();
+		try
+		{
+			Subscriber first = expiryQueue.peek();
+			return (first == null)? Long.MAX_VALUE : first.expiryTime;
+		}
+		finally
+		{
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of distinct queries stored.
+	 */
+	public int getNumTriggers()
+	{
+		rwLock.readLock().lock();
+		try
+		{
+			return groupRowMap.size();
+		}
+		finally
+		{
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of subscriptions, over all queries.
+	 */
+	public int getNumSubscribers()
+	{
+		rwLock.readLock().lock();
+		try
+		{
+			return numSubscribers;
+		}
+		finally
+		{
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns null if ContextServiceConfig.triggerSummaryNumBuckets is 0.
+	 */
+	public SubscriptionSummary getSummary()
+	{
+		return this.summary;
+	}
+
+	/**
+	 * Same as TriggerInformationStorageInterface.getTriggerDataInfo.
+	 */
+	public void getTriggerDataInfo( HashIndexGUIDRecord oldGuidRec,
+			JSONObject onlyUpdateAttrValJSON,
+			HashMap<String, GroupGUIDInfoClass> removedGroupGUIDMap,
+			HashMap<String, GroupGUIDInfoClass> addedGroupGUIDMap,
+			int requestType, JSONObject newUnsetAttrs,
+			boolean firstTimeInsert ) throws JSONException
+	{
+		UpdateValues newValues = getNewValues(oldGuidRec, onlyUpdateAttrValJSON,
+				newUnsetAttrs);
+
+		if( firstTimeInsert &&
+				( (requestType == ValueUpdateToSubspaceRegionMessage.ADD_ENTRY) ||
+				  (requestType == ValueUpdateToSubspaceRegionMessage.UPDATE_ENTRY) ) )
+		{
+			// no old value, so only groups satisfied by the new value.
+			getMatchingGroups(newValues, addedGroupGUIDMap);
+			return;
+		}
+
+		UpdateValues oldValues = getOldValues(oldGuidRec);
+		int[] updateAttrOrdinals = getUpdateAttrOrdinals(onlyUpdateAttrValJSON);
+
+		if( requestType == ValueUpdateToSubspaceRegionMessage.REMOVE_ENTRY )
+		{
+			getChangedGroups(updateAttrOrdinals, oldValues, newValues,
+					removedGroupGUIDMap, null);
+		}
+		else if( requestType == ValueUpdateToSubspaceRegionMessage.ADD_ENTRY )
+		{
+			getChangedGroups(updateAttrOrdinals, oldValues, newValues,
+					null, addedGroupGUIDMap);
+		}
+		else if( requestType == ValueUpdateToSubspaceRegionMessage.UPDATE_ENTRY )
+		{
+			getChangedGroups(updateAttrOrdinals, oldValues, newValues,
+					removedGroupGUIDMap, addedGroupGUIDMap);
+		}
+	}
+
+	private void getMatchingGroups( UpdateValues values,
+			HashMap<String, GroupGUIDInfoClass> groupGUIDMap )
+	{
+		List<TriggerRow> candidates = new ArrayList<TriggerRow>();
+
+		// held while the rows are checked, as the subscriber lists can change.
+		rwLock.readLock().lock();
+		try
+		{
+			stabRows(values, candidates);
+
+			for( int i=0; i<candidates.size(); i++ )
+			{
+				TriggerRow triggerRow = candidates.get(i);
+				if( triggerRow.matches(values) )
+				{
+					triggerRow.addSubscriptions(groupGUIDMap);
+				}
+			}
+		}
+		finally
+		{
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds groups that satisfy the old value but not the new value to removedGroupGUIDMap
+	 * and groups that satisfy the new value but not the old value to addedGroupGUIDMap.
+	 * Only queries that specify all attributes of the update are considered, as in
+	 * TriggerInformationStorage. Either map can be null if not needed.
+	 * Rows found for the old and the new value are checked against both
+	 * values once, so each row gives its diff in one pass.
+	 */
+	private void getChangedGroups( int[] updateAttrOrdinals,
+			UpdateValues oldValues, UpdateValues newValues,
+			HashMap<String, GroupGUIDInfoClass> removedGroupGUIDMap,
+			HashMap<String, GroupGUIDInfoClass> addedGroupGUIDMap )
+	{
+		HashSet<TriggerRow> candidates = new HashSet<TriggerRow>();
+
+		rwLock.readLock().lock();
+		try
+		{
+			stabRows(oldValues, candidates);
+			stabRows(newValues, candidates);
+
+			Iterator<TriggerRow> rowIter = candidates.iterator();
+			while( rowIter.hasNext() )
+			{
+				TriggerRow triggerRow = rowIter.next();
+
+				if( !triggerRow.containsAttrs(updateAttrOrdinals) )
+					continue;
+
+				boolean oldMatch = triggerRow.matches(oldValues);
+				boolean newMatch = triggerRow.matches(newValues);
+
+				if( oldMatch && !newMatch && (removedGroupGUIDMap != null) )
+				{
+					triggerRow.addSubscriptions(removedGroupGUIDMap);
+				}
+				else if( !oldMatch && newMatch && (addedGroupGUIDMap != null) )
+				{
+					triggerRow.addSubscriptions(addedGroupGUIDMap);
+				}
+			}
+		}
+		finally
+		{
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds the rows whose anchor range contains the value to candidates,
+	 * which is a superset of the rows the value satisfies.
+	 * Must be called with the read or write lock held.
+	 */
+	private void stabRows( UpdateValues values, Collection<TriggerRow> candidates )
+	{
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			IntervalTree<TriggerRow> attrTree = attrTrees.get(i);
+			if( attrTree.size() > 0 )
+			{
+				attrTree.stab(values.numVals[i], candidates);
+			}
+		}
+		candidates.addAll(unanchoredRows);
+	}
+
+	/**
+	 * Puts the row in the tree of its most selective numeric attribute.
+	 * Must be called with the write lock held.
+	 */
+	private void indexRow( TriggerRow triggerRow )
+	{
+		int anchorOrd = -1;
+		double anchorFraction = Double.MAX_VALUE;
+
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			if( schema.isStringAttr(i) )
+				continue;
+
+			double fraction = getRangeFraction(triggerRow, i);
+			if( fraction < anchorFraction )
+			{
+				anchorOrd = i;
+				anchorFraction = fraction;
+			}
+		}
+
+		triggerRow.anchorOrd = anchorOrd;
+		if( anchorOrd < 0 )
+		{
+			unanchoredRows.add(triggerRow);
+			return;
+		}
+
+		IntervalTree<TriggerRow> attrTree = attrTrees.get(anchorOrd);
+		double lower = triggerRow.lowerNum[anchorOrd];
+		double upper = triggerRow.upperNum[anchorOrd];
+
+		if( lower <= upper )
+		{
+			attrTree.insert(lower, upper, triggerRow.rowId, triggerRow);
+		}
+		else if( !ContextServiceConfig.disableCircularQueryTrigger )
+		{
+			// circular query, [min, upper] or [lower, max]
+			attrTree.insert(getMinNum(anchorOrd), upper, triggerRow.rowId, triggerRow);
+			attrTree.insert(lower, getMaxNum(anchorOrd), triggerRow.rowId, triggerRow);
+		}
+		// otherwise the row matches no value, so it is not put in the tree.
+	}
+
+	/**
+	 * Must be called with the write lock held.
+	 */
+	private void unindexRow( TriggerRow triggerRow )
+	{
+		int anchorOrd = triggerRow.anchorOrd;
+		if( anchorOrd < 0 )
+		{
+			unanchoredRows.remove(triggerRow);
+			return;
+		}
+
+		IntervalTree<TriggerRow> attrTree = attrTrees.get(anchorOrd);
+		double lower = triggerRow.lowerNum[anchorOrd];
+		double upper = triggerRow.upperNum[anchorOrd];
+
+		if( lower <= upper )
+		{
+			attrTree.remove(lower, triggerRow.rowId);
+		}
+		else
+		{
+			attrTree.remove(getMinNum(anchorOrd), triggerRow.rowId);
+			attrTree.remove(lower, triggerRow.rowId);
+		}
+	}
+
+	/**
+	 * Returns the fraction of the value space of a numeric attribute
+	 * that the row's range covers, 0 if the range matches no value.
+	 */
+	private double getRangeFraction( TriggerRow triggerRow, int ordinal )
+	{
+		double minNum = getMinNum(ordinal);
+		double maxNum = getMaxNum(ordinal);
+		double lower = triggerRow.lowerNum[ordinal];
+		double upper = triggerRow.upperNum[ordinal];
+
+		double width;
+		if( lower <= upper )
+		{
+			width = upper - lower;
+		}
+		else if( !ContextServiceConfig.disableCircularQueryTrigger )
+		{
+			width = (upper - minNum) + (maxNum - lower);
+		}
+		else
+		{
+			return 0;
+		}
+		return (maxNum > minNum)? width/(maxNum - minNum) : 0;
+	}
+
+	private double getMinNum( int ordinal )
+	{
+		return schema.toNumeric(ordinal, schema.getAttrMetaInfo(ordinal).getMinValue());
+	}
+
+	private double getMaxNum( int ordinal )
+	{
+		return schema.toNumeric(ordinal, schema.getAttrMetaInfo(ordinal).getMaxValue());
+	}
+
+	/**
+	 * Same defaults as the lower and upper columns of the SQL trigger table,
+	 * so that a query matches GUIDs for the attributes it doesn't specify.
+	 */
+	private void setQueryDefaults( int ordinal )
+	{
+		AttributeMetaInfo attrMetaInfo = schema.getAttrMetaInfo(ordinal);
+		String dataType = attrMetaInfo.getDataType();
+		String minVal = attrMetaInfo.getMinValue();
+		String maxVal = attrMetaInfo.getMaxValue();
+		String defaultValue = attrMetaInfo.getDefaultValue();
+
+		if( AttributeTypes.compareTwoValues(defaultValue, minVal, dataType) )
+		{
+			queryMinDefaults[ordinal] = defaultValue;
+			queryMaxDefaults[ordinal] = maxVal;
+		}
+		else if( AttributeTypes.compareTwoValues(maxVal, defaultValue, dataType) )
+		{
+			queryMinDefaults[ordinal] = minVal;
+			queryMaxDefaults[ordinal] = defaultValue;
+		}
+		else
+		{
+			System.out.println("defaultValue "+defaultValue+" minVal "+minVal
+					+" maxVal "+maxVal);
+			// this should not happen
+			assert(false);
+		}
+	}
+
+	/**
+	 * Returns ordinals of the attributes in an update, -1 for unknown attributes.
+	 */
+	private int[] getUpdateAttrOrdinals( JSONObject onlyUpdateAttrValJSON )
+	{
+		int[] updateAttrOrdinals = new int[onlyUpdateAttrValJSON.length()];
+
+		@SuppressWarnings("unchecked")
+		Iterator<String> attrIter = onlyUpdateAttrValJSON.keys();
+		int index = 0;
+		while( attrIter.hasNext() )
+		{
+			updateAttrOrdinals[index++] = schema.getOrdinal(attrIter.next());
+		}
+		return updateAttrOrdinals;
+	}
+
+	private UpdateValues getOldValues( HashIndexGUIDRecord oldGuidRec ) throws JSONException
+	{
+		JSONObject oldUnsetAttrs = oldGuidRec.getUnsetAttrJSON();
+		assert( oldUnsetAttrs != null );
+
+		UpdateValues oldValues = new UpdateValues(schema.getNumAttrs());
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			String attrName = schema.getAttrName(i);
+			if( oldUnsetAttrs.has(attrName) )
+			{
+				oldValues.setValue(i, schema.getAttrMetaInfo(i).getDefaultValue());
+			}
+			else
+			{
+				oldValues.setValue(i, oldGuidRec.getAttrValJSON().getString(attrName));
+			}
+		}
+		return oldValues;
+	}
+
+	private UpdateValues getNewValues( HashIndexGUIDRecord oldGuidRec,
+			JSONObject newJSONToWrite, JSONObject newUnsetAttrs ) throws JSONException
+	{
+		UpdateValues newValues = new UpdateValues(schema.getNumAttrs());
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			String attrName = schema.getAttrName(i);
+			String attrVal = schema.getAttrMetaInfo(i).getDefaultValue();
+
+			if( !newUnsetAttrs.has(attrName) )
+			{
+				if( newJSONToWrite.has(attrName) )
+				{
+					attrVal = newJSONToWrite.getString(attrName);
+				}
+				else if( oldGuidRec.getAttrValJSON().has(attrName) )
+				{
+					attrVal = oldGuidRec.getAttrValJSON().getString(attrName);
+				}
+			}
+			newValues.setValue(i, attrVal);
+		}
+		return newValues;
+	}
+
+	/**
+	 * GUIDs are returned in the hex format of Utils.byteArrayToHex,
+	 * same as the ones read from the BINARY column of the SQL table.
+	 */
+	private static String normalizeGUID( String groupGUID )
+	{
+		return Utils.byteArrayToHex(Utils.hexStringToByteArray(groupGUID));
+	}
+
+
+	/**
+	 * Value of every attribute of a GUID, old or new, that trigger rows are matched against.
+	 */
+	private class UpdateValues
+	{
+		final double[] numVals;
+		final String[] strVals;
+
+		UpdateValues( int numAttrs )
+		{
+			numVals = new double[numAttrs];
+			strVals = new String[numAttrs];
+		}
+
+		void setValue( int ordinal, String value )
+		{
+			if( schema.isStringAttr(ordinal) )
+				strVals[ordinal] = value;
+			else
+				numVals[ordinal] = schema.toNumeric(ordinal, value);
+		}
+	}
+
+	/**
+	 * A client subscribed to a query, until its expiry time.
+	 */
+	private static class Subscriber
+	{
+		final TriggerRow triggerRow;
+		final String userIP;
+		final int userPort;
+		final long expiryTime;
+
+		Subscriber( TriggerRow triggerRow, String userIP, int userPort, long expiryTime )
+		{
+			this.triggerRow = triggerRow;
+			this.userIP = userIP;
+			this.userPort = userPort;
+			this.expiryTime = expiryTime;
+		}
+	}
+
+	private class TriggerRow
+	{
+		final String groupGUID;
+		// key is userIP:userPort, guarded by rwLock.
+		final HashMap<String, Subscriber> subscribers;
+
+		final double[] lowerNum;
+		final double[] upperNum;
+		final String[] lowerStr;
+		final String[] upperStr;
+
+		// set when the row is indexed.
+		long rowId;
+		int anchorOrd;
+
+		TriggerRow( String groupGUID )
+		{
+			this.groupGUID = groupGUID;
+			this.subscribers = new HashMap<String, Subscriber>();
+
+			int numAttrs = schema.getNumAttrs();
+			lowerNum = new double[numAttrs];
+			upperNum = new double[numAttrs];
+			lowerStr = new String[numAttrs];
+			upperStr = new String[numAttrs];
+		}
+
+		void setBounds( int ordinal, String lower, String upper )
+		{
+			if( schema.isStringAttr(ordinal) )
+			{
+				lowerStr[ordinal] = lower;
+				upperStr[ordinal] = upper;
+			}
+			else
+			{
+				lowerNum[ordinal] = schema.toNumeric(ordinal, lower);
+				upperNum[ordinal] = schema.toNumeric(ordinal, upper);
+			}
+		}
+
+		/**
+		 * Returns true if the query specifies all the given attributes,
+		 * that is, its bound on the default value side excludes the default value.
+		 */
+		boolean containsAttrs( int[] attrOrdinals )
+		{
+			for( int i=0; i<attrOrdinals.length; i++ )
+			{
+				int ord = attrOrdinals[i];
+				if( ord < 0 )
+					return false;
+
+				AttributeMetaInfo attrMetaInfo = schema.getAttrMetaInfo(ord);
+				String defaultVal = attrMetaInfo.getDefaultValue();
+				double defaultNum = schema.isStringAttr(ord)? 0 : schema.toNumeric(ord, defaultVal);
+
+				if( attrMetaInfo.isLowerValDefault() )
+				{
+					if( schema.compare(ord, lowerNum[ord], lowerStr[ord],
+							defaultNum, defaultVal) <= 0 )
+						return false;
+				}
+				else
+				{
+					if( schema.compare(ord, upperNum[ord], upperStr[ord],
+							defaultNum, defaultVal) >= 0 )
+						return false;
+				}
+			}
+			return true;
+		}
+
+		boolean matches( UpdateValues values )
+		{
+			for( int i=0; i<schema.getNumAttrs(); i++ )
+			{
+				double num = values.numVals[i];
+				String str = values.strVals[i];
+
+				boolean inRange = (schema.compare(i, lowerNum[i], lowerStr[i], num, str) <= 0)
+						&& (schema.compare(i, upperNum[i], upperStr[i], num, str) >= 0);
+
+				if( !inRange && !ContextServiceConfig.disableCircularQueryTrigger
+						&& (schema.compare(i, lowerNum[i], lowerStr[i],
+								upperNum[i], upperStr[i]) > 0) )
+				{
+					AttributeMetaInfo attrMetaInfo = schema.getAttrMetaInfo(i);
+					String minVal = attrMetaInfo.getMinValue();
+					String maxVal = attrMetaInfo.getMaxValue();
+					double minNum = schema.isStringAttr(i)? 0 : schema.toNumeric(i, minVal);
+					double maxNum = schema.isStringAttr(i)? 0 : schema.toNumeric(i, maxVal);
+
+					// circular query, [min, upper] or [lower, max]
+					inRange = ( (schema.compare(i, minNum, minVal, num, str) <= 0)
+								&& (schema.compare(i, upperNum[i], upperStr[i], num, str) >= 0) )
+							|| ( (schema.compare(i, lowerNum[i], lowerStr[i], num, str) <= 0)
+								&& (schema.compare(i, maxNum, maxVal, num, str) >= 0) );
+				}
+
+				if( !inRange )
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Adds a GroupGUIDInfoClass for every subscriber of the row.
+		 * Must be called with the read or write lock held.
+		 */
+		void addSubscriptions( HashMap<String, GroupGUIDInfoClass> groupGUIDMap )
+		{
+			Iterator<Subscriber> subIter = subscribers.values().iterator();
+			while( subIter.hasNext() )
+			{
+				Subscriber subscriber = subIter.next();
+				GroupGUIDInfoClass groupGUIDInfo = new GroupGUIDInfoClass(groupGUID,
+						subscriber.userIP, subscriber.userPort);
+				groupGUIDMap.put(groupGUIDInfo.getSubscriptionKey(), groupGUIDInfo);
+			}
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package edu.umass.cs.contextservice.messages;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -10,6 +9,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.protocoltask.ProtocolEvent;
@@ -46,7 +46,9 @@ public abstract class ContextServicePacket extends ProtocolPacket<Integer, Conte
 		CONFIG_REPLY(13),
 		// just for throughput testing.
 		NOOP_MEESAGE(14),
-		NOOP_REPLY_MESSAGE(15);
+		NOOP_REPLY_MESSAGE(15),
+		SEARCH_EXPIRED_MESSAGE(16),			// sent to the querier when its stored search query expires
+		SEARCH_CACHE_INVALIDATION(17);		// sent to the node caching a search result an update can change
 		
 		
 		private final int number;
@@ -79,11 +81,11 @@ public abstract class ContextServicePacket extends ProtocolPacket<Integer, Conte
 			new HashMap<ContextServicePacket.PacketType, Class<?>>();
 	static
 	{
-		/* This map prevents the need for laborious switch/case sequences as it automatically
-		 * handles both json-to-ContextServicePacket conversion and invocation of the 
-		 * corresponding handler method. We have to rely on reflection for both and the 
-		 * cost of the former seems to be the bottleneck as it adds ~25us per conversion,
-		 * but it seems not problematic for now. 
+		/* This map gives the class of each packet type, which the 
+		 * assertion methods below use to check the handler method names.
+		 * json-to-ContextServicePacket conversion doesn't use it anymore,  
+		 * as creating packets by reflection added ~25us per conversion, 
+		 * it uses the decoderTable instead.
 		 */
 		
 		typeMap.put(ContextServicePacket.PacketType.QUERY_MSG_FROM_USER, QueryMsgFromUser.class);
@@ -107,6 +109,10 @@ public abstract class ContextServicePacket extends ProtocolPacket<Integer, Conte
 				NoopMessage.class);
 		typeMap.put(ContextServicePacket.PacketType.NOOP_REPLY_MESSAGE,
 				NoopReplyMessage.class);
+		typeMap.put(ContextServicePacket.PacketType.SEARCH_EXPIRED_MESSAGE,
+				SearchExpiredMessage.class);
+		typeMap.put(ContextServicePacket.PacketType.SEARCH_CACHE_INVALIDATION,
+				SearchCacheInvalidation.class);
 		
 		
 		for( ContextServicePacket.PacketType type : ContextServicePacket.PacketType.intToType.values() )
@@ -115,6 +121,179 @@ public abstract class ContextServicePacket extends ProtocolPacket<Integer, Conte
 		}
 	}
 
+	/**
+	 * Creates the packet of one packet type from its JSON.
+	 */
+	public static abstract class PacketDecoder
+	{
+		public abstract ContextServicePacket decode(JSONObject json) throws JSONException;
+	}
+	
+	// decoder of each packet type, indexed by the PacketType ordinal.
+	private static final PacketDecoder[] decoderTable = 
+			new PacketDecoder[ContextServicePacket.PacketType.values().length];
+	static
+	{
+		decoderTable[ContextServicePacket.PacketType.QUERY_MSG_FROM_USER.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new QueryMsgFromUser(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.VALUE_UPDATE_MSG_FROM_GNS.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ValueUpdateFromGNS(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.QUERY_MSG_FROM_USER_REPLY.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new QueryMsgFromUserReply(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.VALUE_UPDATE_MSG_FROM_GNS_REPLY.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ValueUpdateFromGNSReply(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.REFRESH_TRIGGER.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new RefreshTrigger(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new QueryMesgToSubspaceRegion(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION_REPLY.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new QueryMesgToSubspaceRegionReply(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ValueUpdateToSubspaceRegionMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.GET_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new GetMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.GET_REPLY_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new GetReplyMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ValueUpdateToSubspaceRegionReplyMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.CONFIG_REQUEST.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ClientConfigRequest(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.CONFIG_REPLY.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new ClientConfigReply(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.NOOP_MEESAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new NoopMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.NOOP_REPLY_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new NoopReplyMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.SEARCH_EXPIRED_MESSAGE.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new SearchExpiredMessage(json);
+				}
+			};
+		decoderTable[ContextServicePacket.PacketType.SEARCH_CACHE_INVALIDATION.ordinal()] = 
+			new PacketDecoder()
+			{
+				@Override
+				public ContextServicePacket decode(JSONObject json) throws JSONException
+				{
+					return new SearchCacheInvalidation(json);
+				}
+			};
+		
+		for( ContextServicePacket.PacketType type : ContextServicePacket.PacketType.values() )
+		{
+			assert(decoderTable[type.ordinal()] != null) : type;
+		}
+	}
+	
 	protected ContextServicePacket(Integer initiator)
 	{
 		super(initiator);
@@ -186,27 +365,20 @@ public abstract class ContextServicePacket extends ProtocolPacket<Integer, Conte
 	public static ContextServicePacket getContextServicePacket(JSONObject json, 
 		Map<ContextServicePacket.PacketType,Class<?>> typeMap) throws JSONException 
 	{
-		ContextServicePacket csPacket = null;
-		
-		try
+		// packets between nodes can be in the binary wire format
+		if( BinaryWireFormat.isBinaryFrame(json) )
 		{
-			ContextServicePacket.PacketType csType = 
-					ContextServicePacket.PacketType.intToType.get(JSONPacket.getPacketType(json)); 
-			
-			if(csType!=null && getPacketTypeClassName(csType)!=null) 
-			{
-				csPacket = (ContextServicePacket)(Class.forName(
-						"edu.umass.cs.contextservice.messages." + 
-				getPacketTypeClassName(csType)).getConstructor(JSONObject.class).newInstance(json));
-			}
+			return BinaryWireFormat.fromBinaryFrameJSON(json);
 		}
-		catch(NoSuchMethodException nsme) {nsme.printStackTrace();} 
-		catch(InvocationTargetException ite) {ite.printStackTrace();} 
-		catch(IllegalAccessException iae) {iae.printStackTrace();} 
-		catch(ClassNotFoundException cnfe) {cnfe.printStackTrace();}
-		catch(InstantiationException ie) {ie.printStackTrace();}
 		
-		return csPacket;
+		ContextServicePacket.PacketType csType = 
+				ContextServicePacket.PacketType.intToType.get(JSONPacket.getPacketType(json));
+		
+		if( csType == null )
+		{
+			return null;
+		}
+		return decoderTable[csType.ordinal()].decode(json);
 	}
 	
 	public static ContextServicePacket getContextServicePacket
@@ -6,7 +6,7 @@ import org.json.JSONObject;
 public class QueryMesgToSubspaceRegion extends ContextServicePacket
 {
 	private enum Keys { QUERY, REQUESTID, GROUP_GUID, USER_IP, USER_PORT
-						, STORE_QUERY_FOR_TRIGGER, EXPIRY_TIME, PRIVACY_SCHEME };
+						, STORE_QUERY_FOR_TRIGGER, EXPIRY_TIME, PRIVACY_SCHEME, CACHE_KEY };
 						
 	private final long requestID;
 	
@@ -26,6 +26,11 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 	
 	private final int privacySchemeOrdinal;
 	
+	// set if the sender caches the result of the search, the receiver then 
+	// sends it a SearchCacheInvalidation with this key when an update 
+	// can change the result. null otherwise.
+	private final String cacheKey;
+	
 	/*
 	 * sourceID will be the ID of the node that 
 	 * recvd query from the user.
@@ -33,6 +38,14 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 	public QueryMesgToSubspaceRegion( Integer initiator, long requestId, String query, 
 			String groupGUID, String userIP, int userPort, boolean storeQueryForTrigger, 
 			long expiryTime,  int privacyScheme )
+	{
+		this(initiator, requestId, query, groupGUID, userIP, userPort, storeQueryForTrigger, 
+				expiryTime, privacyScheme, null);
+	}
+	
+	public QueryMesgToSubspaceRegion( Integer initiator, long requestId, String query, 
+			String groupGUID, String userIP, int userPort, boolean storeQueryForTrigger, 
+			long expiryTime,  int privacyScheme, String cacheKey )
 	{
 		super(initiator, ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION);
 		
@@ -45,6 +58,7 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 		this.storeQueryForTrigger = storeQueryForTrigger;
 		this.expiryTime = expiryTime;
 		this.privacySchemeOrdinal = privacyScheme;
+		this.cacheKey = cacheKey;
 	}
 	
 	public QueryMesgToSubspaceRegion(JSONObject json) throws JSONException
@@ -58,6 +72,15 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 		this.storeQueryForTrigger = json.getBoolean(Keys.STORE_QUERY_FOR_TRIGGER.toString());
 		this.expiryTime = json.getLong(Keys.EXPIRY_TIME.toString());
 		this.privacySchemeOrdinal = json.getInt(Keys.PRIVACY_SCHEME.toString());	
+		
+		if( json.has(Keys.CACHE_KEY.toString()) )
+		{
+			this.cacheKey = json.getString(Keys.CACHE_KEY.toString());
+		}
+		else
+		{
+			this.cacheKey = null;
+		}
 	}
 	
 	public JSONObject toJSONObjectImpl() throws JSONException
@@ -71,6 +94,10 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 		json.put(Keys.STORE_QUERY_FOR_TRIGGER.toString(), this.storeQueryForTrigger);
 		json.put(Keys.EXPIRY_TIME.toString(), this.expiryTime);
 		json.put(Keys.PRIVACY_SCHEME.toString(), this.privacySchemeOrdinal);
+		if( this.cacheKey != null )
+		{
+			json.put(Keys.CACHE_KEY.toString(), this.cacheKey);
+		}
 		return json;
 	}
 	
@@ -114,6 +141,14 @@ public class QueryMesgToSubspaceRegion extends ContextServicePacket
 		return this.privacySchemeOrdinal;
 	}
 	
+	/**
+	 * Returns null if the sender doesn't cache the result.
+	 */
+	public String getCacheKey()
+	{
+		return this.cacheKey;
+	}
+	
 	public static void main(String[] args)
 	{
 	}
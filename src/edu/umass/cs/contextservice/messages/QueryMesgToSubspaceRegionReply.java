@@ -7,7 +7,7 @@ import org.json.JSONObject;
 public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 {
 	private enum Keys { REQUESTID, GROUP_GUID, RESULT_GUIDS, REPLY_SIZE, 
-				PRIVACY_SCHEME, SUBSPACE_ID};
+				PRIVACY_SCHEME, SUBSPACE_ID, CHUNK_NUM, LAST_CHUNK};
 	
 	private final long requestID;
 	
@@ -23,12 +23,28 @@ public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 	
 	private final int privacySchemeOrdinal;
 	
+	// when search replies are streamed, a node sends its results in 
+	// chunks numbered from 0 and then a last reply, with no results, 
+	// whose chunkNum is the number of chunks sent before it.
+	// A reply with all results is a last reply with chunkNum 0.
+	private final int chunkNum;
+	
+	private final boolean lastChunk;
+	
 	/*
 	 * sourceID will be the ID of the node that 
 	 * recvd query from the user.
 	 */
 	public QueryMesgToSubspaceRegionReply(Integer initiator, long requestId, 
 			String groupGUID, JSONArray resultGUIDs, int resultSize, int privacyScheme)
+	{
+		this(initiator, requestId, groupGUID, resultGUIDs, resultSize, 
+				privacyScheme, 0, true);
+	}
+	
+	public QueryMesgToSubspaceRegionReply(Integer initiator, long requestId, 
+			String groupGUID, JSONArray resultGUIDs, int resultSize, int privacyScheme, 
+			int chunkNum, boolean lastChunk)
 	{
 		super(initiator, 
 				ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION_REPLY);
@@ -39,6 +55,8 @@ public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 		this.resultGUIDs = resultGUIDs;
 		this.replySize = resultSize;
 		this.privacySchemeOrdinal = privacyScheme;
+		this.chunkNum = chunkNum;
+		this.lastChunk = lastChunk;
 	}
 	
 	public QueryMesgToSubspaceRegionReply(JSONObject json) throws JSONException
@@ -49,6 +67,8 @@ public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 		this.resultGUIDs = json.getJSONArray(Keys.RESULT_GUIDS.toString());
 		this.replySize   = json.getInt(Keys.REPLY_SIZE.toString());
 		this.privacySchemeOrdinal = json.getInt(Keys.PRIVACY_SCHEME.toString());
+		this.chunkNum    = json.getInt(Keys.CHUNK_NUM.toString());
+		this.lastChunk   = json.getBoolean(Keys.LAST_CHUNK.toString());
 	}
 	
 	public JSONObject toJSONObjectImpl() throws JSONException
@@ -59,6 +79,8 @@ public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 		json.put(Keys.RESULT_GUIDS.toString(), resultGUIDs);
 		json.put(Keys.REPLY_SIZE.toString(), replySize);
 		json.put(Keys.PRIVACY_SCHEME.toString(), privacySchemeOrdinal);
+		json.put(Keys.CHUNK_NUM.toString(), chunkNum);
+		json.put(Keys.LAST_CHUNK.toString(), lastChunk);
 		return json;
 	}
 	
@@ -87,6 +109,16 @@ public class QueryMesgToSubspaceRegionReply extends ContextServicePacket
 		return this.privacySchemeOrdinal;
 	}
 	
+	public int getChunkNum()
+	{
+		return this.chunkNum;
+	}
+	
+	public boolean isLastChunk()
+	{
+		return this.lastChunk;
+	}
+	
 	public static void main(String[] args)
 	{
 	}
@@ -7,7 +7,8 @@ import org.json.JSONObject;
 public class QueryMsgFromUserReply extends ContextServicePacket
 {
 	private enum Keys { QUERY, QUERY_GUID, GUIDs, USER_REQ_NUM, 
-		REPLY_SIZE, PRIVACY_SCHEME };
+		REPLY_SIZE, PRIVACY_SCHEME, CHUNK_NUM, LAST_CHUNK, NUM_NODES_TIMED_OUT, 
+		AGGREGATES };
 	
 	private final String query;  // original query sent by the user.
 	private final String queryGUID;
@@ -16,9 +17,47 @@ public class QueryMsgFromUserReply extends ContextServicePacket
 	private final int replySize;
 	private final int privacySchemeOrdinal;
 	
+	// for streamed search replies, chunks are numbered from 0 and
+	// the last reply's chunkNum is the number of chunks sent before it.
+	// A reply with all results is a last reply with chunkNum 0.
+	private final int chunkNum;
+	private final boolean lastChunk;
+	
+	// number of nodes that didn't reply before the search's deadline. 
+	// If it is more than 0, the results are partial.
+	private final int numNodesTimedOut;
+	
+	// aggregates of an aggregate query keyed by their labels, 
+	// null for a search of GUIDs.
+	private final JSONObject aggregates;
+	
 	
 	public QueryMsgFromUserReply( Integer initiator, String query, String queryGUID, 
 			JSONArray resultGUIDs, long userReqNum, int replySize, int privacyScheme )
+	{
+		this(initiator, query, queryGUID, resultGUIDs, userReqNum, replySize, 
+				privacyScheme, 0, true);
+	}
+	
+	public QueryMsgFromUserReply( Integer initiator, String query, String queryGUID, 
+			JSONArray resultGUIDs, long userReqNum, int replySize, int privacyScheme, 
+			int chunkNum, boolean lastChunk )
+	{
+		this(initiator, query, queryGUID, resultGUIDs, userReqNum, replySize, 
+				privacyScheme, chunkNum, lastChunk, 0);
+	}
+	
+	public QueryMsgFromUserReply( Integer initiator, String query, String queryGUID, 
+			JSONArray resultGUIDs, long userReqNum, int replySize, int privacyScheme, 
+			int chunkNum, boolean lastChunk, int numNodesTimedOut )
+	{
+		this(initiator, query, queryGUID, resultGUIDs, userReqNum, replySize, 
+				privacyScheme, chunkNum, lastChunk, numNodesTimedOut, null);
+	}
+	
+	public QueryMsgFromUserReply( Integer initiator, String query, String queryGUID, 
+			JSONArray resultGUIDs, long userReqNum, int replySize, int privacyScheme, 
+			int chunkNum, boolean lastChunk, int numNodesTimedOut, JSONObject aggregates )
 	{
 		super(initiator, ContextServicePacket.PacketType.QUERY_MSG_FROM_USER_REPLY);
 		this.resultGUIDs = resultGUIDs;
@@ -28,6 +67,10 @@ public class QueryMsgFromUserReply extends ContextServicePacket
 		this.userReqNum = userReqNum;
 		this.replySize = replySize;
 		this.privacySchemeOrdinal = privacyScheme;
+		this.chunkNum = chunkNum;
+		this.lastChunk = lastChunk;
+		this.numNodesTimedOut = numNodesTimedOut;
+		this.aggregates = aggregates;
 	}
 	
 	public QueryMsgFromUserReply(JSONObject json) throws JSONException
@@ -40,6 +83,14 @@ public class QueryMsgFromUserReply extends ContextServicePacket
 		this.queryGUID = json.getString(Keys.QUERY_GUID.toString());
 		this.replySize = json.getInt(Keys.REPLY_SIZE.toString());
 		this.privacySchemeOrdinal = json.getInt(Keys.PRIVACY_SCHEME.toString());
+		this.chunkNum = json.getInt(Keys.CHUNK_NUM.toString());
+		this.lastChunk = json.getBoolean(Keys.LAST_CHUNK.toString());
+		// only sent in partial replies
+		this.numNodesTimedOut = json.has(Keys.NUM_NODES_TIMED_OUT.toString())?
+				json.getInt(Keys.NUM_NODES_TIMED_OUT.toString()):0;
+		// only sent in replies of aggregate queries
+		this.aggregates = json.has(Keys.AGGREGATES.toString())?
+				json.getJSONObject(Keys.AGGREGATES.toString()):null;
 	}
 	
 	public JSONObject toJSONObjectImpl() throws JSONException
@@ -51,6 +102,16 @@ public class QueryMsgFromUserReply extends ContextServicePacket
 		json.put(Keys.QUERY_GUID.toString(), this.queryGUID);
 		json.put(Keys.REPLY_SIZE.toString(), this.replySize);
 		json.put(Keys.PRIVACY_SCHEME.toString(), this.privacySchemeOrdinal );
+		json.put(Keys.CHUNK_NUM.toString(), this.chunkNum);
+		json.put(Keys.LAST_CHUNK.toString(), this.lastChunk);
+		if( this.numNodesTimedOut > 0 )
+		{
+			json.put(Keys.NUM_NODES_TIMED_OUT.toString(), this.numNodesTimedOut);
+		}
+		if( this.aggregates != null )
+		{
+			json.put(Keys.AGGREGATES.toString(), this.aggregates);
+		}
 		return json;
 	}
 	
@@ -84,6 +145,35 @@ public class QueryMsgFromUserReply extends ContextServicePacket
 		return this.privacySchemeOrdinal;
 	}
 	
+	public int getChunkNum()
+	{
+		return this.chunkNum;
+	}
+	
+	public boolean isLastChunk()
+	{
+		return this.lastChunk;
+	}
+	
+	public int getNumNodesTimedOut()
+	{
+		return this.numNodesTimedOut;
+	}
+	
+	/**
+	 * Returns the aggregates of an aggregate query keyed by their labels,
+	 * null for a search of GUIDs.
+	 */
+	public JSONObject getAggregates()
+	{
+		return this.aggregates;
+	}
+	
+	public boolean isPartialReply()
+	{
+		return this.numNodesTimedOut > 0;
+	}
+	
 	public static void main( String[] args )
 	{
 	}
@@ -7,7 +7,9 @@ import org.json.JSONObject;
 public class RefreshTrigger extends ContextServicePacket
 {
 	private enum Keys {TO_BE_REMOVED, TO_BE_ADDED, 
-		VERSION_NUM, GUID, UPDATE_START_TIME, NUM_REMOVED, NUM_ADDED};
+		VERSION_NUM, GUID, UPDATE_START_TIME, NUM_REMOVED, NUM_ADDED, 
+		REMOVED_UPDATE_GUIDS, ADDED_UPDATE_GUIDS, 
+		UPDATE_SEQ_NUM, REMOVED_UPDATE_SEQ_NUMS, ADDED_UPDATE_SEQ_NUMS};
 	
 	private final JSONArray toBeRemoved;
 	private final JSONArray toBeAdded;
@@ -20,10 +22,47 @@ public class RefreshTrigger extends ContextServicePacket
 	private final int numRemoved;
 	private final int numAdded;
 	
+	// only in a trigger that batches several updates, null otherwise.
+	// The GUID whose update removed or added each group in toBeRemoved 
+	// and toBeAdded, at the same index. The versionNum, GUID and updStartTime 
+	// are then of the last update in the batch.
+	private final JSONArray removedUpdateGUIDs;
+	private final JSONArray addedUpdateGUIDs;
+	
+	// sequence number of the update at the GUID's primary node, which 
+	// increases for the successive updates of a GUID, as they are applied 
+	// one at a time there. Lets a client apply the group changes of a GUID 
+	// in update order, though triggers can arrive out of order. 
+	// -1 if not set. In a batched trigger, the numbers of each update are 
+	// in removedUpdateSeqNums and addedUpdateSeqNums, at the same index 
+	// as removedUpdateGUIDs and addedUpdateGUIDs, null if not set.
+	private final long updateSeqNum;
+	private final JSONArray removedUpdateSeqNums;
+	private final JSONArray addedUpdateSeqNums;
+	
 	
 	public RefreshTrigger( Integer initiator, JSONArray toBeRemoved, 
 			JSONArray toBeAdded, long versionNum,
 			String GUID, long updStartTime, int numRemoved, int numAdded )
+	{
+		this(initiator, toBeRemoved, toBeAdded, versionNum, GUID, updStartTime, 
+				numRemoved, numAdded, null, null);
+	}
+	
+	public RefreshTrigger( Integer initiator, JSONArray toBeRemoved, 
+			JSONArray toBeAdded, long versionNum,
+			String GUID, long updStartTime, int numRemoved, int numAdded, 
+			JSONArray removedUpdateGUIDs, JSONArray addedUpdateGUIDs )
+	{
+		this(initiator, toBeRemoved, toBeAdded, versionNum, GUID, updStartTime, 
+				numRemoved, numAdded, removedUpdateGUIDs, addedUpdateGUIDs, -1, null, null);
+	}
+	
+	public RefreshTrigger( Integer initiator, JSONArray toBeRemoved, 
+			JSONArray toBeAdded, long versionNum,
+			String GUID, long updStartTime, int numRemoved, int numAdded, 
+			JSONArray removedUpdateGUIDs, JSONArray addedUpdateGUIDs, 
+			long updateSeqNum, JSONArray removedUpdateSeqNums, JSONArray addedUpdateSeqNums )
 	{
 		super(initiator, ContextServicePacket.PacketType.REFRESH_TRIGGER);
 		
@@ -35,6 +74,11 @@ public class RefreshTrigger extends ContextServicePacket
 		this.updStartTime = updStartTime;
 		this.numRemoved = numRemoved;
 		this.numAdded = numAdded;
+		this.removedUpdateGUIDs = removedUpdateGUIDs;
+		this.addedUpdateGUIDs = addedUpdateGUIDs;
+		this.updateSeqNum = updateSeqNum;
+		this.removedUpdateSeqNums = removedUpdateSeqNums;
+		this.addedUpdateSeqNums = addedUpdateSeqNums;
 	}
 	
 	public RefreshTrigger(JSONObject json) throws JSONException
@@ -48,6 +92,16 @@ public class RefreshTrigger extends ContextServicePacket
 		this.updStartTime = json.getLong(Keys.UPDATE_START_TIME.toString());
 		this.numRemoved = json.getInt(Keys.NUM_REMOVED.toString());
 		this.numAdded = json.getInt(Keys.NUM_ADDED.toString());
+		this.removedUpdateGUIDs = json.has(Keys.REMOVED_UPDATE_GUIDS.toString())?
+				json.getJSONArray(Keys.REMOVED_UPDATE_GUIDS.toString()):null;
+		this.addedUpdateGUIDs = json.has(Keys.ADDED_UPDATE_GUIDS.toString())?
+				json.getJSONArray(Keys.ADDED_UPDATE_GUIDS.toString()):null;
+		this.updateSeqNum = json.has(Keys.UPDATE_SEQ_NUM.toString())?
+				json.getLong(Keys.UPDATE_SEQ_NUM.toString()):-1;
+		this.removedUpdateSeqNums = json.has(Keys.REMOVED_UPDATE_SEQ_NUMS.toString())?
+				json.getJSONArray(Keys.REMOVED_UPDATE_SEQ_NUMS.toString()):null;
+		this.addedUpdateSeqNums = json.has(Keys.ADDED_UPDATE_SEQ_NUMS.toString())?
+				json.getJSONArray(Keys.ADDED_UPDATE_SEQ_NUMS.toString()):null;
 	}
 	
 	public JSONObject toJSONObjectImpl() throws JSONException
@@ -60,6 +114,26 @@ public class RefreshTrigger extends ContextServicePacket
 		json.put(Keys.UPDATE_START_TIME.toString(), updStartTime);
 		json.put(Keys.NUM_REMOVED.toString(),  this.numRemoved);
 		json.put(Keys.NUM_ADDED.toString(),  this.numAdded);
+		if( this.removedUpdateGUIDs != null )
+		{
+			json.put(Keys.REMOVED_UPDATE_GUIDS.toString(), this.removedUpdateGUIDs);
+		}
+		if( this.addedUpdateGUIDs != null )
+		{
+			json.put(Keys.ADDED_UPDATE_GUIDS.toString(), this.addedUpdateGUIDs);
+		}
+		if( this.updateSeqNum >= 0 )
+		{
+			json.put(Keys.UPDATE_SEQ_NUM.toString(), this.updateSeqNum);
+		}
+		if( this.removedUpdateSeqNums != null )
+		{
+			json.put(Keys.REMOVED_UPDATE_SEQ_NUMS.toString(), this.removedUpdateSeqNums);
+		}
+		if( this.addedUpdateSeqNums != null )
+		{
+			json.put(Keys.ADDED_UPDATE_SEQ_NUMS.toString(), this.addedUpdateSeqNums);
+		}
 		return json;
 	}
 	
@@ -98,6 +172,51 @@ public class RefreshTrigger extends ContextServicePacket
 		return this.numAdded;
 	}
 	
+	/**
+	 * Returns null if the trigger is for a single update.
+	 */
+	public JSONArray getRemovedUpdateGUIDs()
+	{
+		return this.removedUpdateGUIDs;
+	}
+	
+	/**
+	 * Returns null if the trigger is for a single update.
+	 */
+	public JSONArray getAddedUpdateGUIDs()
+	{
+		return this.addedUpdateGUIDs;
+	}
+	
+	/**
+	 * Returns -1 if not set, or if the trigger is batched.
+	 */
+	public long getUpdateSeqNum()
+	{
+		return this.updateSeqNum;
+	}
+	
+	/**
+	 * Returns null if not set, or if the trigger is for a single update.
+	 */
+	public JSONArray getRemovedUpdateSeqNums()
+	{
+		return this.removedUpdateSeqNums;
+	}
+	
+	/**
+	 * Returns null if not set, or if the trigger is for a single update.
+	 */
+	public JSONArray getAddedUpdateSeqNums()
+	{
+		return this.addedUpdateSeqNums;
+	}
+	
+	public boolean isBatched()
+	{
+		return (this.removedUpdateGUIDs != null) || (this.addedUpdateGUIDs != null);
+	}
+	
 	public static void main(String[] args)
 	{
 	}
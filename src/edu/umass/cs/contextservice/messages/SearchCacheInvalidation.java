@@ -0,0 +1,45 @@
+package edu.umass.cs.contextservice.messages;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sent to the node that caches the results of searches, when an update 
+ * can change the cached results of the search queries in cacheKeys.
+ */
+public class SearchCacheInvalidation extends ContextServicePacket
+{
+	private enum Keys {CACHE_KEYS};
+	
+	// canonical queries.
+	private final JSONArray cacheKeys;
+	
+	public SearchCacheInvalidation( Integer initiator, JSONArray cacheKeys )
+	{
+		super(initiator, ContextServicePacket.PacketType.SEARCH_CACHE_INVALIDATION);
+		this.cacheKeys = cacheKeys;
+	}
+	
+	public SearchCacheInvalidation(JSONObject json) throws JSONException
+	{
+		super(json);
+		this.cacheKeys = json.getJSONArray(Keys.CACHE_KEYS.toString());
+	}
+	
+	public JSONObject toJSONObjectImpl() throws JSONException
+	{
+		JSONObject json = super.toJSONObjectImpl();
+		json.put(Keys.CACHE_KEYS.toString(), this.cacheKeys);
+		return json;
+	}
+	
+	public JSONArray getCacheKeys()
+	{
+		return this.cacheKeys;
+	}
+	
+	public static void main(String[] args)
+	{
+	}
+}
@@ -0,0 +1,62 @@
+package edu.umass.cs.contextservice.messages;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sent to the querier when a search query stored for triggers expires, 
+ * after which it gets no more refresh triggers for the query's group.
+ */
+public class SearchExpiredMessage extends ContextServicePacket
+{
+	private enum Keys {QUERY, GROUP_GUID, EXPIRY_TIME};
+	
+	private final String query;
+	private final String groupGUID;
+	private final long expiryTime;
+	
+	public SearchExpiredMessage( Integer initiator, String query, String groupGUID, 
+			long expiryTime )
+	{
+		super(initiator, ContextServicePacket.PacketType.SEARCH_EXPIRED_MESSAGE);
+		this.query = query;
+		this.groupGUID = groupGUID;
+		this.expiryTime = expiryTime;
+	}
+	
+	public SearchExpiredMessage(JSONObject json) throws JSONException
+	{
+		super(json);
+		this.query = json.getString(Keys.QUERY.toString());
+		this.groupGUID = json.getString(Keys.GROUP_GUID.toString());
+		this.expiryTime = json.getLong(Keys.EXPIRY_TIME.toString());
+	}
+	
+	public JSONObject toJSONObjectImpl() throws JSONException
+	{
+		JSONObject json = super.toJSONObjectImpl();
+		json.put(Keys.QUERY.toString(), this.query);
+		json.put(Keys.GROUP_GUID.toString(), this.groupGUID);
+		json.put(Keys.EXPIRY_TIME.toString(), this.expiryTime);
+		return json;
+	}
+	
+	public String getQuery()
+	{
+		return this.query;
+	}
+	
+	public String getGroupGUID()
+	{
+		return this.groupGUID;
+	}
+	
+	public long getExpiryTime()
+	{
+		return this.expiryTime;
+	}
+	
+	public static void main(String[] args)
+	{
+	}
+}
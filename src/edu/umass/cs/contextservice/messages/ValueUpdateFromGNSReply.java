@@ -8,16 +8,28 @@ public class ValueUpdateFromGNSReply extends ContextServicePacket
 	// start time is the time when update started,
 	// context time is the time at which context service recvd query
 	// send time is the time when context service sends the ValueUpdateFromGNSReply
-	private enum Keys {VERSION_NUM, USER_REQ_NUM};
+	private enum Keys {VERSION_NUM, USER_REQ_NUM, TIMED_OUT};
 	
 	private final long versionNum;
 	private final long userReqNum;
 	
+	// true if not all nodes replied before the update's deadline, 
+	// the update is then stored for GUID lookups but may not be 
+	// indexed for searches on all nodes.
+	private final boolean timedOut;
+	
 	public ValueUpdateFromGNSReply(Integer initiator, long versionNum, long userReqNum)
+	{
+		this(initiator, versionNum, userReqNum, false);
+	}
+	
+	public ValueUpdateFromGNSReply(Integer initiator, long versionNum, long userReqNum, 
+			boolean timedOut)
 	{
 		super(initiator, ContextServicePacket.PacketType.VALUE_UPDATE_MSG_FROM_GNS_REPLY);
 		this.versionNum = versionNum;
 		this.userReqNum = userReqNum;
+		this.timedOut = timedOut;
 	}
 	
 	public ValueUpdateFromGNSReply(JSONObject json) throws JSONException
@@ -25,6 +37,8 @@ public class ValueUpdateFromGNSReply extends ContextServicePacket
 		super(json);
 		this.versionNum = json.getLong(Keys.VERSION_NUM.toString());
 		this.userReqNum = json.getLong(Keys.USER_REQ_NUM.toString());
+		this.timedOut = json.has(Keys.TIMED_OUT.toString())?
+				json.getBoolean(Keys.TIMED_OUT.toString()):false;
 	}
 	
 	public JSONObject toJSONObjectImpl() throws JSONException
@@ -32,6 +46,10 @@ public class ValueUpdateFromGNSReply extends ContextServicePacket
 		JSONObject json = super.toJSONObjectImpl();
 		json.put(Keys.VERSION_NUM.toString(), this.versionNum);
 		json.put(Keys.USER_REQ_NUM.toString(), this.userReqNum);
+		if( this.timedOut )
+		{
+			json.put(Keys.TIMED_OUT.toString(), this.timedOut);
+		}
 		
 		return json;
 	}
@@ -46,6 +64,11 @@ public class ValueUpdateFromGNSReply extends ContextServicePacket
 		return this.userReqNum;
 	}
 	
+	public boolean isTimedOut()
+	{
+		return this.timedOut;
+	}
+	
 	public static void main(String[] args)
 	{
 	}
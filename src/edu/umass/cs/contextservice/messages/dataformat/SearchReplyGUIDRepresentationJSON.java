@@ -12,27 +12,38 @@ import org.json.JSONObject;
  */
 public class SearchReplyGUIDRepresentationJSON 
 {
-	private enum Keys {ID, ANONYMIZEDID_TO_GUID_MAPPING};
+	private enum Keys {ID, ANONYMIZEDID_TO_GUID_MAPPING, ORDER_VALUE};
 	
 	//TODO: sometime we want to change it to byte[] and save 
 	// half space.
 	private final String idString;
 	// this can be empty or set to null if not used in no privacy case
 	private JSONArray anonymizedIDToGUIDMapping;
+	// value of the ORDER BY attribute, to merge the sorted results 
+	// of nodes, null if the search has no ORDER BY or the value is unset.
+	private final String orderValue;
 	
 	// no privacy constructor
 	public SearchReplyGUIDRepresentationJSON(String GUID)
 	{
 		this.idString = GUID;
 		this.anonymizedIDToGUIDMapping = null;
+		this.orderValue = null;
 	}
 	
 	// privacy constructor
 	public SearchReplyGUIDRepresentationJSON(String idString, 
 			JSONArray anonymizedIDToGUIDMapping)
+	{
+		this(idString, anonymizedIDToGUIDMapping, null);
+	}
+	
+	public SearchReplyGUIDRepresentationJSON(String idString, 
+			JSONArray anonymizedIDToGUIDMapping, String orderValue)
 	{
 		this.idString = idString;
 		this.anonymizedIDToGUIDMapping = anonymizedIDToGUIDMapping;
+		this.orderValue = orderValue;
 	}
 	
 	public String getID()
@@ -45,6 +56,20 @@ public class SearchReplyGUIDRepresentationJSON
 		return this.anonymizedIDToGUIDMapping;
 	}
 	
+	public String getOrderValue()
+	{
+		return this.orderValue;
+	}
+	
+	/**
+	 * Returns the ORDER BY value of a result in JSON form, 
+	 * without parsing the rest of it.
+	 */
+	public static String getOrderValue(JSONObject jsonObject)
+	{
+		return jsonObject.optString(Keys.ORDER_VALUE.toString(), null);
+	}
+	
 	public JSONObject toJSONObject() throws JSONException
 	{
 		JSONObject jsonObject = new JSONObject();
@@ -54,6 +79,10 @@ public class SearchReplyGUIDRepresentationJSON
 			jsonObject.put(Keys.ANONYMIZEDID_TO_GUID_MAPPING.toString(), 
 					anonymizedIDToGUIDMapping);
 		}
+		if(orderValue != null)
+		{
+			jsonObject.put(Keys.ORDER_VALUE.toString(), orderValue);
+		}
 		return jsonObject;
 	}
 	
@@ -67,6 +96,7 @@ public class SearchReplyGUIDRepresentationJSON
 			realIDMappingInfo = jsonObject.getJSONArray
 					(Keys.ANONYMIZEDID_TO_GUID_MAPPING.toString());
 		}
-		return new SearchReplyGUIDRepresentationJSON(idString, realIDMappingInfo);
+		String orderValue = jsonObject.optString(Keys.ORDER_VALUE.toString(), null);
+		return new SearchReplyGUIDRepresentationJSON(idString, realIDMappingInfo, orderValue);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.apache.commons.codec.binary.Base64;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+
+/**
+ * Binary wire format for the query and update messages between
+ * context service nodes.
+ *
+ * The nodes use JSONMessenger, which only transports JSONObjects,
+ * so a binary encoded packet is sent as a JSONObject with just the
+ * packet type, for demultiplexing, and the base64 encoded binary frame.
+ * The frame starts with the format version, the packet type and the
+ * initiator, followed by the fields written by the PacketCodec
+ * of the packet type.
+ *
+ * Packet types without a codec, and packets whose values can't be
+ * binary encoded, are sent as JSON. Receivers check for the frame key
+ * and accept both formats.
+ * @author ayadav
+ */
+public class BinaryWireFormat
+{
+	public static final String BINARY_FRAME_KEY							= "BINARY_FRAME";
+
+	// 2 added the cache key of QueryMesgToSubspaceRegion.
+	private static final byte FORMAT_VERSION							= 2;
+
+	// codecs indexed by the packet type int
+	private static final PacketCodec[] codecs;
+
+	static
+	{
+		int maxTypeNum = 0;
+		for( ContextServicePacket.PacketType type : ContextServicePacket.PacketType.values() )
+		{
+			maxTypeNum = Math.max(maxTypeNum, type.getInt());
+		}
+		codecs = new PacketCodec[maxTypeNum+1];
+
+		codecs[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION.getInt()]
+				= new QueryMesgToSubspaceRegionCodec();
+		codecs[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION_REPLY.getInt()]
+				= new QueryMesgToSubspaceRegionReplyCodec();
+		codecs[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_MESSAGE.getInt()]
+				= new ValueUpdateToSubspaceRegionMessageCodec();
+		codecs[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE.getInt()]
+				= new ValueUpdateToSubspaceRegionReplyMessageCodec();
+	}
+
+	/**
+	 * Returns the JSONObject to send for a packet to another context service node.
+	 * It is the binary frame if ContextServiceConfig.binaryWireFormat is
+	 * enabled and the packet type has a codec, otherwise the JSON of the packet.
+	 */
+	public static JSONObject toWireJSON( ContextServicePacket csPacket ) throws JSONException
+	{
+		if( ContextServiceConfig.binaryWireFormat )
+		{
+			PacketCodec codec = getCodec(csPacket.getType());
+			if( codec != null )
+			{
+				try
+				{
+					return toBinaryFrameJSON(csPacket, codec);
+				}
+				catch( JSONException je )
+				{
+					// a value that the binary format doesn't support,
+					// JSON supports every packet.
+					je.printStackTrace();
+				}
+			}
+		}
+		return csPacket.toJSONObject();
+	}
+
+	public static boolean isBinaryFrame( JSONObject json )
+	{
+		return json.has(BINARY_FRAME_KEY);
+	}
+
+	/**
+	 * Decodes a JSONObject created by toWireJSON with a binary frame.
+	 */
+	public static ContextServicePacket fromBinaryFrameJSON( JSONObject json )
+			throws JSONException
+	{
+		byte[] frameBytes = Base64.decodeBase64(json.getString(BINARY_FRAME_KEY));
+		WireFormatInput in = new WireFormatInput(frameBytes);
+
+		byte version = in.readByte();
+		if( version != FORMAT_VERSION )
+			throw new JSONException("unsupported binary frame version "+version);
+
+		int typeNum = in.readInt();
+		ContextServicePacket.PacketType csType
+						= ContextServicePacket.PacketType.intToType.get(typeNum);
+		PacketCodec codec = getCodec(csType);
+		if( codec == null )
+			throw new JSONException("no binary codec for packet type "+typeNum);
+
+		// all packets between nodes are created with the sending node as
+		// initiator, which is also what getSender returns for them.
+		int initiator = in.readInt();
+		return codec.decode(initiator, in);
+	}
+
+	private static JSONObject toBinaryFrameJSON( ContextServicePacket csPacket,
+			PacketCodec codec ) throws JSONException
+	{
+		WireFormatOutput out = new WireFormatOutput();
+		out.writeByte(FORMAT_VERSION);
+		out.writeInt(csPacket.getType().getInt());
+		out.writeInt(csPacket.getInitiator());
+		codec.encode(csPacket, out);
+
+		JSONObject json = new JSONObject();
+		json.put(ContextServicePacket.PACKET_TYPE, csPacket.getType().getInt());
+		json.put(BINARY_FRAME_KEY, Base64.encodeBase64String(out.toByteArray()));
+		return json;
+	}
+
+	private static PacketCodec getCodec( ContextServicePacket.PacketType csType )
+	{
+		if( csType == null || csType.getInt() < 0 || csType.getInt() >= codecs.length )
+			return null;
+		return codecs[csType.getInt()];
+	}
+}
@@ -0,0 +1,23 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+
+/**
+ * Hand-written binary codec of one ContextServicePacket.PacketType.
+ * encode writes the fields of the packet, decode reads them back
+ * in the same order and creates the packet.
+ * @author ayadav
+ */
+public abstract class PacketCodec
+{
+	public abstract void encode( ContextServicePacket csPacket, WireFormatOutput out )
+			throws JSONException;
+	
+	/**
+	 * @param initiator the node that sent the packet
+	 */
+	public abstract ContextServicePacket decode( Integer initiator, WireFormatInput in )
+			throws JSONException;
+}
@@ -0,0 +1,47 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegion;
+
+public class QueryMesgToSubspaceRegionCodec extends PacketCodec
+{
+	@Override
+	public void encode( ContextServicePacket csPacket, WireFormatOutput out )
+			throws JSONException
+	{
+		QueryMesgToSubspaceRegion queryMesg = (QueryMesgToSubspaceRegion)csPacket;
+		out.writeLong(queryMesg.getRequestId());
+		out.writeString(queryMesg.getQuery());
+		out.writeGUID(queryMesg.getGroupGUID());
+		out.writeString(queryMesg.getUserIP());
+		out.writeInt(queryMesg.getUserPort());
+		out.writeBoolean(queryMesg.getStoreQueryForTrigger());
+		out.writeLong(queryMesg.getExpiryTime());
+		out.writeInt(queryMesg.getPrivacyOrdinal());
+		out.writeBoolean(queryMesg.getCacheKey() != null);
+		if( queryMesg.getCacheKey() != null )
+		{
+			out.writeString(queryMesg.getCacheKey());
+		}
+	}
+	
+	@Override
+	public ContextServicePacket decode( Integer initiator, WireFormatInput in )
+			throws JSONException
+	{
+		long requestID 				= in.readLong();
+		String query 				= in.readString();
+		String groupGUID 			= in.readGUID();
+		String userIP 				= in.readString();
+		int userPort 				= in.readInt();
+		boolean storeQueryForTrigger = in.readBoolean();
+		long expiryTime 			= in.readLong();
+		int privacyOrdinal 			= in.readInt();
+		String cacheKey 			= in.readBoolean()? in.readString() : null;
+		
+		return new QueryMesgToSubspaceRegion( initiator, requestID, query, groupGUID, 
+				userIP, userPort, storeQueryForTrigger, expiryTime, privacyOrdinal, cacheKey );
+	}
+}
@@ -0,0 +1,43 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+
+public class QueryMesgToSubspaceRegionReplyCodec extends PacketCodec
+{
+	@Override
+	public void encode( ContextServicePacket csPacket, WireFormatOutput out )
+			throws JSONException
+	{
+		QueryMesgToSubspaceRegionReply queryReply 
+							= (QueryMesgToSubspaceRegionReply)csPacket;
+		out.writeLong(queryReply.getRequestId());
+		out.writeGUID(queryReply.getGroupGUID());
+		// result GUIDs are SearchReplyGUIDRepresentationJSON objects, 
+		// whose IDs are written as raw bytes.
+		out.writeJSONArray(queryReply.getResultGUIDs());
+		out.writeInt(queryReply.returnReplySize());
+		out.writeInt(queryReply.getPrivacySchemeOrdinal());
+		out.writeInt(queryReply.getChunkNum());
+		out.writeBoolean(queryReply.isLastChunk());
+	}
+	
+	@Override
+	public ContextServicePacket decode( Integer initiator, WireFormatInput in )
+			throws JSONException
+	{
+		long requestID 			= in.readLong();
+		String groupGUID 		= in.readGUID();
+		JSONArray resultGUIDs 	= in.readJSONArray();
+		int replySize 			= in.readInt();
+		int privacyOrdinal 		= in.readInt();
+		int chunkNum 			= in.readInt();
+		boolean lastChunk 		= in.readBoolean();
+		
+		return new QueryMesgToSubspaceRegionReply( initiator, requestID, groupGUID, 
+				resultGUIDs, replySize, privacyOrdinal, chunkNum, lastChunk );
+	}
+}
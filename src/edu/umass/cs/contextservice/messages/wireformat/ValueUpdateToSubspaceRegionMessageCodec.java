@@ -0,0 +1,50 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+
+public class ValueUpdateToSubspaceRegionMessageCodec extends PacketCodec
+{
+	@Override
+	public void encode( ContextServicePacket csPacket, WireFormatOutput out )
+			throws JSONException
+	{
+		ValueUpdateToSubspaceRegionMessage updateMesg 
+							= (ValueUpdateToSubspaceRegionMessage)csPacket;
+		out.writeLong(updateMesg.getVersionNum());
+		out.writeGUID(updateMesg.getGUID());
+		out.writeJSONObject(updateMesg.getJSONToWrite());
+		out.writeInt(updateMesg.getOperType());
+		out.writeLong(updateMesg.getRequestID());
+		out.writeBoolean(updateMesg.getFirstTimeInsert());
+		out.writeLong(updateMesg.getUpdateStartTime());
+		out.writeJSONObject(updateMesg.getOldValJSON());
+		out.writeJSONObject(updateMesg.getNewUnsetAttrs());
+		out.writeJSONObject(updateMesg.getUpdateAttrValJSON());
+		out.writeInt(updateMesg.getPrivacySchemeOrdinal());
+	}
+	
+	@Override
+	public ContextServicePacket decode( Integer initiator, WireFormatInput in )
+			throws JSONException
+	{
+		long versionNum 			= in.readLong();
+		String GUID 				= in.readGUID();
+		JSONObject jsonToWrite 		= in.readJSONObject();
+		int operType 				= in.readInt();
+		long requestID 				= in.readLong();
+		boolean firstTimeInsert 	= in.readBoolean();
+		long updateStartTime 		= in.readLong();
+		JSONObject oldValJSON 		= in.readJSONObject();
+		JSONObject newUnsetAttrs 	= in.readJSONObject();
+		JSONObject updateAttrValJSON = in.readJSONObject();
+		int privacyOrdinal 			= in.readInt();
+		
+		return new ValueUpdateToSubspaceRegionMessage( initiator, versionNum, GUID, 
+				jsonToWrite, operType, requestID, firstTimeInsert, updateStartTime, 
+				oldValJSON, newUnsetAttrs, updateAttrValJSON, privacyOrdinal );
+	}
+}
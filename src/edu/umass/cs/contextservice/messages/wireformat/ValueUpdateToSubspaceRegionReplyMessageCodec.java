@@ -0,0 +1,35 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionReplyMessage;
+
+public class ValueUpdateToSubspaceRegionReplyMessageCodec extends PacketCodec
+{
+	@Override
+	public void encode( ContextServicePacket csPacket, WireFormatOutput out )
+			throws JSONException
+	{
+		ValueUpdateToSubspaceRegionReplyMessage updateReply 
+							= (ValueUpdateToSubspaceRegionReplyMessage)csPacket;
+		out.writeLong(updateReply.getVersionNum());
+		out.writeLong(updateReply.getRequestID());
+		out.writeJSONArray(updateReply.getToBeRemovedGroups());
+		out.writeJSONArray(updateReply.getToBeAddedGroups());
+	}
+	
+	@Override
+	public ContextServicePacket decode( Integer initiator, WireFormatInput in )
+			throws JSONException
+	{
+		long versionNum 			= in.readLong();
+		long requestID 				= in.readLong();
+		JSONArray toBeRemovedGroups = in.readJSONArray();
+		JSONArray toBeAddedGroups 	= in.readJSONArray();
+		
+		return new ValueUpdateToSubspaceRegionReplyMessage( initiator, versionNum, 
+				requestID, toBeRemovedGroups, toBeAddedGroups );
+	}
+}
@@ -0,0 +1,206 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+
+/**
+ * Reads the fields written by WireFormatOutput, in the same order.
+ * A truncated or malformed frame results in a JSONException, like
+ * a malformed JSON message.
+ * @author ayadav
+ */
+public class WireFormatInput
+{
+	private final ByteBuffer buf;
+
+	public WireFormatInput( byte[] frameBytes )
+	{
+		buf = ByteBuffer.wrap(frameBytes);
+	}
+
+	public byte readByte() throws JSONException
+	{
+		try
+		{
+			return buf.get();
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+	}
+
+	public boolean readBoolean() throws JSONException
+	{
+		return readByte() != 0;
+	}
+
+	public short readShort() throws JSONException
+	{
+		try
+		{
+			return buf.getShort();
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+	}
+
+	public int readInt() throws JSONException
+	{
+		try
+		{
+			return buf.getInt();
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+	}
+
+	public long readLong() throws JSONException
+	{
+		try
+		{
+			return buf.getLong();
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+	}
+
+	public double readDouble() throws JSONException
+	{
+		try
+		{
+			return buf.getDouble();
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+	}
+
+	public String readString() throws JSONException
+	{
+		int length = readInt();
+		if( length == -1 )
+			return null;
+
+		if( length < 0 || length > buf.remaining() )
+			throw new JSONException("invalid string length "+length+" in binary frame");
+
+		String str = new String(buf.array(), buf.arrayOffset()+buf.position(),
+				length, StandardCharsets.UTF_8);
+		buf.position(buf.position()+length);
+		return str;
+	}
+
+	public String readGUID() throws JSONException
+	{
+		Object value = readValue();
+		if( !(value instanceof String) )
+			throw new JSONException("expected a GUID in binary frame, found "+value);
+		return (String)value;
+	}
+
+	public JSONObject readJSONObject() throws JSONException
+	{
+		AttrValueSchema schema = WireFormatOutput.getAttrValueSchema();
+		int numEntries = readInt();
+		JSONObject json = new JSONObject();
+
+		for( int i=0; i<numEntries; i++ )
+		{
+			short ordinal = readShort();
+			if( ordinal == WireFormatOutput.NOT_AN_ATTRIBUTE )
+			{
+				String key = readString();
+				json.put(key, readValue());
+			}
+			else
+			{
+				if( schema == null || ordinal < 0 || ordinal >= schema.getNumAttrs() )
+					throw new JSONException("unknown attribute ordinal "+ordinal
+							+" in binary frame");
+
+				json.put(schema.getAttrName(ordinal), readValue());
+			}
+		}
+		return json;
+	}
+
+	public JSONArray readJSONArray() throws JSONException
+	{
+		int length = readInt();
+		JSONArray jsonArr = new JSONArray();
+		for( int i=0; i<length; i++ )
+		{
+			jsonArr.put(readValue());
+		}
+		return jsonArr;
+	}
+
+	/**
+	 * Reads a value written by WireFormatOutput.writeValue.
+	 * String values of numeric attributes are returned as the same Strings.
+	 */
+	public Object readValue() throws JSONException
+	{
+		byte tag = readByte();
+		switch( tag )
+		{
+			case WireFormatOutput.VAL_NULL:
+				return JSONObject.NULL;
+			case WireFormatOutput.VAL_STRING:
+				return readString();
+			case WireFormatOutput.VAL_INT:
+				return readInt();
+			case WireFormatOutput.VAL_LONG:
+				return readLong();
+			case WireFormatOutput.VAL_DOUBLE:
+				return readDouble();
+			case WireFormatOutput.VAL_BOOLEAN:
+				return readBoolean();
+			case WireFormatOutput.VAL_JSON_OBJECT:
+				return readJSONObject();
+			case WireFormatOutput.VAL_JSON_ARRAY:
+				return readJSONArray();
+			case WireFormatOutput.VAL_LOWER_HEX_GUID:
+				return WireFormatOutput.bytesToHex(readGUIDBytes(), false);
+			case WireFormatOutput.VAL_UPPER_HEX_GUID:
+				return WireFormatOutput.bytesToHex(readGUIDBytes(), true);
+			case WireFormatOutput.VAL_INT_STRING:
+				return Integer.toString(readInt());
+			case WireFormatOutput.VAL_LONG_STRING:
+				return Long.toString(readLong());
+			case WireFormatOutput.VAL_DOUBLE_STRING:
+				return Double.toString(readDouble());
+			default:
+				throw new JSONException("unknown value tag "+tag+" in binary frame");
+		}
+	}
+
+	private byte[] readGUIDBytes() throws JSONException
+	{
+		byte[] guidBytes = new byte[WireFormatOutput.GUID_HEX_LENGTH/2];
+		try
+		{
+			buf.get(guidBytes);
+		}
+		catch( BufferUnderflowException bue )
+		{
+			throw new JSONException("truncated binary frame");
+		}
+		return guidBytes;
+	}
+}
@@ -0,0 +1,387 @@
+package edu.umass.cs.contextservice.messages.wireformat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+
+/**
+ * Writes the fields of a binary encoded ContextServicePacket.
+ * All numbers are big endian, Strings are UTF-8 bytes prefixed by their
+ * length, GUIDs are written as their raw 20 bytes and attribute values
+ * in JSONObjects are written as typed primitives keyed by the attribute
+ * ordinal in AttributeTypes.attributeInOrderList.
+ * WireFormatInput reads these fields back.
+ * @author ayadav
+ */
+public class WireFormatOutput
+{
+	// value tags
+	static final byte VAL_NULL						= 0;
+	static final byte VAL_STRING					= 1;
+	static final byte VAL_INT						= 2;
+	static final byte VAL_LONG						= 3;
+	static final byte VAL_DOUBLE					= 4;
+	static final byte VAL_BOOLEAN					= 5;
+	static final byte VAL_JSON_OBJECT				= 6;
+	static final byte VAL_JSON_ARRAY				= 7;
+	// 40 char hex strings, like GUIDs, written as 20 raw bytes.
+	static final byte VAL_LOWER_HEX_GUID			= 8;
+	static final byte VAL_UPPER_HEX_GUID			= 9;
+	// String values of Int, Long and Double attributes, written as
+	// primitives. Only used if the String is read back unchanged.
+	static final byte VAL_INT_STRING				= 10;
+	static final byte VAL_LONG_STRING				= 11;
+	static final byte VAL_DOUBLE_STRING				= 12;
+
+	// key of a JSONObject entry that is not an attribute
+	static final short NOT_AN_ATTRIBUTE				= -1;
+
+	static final int GUID_HEX_LENGTH				= 40;
+
+	private static final char[] LOWER_HEX_DIGITS	= "0123456789abcdef".toCharArray();
+	private static final char[] UPPER_HEX_DIGITS	= "0123456789ABCDEF".toCharArray();
+
+	private static AttrValueSchema attrSchema								= null;
+	// attribute list attrSchema was created from
+	private static List<String> attrSchemaList								= null;
+
+	private ByteBuffer buf;
+
+	public WireFormatOutput()
+	{
+		buf = ByteBuffer.allocate(256);
+	}
+
+	public void writeByte( byte value )
+	{
+		ensureCapacity(1);
+		buf.put(value);
+	}
+
+	public void writeBoolean( boolean value )
+	{
+		writeByte( (byte)(value?1:0) );
+	}
+
+	public void writeShort( short value )
+	{
+		ensureCapacity(2);
+		buf.putShort(value);
+	}
+
+	public void writeInt( int value )
+	{
+		ensureCapacity(4);
+		buf.putInt(value);
+	}
+
+	public void writeLong( long value )
+	{
+		ensureCapacity(8);
+		buf.putLong(value);
+	}
+
+	public void writeDouble( double value )
+	{
+		ensureCapacity(8);
+		buf.putDouble(value);
+	}
+
+	/**
+	 * Writes the UTF-8 bytes of the String prefixed by their length.
+	 * A null String is written as length -1.
+	 */
+	public void writeString( String value )
+	{
+		if( value == null )
+		{
+			writeInt(-1);
+			return;
+		}
+		byte[] strBytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(strBytes.length);
+		ensureCapacity(strBytes.length);
+		buf.put(strBytes);
+	}
+
+	/**
+	 * Writes a GUID as its 20 raw bytes, if it is a 40 char hex String,
+	 * and as a String otherwise.
+	 */
+	public void writeGUID( String guid )
+	{
+		byte hexTag = getHexGUIDTag(guid);
+		if( hexTag == VAL_STRING )
+		{
+			writeByte(VAL_STRING);
+			writeString(guid);
+		}
+		else
+		{
+			writeByte(hexTag);
+			writeHexAsBytes(guid);
+		}
+	}
+
+	/**
+	 * Writes all entries of a JSONObject. Keys that are attributes are
+	 * written as their ordinal, other keys as Strings.
+	 */
+	public void writeJSONObject( JSONObject json ) throws JSONException
+	{
+		AttrValueSchema schema = getAttrValueSchema();
+		writeInt(json.length());
+
+		Iterator<String> keyIter = json.keys();
+		while( keyIter.hasNext() )
+		{
+			String key = keyIter.next();
+			int ordinal = (schema != null)?schema.getOrdinal(key):-1;
+
+			if( ordinal >= 0 )
+			{
+				writeShort( (short)ordinal );
+				writeAttrValue(schema, ordinal, json.get(key));
+			}
+			else
+			{
+				writeShort(NOT_AN_ATTRIBUTE);
+				writeString(key);
+				writeValue(json.get(key));
+			}
+		}
+	}
+
+	public void writeJSONArray( JSONArray jsonArr ) throws JSONException
+	{
+		writeInt(jsonArr.length());
+		for( int i=0; i<jsonArr.length(); i++ )
+		{
+			writeValue(jsonArr.get(i));
+		}
+	}
+
+	/**
+	 * Writes a value of a JSONObject or a JSONArray prefixed by its type tag.
+	 * Throws JSONException for values that are not JSON values.
+	 */
+	public void writeValue( Object value ) throws JSONException
+	{
+		if( value == null || JSONObject.NULL.equals(value) )
+		{
+			writeByte(VAL_NULL);
+		}
+		else if( value instanceof String )
+		{
+			writeGUID( (String)value );
+		}
+		else if( value instanceof Integer )
+		{
+			writeByte(VAL_INT);
+			writeInt( (Integer)value );
+		}
+		else if( value instanceof Long )
+		{
+			writeByte(VAL_LONG);
+			writeLong( (Long)value );
+		}
+		else if( value instanceof Double )
+		{
+			writeByte(VAL_DOUBLE);
+			writeDouble( (Double)value );
+		}
+		else if( value instanceof Boolean )
+		{
+			writeByte(VAL_BOOLEAN);
+			writeBoolean( (Boolean)value );
+		}
+		else if( value instanceof JSONObject )
+		{
+			writeByte(VAL_JSON_OBJECT);
+			writeJSONObject( (JSONObject)value );
+		}
+		else if( value instanceof JSONArray )
+		{
+			writeByte(VAL_JSON_ARRAY);
+			writeJSONArray( (JSONArray)value );
+		}
+		else
+		{
+			throw new JSONException("value of type "+value.getClass().getName()
+					+" not supported in binary wire format");
+		}
+	}
+
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+
+	/**
+	 * Returns the schema for the current attributes, or null
+	 * if the attributes are not initialized.
+	 * Both ends of a connection have the same attributes,
+	 * as they read the same attribute file.
+	 */
+	static synchronized AttrValueSchema getAttrValueSchema()
+	{
+		if( AttributeTypes.attributeInOrderList == null
+				|| AttributeTypes.attributeMap == null )
+		{
+			return null;
+		}
+
+		if( attrSchemaList != AttributeTypes.attributeInOrderList )
+		{
+			attrSchema = new AttrValueSchema(AttributeTypes.attributeInOrderList,
+					AttributeTypes.attributeMap);
+			attrSchemaList = AttributeTypes.attributeInOrderList;
+		}
+		return attrSchema;
+	}
+
+	private void writeAttrValue( AttrValueSchema schema, int ordinal, Object value )
+			throws JSONException
+	{
+		if( !(value instanceof String) || schema.isStringAttr(ordinal) )
+		{
+			writeValue(value);
+			return;
+		}
+
+		String strVal = (String)value;
+		String dataType = schema.getAttrMetaInfo(ordinal).getDataType();
+
+		if( isIntegralString(strVal) )
+		{
+			long longVal = Long.parseLong(strVal);
+
+			if( AttributeTypes.IntType.equals(dataType)
+					&& longVal >= Integer.MIN_VALUE && longVal <= Integer.MAX_VALUE )
+			{
+				writeByte(VAL_INT_STRING);
+				writeInt( (int)longVal );
+			}
+			else
+			{
+				writeByte(VAL_LONG_STRING);
+				writeLong(longVal);
+			}
+			return;
+		}
+
+		if( AttributeTypes.DoubleType.equals(dataType) )
+		{
+			try
+			{
+				double doubleVal = Double.parseDouble(strVal);
+				if( Double.toString(doubleVal).equals(strVal) )
+				{
+					writeByte(VAL_DOUBLE_STRING);
+					writeDouble(doubleVal);
+					return;
+				}
+			}
+			catch( NumberFormatException nfe )
+			{
+				// written as a String below
+			}
+		}
+		writeValue(value);
+	}
+
+	/**
+	 * Returns true if the String is an integer in canonical
+	 * form that fits in a long, so Long.toString gives the same String.
+	 */
+	private static boolean isIntegralString( String str )
+	{
+		int len = str.length();
+		int start = (len > 0 && str.charAt(0) == '-')?1:0;
+
+		// 18 digits always fit in a long
+		if( len == start || len - start > 18 )
+			return false;
+
+		// no leading zeros, "-0" is also not canonical
+		if( str.charAt(start) == '0' && (len - start > 1 || start == 1) )
+			return false;
+
+		for( int i=start; i<len; i++ )
+		{
+			char c = str.charAt(i);
+			if( c < '0' || c > '9' )
+				return false;
+		}
+		return true;
+	}
+
+	private static byte getHexGUIDTag( String str )
+	{
+		if( str.length() != GUID_HEX_LENGTH )
+			return VAL_STRING;
+
+		boolean hasLower = false;
+		boolean hasUpper = false;
+		for( int i=0; i<GUID_HEX_LENGTH; i++ )
+		{
+			char c = str.charAt(i);
+			if( c >= 'a' && c <= 'f' )
+				hasLower = true;
+			else if( c >= 'A' && c <= 'F' )
+				hasUpper = true;
+			else if( c < '0' || c > '9' )
+				return VAL_STRING;
+		}
+
+		// mixed case hex can't be restored from the bytes
+		if( hasLower && hasUpper )
+			return VAL_STRING;
+
+		return hasUpper?VAL_UPPER_HEX_GUID:VAL_LOWER_HEX_GUID;
+	}
+
+	private void writeHexAsBytes( String hexStr )
+	{
+		ensureCapacity(GUID_HEX_LENGTH/2);
+		for( int i=0; i<GUID_HEX_LENGTH; i=i+2 )
+		{
+			int high = Character.digit(hexStr.charAt(i), 16);
+			int low  = Character.digit(hexStr.charAt(i+1), 16);
+			buf.put( (byte)((high << 4) | low) );
+		}
+	}
+
+	static String bytesToHex( byte[] bytes, boolean upperCase )
+	{
+		char[] digits = upperCase?UPPER_HEX_DIGITS:LOWER_HEX_DIGITS;
+		char[] hexChars = new char[bytes.length*2];
+		for( int i=0; i<bytes.length; i++ )
+		{
+			hexChars[2*i]   = digits[(bytes[i] >> 4) & 0x0F];
+			hexChars[2*i+1] = digits[bytes[i] & 0x0F];
+		}
+		return new String(hexChars);
+	}
+
+	private void ensureCapacity( int numBytes )
+	{
+		if( buf.remaining() >= numBytes )
+			return;
+
+		int newCapacity = Math.max(buf.capacity()*2, buf.position()+numBytes);
+		ByteBuffer newBuf = ByteBuffer.allocate(newCapacity);
+		buf.flip();
+		newBuf.put(buf);
+		buf = newBuf;
+	}
+}
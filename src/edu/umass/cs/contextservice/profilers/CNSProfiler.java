@@ -33,6 +33,16 @@ public class CNSProfiler implements Runnable
 	private long sumAddGuidUsingAttrIndexTime       = 0;
 	private long numAddGuidUsingAttrIndexSamples	= 0;
 	
+	private long sumGroupCommitSize					= 0;
+	private long sumGroupCommitTime					= 0;
+	private long numGroupCommits					= 0;
+	
+	// searches answered from the search result cache, searches 
+	// not found in it, and cached results invalidated by updates.
+	private long numSearchCacheHits					= 0;
+	private long numSearchCacheMisses				= 0;
+	private long numSearchCacheInvalidations		= 0;
+	
 	private final Object lock 						= new Object();
 	
 	
@@ -80,6 +90,20 @@ public class CNSProfiler implements Runnable
 						+ (sumAddGuidUsingAttrIndexTime/numAddGuidUsingAttrIndexSamples));
 			}
 			
+			if( numGroupCommits > 0 )
+			{
+				System.out.println("numGroupCommits "+numGroupCommits
+						+ " avg group commit size "+(sumGroupCommitSize/numGroupCommits)
+						+ " avg group commit time "+(sumGroupCommitTime/numGroupCommits));
+			}
+			
+			if( (numSearchCacheHits + numSearchCacheMisses) > 0 )
+			{
+				System.out.println("numSearchCacheHits "+numSearchCacheHits
+						+ " numSearchCacheMisses "+numSearchCacheMisses
+						+ " numSearchCacheInvalidations "+numSearchCacheInvalidations);
+			}
+			
 			double updrate = (incomingUpdateRate*1.0)/10.0;
 			double searchrate = (incomingSearchRate*1.0)/10.0;
 			
@@ -176,6 +200,41 @@ public class CNSProfiler implements Runnable
 		}
 	}
 	
+	public void addGroupCommitStats(int numWrites, long timeTaken)
+	{
+		synchronized( lock )
+		{
+			this.sumGroupCommitSize = this.sumGroupCommitSize + numWrites;
+			this.sumGroupCommitTime = this.sumGroupCommitTime + timeTaken;
+			this.numGroupCommits++;
+		}
+	}
+	
+	public void incrementSearchCacheHits()
+	{
+		synchronized( lock )
+		{
+			this.numSearchCacheHits++;
+		}
+	}
+	
+	public void incrementSearchCacheMisses()
+	{
+		synchronized( lock )
+		{
+			this.numSearchCacheMisses++;
+		}
+	}
+	
+	public void addSearchCacheInvalidations(int numInvalidations)
+	{
+		synchronized( lock )
+		{
+			this.numSearchCacheInvalidations 
+					= this.numSearchCacheInvalidations + numInvalidations;
+		}
+	}
+	
 	public void addSearchQueryProcessTime(long timeTaken, int resultSizePerNode)
 	{
 	}
@@ -0,0 +1,655 @@
+package edu.umass.cs.contextservice.queryparsing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Boolean search predicates, parsed from a query with OR, NOT, IN,
+ * BETWEEN, strict comparisons or parentheses, like
+ * "(attr0 >= 10 AND attr0 <= 20) OR attr1 IN (3, 5) OR NOT attr2 BETWEEN 1 AND 9".
+ *
+ * A parsed expression is rewritten in disjunctive normal form, as a list of
+ * boxes, each a conjunction of ranges on attributes, whose union is
+ * the set of GUIDs the query selects. Each box is routed to the nodes
+ * like a conjunctive search, see QueryParser.parseQueryBoxes.
+ *
+ * AND of ranges on the same attribute is their intersection. A BETWEEN
+ * whose lower value is greater than its upper value is a circular range,
+ * as in a conjunctive search, and is split into two boxes. NOT, != and NOT IN
+ * select GUIDs whose attribute is set to a value outside the ranges, like SQL.
+ * They are not supported on String attributes, and neither are < and >,
+ * as ranges have inclusive bounds and a String has no greatest smaller String.
+ * @author ayadav
+ */
+public abstract class QueryExpression
+{
+	// more boxes are not sent to nodes, the query should be written differently.
+	public static final int MAX_QUERY_BOXES							= 64;
+
+	private static enum TokenType {IDENT, VALUE, STRING, OPERATOR, LEFT_PAREN, RIGHT_PAREN, COMMA, END};
+
+	/**
+	 * Returns the boxes of the expression, an empty list if it selects no GUIDs.
+	 * Throws IllegalArgumentException if there are more than MAX_QUERY_BOXES.
+	 */
+	public abstract List<HashMap<String, AttributeValueRange>> toBoxes();
+
+	/**
+	 * Returns the negation of the expression, with NOT only on ranges.
+	 */
+	protected abstract QueryExpression negate();
+
+	/**
+	 * Returns true if the predicates need this parser, because they
+	 * use more than AND of <=, >= and =. Predicates that don't tokenize
+	 * are left to the conjunctive parser.
+	 */
+	public static boolean isBooleanQuery( String predicates )
+	{
+		List<Token> tokens;
+		try
+		{
+			tokens = tokenize(predicates);
+		}
+		catch( IllegalArgumentException iae )
+		{
+			return false;
+		}
+
+		for( int i=0; i<tokens.size(); i++ )
+		{
+			Token token = tokens.get(i);
+			switch( token.type )
+			{
+				case LEFT_PAREN:
+				case RIGHT_PAREN:
+				case COMMA:
+					return true;
+				case OPERATOR:
+					if( !token.text.equals("<=") && !token.text.equals(">=")
+							&& !token.text.equals("=") )
+						return true;
+					break;
+				case IDENT:
+					if( token.isKeyword("OR") || token.isKeyword("NOT")
+							|| token.isKeyword("IN") || token.isKeyword("BETWEEN") )
+						return true;
+					break;
+				default:
+					break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the predicates of a query, without a SELECT list or options.
+	 * Throws IllegalArgumentException if they are not valid.
+	 */
+	public static QueryExpression parse( String predicates )
+	{
+		ExpressionParser parser = new ExpressionParser(tokenize(predicates));
+		QueryExpression expression = parser.parseOr();
+		if( parser.peek().type != TokenType.END )
+		{
+			throw new IllegalArgumentException("unexpected "+parser.peek().text
+					+" in "+predicates);
+		}
+		return expression;
+	}
+
+	/**
+	 * OR of expressions.
+	 */
+	private static class OrExpression extends QueryExpression
+	{
+		private final List<QueryExpression> children;
+
+		private OrExpression( List<QueryExpression> children )
+		{
+			this.children = children;
+		}
+
+		@Override
+		public List<HashMap<String, AttributeValueRange>> toBoxes()
+		{
+			List<HashMap<String, AttributeValueRange>> boxes
+					= new ArrayList<HashMap<String, AttributeValueRange>>();
+			for( int i=0; i<children.size(); i++ )
+			{
+				boxes.addAll(children.get(i).toBoxes());
+				checkNumBoxes(boxes.size());
+			}
+			return boxes;
+		}
+
+		@Override
+		protected QueryExpression negate()
+		{
+			List<QueryExpression> negated = new ArrayList<QueryExpression>();
+			for( int i=0; i<children.size(); i++ )
+			{
+				negated.add(children.get(i).negate());
+			}
+			return new AndExpression(negated);
+		}
+	}
+
+	/**
+	 * AND of expressions, its boxes are the intersections of
+	 * a box of each child, for all combinations of them.
+	 */
+	private static class AndExpression extends QueryExpression
+	{
+		private final List<QueryExpression> children;
+
+		private AndExpression( List<QueryExpression> children )
+		{
+			this.children = children;
+		}
+
+		@Override
+		public List<HashMap<String, AttributeValueRange>> toBoxes()
+		{
+			List<HashMap<String, AttributeValueRange>> boxes
+					= new ArrayList<HashMap<String, AttributeValueRange>>();
+			boxes.add(new HashMap<String, AttributeValueRange>());
+
+			for( int i=0; i<children.size(); i++ )
+			{
+				List<HashMap<String, AttributeValueRange>> childBoxes = children.get(i).toBoxes();
+				List<HashMap<String, AttributeValueRange>> intersections
+						= new ArrayList<HashMap<String, AttributeValueRange>>();
+
+				for( int j=0; j<boxes.size(); j++ )
+				{
+					for( int k=0; k<childBoxes.size(); k++ )
+					{
+						HashMap<String, AttributeValueRange> intersection
+								= intersectBoxes(boxes.get(j), childBoxes.get(k));
+						if( intersection != null )
+						{
+							intersections.add(intersection);
+							checkNumBoxes(intersections.size());
+						}
+					}
+				}
+				boxes = intersections;
+				if( boxes.isEmpty() )
+					break;
+			}
+			return boxes;
+		}
+
+		@Override
+		protected QueryExpression negate()
+		{
+			List<QueryExpression> negated = new ArrayList<QueryExpression>();
+			for( int i=0; i<children.size(); i++ )
+			{
+				negated.add(children.get(i).negate());
+			}
+			return new OrExpression(negated);
+		}
+	}
+
+	/**
+	 * A range of values of an attribute, inclusive of both bounds.
+	 * If the lower bound is greater than the upper bound, the range is
+	 * circular if it is a BETWEEN, and empty otherwise.
+	 */
+	private static class RangeExpression extends QueryExpression
+	{
+		private final String attrName;
+		private final String lowerBound;
+		private final String upperBound;
+		private final boolean circular;
+
+		private RangeExpression( String attrName, String lowerBound, String upperBound,
+				boolean circular )
+		{
+			this.attrName = attrName;
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+			this.circular = circular;
+		}
+
+		@Override
+		public List<HashMap<String, AttributeValueRange>> toBoxes()
+		{
+			List<HashMap<String, AttributeValueRange>> boxes
+					= new ArrayList<HashMap<String, AttributeValueRange>>();
+			AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+
+			if( lessOrEqual(lowerBound, upperBound, attrMetaInfo) )
+			{
+				boxes.add(newBox(attrName, lowerBound, upperBound));
+			}
+			else if( circular )
+			{
+				boxes.add(newBox(attrName, lowerBound, attrMetaInfo.getMaxValue()));
+				boxes.add(newBox(attrName, attrMetaInfo.getMinValue(), upperBound));
+			}
+			return boxes;
+		}
+
+		/**
+		 * The values of the domain of the attribute outside the range.
+		 */
+		@Override
+		protected QueryExpression negate()
+		{
+			AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+			String minValue = attrMetaInfo.getMinValue();
+			String maxValue = attrMetaInfo.getMaxValue();
+
+			if( !lessOrEqual(lowerBound, upperBound, attrMetaInfo) )
+			{
+				if( !circular )
+					return new RangeExpression(attrName, minValue, maxValue, false);
+
+				// the gap of a circular range, empty if there is none.
+				return new RangeExpression(attrName,
+						getAdjacentValue(upperBound, attrMetaInfo, true),
+						getAdjacentValue(lowerBound, attrMetaInfo, false), false);
+			}
+
+			List<QueryExpression> outside = new ArrayList<QueryExpression>();
+			if( lessThan(minValue, lowerBound, attrMetaInfo) )
+			{
+				outside.add(new RangeExpression(attrName, minValue,
+						getAdjacentValue(lowerBound, attrMetaInfo, false), false));
+			}
+			if( lessThan(upperBound, maxValue, attrMetaInfo) )
+			{
+				outside.add(new RangeExpression(attrName,
+						getAdjacentValue(upperBound, attrMetaInfo, true), maxValue, false));
+			}
+
+			if( outside.isEmpty() )
+				return emptyRange(attrName, attrMetaInfo);
+			return (outside.size() == 1)? outside.get(0) : new OrExpression(outside);
+		}
+	}
+
+	/**
+	 * Recursive descent parser of the tokens, OR binds looser than AND,
+	 * which binds looser than NOT.
+	 */
+	private static class ExpressionParser
+	{
+		private final List<Token> tokens;
+		private int position;
+
+		private ExpressionParser( List<Token> tokens )
+		{
+			this.tokens = tokens;
+			this.position = 0;
+		}
+
+		private Token peek()
+		{
+			return tokens.get(position);
+		}
+
+		private Token next()
+		{
+			Token token = tokens.get(position);
+			if( token.type != TokenType.END )
+				position++;
+			return token;
+		}
+
+		private Token expect( TokenType type, String text )
+		{
+			Token token = next();
+			if( (token.type != type) || ((text != null) && !token.text.equalsIgnoreCase(text)) )
+			{
+				throw new IllegalArgumentException("expected "+((text != null)?text:type)
+						+" but found "+token.text);
+			}
+			return token;
+		}
+
+		private QueryExpression parseOr()
+		{
+			List<QueryExpression> children = new ArrayList<QueryExpression>();
+			children.add(parseAnd());
+			while( peek().isKeyword("OR") )
+			{
+				next();
+				children.add(parseAnd());
+			}
+			return (children.size() == 1)? children.get(0) : new OrExpression(children);
+		}
+
+		private QueryExpression parseAnd()
+		{
+			List<QueryExpression> children = new ArrayList<QueryExpression>();
+			children.add(parseNot());
+			while( peek().isKeyword("AND") )
+			{
+				next();
+				children.add(parseNot());
+			}
+			return (children.size() == 1)? children.get(0) : new AndExpression(children);
+		}
+
+		private QueryExpression parseNot()
+		{
+			if( peek().isKeyword("NOT") )
+			{
+				next();
+				return parseNot().negate();
+			}
+			if( peek().type == TokenType.LEFT_PAREN )
+			{
+				next();
+				QueryExpression expression = parseOr();
+				expect(TokenType.RIGHT_PAREN, null);
+				return expression;
+			}
+			return parsePredicate();
+		}
+
+		private QueryExpression parsePredicate()
+		{
+			String attrName = expect(TokenType.IDENT, null).text;
+			AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+			if( attrMetaInfo == null )
+			{
+				throw new IllegalArgumentException(attrName+" is not an attribute");
+			}
+
+			boolean negated = false;
+			if( peek().isKeyword("NOT") )
+			{
+				next();
+				negated = true;
+				if( !peek().isKeyword("IN") && !peek().isKeyword("BETWEEN") )
+				{
+					throw new IllegalArgumentException("expected IN or BETWEEN after NOT but found "
+							+peek().text);
+				}
+			}
+
+			QueryExpression expression;
+			if( peek().isKeyword("IN") )
+			{
+				next();
+				expect(TokenType.LEFT_PAREN, null);
+				List<QueryExpression> values = new ArrayList<QueryExpression>();
+				while( true )
+				{
+					String value = parseValue(attrMetaInfo);
+					values.add(new RangeExpression(attrName, value, value, false));
+					checkNumBoxes(values.size());
+					if( peek().type != TokenType.COMMA )
+						break;
+					next();
+				}
+				expect(TokenType.RIGHT_PAREN, null);
+				expression = new OrExpression(values);
+			}
+			else if( peek().isKeyword("BETWEEN") )
+			{
+				next();
+				String lowerBound = parseValue(attrMetaInfo);
+				expect(TokenType.IDENT, "AND");
+				String upperBound = parseValue(attrMetaInfo);
+				expression = new RangeExpression(attrName, lowerBound, upperBound, true);
+			}
+			else
+			{
+				String operator = expect(TokenType.OPERATOR, null).text;
+				String value = parseValue(attrMetaInfo);
+				expression = getComparison(attrName, attrMetaInfo, operator, value);
+			}
+			return negated? expression.negate() : expression;
+		}
+
+		private String parseValue( AttributeMetaInfo attrMetaInfo )
+		{
+			Token token = next();
+			boolean stringAttr = AttributeTypes.StringType.equals(attrMetaInfo.getDataType());
+
+			if( stringAttr && (token.type == TokenType.STRING) )
+				return token.text;
+
+			if( !stringAttr && ((token.type == TokenType.VALUE) || (token.type == TokenType.STRING)) )
+			{
+				try
+				{
+					// checks that the value is of the attribute's type.
+					AttributeTypes.compareTwoValues(token.text, token.text, attrMetaInfo.getDataType());
+					return token.text;
+				}
+				catch( NumberFormatException nfe )
+				{
+				}
+			}
+			throw new IllegalArgumentException(token.text+" is not a value of "
+					+attrMetaInfo.getAttrName());
+		}
+	}
+
+	private static QueryExpression getComparison( String attrName, AttributeMetaInfo attrMetaInfo,
+			String operator, String value )
+	{
+		String minValue = attrMetaInfo.getMinValue();
+		String maxValue = attrMetaInfo.getMaxValue();
+
+		if( operator.equals("=") )
+			return new RangeExpression(attrName, value, value, false);
+		if( operator.equals("<=") )
+			return new RangeExpression(attrName, minValue, value, false);
+		if( operator.equals(">=") )
+			return new RangeExpression(attrName, value, maxValue, false);
+
+		// no value is less than the min or greater than the max.
+		if( operator.equals("<") )
+		{
+			if( !lessThan(minValue, value, attrMetaInfo) )
+				return emptyRange(attrName, attrMetaInfo);
+			return new RangeExpression(attrName, minValue,
+					getAdjacentValue(value, attrMetaInfo, false), false);
+		}
+		if( operator.equals(">") )
+		{
+			if( !lessThan(value, maxValue, attrMetaInfo) )
+				return emptyRange(attrName, attrMetaInfo);
+			return new RangeExpression(attrName, getAdjacentValue(value, attrMetaInfo, true),
+					maxValue, false);
+		}
+		// != and <>
+		return new RangeExpression(attrName, value, value, false).negate();
+	}
+
+	/**
+	 * A range with no values, its negation is the whole domain of the attribute.
+	 */
+	private static QueryExpression emptyRange( String attrName, AttributeMetaInfo attrMetaInfo )
+	{
+		return new RangeExpression(attrName, attrMetaInfo.getMaxValue(),
+				attrMetaInfo.getMinValue(), false);
+	}
+
+	/**
+	 * Returns the value next to value, greater if up is true, as a range bound.
+	 */
+	private static String getAdjacentValue( String value, AttributeMetaInfo attrMetaInfo, boolean up )
+	{
+		String dataType = attrMetaInfo.getDataType();
+		if( AttributeTypes.IntType.equals(dataType) || AttributeTypes.LongType.equals(dataType) )
+		{
+			return Long.toString(Long.parseLong(value) + (up?1:-1));
+		}
+		else if( AttributeTypes.DoubleType.equals(dataType) )
+		{
+			double doubleVal = Double.parseDouble(value);
+			return Double.toString(up? Math.nextUp(doubleVal) : -Math.nextUp(-doubleVal));
+		}
+		throw new IllegalArgumentException("NOT, !=, < and > are not supported on String attribute "
+				+attrMetaInfo.getAttrName());
+	}
+
+	private static boolean lessOrEqual( String value1, String value2, AttributeMetaInfo attrMetaInfo )
+	{
+		return AttributeTypes.compareTwoValues(value1, value2, attrMetaInfo.getDataType());
+	}
+
+	private static boolean lessThan( String value1, String value2, AttributeMetaInfo attrMetaInfo )
+	{
+		return !AttributeTypes.compareTwoValues(value2, value1, attrMetaInfo.getDataType());
+	}
+
+	private static HashMap<String, AttributeValueRange> newBox( String attrName,
+			String lowerBound, String upperBound )
+	{
+		HashMap<String, AttributeValueRange> box = new HashMap<String, AttributeValueRange>();
+		box.put(attrName, new AttributeValueRange(lowerBound, upperBound));
+		return box;
+	}
+
+	/**
+	 * Returns the intersection of two boxes of non circular ranges,
+	 * null if it is empty.
+	 */
+	private static HashMap<String, AttributeValueRange> intersectBoxes(
+			HashMap<String, AttributeValueRange> box1, HashMap<String, AttributeValueRange> box2 )
+	{
+		HashMap<String, AttributeValueRange> intersection
+				= new HashMap<String, AttributeValueRange>(box1);
+
+		Iterator<String> attrIter = box2.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			AttributeValueRange range2 = box2.get(attrName);
+			AttributeValueRange range1 = intersection.get(attrName);
+			if( range1 == null )
+			{
+				intersection.put(attrName, range2);
+				continue;
+			}
+
+			AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+			String lowerBound = lessOrEqual(range1.getLowerBound(), range2.getLowerBound(), attrMetaInfo)?
+					range2.getLowerBound() : range1.getLowerBound();
+			String upperBound = lessOrEqual(range1.getUpperBound(), range2.getUpperBound(), attrMetaInfo)?
+					range1.getUpperBound() : range2.getUpperBound();
+
+			if( !lessOrEqual(lowerBound, upperBound, attrMetaInfo) )
+				return null;
+			intersection.put(attrName, new AttributeValueRange(lowerBound, upperBound));
+		}
+		return intersection;
+	}
+
+	private static void checkNumBoxes( int numBoxes )
+	{
+		if( numBoxes > MAX_QUERY_BOXES )
+		{
+			throw new IllegalArgumentException("query has more than "+MAX_QUERY_BOXES
+					+" disjoint ranges");
+		}
+	}
+
+	private static class Token
+	{
+		final TokenType type;
+		final String text;
+
+		Token( TokenType type, String text )
+		{
+			this.type = type;
+			this.text = text;
+		}
+
+		boolean isKeyword( String keyword )
+		{
+			return (type == TokenType.IDENT) && text.equalsIgnoreCase(keyword);
+		}
+	}
+
+	private static List<Token> tokenize( String predicates )
+	{
+		List<Token> tokens = new ArrayList<Token>();
+		int length = predicates.length();
+		int i = 0;
+
+		while( i < length )
+		{
+			char c = predicates.charAt(i);
+			if( Character.isWhitespace(c) )
+			{
+				i++;
+			}
+			else if( c == '(' )
+			{
+				tokens.add(new Token(TokenType.LEFT_PAREN, "("));
+				i++;
+			}
+			else if( c == ')' )
+			{
+				tokens.add(new Token(TokenType.RIGHT_PAREN, ")"));
+				i++;
+			}
+			else if( c == ',' )
+			{
+				tokens.add(new Token(TokenType.COMMA, ","));
+				i++;
+			}
+			else if( (c == '\'') || (c == '"') )
+			{
+				int end = predicates.indexOf(c, i+1);
+				if( end < 0 )
+					throw new IllegalArgumentException("unterminated quote in "+predicates);
+				tokens.add(new Token(TokenType.STRING, predicates.substring(i+1, end)));
+				i = end+1;
+			}
+			else if( (c == '<') || (c == '>') || (c == '=') || (c == '!') )
+			{
+				String operator = ((i+1 < length) && ((predicates.charAt(i+1) == '=')
+						|| ((c == '<') && (predicates.charAt(i+1) == '>'))))?
+						predicates.substring(i, i+2) : predicates.substring(i, i+1);
+				if( operator.equals("!") || operator.equals("==") )
+					throw new IllegalArgumentException("unknown operator "+operator
+							+" in "+predicates);
+				tokens.add(new Token(TokenType.OPERATOR, operator));
+				i = i + operator.length();
+			}
+			else if( Character.isLetter(c) || (c == '_') )
+			{
+				int start = i;
+				while( (i < length) && (Character.isLetterOrDigit(predicates.charAt(i))
+						|| (predicates.charAt(i) == '_')) )
+					i++;
+				tokens.add(new Token(TokenType.IDENT, predicates.substring(start, i)));
+			}
+			else if( Character.isDigit(c) || (c == '-') || (c == '+') || (c == '.') )
+			{
+				int start = i;
+				i++;
+				while( (i < length) && (Character.isLetterOrDigit(predicates.charAt(i))
+						|| (predicates.charAt(i) == '.')
+						|| (((predicates.charAt(i) == '-') || (predicates.charAt(i) == '+'))
+								&& ((predicates.charAt(i-1) == 'e') || (predicates.charAt(i-1) == 'E')))) )
+					i++;
+				tokens.add(new Token(TokenType.VALUE, predicates.substring(start, i)));
+			}
+			else
+			{
+				throw new IllegalArgumentException("unexpected "+c+" in "+predicates);
+			}
+		}
+		tokens.add(new Token(TokenType.END, "end of query"));
+		return tokens;
+	}
+}
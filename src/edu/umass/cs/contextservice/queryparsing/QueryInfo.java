@@ -1,13 +1,22 @@
 package edu.umass.cs.contextservice.queryparsing;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
 import edu.umass.cs.contextservice.profilers.SearchStats;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.schemes.components.SearchResultCache;
 import edu.umass.cs.contextservice.schemes.helperclasses.SearchReplyInfo;
+import edu.umass.cs.contextservice.utils.TimerWheel;
 
 /**
  * Class to store pending query related information, 
@@ -29,12 +38,40 @@ public class QueryInfo
 	
 	private long expiryTime;
 	
+	// sent to the nodes with the search, and again on retries.
+	private boolean storeQueryForTrigger;
+	
+	// deadline for the replies, null if requests have no deadlines.
+	private volatile TimerWheel.Timeout replyTimeout;
+	// time after which the search is also sent to other replicas of 
+	// the nodes that haven't replied, null if searches are not hedged.
+	private volatile TimerWheel.Timeout hedgeTimeout;
+	
+	// set if the result is to be cached, null otherwise.
+	private SearchResultCache.CacheFill cacheFill;
+	
 	// for synch
 	private boolean requestCompl;
 	
 	// only includes attributes that are specified in the query.
+	// for a query of several boxes, the ranges that cover all of them.
 	private HashMap<String, AttributeValueRange> searchQueryAttrValRange;
 	
+	// boxes whose union the query selects, see QueryParser.parseQueryBoxes.
+	private final List<HashMap<String, AttributeValueRange>> searchBoxes;
+	
+	// for a query of several boxes, the boxes that overlap the regions
+	// of each node, which are the boxes sent to it. key is nodeid.
+	private final ConcurrentHashMap<Integer, List<HashMap<String, AttributeValueRange>>> nodeBoxesMap;
+	
+	// ORDER BY and LIMIT of the query.
+	private final SearchQueryOptions queryOptions;
+	
+	// aggregates of an aggregate query, null for a search of GUIDs.
+	private final SearchAggregates searchAggregates;
+	// partial aggregates of the nodes that have replied, merged as they arrive.
+	private final SearchAggregates.Accumulator aggregateAccumulator;
+	
 	// for hyperspace privacy and no privacy case.
 	// to store replies of each region of subspace
 	//private HashMap<Integer, OverlappingInfoClass> regionalReplies;
@@ -43,9 +80,26 @@ public class QueryInfo
 	// key is nodeid.
 	private HashMap<Integer, SearchReplyInfo> searchReplyMap;
 	
+	// nodes replaced because nothing was received from them, with the 
+	// nodes that replaced them. key is the replaced nodeid.
+	private final HashMap<Integer, NodeReplacement> nodeReplacementMap;
+	
+	// System.nanoTime() when the search was sent to each node whose reply 
+	// is not complete yet, for the latency of the nodes' replies.
+	private final ConcurrentHashMap<Integer, Long> nodeSendTimes;
+	
 	private final Object addReplyLock = new Object();
 	
 	private int numRepliesRecvsSoFar = 0;
+	// results of the nodes that have replied, including the 
+	// results they streamed in chunks.
+	private int numResultsRecvd = 0;
+	
+	// for streamed replies, chunks and results forwarded to the user so far.
+	private int numChunksForwarded = 0;
+	private int numResultsForwarded = 0;
+	// set when the last reply is sent to the user, no chunks are forwarded after it.
+	private boolean chunkForwardingClosed = false;
 	
 	private SearchStats searchStat;
 	
@@ -63,12 +117,32 @@ public class QueryInfo
 		this.expiryTime = expiryTime;
 		
 		searchReplyMap = new HashMap<Integer, SearchReplyInfo>();
-		
+		nodeReplacementMap = new HashMap<Integer, NodeReplacement>();
+		nodeSendTimes = new ConcurrentHashMap<Integer, Long>();
 		
 		requestCompl = false;
+		storeQueryForTrigger = false;
+		replyTimeout = null;
+		hedgeTimeout = null;
+		cacheFill = null;
 		
 		// query parsing
-		searchQueryAttrValRange = QueryParser.parseQuery(query);
+		searchBoxes = QueryParser.parseQueryBoxes(query);
+		searchQueryAttrValRange = (searchBoxes.size() == 1)? searchBoxes.get(0) 
+				: QueryParser.parseQuery(query);
+		nodeBoxesMap = new ConcurrentHashMap<Integer, List<HashMap<String, AttributeValueRange>>>();
+		searchAggregates = QueryParser.parseSearchAggregates(query);
+		if( searchAggregates != null )
+		{
+			// an aggregate query returns one result, options don't apply.
+			queryOptions = SearchQueryOptions.NO_OPTIONS;
+			aggregateAccumulator = searchAggregates.newAccumulator();
+		}
+		else
+		{
+			queryOptions = QueryParser.parseQueryOptions(query);
+			aggregateAccumulator = null;
+		}
 		
 		if(ContextServiceConfig.PROFILER_ENABLED)
 		{
@@ -82,6 +156,65 @@ public class QueryInfo
 		return searchQueryAttrValRange;
 	}
 	
+	public List<HashMap<String, AttributeValueRange>> getSearchBoxes()
+	{
+		return searchBoxes;
+	}
+	
+	/**
+	 * Sets the boxes of a query of several boxes that are sent to a node.
+	 */
+	public void setBoxesForNode( int nodeid, List<HashMap<String, AttributeValueRange>> nodeBoxes )
+	{
+		nodeBoxesMap.put(nodeid, nodeBoxes);
+	}
+	
+	/**
+	 * Returns the boxes sent to a node, all boxes of the query 
+	 * if they were not set for the node.
+	 */
+	public List<HashMap<String, AttributeValueRange>> getBoxesForNode( int nodeid )
+	{
+		List<HashMap<String, AttributeValueRange>> nodeBoxes = nodeBoxesMap.get(nodeid);
+		return (nodeBoxes != null)? nodeBoxes : searchBoxes;
+	}
+	
+	/**
+	 * Returns the query sent to a node, the query of the user unless 
+	 * the node is sent only some of its boxes.
+	 */
+	public String getQueryForNode( int nodeid )
+	{
+		List<HashMap<String, AttributeValueRange>> nodeBoxes = nodeBoxesMap.get(nodeid);
+		if( (nodeBoxes == null) || (nodeBoxes.size() == searchBoxes.size()) )
+		{
+			return searchQuery;
+		}
+		return QueryParser.getQueryForBoxes(nodeBoxes, searchAggregates, queryOptions);
+	}
+	
+	public SearchQueryOptions getQueryOptions()
+	{
+		return queryOptions;
+	}
+	
+	public SearchAggregates getSearchAggregates()
+	{
+		return searchAggregates;
+	}
+	
+	/**
+	 * Returns the aggregates merged from the nodes that have replied,
+	 * keyed by their labels, null for a search of GUIDs.
+	 */
+	public JSONObject getAggregateResult() throws JSONException
+	{
+		synchronized(this.addReplyLock)
+		{
+			return (aggregateAccumulator != null)? aggregateAccumulator.toResultJSON() : null;
+		}
+	}
+	
 	public String getQuery()
 	{
 		return searchQuery;
@@ -137,6 +270,85 @@ public class QueryInfo
 		return this.expiryTime;
 	}
 	
+	public void setStoreQueryForTrigger(boolean storeQueryForTrigger)
+	{
+		this.storeQueryForTrigger = storeQueryForTrigger;
+	}
+	
+	public boolean getStoreQueryForTrigger()
+	{
+		return this.storeQueryForTrigger;
+	}
+	
+	public void setCacheFill(SearchResultCache.CacheFill cacheFill)
+	{
+		this.cacheFill = cacheFill;
+	}
+	
+	/**
+	 * Returns null if the result is not to be cached.
+	 */
+	public SearchResultCache.CacheFill getCacheFill()
+	{
+		return this.cacheFill;
+	}
+	
+	public void setReplyTimeout(TimerWheel.Timeout replyTimeout)
+	{
+		this.replyTimeout = replyTimeout;
+	}
+	
+	public void setHedgeTimeout(TimerWheel.Timeout hedgeTimeout)
+	{
+		this.hedgeTimeout = hedgeTimeout;
+	}
+	
+	/**
+	 * Cancels the deadline of the replies, and the hedging of the 
+	 * search, called when the search completes.
+	 */
+	public void cancelReplyTimeout()
+	{
+		TimerWheel.Timeout currTimeout = this.replyTimeout;
+		if( currTimeout != null )
+		{
+			currTimeout.cancel();
+		}
+		TimerWheel.Timeout currHedgeTimeout = this.hedgeTimeout;
+		if( currHedgeTimeout != null )
+		{
+			currHedgeTimeout.cancel();
+		}
+	}
+	
+	/**
+	 * Sets the time the search was sent to a node. Returns the time 
+	 * it was sent to the node before, null if it wasn't.
+	 */
+	public Long setNodeSendTime( int nodeid, long sendTimeNanos )
+	{
+		return nodeSendTimes.put(nodeid, sendTimeNanos);
+	}
+	
+	/**
+	 * Removes and returns the time the search was sent to a node, 
+	 * called when the node's reply is complete. Returns null 
+	 * if the search wasn't sent to the node or was removed before.
+	 */
+	public Long removeNodeSendTime( int nodeid )
+	{
+		return nodeSendTimes.remove(nodeid);
+	}
+	
+	/**
+	 * Returns the nodes the search was sent to whose 
+	 * send time hasn't been removed.
+	 */
+	public List<Integer> getNodesSentTo()
+	{
+		return new LinkedList<Integer>(nodeSendTimes.keySet());
+	}
+	
 	public HashMap<Integer, SearchReplyInfo> getSearchReplyMap()
 	{
 		return this.searchReplyMap;
@@ -157,6 +369,12 @@ public class QueryInfo
 		}
 	}
 	
+	/**
+	 * Adds a reply or, for streamed replies, a result chunk from a node.
+	 * A node has replied when its last reply and all the chunks it 
+	 * sent before that have been added.
+	 * Returns true when all nodes have replied.
+	 */
 	public boolean addReplyFromANode(int senderID, 
 			QueryMesgToSubspaceRegionReply queryMesgToSubspaceRegionReply)
 	{
@@ -164,17 +382,62 @@ public class QueryInfo
 		{
 			SearchReplyInfo subspaceSearchReply = searchReplyMap.get(senderID);
 			
-			if( ContextServiceConfig.sendFullRepliesWithinCS )
+			// a late reply from a node that timed out and was replaced by 
+			// other nodes, used if none of them has replied yet.
+			if( (subspaceSearchReply == null) && restoreReplacedNode(senderID) )
 			{
-				subspaceSearchReply.replyArray = queryMesgToSubspaceRegionReply.getResultGUIDs();
+				subspaceSearchReply = searchReplyMap.get(senderID);
+			}
+			
+			if( subspaceSearchReply == null )
+			{
+				return false;
+			}
+			
+			if( !queryMesgToSubspaceRegionReply.isLastChunk() )
+			{
+				// chunk results are forwarded to the user, not stored.
+				subspaceSearchReply.numChunksRecvd++;
+			}
+			else if( aggregateAccumulator != null )
+			{
+				// the reply only has the node's partial aggregates, 
+				// merged here so that they are not kept per node.
+				try
+				{
+					JSONArray partialArray = queryMesgToSubspaceRegionReply.getResultGUIDs();
+					if( partialArray.length() > 0 )
+					{
+						aggregateAccumulator.mergePartial(partialArray.getJSONArray(0));
+					}
+				} catch (JSONException e)
+				{
+					e.printStackTrace();
+				}
 				subspaceSearchReply.numReplies = queryMesgToSubspaceRegionReply.returnReplySize();
+				subspaceSearchReply.numChunksExpected = queryMesgToSubspaceRegionReply.getChunkNum();
 			}
 			else
 			{
-				subspaceSearchReply.numReplies = queryMesgToSubspaceRegionReply.returnReplySize();
+				if( ContextServiceConfig.sendFullRepliesWithinCS )
+				{
+					subspaceSearchReply.replyArray = queryMesgToSubspaceRegionReply.getResultGUIDs();
+					subspaceSearchReply.numReplies = queryMesgToSubspaceRegionReply.returnReplySize();
+				}
+				else
+				{
+					subspaceSearchReply.numReplies = queryMesgToSubspaceRegionReply.returnReplySize();
+				}
+				subspaceSearchReply.numChunksExpected = queryMesgToSubspaceRegionReply.getChunkNum();
 			}
 			
-			numRepliesRecvsSoFar++;
+			// chunks can arrive after the last reply, as replies
+			// are processed by a thread pool.
+			if( subspaceSearchReply.numChunksRecvd == subspaceSearchReply.numChunksExpected )
+			{
+				numRepliesRecvsSoFar++;
+				numResultsRecvd = numResultsRecvd + subspaceSearchReply.numReplies;
+			}
 			
 			if( checkForRequestCompletion() )
 			{
@@ -187,18 +450,275 @@ public class QueryInfo
 		}
 	}
 	
+	/**
+	 * Reserves the sequence number for forwarding a result chunk to the user,
+	 * and the number of its results to forward, which is less than the chunk 
+	 * size if the chunk has results beyond the result limit of the query.
+	 * Returns null if the chunk should not be forwarded, because the result 
+	 * limit has been reached or the last reply has been sent.
+	 */
+	public ChunkToForward reserveChunkToForward( int chunkSize )
+	{
+		synchronized(this.addReplyLock)
+		{
+			if( chunkForwardingClosed )
+			{
+				return null;
+			}
+			int numResults = chunkSize;
+			int resultLimit = queryOptions.getResultLimit();
+			if( resultLimit != SearchQueryOptions.NO_LIMIT )
+			{
+				numResults = Math.min(numResults, resultLimit - numResultsForwarded);
+			}
+			if( numResults <= 0 )
+			{
+				return null;
+			}
+			numResultsForwarded = numResultsForwarded + numResults;
+			return new ChunkToForward(numChunksForwarded++, numResults);
+		}
+	}
+	
+	/**
+	 * Stops the forwarding of chunks, before the last reply is sent to the user.
+	 * Chunks can still arrive if the search completed because of its deadline.
+	 * Returns the number of chunks forwarded.
+	 */
+	public int closeChunkForwarding()
+	{
+		synchronized(this.addReplyLock)
+		{
+			chunkForwardingClosed = true;
+			return numChunksForwarded;
+		}
+	}
+	
+	public int getNumChunksForwarded()
+	{
+		synchronized(this.addReplyLock)
+		{
+			return numChunksForwarded;
+		}
+	}
+	
+	public int getNumResultsForwarded()
+	{
+		synchronized(this.addReplyLock)
+		{
+			return numResultsForwarded;
+		}
+	}
+	
 	public SearchStats getSearchStats()
 	{
 		return searchStat;
 	}
 	
+	/**
+	 * Returns the nodes from which nothing has been received, 
+	 * neither a result chunk nor the last reply.
+	 */
+	public List<Integer> getNodesWithoutReply()
+	{
+		synchronized(this.addReplyLock)
+		{
+			List<Integer> nodeList = new LinkedList<Integer>();
+			Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+			
+			while( nodeIdIter.hasNext() )
+			{
+				int nodeid = nodeIdIter.next();
+				SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
+				if( replyInfo.numChunksRecvd == 0 && replyInfo.numChunksExpected == -1 )
+				{
+					nodeList.add(nodeid);
+				}
+			}
+			return nodeList;
+		}
+	}
+	
+	/**
+	 * Returns the number of nodes whose reply is not complete.
+	 */
+	public int getNumNodesNotReplied()
+	{
+		synchronized(this.addReplyLock)
+		{
+			return searchReplyMap.size() - numRepliesRecvsSoFar;
+		}
+	}
+	
+	/**
+	 * Replaces a node, from which nothing has been received, with 
+	 * alternateNodes, which together store the regions of the search 
+	 * that the node stores. Later replies from the node are ignored.
+	 * Returns the alternate nodes the search has to be sent to, which 
+	 * excludes the ones the search was already sent to, or null 
+	 * if the node was not replaced because it has sent a reply by now.
+	 */
+	public List<Integer> replaceNodeWithoutReply( int nodeid, List<Integer> alternateNodes )
+	{
+		synchronized(this.addReplyLock)
+		{
+			SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
+			if( replyInfo == null || replyInfo.numChunksRecvd > 0 
+					|| replyInfo.numChunksExpected != -1 )
+			{
+				return null;
+			}
+			searchReplyMap.remove(nodeid);
+			
+			List<Integer> newNodes = new LinkedList<Integer>();
+			for( int i=0; i<alternateNodes.size(); i++ )
+			{
+				int alternateNode = alternateNodes.get(i);
+				if( !searchReplyMap.containsKey(alternateNode) )
+				{
+					searchReplyMap.put(alternateNode, new SearchReplyInfo());
+					newNodes.add(alternateNode);
+					// a replaced node that is queried again isn't restored.
+					nodeReplacementMap.remove(alternateNode);
+				}
+			}
+			nodeReplacementMap.put(nodeid, 
+					new NodeReplacement(new LinkedList<Integer>(alternateNodes), newNodes));
+			return newNodes;
+		}
+	}
+	
+	/**
+	 * Returns true if replies from a node are added to the search, 
+	 * which restores a node that was replaced if nothing has been 
+	 * received from the nodes that replaced it. Called before a result
+	 * chunk of the node is forwarded to the user, so that only the
+	 * chunks of one node for a region are forwarded.
+	 */
+	public boolean acceptsReplyFrom( int nodeid )
+	{
+		synchronized(this.addReplyLock)
+		{
+			return searchReplyMap.containsKey(nodeid) || restoreReplacedNode(nodeid);
+		}
+	}
+	
+	/**
+	 * Returns true if the search was sent to the node.
+	 */
+	public boolean isQueriedNode( int nodeid )
+	{
+		synchronized(this.addReplyLock)
+		{
+			return searchReplyMap.containsKey(nodeid);
+		}
+	}
+	
+	/**
+	 * Returns true when all nodes have replied. Replacing a node 
+	 * with nodes that have already replied can complete a search.
+	 */
+	public boolean checkAllRepliesRecvd()
+	{
+		synchronized(this.addReplyLock)
+		{
+			return checkForRequestCompletion();
+		}
+	}
+	
+	/**
+	 * Puts back a replaced node in place of the nodes that replaced it, 
+	 * if nothing has been received from them, so that the replies of 
+	 * the node that replies first are used. The nodes that replaced it 
+	 * are not put back if they also replace other nodes.
+	 * Returns true if the node was put back. Requires addReplyLock.
+	 */
+	private boolean restoreReplacedNode( int nodeid )
+	{
+		NodeReplacement replacement = nodeReplacementMap.get(nodeid);
+		if( replacement == null )
+		{
+			return false;
+		}
+		
+		for( int i=0; i<replacement.newNodes.size(); i++ )
+		{
+			int newNode = replacement.newNodes.get(i);
+			SearchReplyInfo replyInfo = searchReplyMap.get(newNode);
+			if( replyInfo == null || replyInfo.numChunksRecvd > 0 
+					|| replyInfo.numChunksExpected != -1 )
+			{
+				return false;
+			}
+			
+			Iterator<Integer> replacedIter = nodeReplacementMap.keySet().iterator();
+			while( replacedIter.hasNext() )
+			{
+				int replacedNode = replacedIter.next();
+				if( (replacedNode != nodeid) && 
+						nodeReplacementMap.get(replacedNode).alternateNodes.contains(newNode) )
+				{
+					return false;
+				}
+			}
+		}
+		
+		for( int i=0; i<replacement.newNodes.size(); i++ )
+		{
+			searchReplyMap.remove(replacement.newNodes.get(i));
+		}
+		nodeReplacementMap.remove(nodeid);
+		searchReplyMap.put(nodeid, new SearchReplyInfo());
+		return true;
+	}
+	
 	/**
 	 * This method requires synchronzied execution.
 	 * Or atleast it is assumed right now.
+	 * A search without ORDER BY also completes when the results received, 
+	 * or forwarded in chunks, reach its result limit, as any results 
+	 * up to the limit are its results.
 	 * @return
 	 */
 	private boolean checkForRequestCompletion()
 	{
-		return numRepliesRecvsSoFar == searchReplyMap.size();
+		if( numRepliesRecvsSoFar == searchReplyMap.size() )
+		{
+			return true;
+		}
+		int resultLimit = queryOptions.getResultLimit();
+		return (resultLimit != SearchQueryOptions.NO_LIMIT) && !queryOptions.hasOrderBy() 
+				&& ( Math.max(numResultsRecvd, numResultsForwarded) >= resultLimit );
+	}
+	
+	/**
+	 * Nodes that replaced a node, and the ones of them 
+	 * the search was sent to because of the replacement.
+	 */
+	private static class NodeReplacement
+	{
+		private final List<Integer> alternateNodes;
+		private final List<Integer> newNodes;
+		
+		private NodeReplacement( List<Integer> alternateNodes, List<Integer> newNodes )
+		{
+			this.alternateNodes = alternateNodes;
+			this.newNodes = newNodes;
+		}
+	}
+	
+	/**
+	 * Chunk number and number of results of a result chunk forwarded to the user.
+	 */
+	public static class ChunkToForward
+	{
+		public final int chunkNum;
+		public final int numResults;
+		
+		ChunkToForward( int chunkNum, int numResults )
+		{
+			this.chunkNum = chunkNum;
+			this.numResults = numResults;
+		}
 	}
 }
\ No newline at end of file
@@ -1,13 +1,20 @@
 package edu.umass.cs.contextservice.queryparsing;
 
-
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
 import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
 
 /**
  * Implements query parser
@@ -22,21 +29,860 @@ public class QueryParser
 	
 	public static String [] booleanOperators									= {"AND"};
 	
+	// optional "SELECT list WHERE " before the predicates.
+	private static final Pattern SELECT_PATTERN 
+			= Pattern.compile("^SELECT\\s+(.*?)\\s+WHERE\\s+(.*)$", 
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
+	// predicates, then optionally "ORDER BY attr [ASC|DESC]" and "LIMIT n".
+	private static final Pattern QUERY_OPTIONS_PATTERN 
+			= Pattern.compile("^(.*?)(?:\\s+ORDER\\s+BY\\s+(\\w+)(?:\\s+(ASC|DESC))?)?"
+					+ "(?:\\s+LIMIT\\s+(\\d+))?\\s*$", 
+					Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	
 	/**
 	 * Parses the search query and returns a hashmap of
 	 * attribute and corresponding range pair. 
 	 * Only attributes specfied in the query are returned.
+	 * ORDER BY and LIMIT options are not part of the returned ranges, 
+	 * see parseQueryOptions, and neither is a "SELECT list WHERE" before
+	 * the predicates, see parseSearchAggregates.
 	 * @param userQuery
 	 * @return
 	 */
 	public static HashMap<String, AttributeValueRange> parseQuery(String userQuery)
+	{
+		HashMap<String, AttributeValueRange> searchQAttrValRange 
+								= new HashMap<String, AttributeValueRange>();
+		if( scanConjunctiveQuery(userQuery, new MapPredicateSink(searchQAttrValRange)) )
+		{
+			return searchQAttrValRange;
+		}
+		
+		String Query = getPredicates(userQuery);
+		// the ranges that cover the boxes of OR, NOT and IN.
+		if( QueryExpression.isBooleanQuery(Query) )
+		{
+			return getBoundingBox(parseBooleanQuery(Query));
+		}
+		return  parseWhereQuery(Query);
+	}
+	
+	/**
+	 * Parses the search query into boxes, conjunctions of ranges whose 
+	 * union is the set of GUIDs the query selects, see QueryExpression. 
+	 * A query of only AND of <=, >= and = has one box, the ranges 
+	 * returned by parseQuery. A query that is not valid, or that selects 
+	 * no GUIDs, has no boxes.
+	 * @param userQuery
+	 * @return
+	 */
+	public static List<HashMap<String, AttributeValueRange>> parseQueryBoxes(String userQuery)
+	{
+		List<HashMap<String, AttributeValueRange>> boxes 
+						= new LinkedList<HashMap<String, AttributeValueRange>>();
+		HashMap<String, AttributeValueRange> searchQAttrValRange 
+						= new HashMap<String, AttributeValueRange>();
+		if( scanConjunctiveQuery(userQuery, new MapPredicateSink(searchQAttrValRange)) )
+		{
+			boxes.add(searchQAttrValRange);
+			return boxes;
+		}
+		
+		String Query = getPredicates(userQuery);
+		if( QueryExpression.isBooleanQuery(Query) )
+		{
+			return parseBooleanQuery(Query);
+		}
+		boxes.add(parseWhereQuery(Query));
+		return boxes;
+	}
+	
+	/**
+	 * Compiles the search query into a value space with primitive bounds
+	 * indexed by attribute ordinal, the ranges returned by parseQuery. 
+	 * A query of only AND of <=, >= and = on known attributes, with 
+	 * optional SELECT list and options, is compiled in one pass over the 
+	 * query, without creating Strings for its attributes or numeric values. 
+	 * Other queries are parsed by parseQuery and then compiled.
+	 * @param userQuery
+	 * @return
+	 */
+	public static CompiledValueSpace compileQuery(String userQuery)
+	{
+		CompiledValueSpace valueSpace = new CompiledValueSpace();
+		if( scanConjunctiveQuery(userQuery, new CompiledPredicateSink(valueSpace)) )
+		{
+			return valueSpace;
+		}
+		return CompiledValueSpace.fromRanges(parseQuery(userQuery));
+	}
+	
+	/**
+	 * Returns the predicates of a query, without the SELECT list and options.
+	 */
+	private static String getPredicates(String userQuery)
 	{
 		// removing multiple spaces into one
 		String Query = userQuery.trim().replaceAll(" +", " ");
-		return  parseWhereQuery(Query);
+		Matcher selectMatcher = SELECT_PATTERN.matcher(Query);
+		if( selectMatcher.matches() )
+		{
+			Query = selectMatcher.group(2);
+		}
+		Matcher matcher = QUERY_OPTIONS_PATTERN.matcher(Query);
+		if( matcher.matches() )
+		{
+			Query = matcher.group(1);
+		}
+		return Query;
+	}
+	
+	private static List<HashMap<String, AttributeValueRange>> parseBooleanQuery(String predicates)
+	{
+		List<HashMap<String, AttributeValueRange>> boxes;
+		try
+		{
+			boxes = QueryExpression.parse(predicates).toBoxes();
+		}
+		catch( IllegalArgumentException iae )
+		{
+			ContextServiceLogger.getLogger().warning("Query "+predicates
+					+" is not valid, it selects no GUIDs: "+iae.getMessage());
+			return new LinkedList<HashMap<String, AttributeValueRange>>();
+		}
+		
+		// a box within another box selects no other GUIDs.
+		List<HashMap<String, AttributeValueRange>> distinctBoxes 
+						= new LinkedList<HashMap<String, AttributeValueRange>>();
+		for( int i=0; i<boxes.size(); i++ )
+		{
+			boolean contained = false;
+			for( int j=0; j<boxes.size() && !contained; j++ )
+			{
+				// of equal boxes, the first is kept.
+				contained = (i != j) && isBoxWithin(boxes.get(i), boxes.get(j)) 
+						&& ( (j < i) || !isBoxWithin(boxes.get(j), boxes.get(i)) );
+			}
+			if( !contained )
+			{
+				distinctBoxes.add(boxes.get(i));
+			}
+		}
+		return distinctBoxes;
+	}
+	
+	/**
+	 * Returns true if innerBox selects no GUID that outerBox doesn't, 
+	 * i.e., each range of outerBox contains the range of innerBox
+	 * on its attribute.
+	 */
+	private static boolean isBoxWithin( HashMap<String, AttributeValueRange> innerBox, 
+			HashMap<String, AttributeValueRange> outerBox )
+	{
+		Iterator<String> attrIter = outerBox.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			AttributeValueRange innerRange = innerBox.get(attrName);
+			if( innerRange == null )
+				return false;
+			
+			AttributeValueRange outerRange = outerBox.get(attrName);
+			String dataType = AttributeTypes.attributeMap.get(attrName).getDataType();
+			if( !AttributeTypes.compareTwoValues(outerRange.getLowerBound(), 
+						innerRange.getLowerBound(), dataType) 
+					|| !AttributeTypes.compareTwoValues(innerRange.getUpperBound(), 
+						outerRange.getUpperBound(), dataType) )
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the ranges of the attributes that are in all boxes, 
+	 * each covering the ranges of its attribute in the boxes.
+	 */
+	private static HashMap<String, AttributeValueRange> getBoundingBox
+						( List<HashMap<String, AttributeValueRange>> boxes )
+	{
+		HashMap<String, AttributeValueRange> boundingBox 
+						= new HashMap<String, AttributeValueRange>();
+		if( boxes.isEmpty() )
+			return boundingBox;
+		
+		Iterator<String> attrIter = boxes.get(0).keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			String dataType = AttributeTypes.attributeMap.get(attrName).getDataType();
+			String lowerBound = null;
+			String upperBound = null;
+			
+			for( int i=0; i<boxes.size(); i++ )
+			{
+				AttributeValueRange attrValRange = boxes.get(i).get(attrName);
+				if( attrValRange == null )
+				{
+					lowerBound = null;
+					break;
+				}
+				if( (lowerBound == null) || !AttributeTypes.compareTwoValues(lowerBound, 
+						attrValRange.getLowerBound(), dataType) )
+					lowerBound = attrValRange.getLowerBound();
+				if( (upperBound == null) || !AttributeTypes.compareTwoValues(
+						attrValRange.getUpperBound(), upperBound, dataType) )
+					upperBound = attrValRange.getUpperBound();
+			}
+			
+			if( lowerBound != null )
+			{
+				boundingBox.put(attrName, new AttributeValueRange(lowerBound, upperBound));
+			}
+		}
+		return boundingBox;
+	}
+	
+	/**
+	 * Parses the ORDER BY and LIMIT options after the predicates of 
+	 * a search query. Returns SearchQueryOptions.NO_OPTIONS if there are none. 
+	 * An ORDER BY attribute that is not an attribute is ignored.
+	 * @param userQuery
+	 * @return
+	 */
+	public static SearchQueryOptions parseQueryOptions(String userQuery)
+	{
+		Matcher matcher = QUERY_OPTIONS_PATTERN.matcher(userQuery.trim());
+		if( !matcher.matches() || ((matcher.group(2) == null) && (matcher.group(4) == null)) )
+		{
+			return SearchQueryOptions.NO_OPTIONS;
+		}
+		
+		String orderByAttr = matcher.group(2);
+		if( (orderByAttr != null) && !AttributeTypes.attributeMap.containsKey(orderByAttr) )
+		{
+			ContextServiceLogger.getLogger().warning("ORDER BY "+orderByAttr
+					+" is not an attribute, ignored in "+userQuery);
+			orderByAttr = null;
+		}
+		boolean descending = (matcher.group(3) != null) 
+				&& matcher.group(3).equalsIgnoreCase("DESC");
+		
+		int limit = SearchQueryOptions.NO_LIMIT;
+		if( matcher.group(4) != null )
+		{
+			try
+			{
+				limit = Integer.parseInt(matcher.group(4));
+			}
+			catch( NumberFormatException nfe )
+			{
+				// larger than an int, same as no limit.
+				limit = SearchQueryOptions.NO_LIMIT;
+			}
+		}
+		return new SearchQueryOptions(orderByAttr, descending, limit);
 	}
 	
 	
+	/**
+	 * Parses the aggregates of an aggregate query, "SELECT agg, agg... WHERE predicates".
+	 * Returns null if the query is a search, without a SELECT list or with 
+	 * a SELECT list that is not of aggregates.
+	 * @param userQuery
+	 * @return
+	 */
+	public static SearchAggregates parseSearchAggregates(String userQuery)
+	{
+		Matcher selectMatcher = SELECT_PATTERN.matcher(userQuery.trim());
+		if( !selectMatcher.matches() )
+		{
+			return null;
+		}
+		return SearchAggregates.parse(selectMatcher.group(1));
+	}
+	
+	/**
+	 * Returns the canonical form of a search query, so that queries
+	 * that select the same GUIDs, but are written differently, get the
+	 * same group GUID and share one stored trigger.
+	 * The attributes are in the order of AttributeTypes.attributeInOrderList,
+	 * each as "attr >= lower AND attr <= upper", and numeric values are
+	 * written in one form, like 100 for 100.0 or 1e2 in a Double attribute.
+	 * @param userQuery
+	 * @return
+	 */
+	public static String getCanonicalQuery(String userQuery)
+	{
+		return getCanonicalQuery(parseQueryBoxes(userQuery));
+	}
+	
+	/**
+	 * Returns the canonical form of the boxes of a search query, the 
+	 * canonical form of each box, in parentheses and sorted if there 
+	 * are more than one, with OR between them.
+	 * @param searchBoxes
+	 * @return
+	 */
+	public static String getCanonicalQuery
+				(List<HashMap<String, AttributeValueRange>> searchBoxes)
+	{
+		if( searchBoxes.size() == 1 )
+		{
+			return getCanonicalQuery(searchBoxes.get(0));
+		}
+		
+		List<String> canonicalBoxes = new ArrayList<String>();
+		for( int i=0; i<searchBoxes.size(); i++ )
+		{
+			canonicalBoxes.add("( "+getCanonicalQuery(searchBoxes.get(i))+" )");
+		}
+		Collections.sort(canonicalBoxes);
+		
+		StringBuilder canonicalQuery = new StringBuilder();
+		for( int i=0; i<canonicalBoxes.size(); i++ )
+		{
+			if( i > 0 )
+				canonicalQuery.append(" OR ");
+			canonicalQuery.append(canonicalBoxes.get(i));
+		}
+		return canonicalQuery.toString();
+	}
+	
+	/**
+	 * Returns a query for boxes of a search query, with its aggregates, 
+	 * null for a search of GUIDs, and options, that a node parses to the 
+	 * same boxes, aggregates and options.
+	 * @param searchBoxes
+	 * @param searchAggregates
+	 * @param queryOptions
+	 * @return
+	 */
+	public static String getQueryForBoxes(List<HashMap<String, AttributeValueRange>> searchBoxes, 
+			SearchAggregates searchAggregates, SearchQueryOptions queryOptions)
+	{
+		String selectClause = (searchAggregates != null)? searchAggregates.toSelectClause() : "";
+		return selectClause+getCanonicalQuery(searchBoxes)+queryOptions.toQueryClause();
+	}
+	
+	/**
+	 * Returns the canonical form of a parsed search query with its options, 
+	 * so that searches with different options are cached separately.
+	 * @param searchQAttrValRange
+	 * @param queryOptions
+	 * @return
+	 */
+	public static String getCanonicalQuery
+		(HashMap<String, AttributeValueRange> searchQAttrValRange, SearchQueryOptions queryOptions)
+	{
+		return getCanonicalQuery(searchQAttrValRange)+queryOptions.toQueryClause();
+	}
+	
+	/**
+	 * Returns the canonical form of a parsed search query.
+	 * @param searchQAttrValRange
+	 * @return
+	 */
+	public static String getCanonicalQuery
+				(HashMap<String, AttributeValueRange> searchQAttrValRange)
+	{
+		StringBuilder canonicalQuery = new StringBuilder();
+		
+		Iterator<String> attrIter = AttributeTypes.attributeInOrderList.iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			AttributeValueRange attrValRange = searchQAttrValRange.get(attrName);
+			
+			if( attrValRange == null )
+				continue;
+			
+			String dataType = AttributeTypes.attributeMap.get(attrName).getDataType();
+			
+			if( canonicalQuery.length() > 0 )
+				canonicalQuery.append(" "+booleanOperators[0]+" ");
+			
+			canonicalQuery.append(attrName+" >= "
+					+getCanonicalValue(attrValRange.getLowerBound(), dataType));
+			canonicalQuery.append(" "+booleanOperators[0]+" ");
+			canonicalQuery.append(attrName+" <= "
+					+getCanonicalValue(attrValRange.getUpperBound(), dataType));
+		}
+		return canonicalQuery.toString();
+	}
+	
+	private static String getCanonicalValue(String value, String dataType)
+	{
+		try
+		{
+			if( dataType.equals(AttributeTypes.IntType) 
+					|| dataType.equals(AttributeTypes.LongType) )
+			{
+				return Long.toString(Long.parseLong(value.trim()));
+			}
+			else if( dataType.equals(AttributeTypes.DoubleType) )
+			{
+				double doubleVal = Double.parseDouble(value.trim());
+				// -0.0 and 0.0 select the same GUIDs.
+				if( doubleVal == 0 )
+					return "0";
+				return BigDecimal.valueOf(doubleVal).stripTrailingZeros().toPlainString();
+			}
+		}
+		catch( NumberFormatException nfe )
+		{
+			// left as given, the query fails like it would without this.
+			return value;
+		}
+		return "'"+value+"'";
+	}
+	
+	/**
+	 * Scans a query of only AND of <=, >= and = predicates on known
+	 * attributes, with an optional "SELECT list WHERE " before them and 
+	 * ORDER BY and LIMIT options after them, in one pass, passing each 
+	 * predicate to sink. Returns false, possibly after passing some 
+	 * predicates, if the query is not such a query, or if it is one that 
+	 * getPredicates and parseWhereQuery may parse differently, like 
+	 * spaces other than ' ', so that the caller parses it with them.
+	 */
+	private static boolean scanConjunctiveQuery( String query, PredicateSink sink )
+	{
+		int length = query.length();
+		int ind = skipSpaces(query, 0);
+		
+		if( matchesWord(query, ind, "SELECT") )
+		{
+			// the first " WHERE " after the list, which is not empty.
+			int whereInd = skipSpaces(query, ind + "SELECT".length()) + 2;
+			while( (whereInd < length) && !( (query.charAt(whereInd-1) == ' ')
+					&& matchesWord(query, whereInd, "WHERE") ) )
+			{
+				whereInd++;
+			}
+			if( whereInd >= length )
+				return false;
+			ind = skipSpaces(query, whereInd + "WHERE".length());
+		}
+		
+		while( true )
+		{
+			int attrStart = ind;
+			while( (ind < length) && isWordChar(query.charAt(ind)) )
+			{
+				ind++;
+			}
+			int ordinal = CompiledValueSpace.getOrdinal(query, attrStart, ind);
+			// parseWhereQuery splits at "AND" anywhere in the query.
+			if( (ordinal < 0) || containsAND(query, attrStart, ind) )
+				return false;
+			
+			ind = skipSpaces(query, ind);
+			if( ind+1 >= length )
+				return false;
+			
+			char operator = query.charAt(ind);
+			if( ((operator == '<') || (operator == '>')) && (query.charAt(ind+1) == '=') )
+			{
+				ind = ind + 2;
+			}
+			else if( operator == '=' )
+			{
+				ind = ind + 1;
+			}
+			else
+			{
+				return false;
+			}
+			ind = skipSpaces(query, ind);
+			
+			int valueStart;
+			int valueEnd;
+			if( CompiledValueSpace.isStringOrdinal(ordinal) )
+			{
+				if( (ind >= length) || ((query.charAt(ind) != '\'') && (query.charAt(ind) != '"')) )
+					return false;
+				
+				char quote = query.charAt(ind);
+				valueStart = ind + 1;
+				valueEnd = query.indexOf(quote, valueStart);
+				if( (valueEnd <= valueStart) || !isPlainString(query, valueStart, valueEnd) )
+					return false;
+				ind = valueEnd + 1;
+			}
+			else
+			{
+				valueStart = ind;
+				ind = skipNumber(query, ind);
+				valueEnd = ind;
+				if( valueEnd == valueStart )
+					return false;
+			}
+			if( (ind < length) && (query.charAt(ind) != ' ') )
+				return false;
+			
+			if( !sink.addPredicate(query, ordinal, operator, valueStart, valueEnd) )
+				return false;
+			
+			ind = skipSpaces(query, ind);
+			if( ind == length )
+				return true;
+			
+			if( query.startsWith("AND ", ind) )
+			{
+				ind = skipSpaces(query, ind + "AND".length());
+			}
+			else
+			{
+				return matchesQueryOptions(query, ind);
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if query from ind is "ORDER BY attr [ASC|DESC]" and 
+	 * "LIMIT n", each optional, as QUERY_OPTIONS_PATTERN matches them.
+	 */
+	private static boolean matchesQueryOptions( String query, int ind )
+	{
+		int length = query.length();
+		if( matchesWord(query, ind, "ORDER") )
+		{
+			ind = skipSpaces(query, ind + "ORDER".length());
+			if( !matchesWord(query, ind, "BY") )
+				return false;
+			
+			ind = skipSpaces(query, ind + "BY".length());
+			int attrStart = ind;
+			while( (ind < length) && isWordChar(query.charAt(ind)) )
+			{
+				ind++;
+			}
+			if( (ind == attrStart) || ((ind < length) && (query.charAt(ind) != ' ')) )
+				return false;
+			
+			ind = skipSpaces(query, ind);
+			if( matchesWord(query, ind, "ASC") || matchesWordAtEnd(query, ind, "ASC") )
+			{
+				ind = skipSpaces(query, ind + "ASC".length());
+			}
+			else if( matchesWord(query, ind, "DESC") || matchesWordAtEnd(query, ind, "DESC") )
+			{
+				ind = skipSpaces(query, ind + "DESC".length());
+			}
+		}
+		
+		if( matchesWord(query, ind, "LIMIT") )
+		{
+			ind = skipSpaces(query, ind + "LIMIT".length());
+			int digitStart = ind;
+			while( (ind < length) && isDigit(query.charAt(ind)) )
+			{
+				ind++;
+			}
+			if( ind == digitStart )
+				return false;
+			ind = skipSpaces(query, ind);
+		}
+		return ind == length;
+	}
+	
+	/**
+	 * Returns true if query has word at ind, in any case, followed by a space.
+	 */
+	private static boolean matchesWord( String query, int ind, String word )
+	{
+		int end = ind + word.length();
+		return (end < query.length()) && (query.charAt(end) == ' ')
+				&& query.regionMatches(true, ind, word, 0, word.length());
+	}
+	
+	private static boolean matchesWordAtEnd( String query, int ind, String word )
+	{
+		return (ind + word.length() == query.length())
+				&& query.regionMatches(true, ind, word, 0, word.length());
+	}
+	
+	private static int skipSpaces( String query, int ind )
+	{
+		while( (ind < query.length()) && (query.charAt(ind) == ' ') )
+		{
+			ind++;
+		}
+		return ind;
+	}
+	
+	/**
+	 * Skips a number [+-]digits[.digits][(e|E)[+-]digits], returns ind 
+	 * if there is none.
+	 */
+	private static int skipNumber( String query, int ind )
+	{
+		int length = query.length();
+		int start = ind;
+		if( (ind < length) && ((query.charAt(ind) == '+') || (query.charAt(ind) == '-')) )
+		{
+			ind++;
+		}
+		int numDigits = 0;
+		while( (ind < length) && isDigit(query.charAt(ind)) )
+		{
+			ind++;
+			numDigits++;
+		}
+		if( (ind < length) && (query.charAt(ind) == '.') )
+		{
+			ind++;
+			while( (ind < length) && isDigit(query.charAt(ind)) )
+			{
+				ind++;
+				numDigits++;
+			}
+		}
+		if( numDigits == 0 )
+			return start;
+		
+		if( (ind < length) && ((query.charAt(ind) == 'e') || (query.charAt(ind) == 'E')) )
+		{
+			ind++;
+			if( (ind < length) && ((query.charAt(ind) == '+') || (query.charAt(ind) == '-')) )
+			{
+				ind++;
+			}
+			int expStart = ind;
+			while( (ind < length) && isDigit(query.charAt(ind)) )
+			{
+				ind++;
+			}
+			if( ind == expStart )
+				return start;
+		}
+		return ind;
+	}
+	
+	/**
+	 * Returns true if a quoted String value is parsed the same by 
+	 * parseWhereQuery, no operator, "AND", quote or repeated spaces.
+	 */
+	private static boolean isPlainString( String query, int start, int end )
+	{
+		for( int i=start; i<end; i++ )
+		{
+			char c = query.charAt(i);
+			if( (c == '=') || (c == '\'') || (c == '"') || (c < ' ')
+					|| ((c == ' ') && (query.charAt(i-1) == ' ')) )
+				return false;
+		}
+		return !containsAND(query, start, end);
+	}
+	
+	private static boolean containsAND( String query, int start, int end )
+	{
+		for( int i=start; i+3<=end; i++ )
+		{
+			if( query.startsWith(booleanOperators[0], i) )
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean isWordChar( char c )
+	{
+		return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) 
+				|| isDigit(c) || (c == '_');
+	}
+	
+	private static boolean isDigit( char c )
+	{
+		return (c >= '0') && (c <= '9');
+	}
+	
+	/**
+	 * Receives the predicates of scanConjunctiveQuery. The operator is '<' 
+	 * for <=, '>' for >= and '=' for =. The value is query[valueStart, 
+	 * valueEnd), without the quotes of a String value.
+	 * Returns false if the value can't be added.
+	 */
+	private static abstract class PredicateSink
+	{
+		abstract boolean addPredicate( String query, int ordinal, char operator, 
+				int valueStart, int valueEnd );
+	}
+	
+	/**
+	 * Adds the predicates to ranges with String bounds, like parseWhereQuery.
+	 */
+	private static class MapPredicateSink extends PredicateSink
+	{
+		private final HashMap<String, AttributeValueRange> searchQAttrValRange;
+		
+		MapPredicateSink( HashMap<String, AttributeValueRange> searchQAttrValRange )
+		{
+			this.searchQAttrValRange = searchQAttrValRange;
+		}
+		
+		@Override
+		boolean addPredicate( String query, int ordinal, char operator, 
+				int valueStart, int valueEnd )
+		{
+			addPredicateToValueSpace(CompiledValueSpace.getAttrNameOfOrdinal(ordinal), 
+					(operator == '=')? "=" : operator+"=", 
+					query.substring(valueStart, valueEnd), searchQAttrValRange);
+			return true;
+		}
+	}
+	
+	/**
+	 * Adds the predicates to a compiled value space, parsing numeric 
+	 * values from the query without creating Strings for them.
+	 */
+	private static class CompiledPredicateSink extends PredicateSink
+	{
+		// powers of ten that are exact doubles.
+		private static final double[] POWERS_OF_TEN 		= new double[23];
+		static
+		{
+			POWERS_OF_TEN[0] = 1.0;
+			for( int i=1; i<POWERS_OF_TEN.length; i++ )
+			{
+				POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+			}
+		}
+		
+		private final CompiledValueSpace valueSpace;
+		
+		CompiledPredicateSink( CompiledValueSpace valueSpace )
+		{
+			this.valueSpace = valueSpace;
+		}
+		
+		@Override
+		boolean addPredicate( String query, int ordinal, char operator, 
+				int valueStart, int valueEnd )
+		{
+			if( valueSpace.isStringAttr(ordinal) )
+			{
+				byte[] value = new byte[valueEnd - valueStart];
+				for( int i=0; i<value.length; i++ )
+				{
+					char c = query.charAt(valueStart+i);
+					if( c > 0xff )
+						return false;
+					value[i] = (byte) c;
+				}
+				if( operator != '<' )
+					valueSpace.setLowerBytes(ordinal, value);
+				if( operator != '>' )
+					valueSpace.setUpperBytes(ordinal, value);
+			}
+			else
+			{
+				double value = valueSpace.isIntegralAttr(ordinal)?
+						parseLong(query, valueStart, valueEnd)
+						: parseDouble(query, valueStart, valueEnd);
+				if( Double.isNaN(value) )
+					return false;
+				if( operator != '<' )
+					valueSpace.setLowerBound(ordinal, value);
+				if( operator != '>' )
+					valueSpace.setUpperBound(ordinal, value);
+			}
+			return true;
+		}
+		
+		/**
+		 * Parses an integral value, NaN if it has a fraction or exponent.
+		 */
+		private static double parseLong( String query, int start, int end )
+		{
+			int ind = start;
+			boolean negative = false;
+			if( (query.charAt(ind) == '+') || (query.charAt(ind) == '-') )
+			{
+				negative = query.charAt(ind) == '-';
+				ind++;
+			}
+			long value = 0;
+			int numDigits = 0;
+			for( ; ind<end; ind++ )
+			{
+				char c = query.charAt(ind);
+				if( !isDigit(c) )
+					return Double.NaN;
+				
+				value = value*10 + (c - '0');
+				if( value != 0 )
+					numDigits++;
+			}
+			if( numDigits > 18 )
+				return Long.parseLong(query.substring(start, end));
+			return negative? -value : value;
+		}
+		
+		/**
+		 * Parses a value checked by skipNumber. The mantissa and the power 
+		 * of ten are exact doubles in the common case, so one division or 
+		 * multiplication is correctly rounded, like Double.parseDouble. 
+		 * Other values are parsed by Double.parseDouble.
+		 */
+		private static double parseDouble( String query, int start, int end )
+		{
+			int ind = start;
+			boolean negative = false;
+			if( (query.charAt(ind) == '+') || (query.charAt(ind) == '-') )
+			{
+				negative = query.charAt(ind) == '-';
+				ind++;
+			}
+			long mantissa = 0;
+			int numDigits = 0;
+			int scale = 0;
+			boolean fraction = false;
+			for( ; ind<end; ind++ )
+			{
+				char c = query.charAt(ind);
+				if( c == '.' )
+				{
+					fraction = true;
+					continue;
+				}
+				if( !isDigit(c) )
+					break;
+				
+				mantissa = mantissa*10 + (c - '0');
+				if( mantissa != 0 )
+					numDigits++;
+				if( fraction )
+					scale++;
+			}
+			
+			int exponent = 0;
+			if( ind < end )
+			{
+				// exponent, which skipNumber checked.
+				ind++;
+				boolean negativeExp = query.charAt(ind) == '-';
+				if( (query.charAt(ind) == '+') || negativeExp )
+					ind++;
+				if( end - ind > 3 )
+					return Double.parseDouble(query.substring(start, end));
+				for( ; ind<end; ind++ )
+				{
+					exponent = exponent*10 + (query.charAt(ind) - '0');
+				}
+				exponent = negativeExp? -exponent : exponent;
+			}
+			
+			int netScale = scale - exponent;
+			if( (numDigits > 15) || (netScale > 22) || (netScale < -22) )
+				return Double.parseDouble(query.substring(start, end));
+			
+			double value = (netScale >= 0)? mantissa / POWERS_OF_TEN[netScale]
+							: mantissa * POWERS_OF_TEN[-netScale];
+			return negative? -value : value;
+		}
+	}
+	
 	/**
 	 * returns a vector of predicates(QueryComponent)
 	 * @param spaceParsed
@@ -150,5 +996,18 @@ public class QueryParser
 		
 		System.out.println("Query value space "
 										+searchQAttrValRange.toString());
+		
+		String sameQuery = "attr5 <= 1.4e2 AND  attr0 >= 100.00";
+		System.out.println("Canonical query "+getCanonicalQuery(query)
+				+" same "+getCanonicalQuery(query).equals(getCanonicalQuery(sameQuery)));
+		
+		String limitQuery = "attr0 >= 100 AND attr5 <= 140 ORDER BY attr5 DESC LIMIT 10";
+		System.out.println("Query value space "+QueryParser.parseQuery(limitQuery)
+				+" options "+QueryParser.parseQueryOptions(limitQuery));
+		
+		String aggregateQuery = "SELECT COUNT(*), AVG(attr5), HISTOGRAM(attr5, 10) "
+				+ "WHERE attr0 >= 100 AND attr5 <= 140";
+		System.out.println("Query value space "+QueryParser.parseQuery(aggregateQuery)
+				+" aggregates "+QueryParser.parseSearchAggregates(aggregateQuery));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,527 @@
+package edu.umass.cs.contextservice.queryparsing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+
+/**
+ * Aggregates of an aggregate query, "SELECT agg, agg... WHERE predicates",
+ * where agg is COUNT(*), COUNT(attr), MIN(attr), MAX(attr), SUM(attr),
+ * AVG(attr) or HISTOGRAM(attr, numBuckets). The query returns the
+ * aggregates of the GUIDs that satisfy the predicates instead of the GUIDs.
+ *
+ * Each region node computes a partial aggregate of the GUIDs it stores,
+ * with an Accumulator, and sends it in the partial JSON form. The query
+ * coordinator merges the partial aggregates of the nodes into the result.
+ * Unset attributes are not counted, like NULL in SQL. SUM, AVG and HISTOGRAM
+ * are only for numeric attributes. A histogram has numBuckets equal width
+ * buckets between the min and max value of the attribute, values outside
+ * them are not counted.
+ * @author ayadav
+ */
+public class SearchAggregates
+{
+	public static final int MAX_HISTOGRAM_BUCKETS						= 1000;
+
+	public static enum Function {COUNT, MIN, MAX, SUM, AVG, HISTOGRAM};
+
+	private static final Pattern AGGREGATE_PATTERN
+			= Pattern.compile("^(COUNT|MIN|MAX|SUM|AVG|HISTOGRAM)\\s*\\(\\s*(\\*|\\w+)"
+					+ "\\s*(?:,\\s*(\\d+)\\s*)?\\)$", Pattern.CASE_INSENSITIVE);
+
+	private final List<Aggregate> aggregateList;
+	private final String selectClause;
+
+	/**
+	 * An aggregate function of an attribute.
+	 */
+	public static class Aggregate
+	{
+		private final Function function;
+		// null for COUNT(*)
+		private final String attrName;
+		private final boolean stringAttr;
+		private final int numBuckets;
+		private final double minValue;
+		private final double bucketWidth;
+
+		private Aggregate( Function function, String attrName, int numBuckets )
+		{
+			this.function = function;
+			this.attrName = attrName;
+			this.numBuckets = numBuckets;
+
+			AttributeMetaInfo attrMetaInfo = (attrName != null)?
+					AttributeTypes.attributeMap.get(attrName) : null;
+			this.stringAttr = (attrMetaInfo != null)
+					&& AttributeTypes.StringType.equals(attrMetaInfo.getDataType());
+
+			if( function == Function.HISTOGRAM )
+			{
+				this.minValue = Double.parseDouble(attrMetaInfo.getMinValue());
+				this.bucketWidth = (Double.parseDouble(attrMetaInfo.getMaxValue())
+						- minValue)/numBuckets;
+			}
+			else
+			{
+				this.minValue = 0;
+				this.bucketWidth = 0;
+			}
+		}
+
+		public Function getFunction()
+		{
+			return this.function;
+		}
+
+		/**
+		 * Returns null for COUNT(*).
+		 */
+		public String getAttrName()
+		{
+			return this.attrName;
+		}
+
+		public boolean isStringAttr()
+		{
+			return this.stringAttr;
+		}
+
+		public int getNumBuckets()
+		{
+			return this.numBuckets;
+		}
+
+		/**
+		 * Returns the lower bound of a histogram bucket, bucket numBuckets
+		 * gives the upper bound of the last bucket, which includes it.
+		 */
+		public double getBucketBound( int bucket )
+		{
+			return minValue + bucket*bucketWidth;
+		}
+
+		/**
+		 * Returns the histogram bucket of a value, or -1 if it is outside the buckets.
+		 */
+		public int getBucket( double value )
+		{
+			if( (value < getBucketBound(0)) || (value > getBucketBound(numBuckets)) )
+				return -1;
+
+			int bucket = (int)Math.floor((value - minValue)/bucketWidth);
+			bucket = Math.max(0, Math.min(numBuckets-1, bucket));
+			// the same bounds as the SQL of SQLStatementTemplates, despite rounding.
+			while( (bucket > 0) && (value < getBucketBound(bucket)) )
+				bucket--;
+			while( (bucket < numBuckets-1) && (value >= getBucketBound(bucket+1)) )
+				bucket++;
+			return bucket;
+		}
+
+		/**
+		 * Returns the aggregate as written in the query, which is its key in the result.
+		 */
+		public String getLabel()
+		{
+			if( attrName == null )
+				return function+"(*)";
+			if( function == Function.HISTOGRAM )
+				return function+"("+attrName+", "+numBuckets+")";
+			return function+"("+attrName+")";
+		}
+	}
+
+	private SearchAggregates( List<Aggregate> aggregateList )
+	{
+		this.aggregateList = aggregateList;
+
+		StringBuilder selectBuilder = new StringBuilder("SELECT ");
+		for( int i=0; i<aggregateList.size(); i++ )
+		{
+			if( i > 0 )
+				selectBuilder.append(", ");
+			selectBuilder.append(aggregateList.get(i).getLabel());
+		}
+		selectBuilder.append(" WHERE ");
+		this.selectClause = selectBuilder.toString();
+	}
+
+	/**
+	 * Parses the select list of a query, returns null if it is not a list of
+	 * aggregates, like the GUID_TABLE.guid FROM GUID_TABLE of a search.
+	 * Aggregates of attributes that don't exist, or of String attributes for
+	 * SUM, AVG and HISTOGRAM, are ignored.
+	 */
+	public static SearchAggregates parse( String selectList )
+	{
+		List<String> items = splitSelectList(selectList);
+		List<Aggregate> aggregateList = new ArrayList<Aggregate>();
+		boolean anyAggregate = false;
+
+		for( int i=0; i<items.size(); i++ )
+		{
+			Matcher matcher = AGGREGATE_PATTERN.matcher(items.get(i));
+			if( !matcher.matches() )
+				return null;
+			anyAggregate = true;
+
+			Function function = Function.valueOf(matcher.group(1).toUpperCase());
+			String attrName = matcher.group(2).equals("*")? null : matcher.group(2);
+			AttributeMetaInfo attrMetaInfo = (attrName != null)?
+					AttributeTypes.attributeMap.get(attrName) : null;
+			boolean numericAttr = (attrMetaInfo != null)
+					&& !AttributeTypes.StringType.equals(attrMetaInfo.getDataType());
+			int numBuckets = (matcher.group(3) != null)? parseNumBuckets(matcher.group(3)) : 0;
+
+			boolean valid;
+			switch( function )
+			{
+				case COUNT:
+					valid = (attrName == null) || (attrMetaInfo != null);
+					break;
+				case MIN:
+				case MAX:
+					valid = (attrMetaInfo != null);
+					break;
+				case HISTOGRAM:
+					valid = numericAttr && (numBuckets > 0);
+					break;
+				default:
+					valid = numericAttr;
+			}
+			if( valid && (function != Function.HISTOGRAM) && (matcher.group(3) != null) )
+				valid = false;
+
+			if( !valid )
+			{
+				ContextServiceLogger.getLogger().warning("Aggregate "+items.get(i)
+						+" is not valid, ignored");
+				continue;
+			}
+			aggregateList.add(new Aggregate(function, attrName, numBuckets));
+		}
+
+		if( !anyAggregate || aggregateList.isEmpty() )
+			return null;
+		return new SearchAggregates(aggregateList);
+	}
+
+	public List<Aggregate> getAggregateList()
+	{
+		return this.aggregateList;
+	}
+
+	public int getNumAggregates()
+	{
+		return this.aggregateList.size();
+	}
+
+	/**
+	 * Returns "SELECT agg, agg... WHERE ", to be followed by the
+	 * canonical predicates in the canonical query.
+	 */
+	public String toSelectClause()
+	{
+		return this.selectClause;
+	}
+
+	public Accumulator newAccumulator()
+	{
+		return new Accumulator();
+	}
+
+	@Override
+	public String toString()
+	{
+		return selectClause.trim();
+	}
+
+	/**
+	 * Partial aggregates of a set of GUIDs, not thread safe.
+	 * The partial JSON form is an array of the number of GUIDs, followed
+	 * by an array for each aggregate, of the count, sum, min and max
+	 * of its attribute's values, followed for a histogram by the bucket counts.
+	 */
+	public class Accumulator
+	{
+		private long numGUIDs;
+		private final long[] counts;
+		private final double[] sums;
+		private final double[] numMins;
+		private final double[] numMaxs;
+		private final String[] strMins;
+		private final String[] strMaxs;
+		private final long[][] bucketCounts;
+
+		private Accumulator()
+		{
+			int numAggregates = aggregateList.size();
+			numGUIDs = 0;
+			counts = new long[numAggregates];
+			sums = new double[numAggregates];
+			numMins = new double[numAggregates];
+			numMaxs = new double[numAggregates];
+			strMins = new String[numAggregates];
+			strMaxs = new String[numAggregates];
+			bucketCounts = new long[numAggregates][];
+
+			for( int i=0; i<numAggregates; i++ )
+			{
+				Aggregate aggregate = aggregateList.get(i);
+				bucketCounts[i] = new long[aggregate.getNumBuckets()];
+			}
+		}
+
+		public void addGUIDs( long numToAdd )
+		{
+			numGUIDs = numGUIDs + numToAdd;
+		}
+
+		/**
+		 * Adds a value of the numeric attribute of aggregate index.
+		 */
+		public void addNumericValue( int index, double value )
+		{
+			Aggregate aggregate = aggregateList.get(index);
+			if( aggregate.getFunction() == Function.HISTOGRAM )
+			{
+				int bucket = aggregate.getBucket(value);
+				if( bucket >= 0 )
+					bucketCounts[index][bucket]++;
+				return;
+			}
+			addNumericSummary(index, 1, value, value, value);
+		}
+
+		/**
+		 * Adds a value of the String attribute of aggregate index.
+		 */
+		public void addStringValue( int index, String value )
+		{
+			addStringSummary(index, 1, value, value);
+		}
+
+		/**
+		 * Adds count values of the numeric attribute of aggregate index,
+		 * with their sum, min and max. The min and max are not used if count is 0.
+		 */
+		public void addNumericSummary( int index, long count, double sum, double min, double max )
+		{
+			if( count <= 0 )
+				return;
+
+			if( counts[index] == 0 )
+			{
+				numMins[index] = min;
+				numMaxs[index] = max;
+			}
+			else
+			{
+				numMins[index] = Math.min(numMins[index], min);
+				numMaxs[index] = Math.max(numMaxs[index], max);
+			}
+			counts[index] = counts[index] + count;
+			sums[index] = sums[index] + sum;
+		}
+
+		/**
+		 * Adds count values of the String attribute of aggregate index,
+		 * with their min and max. The min and max are not used if count is 0.
+		 */
+		public void addStringSummary( int index, long count, String min, String max )
+		{
+			if( count <= 0 )
+				return;
+
+			if( (strMins[index] == null) || (min.compareTo(strMins[index]) < 0) )
+				strMins[index] = min;
+			if( (strMaxs[index] == null) || (max.compareTo(strMaxs[index]) > 0) )
+				strMaxs[index] = max;
+			counts[index] = counts[index] + count;
+		}
+
+		/**
+		 * Adds count to a bucket of the histogram of aggregate index.
+		 * A histogram only has bucket counts.
+		 */
+		public void addBucketCount( int index, int bucket, long count )
+		{
+			bucketCounts[index][bucket] = bucketCounts[index][bucket] + count;
+		}
+
+		public long getNumGUIDs()
+		{
+			return this.numGUIDs;
+		}
+
+		/**
+		 * Adds partial aggregates in the partial JSON form.
+		 */
+		public void mergePartial( JSONArray partialJSON ) throws JSONException
+		{
+			addGUIDs(partialJSON.getLong(0));
+			for( int i=0; i<aggregateList.size(); i++ )
+			{
+				JSONArray aggJSON = partialJSON.getJSONArray(i+1);
+				long count = aggJSON.getLong(0);
+				if( count > 0 )
+				{
+					if( aggregateList.get(i).isStringAttr() )
+					{
+						addStringSummary(i, count, aggJSON.getString(2), aggJSON.getString(3));
+					}
+					else
+					{
+						addNumericSummary(i, count, aggJSON.getDouble(1), aggJSON.getDouble(2),
+								aggJSON.getDouble(3));
+					}
+				}
+				for( int j=0; j<bucketCounts[i].length; j++ )
+				{
+					addBucketCount(i, j, aggJSON.getLong(4+j));
+				}
+			}
+		}
+
+		public JSONArray toPartialJSON()
+		{
+			JSONArray partialJSON = new JSONArray();
+			partialJSON.put(numGUIDs);
+			for( int i=0; i<aggregateList.size(); i++ )
+			{
+				boolean stringAttr = aggregateList.get(i).isStringAttr();
+				JSONArray aggJSON = new JSONArray();
+				aggJSON.put(counts[i]);
+				aggJSON.put(sums[i]);
+				if( counts[i] == 0 )
+				{
+					aggJSON.put(JSONObject.NULL);
+					aggJSON.put(JSONObject.NULL);
+				}
+				else if( stringAttr )
+				{
+					aggJSON.put(strMins[i]);
+					aggJSON.put(strMaxs[i]);
+				}
+				else
+				{
+					aggJSON.put(numMins[i]);
+					aggJSON.put(numMaxs[i]);
+				}
+				for( int j=0; j<bucketCounts[i].length; j++ )
+				{
+					aggJSON.put(bucketCounts[i][j]);
+				}
+				partialJSON.put(aggJSON);
+			}
+			return partialJSON;
+		}
+
+		/**
+		 * Returns the aggregates keyed by their labels. MIN, MAX and AVG
+		 * are null if there are no values, a histogram is an array of
+		 * its bucket counts.
+		 */
+		public JSONObject toResultJSON() throws JSONException
+		{
+			JSONObject resultJSON = new JSONObject();
+			for( int i=0; i<aggregateList.size(); i++ )
+			{
+				Aggregate aggregate = aggregateList.get(i);
+				Object value;
+				switch( aggregate.getFunction() )
+				{
+					case COUNT:
+						value = (aggregate.getAttrName() == null)? numGUIDs : counts[i];
+						break;
+					case MIN:
+						value = (counts[i] == 0)? JSONObject.NULL
+								: (aggregate.isStringAttr()? strMins[i]
+										: getNumericResult(aggregate, numMins[i]));
+						break;
+					case MAX:
+						value = (counts[i] == 0)? JSONObject.NULL
+								: (aggregate.isStringAttr()? strMaxs[i]
+										: getNumericResult(aggregate, numMaxs[i]));
+						break;
+					case SUM:
+						value = getNumericResult(aggregate, sums[i]);
+						break;
+					case AVG:
+						value = (counts[i] == 0)? JSONObject.NULL
+								: Double.valueOf(sums[i]/counts[i]);
+						break;
+					default:
+						JSONArray bucketJSON = new JSONArray();
+						for( int j=0; j<bucketCounts[i].length; j++ )
+						{
+							bucketJSON.put(bucketCounts[i][j]);
+						}
+						value = bucketJSON;
+				}
+				resultJSON.put(aggregate.getLabel(), value);
+			}
+			return resultJSON;
+		}
+
+		/**
+		 * Integral for Int and Long attributes.
+		 */
+		private Object getNumericResult( Aggregate aggregate, double value )
+		{
+			String dataType = AttributeTypes.attributeMap.get(aggregate.getAttrName())
+					.getDataType();
+			if( AttributeTypes.IntType.equals(dataType) || AttributeTypes.LongType.equals(dataType) )
+				return Long.valueOf((long)value);
+			return Double.valueOf(value);
+		}
+	}
+
+	private static int parseNumBuckets( String numBucketsString )
+	{
+		try
+		{
+			int numBuckets = Integer.parseInt(numBucketsString);
+			return (numBuckets <= MAX_HISTOGRAM_BUCKETS)? numBuckets : -1;
+		}
+		catch( NumberFormatException nfe )
+		{
+			return -1;
+		}
+	}
+
+	/**
+	 * Splits the select list on the commas outside parentheses.
+	 */
+	private static List<String> splitSelectList( String selectList )
+	{
+		List<String> items = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for( int i=0; i<selectList.length(); i++ )
+		{
+			char c = selectList.charAt(i);
+			if( c == '(' )
+				depth++;
+			else if( c == ')' )
+				depth--;
+			else if( (c == ',') && (depth == 0) )
+			{
+				items.add(selectList.substring(start, i).trim());
+				start = i+1;
+			}
+		}
+		items.add(selectList.substring(start).trim());
+		return items;
+	}
+}
@@ -0,0 +1,95 @@
+package edu.umass.cs.contextservice.queryparsing;
+
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+
+/**
+ * Options of a search given after its predicates,
+ * "ORDER BY attr [ASC|DESC]" and "LIMIT n", in that order.
+ * They travel to the region nodes in the query string,
+ * each node returns at most the limit, in the order,
+ * and the query coordinator merges the node results.
+ * @author ayadav
+ */
+public class SearchQueryOptions
+{
+	public static final int NO_LIMIT								= -1;
+
+	public static final SearchQueryOptions NO_OPTIONS
+								= new SearchQueryOptions(null, false, NO_LIMIT);
+
+	// null if the results are in no particular order.
+	private final String orderByAttr;
+	private final boolean descending;
+	private final int limit;
+
+	public SearchQueryOptions( String orderByAttr, boolean descending, int limit )
+	{
+		this.orderByAttr = orderByAttr;
+		this.descending = descending;
+		this.limit = limit;
+	}
+
+	public boolean hasOrderBy()
+	{
+		return this.orderByAttr != null;
+	}
+
+	public String getOrderByAttr()
+	{
+		return this.orderByAttr;
+	}
+
+	public boolean isDescending()
+	{
+		return this.descending;
+	}
+
+	/**
+	 * Returns the limit given in the query, or NO_LIMIT.
+	 */
+	public int getLimit()
+	{
+		return this.limit;
+	}
+
+	/**
+	 * Returns the number of results a search returns to the user,
+	 * the limit of the query capped by LIMITED_SEARCH_REPLY_SIZE
+	 * when the results are sent to the client, or NO_LIMIT.
+	 */
+	public int getResultLimit()
+	{
+		if( ContextServiceConfig.LIMITED_SEARCH_REPLY_ENABLE
+				&& ContextServiceConfig.sendFullRepliesWithinCS
+				&& ContextServiceConfig.sendFullRepliesToClient )
+		{
+			if( (limit == NO_LIMIT) || (limit > ContextServiceConfig.LIMITED_SEARCH_REPLY_SIZE) )
+				return ContextServiceConfig.LIMITED_SEARCH_REPLY_SIZE;
+		}
+		return limit;
+	}
+
+	/**
+	 * Returns the options as written after the predicates in the canonical query,
+	 * an empty string if there are none.
+	 */
+	public String toQueryClause()
+	{
+		StringBuilder clause = new StringBuilder();
+		if( orderByAttr != null )
+		{
+			clause.append(" ORDER BY "+orderByAttr+(descending?" DESC":" ASC"));
+		}
+		if( limit != NO_LIMIT )
+		{
+			clause.append(" LIMIT "+limit);
+		}
+		return clause.toString();
+	}
+
+	@Override
+	public String toString()
+	{
+		return toQueryClause().trim();
+	}
+}
@@ -1,11 +1,17 @@
 package edu.umass.cs.contextservice.regionmapper;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
 import edu.umass.cs.contextservice.common.CSNodeConfig;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
+import edu.umass.cs.contextservice.regionmapper.helper.NodeLatencyTracker;
 
 /**
  * 
@@ -19,12 +25,20 @@ public abstract class AbstractRegionMappingPolicy
 	protected final HashMap<String, AttributeMetaInfo> attributeMap;
 	protected final CSNodeConfig nodeConfig;
 	
+	// null if replicas are chosen at random.
+	protected volatile NodeLatencyTracker nodeLatencyTracker;
+	
+	// chooses the replicas of the regions of searches of several boxes.
+	private final Random boxesRandGen;
+	
 	
 	public AbstractRegionMappingPolicy( HashMap<String, AttributeMetaInfo> attributeMap, 
 			CSNodeConfig nodeConfig )
 	{
 		this.attributeMap = attributeMap;
 		this.nodeConfig = nodeConfig;
+		this.nodeLatencyTracker = null;
+		this.boxesRandGen = new Random();
 	}
 	
 	
@@ -45,9 +59,230 @@ public abstract class AbstractRegionMappingPolicy
 							(HashMap<String, AttributeValueRange> attrValRangeMap);
 	
 	
+	/**
+	 * Returns the nodeIDs of getNodeIDsForSearch for a value space compiled by 
+	 * QueryParser.compileQuery, so that a search is routed without parsing 
+	 * its bounds again. Policies that compare primitive bounds override it, 
+	 * by default the compiled value space is converted back to ranges.
+	 * @param queryValueSpace
+	 * @return
+	 */
+	public List<Integer> getNodeIDsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		return getNodeIDsForSearch(queryValueSpace.toAttrValRangeMap());
+	}
+	
 	public abstract List<Integer> getNodeIDsForUpdate
 					(String GUID, HashMap<String, AttributeValueRange> attrValRangeMap);
 	
+	/**
+	 * Returns other nodes to send a search to, when the node failedNodeID, 
+	 * that was returned by getNodeIDsForSearch, doesn't reply.
+	 * That is another node of each region that overlaps with the search 
+	 * and is stored on failedNodeID. Returns null if a region has no other node, 
+	 * then there is no node the search can be retried at.
+	 * Policies that don't store a region on multiple nodes return null.
+	 * @param attrValRangeMap
+	 * @param failedNodeID
+	 * @return
+	 */
+	public List<Integer> getAlternateNodeIDsForSearch
+				(HashMap<String, AttributeValueRange> attrValRangeMap, int failedNodeID)
+	{
+		return null;
+	}
+	
+	/**
+	 * Returns the node lists of the regions whose value space overlaps 
+	 * with the input value space, one for each region. Policies that 
+	 * don't store regions on node lists return null, then a search of 
+	 * several boxes is routed by the bounding box of its boxes.
+	 * @param queryValueSpace
+	 * @return
+	 */
+	protected List<List<Integer>> getRegionNodeListsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		return null;
+	}
+	
+	/**
+	 * Returns the nodes a search of several boxes is sent to, each with 
+	 * the boxes it is sent. One node of each region that overlaps with 
+	 * any of the boxes is chosen for the whole search, and is sent all 
+	 * the boxes that overlap with the region. If two nodes of a region 
+	 * were sent two of its boxes, both would return the GUIDs in both boxes.
+	 * Returns null for policies that don't store regions on node lists.
+	 * @param searchBoxes
+	 * @return
+	 */
+	public LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> 
+			getNodeIDsForSearchBoxes( List<HashMap<String, AttributeValueRange>> searchBoxes )
+	{
+		LinkedHashMap<List<Integer>, List<HashMap<String, AttributeValueRange>>> regionBoxesMap 
+				= getRegionBoxesMap(searchBoxes, null);
+		if( regionBoxesMap == null )
+			return null;
+		
+		LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> nodeBoxesMap 
+				= new LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>>();
+		
+		Iterator<List<Integer>> regionIter = regionBoxesMap.keySet().iterator();
+		while( regionIter.hasNext() )
+		{
+			List<Integer> regionNodeList = regionIter.next();
+			int nodeid = chooseSearchNodeOfRegion(regionNodeList, boxesRandGen);
+			addBoxes(nodeBoxesMap, nodeid, regionBoxesMap.get(regionNodeList));
+		}
+		return nodeBoxesMap;
+	}
+	
+	/**
+	 * Returns other nodes to send the boxes of a search to, when the node 
+	 * failedNodeID, that was sent the boxes by getNodeIDsForSearchBoxes, 
+	 * doesn't reply. That is another node of each region that overlaps with 
+	 * the boxes and is stored on failedNodeID, each with the boxes that overlap
+	 * with its region. Returns null if a region has no other node, or for 
+	 * policies that don't store regions on node lists.
+	 * @param nodeBoxes
+	 * @param failedNodeID
+	 * @return
+	 */
+	public LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> 
+			getAlternateNodeIDsForSearchBoxes( List<HashMap<String, AttributeValueRange>> nodeBoxes, 
+					int failedNodeID )
+	{
+		LinkedHashMap<List<Integer>, List<HashMap<String, AttributeValueRange>>> regionBoxesMap 
+				= getRegionBoxesMap(nodeBoxes, failedNodeID);
+		if( regionBoxesMap == null )
+			return null;
+		
+		LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> alternateBoxesMap 
+				= new LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>>();
+		
+		Iterator<List<Integer>> regionIter = regionBoxesMap.keySet().iterator();
+		while( regionIter.hasNext() )
+		{
+			List<Integer> regionNodeList = regionIter.next();
+			Integer alternateNodeId 
+					= getAlternateNodeOfRegion(regionNodeList, failedNodeID, boxesRandGen);
+			
+			if( alternateNodeId == null )
+				return null;
+			
+			addBoxes(alternateBoxesMap, alternateNodeId, regionBoxesMap.get(regionNodeList));
+		}
+		return alternateBoxesMap;
+	}
+	
+	/**
+	 * Returns the boxes that overlap with each region, keyed by the node list 
+	 * of the region, only for regions stored on regionNodeID if it is not null.
+	 * Regions with the same node list are searched by the same node. 
+	 * Returns null for policies that don't store regions on node lists.
+	 */
+	private LinkedHashMap<List<Integer>, List<HashMap<String, AttributeValueRange>>> 
+			getRegionBoxesMap( List<HashMap<String, AttributeValueRange>> searchBoxes, 
+					Integer regionNodeID )
+	{
+		LinkedHashMap<List<Integer>, List<HashMap<String, AttributeValueRange>>> regionBoxesMap 
+				= new LinkedHashMap<List<Integer>, List<HashMap<String, AttributeValueRange>>>();
+		
+		for( int i=0; i<searchBoxes.size(); i++ )
+		{
+			List<List<Integer>> regionNodeLists 
+					= getRegionNodeListsForSearch(CompiledValueSpace.fromRanges(searchBoxes.get(i)));
+			if( regionNodeLists == null )
+				return null;
+			
+			for( int j=0; j<regionNodeLists.size(); j++ )
+			{
+				List<Integer> regionNodeList = regionNodeLists.get(j);
+				if( (regionNodeID != null) && !regionNodeList.contains(regionNodeID) )
+					continue;
+				
+				List<HashMap<String, AttributeValueRange>> regionBoxes 
+						= regionBoxesMap.get(regionNodeList);
+				if( regionBoxes == null )
+				{
+					regionBoxes = new LinkedList<HashMap<String, AttributeValueRange>>();
+					regionBoxesMap.put(regionNodeList, regionBoxes);
+				}
+				regionBoxes.add(searchBoxes.get(i));
+			}
+		}
+		return regionBoxesMap;
+	}
+	
+	/**
+	 * Adds the boxes to the boxes of nodeid, a box that overlaps 
+	 * with several regions of the node is added once.
+	 */
+	private static void addBoxes( 
+			LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> nodeBoxesMap, 
+			int nodeid, List<HashMap<String, AttributeValueRange>> boxes )
+	{
+		List<HashMap<String, AttributeValueRange>> nodeBoxes = nodeBoxesMap.get(nodeid);
+		if( nodeBoxes == null )
+		{
+			nodeBoxes = new LinkedList<HashMap<String, AttributeValueRange>>();
+			nodeBoxesMap.put(nodeid, nodeBoxes);
+		}
+		
+		for( int i=0; i<boxes.size(); i++ )
+		{
+			if( !nodeBoxes.contains(boxes.get(i)) )
+			{
+				nodeBoxes.add(boxes.get(i));
+			}
+		}
+	}
+	
+	/**
+	 * Sets the reply latencies of the nodes, which the replica of a region
+	 * that a search is sent to is then chosen by. Without it, or with 
+	 * ContextServiceConfig.adaptiveReplicaSelection false, 
+	 * a random replica is chosen.
+	 */
+	public void setNodeLatencyTracker( NodeLatencyTracker nodeLatencyTracker )
+	{
+		this.nodeLatencyTracker = nodeLatencyTracker;
+	}
+	
+	/**
+	 * Returns the node of regionNodeList a search is sent to.
+	 */
+	protected Integer chooseSearchNodeOfRegion( List<Integer> regionNodeList, Random randGen )
+	{
+		NodeLatencyTracker latencyTracker = this.nodeLatencyTracker;
+		if( latencyTracker != null )
+		{
+			return latencyTracker.chooseNode(regionNodeList, randGen, null);
+		}
+		return regionNodeList.get(randGen.nextInt(regionNodeList.size()));
+	}
+	
+	/**
+	 * Returns a node of regionNodeList other than failedNodeID, 
+	 * or null if there is none.
+	 */
+	protected Integer getAlternateNodeOfRegion( List<Integer> regionNodeList, 
+			int failedNodeID, Random randGen )
+	{
+		List<Integer> otherNodes = new LinkedList<Integer>();
+		for( int i=0; i<regionNodeList.size(); i++ )
+		{
+			if( regionNodeList.get(i) != failedNodeID )
+			{
+				otherNodes.add(regionNodeList.get(i));
+			}
+		}
+		
+		if( otherNodes.size() == 0 )
+			return null;
+		
+		return chooseSearchNodeOfRegion(otherNodes, randGen);
+	}
+	
 	/**
 	 * This function computes the region mapping. This function can use 
 	 * any scheme to compute the region mapping, like creating a hyperspace
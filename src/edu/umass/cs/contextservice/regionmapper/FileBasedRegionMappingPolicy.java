@@ -17,6 +17,7 @@ import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
 import edu.umass.cs.contextservice.common.CSNodeConfig;
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
 import edu.umass.cs.contextservice.regionmapper.helper.RegionInfo;
 import edu.umass.cs.contextservice.regionmapper.helper.ValueSpaceInfo;
 
@@ -64,7 +65,7 @@ public class FileBasedRegionMappingPolicy extends AbstractRegionMappingPolicy
 				// the input
 				List<Integer> regionNodeList = currRegion.getNodeList();
 				int randNodeId 
-					= regionNodeList.get(randGen.nextInt(regionNodeList.size()));
+					= chooseSearchNodeOfRegion(regionNodeList, randGen);
 				overlapNodeIdsMap.put(randNodeId, randNodeId );
 			}
 		}
@@ -82,6 +83,33 @@ public class FileBasedRegionMappingPolicy extends AbstractRegionMappingPolicy
 	}
 	
 	
+	@Override
+	public List<Integer> getNodeIDsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		// map so that we remove duplicates.
+		HashMap<Integer, Integer> overlapNodeIdsMap = new HashMap<Integer, Integer>();
+		
+		// attributes not in the query overlap with every region.
+		for( RegionInfo currRegion : regionList )
+		{
+			CompiledValueSpace regionValSpace 
+						= currRegion.getValueSpaceInfo().getCompiledValueSpace();
+			
+			if( regionValSpace.overlaps(queryValueSpace) )
+			{
+				List<Integer> regionNodeList = currRegion.getNodeList();
+				int randNodeId 
+					= chooseSearchNodeOfRegion(regionNodeList, randGen);
+				overlapNodeIdsMap.put(randNodeId, randNodeId );
+			}
+		}
+		
+		List<Integer> overlapNodeIds = new LinkedList<Integer>(overlapNodeIdsMap.keySet());
+		assert(overlapNodeIds.size() >= 1);
+		return overlapNodeIds;
+	}
+	
+	
 	@Override
 	public List<Integer> getNodeIDsForUpdate(
 			String GUID, HashMap<String, AttributeValueRange> attrValRangeMap)
@@ -134,6 +162,59 @@ public class FileBasedRegionMappingPolicy extends AbstractRegionMappingPolicy
 	}
 	
 	
+	@Override
+	protected List<List<Integer>> getRegionNodeListsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		List<List<Integer>> regionNodeLists = new LinkedList<List<Integer>>();
+		
+		for( RegionInfo currRegion : regionList )
+		{
+			CompiledValueSpace regionValSpace 
+						= currRegion.getValueSpaceInfo().getCompiledValueSpace();
+			
+			if( regionValSpace.overlaps(queryValueSpace) )
+			{
+				regionNodeLists.add(currRegion.getNodeList());
+			}
+		}
+		return regionNodeLists;
+	}
+	
+	
+	@Override
+	public List<Integer> getAlternateNodeIDsForSearch
+				(HashMap<String, AttributeValueRange> attrValRangeMap, int failedNodeID)
+	{
+		// map so that we remove duplicates.
+		HashMap<Integer, Integer> alternateNodeIdsMap = new HashMap<Integer, Integer>();
+		ValueSpaceInfo fullAttrValSpace = ValueSpaceInfo.getAllAttrsValueSpaceInfo
+							(attrValRangeMap, attributeMap);
+		
+		for( int i=0; i<regionList.size(); i++ )
+		{
+			RegionInfo currRegion = regionList.get(i);
+			List<Integer> regionNodeList = currRegion.getNodeList();
+			
+			if( !regionNodeList.contains(failedNodeID) )
+				continue;
+			
+			boolean overlap = ValueSpaceInfo.checkOverlapOfTwoValueSpaces
+					(attributeMap, currRegion.getValueSpaceInfo(), fullAttrValSpace);
+			
+			if( overlap )
+			{
+				Integer alternateNodeId 
+						= getAlternateNodeOfRegion(regionNodeList, failedNodeID, randGen);
+				
+				if( alternateNodeId == null )
+					return null;
+				
+				alternateNodeIdsMap.put(alternateNodeId, alternateNodeId);
+			}
+		}
+		return new LinkedList<Integer>(alternateNodeIdsMap.keySet());
+	}
+	
 	
 	@Override
 	public void computeRegionMapping() 
@@ -22,6 +22,7 @@ import edu.umass.cs.contextservice.database.datasource.SQLiteDataSource;
 import edu.umass.cs.contextservice.regionmapper.database.AbstractRegionMappingStorage;
 import edu.umass.cs.contextservice.regionmapper.database.SQLRegionMappingStorage;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
 import edu.umass.cs.contextservice.regionmapper.helper.RegionInfo;
 import edu.umass.cs.contextservice.regionmapper.helper.ValueSpaceInfo;
 
@@ -68,7 +69,7 @@ public class FileBasedRegionMappingPolicyWithDB extends AbstractRegionMappingPol
 			
 			List<Integer> regionNodeList = overlapRegion.getNodeList();
 			int randNodeId 
-					= regionNodeList.get(randGen.nextInt(regionNodeList.size()));
+					= chooseSearchNodeOfRegion(regionNodeList, randGen);
 			overlapNodeIdsMap.put(randNodeId, randNodeId );
 		}
 		
@@ -86,6 +87,22 @@ public class FileBasedRegionMappingPolicyWithDB extends AbstractRegionMappingPol
 	}
 	
 	
+	@Override
+	protected List<List<Integer>> getRegionNodeListsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		List<List<Integer>> regionNodeLists = new LinkedList<List<Integer>>();
+		
+		List<Integer> regionKeyList = regionMappingStorage.getNodeIdsForSearch
+				(ContextServiceConfig.REGION_INFO_TABLE_NAME, queryValueSpace.toAttrValRangeMap());
+		
+		for(int i=0; i<regionKeyList.size(); i++)
+		{
+			regionNodeLists.add(regionMap.get(regionKeyList.get(i)).getNodeList());
+		}
+		return regionNodeLists;
+	}
+	
+	
 	@Override
 	public List<Integer> getNodeIDsForUpdate(
 			String GUID, HashMap<String, AttributeValueRange> attrValRangeMap)
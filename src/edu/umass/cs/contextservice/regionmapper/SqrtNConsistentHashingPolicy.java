@@ -125,7 +125,8 @@ public class SqrtNConsistentHashingPolicy extends AbstractRegionMappingPolicy
 		obj.computeRegionMapping();
 		
 		
-		List<Integer> searchList = obj.getNodeIDsForSearch(null);
+		List<Integer> searchList = obj.getNodeIDsForSearch(
+				new HashMap<String, AttributeValueRange>());
 		System.out.println("searchList "+searchList);
 		
 		
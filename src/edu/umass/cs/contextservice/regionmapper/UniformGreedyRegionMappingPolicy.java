@@ -14,6 +14,7 @@ import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
 import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
 import edu.umass.cs.contextservice.common.CSNodeConfig;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
 import edu.umass.cs.contextservice.regionmapper.helper.RegionInfo;
 import edu.umass.cs.contextservice.regionmapper.helper.ValueSpaceInfo;
 
@@ -146,8 +147,7 @@ public class UniformGreedyRegionMappingPolicy extends AbstractRegionMappingPolic
 				// Current region's value space overlaps with the value space in 
 				// the input
 				List<Integer> regionNodeList = currRegion.getNodeList();
-				int randNodeId = regionNodeList.get
-								(randGen.nextInt(regionNodeList.size()));
+				int randNodeId = chooseSearchNodeOfRegion(regionNodeList, randGen);
 				overlapNodeIdsMap.put(randNodeId, randNodeId );
 			}
 		}
@@ -163,6 +163,46 @@ public class UniformGreedyRegionMappingPolicy extends AbstractRegionMappingPolic
 		return overlapNodeIds;
 	}
 	
+	@Override
+	public List<Integer> getNodeIDsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		// map so that we remove duplicates.
+		HashMap<Integer, Integer> overlapNodeIdsMap = new HashMap<Integer, Integer>();
+		
+		for( RegionInfo currRegion : regionList )
+		{
+			CompiledValueSpace regionValSpace 
+						= currRegion.getValueSpaceInfo().getCompiledValueSpace();
+			
+			if( queryValueSpace.overlaps(regionValSpace) )
+			{
+				List<Integer> regionNodeList = currRegion.getNodeList();
+				int randNodeId = chooseSearchNodeOfRegion(regionNodeList, randGen);
+				overlapNodeIdsMap.put(randNodeId, randNodeId );
+			}
+		}
+		return new LinkedList<Integer>(overlapNodeIdsMap.keySet());
+	}
+	
+	
+	@Override
+	protected List<List<Integer>> getRegionNodeListsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		List<List<Integer>> regionNodeLists = new LinkedList<List<Integer>>();
+		
+		for( RegionInfo currRegion : regionList )
+		{
+			CompiledValueSpace regionValSpace 
+						= currRegion.getValueSpaceInfo().getCompiledValueSpace();
+			
+			if( queryValueSpace.overlaps(regionValSpace) )
+			{
+				regionNodeLists.add(currRegion.getNodeList());
+			}
+		}
+		return regionNodeLists;
+	}
+	
 	
 	@Override
 	public void computeRegionMapping()
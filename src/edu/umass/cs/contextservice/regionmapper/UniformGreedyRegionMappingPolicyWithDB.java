@@ -19,7 +19,9 @@ import edu.umass.cs.contextservice.database.datasource.SQLiteDataSource;
 import edu.umass.cs.contextservice.regionmapper.database.AbstractRegionMappingStorage;
 import edu.umass.cs.contextservice.regionmapper.database.SQLRegionMappingStorage;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
 import edu.umass.cs.contextservice.regionmapper.helper.RegionInfo;
+import edu.umass.cs.contextservice.regionmapper.helper.RegionIntervalIndex;
 import edu.umass.cs.contextservice.regionmapper.helper.ValueSpaceInfo;
 
 
@@ -38,8 +40,12 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 	// attributes are partitioned in this order
 	private final List<String> orderedAttrList;
 	
+	// regions are stored in the table only for persistence and recovery.
+	// update and search lookups are answered from the in-memory regionIndex.
 	private final AbstractRegionMappingStorage regionMappingStorage;
 	
+	private RegionIntervalIndex regionIndex;
+	
 	public UniformGreedyRegionMappingPolicyWithDB( AbstractDataSource dataSource,
 			HashMap<String, AttributeMetaInfo> attributeMap, List<String> orderedAttrList,
 			CSNodeConfig nodeConfig )
@@ -48,8 +54,18 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 		this.orderedAttrList = orderedAttrList;
 		regionMap = new HashMap<Integer, RegionInfo>();
 		randGen = new Random();
-		regionMappingStorage = new SQLRegionMappingStorage(dataSource, attributeMap);
-		regionMappingStorage.createTables();
+		
+		// with the in-memory backend there is no table to persist regions in,
+		// regions are recomputed on restart.
+		if( ContextServiceConfig.sqlDBType == ContextServiceConfig.SQL_DB_TYPE.IN_MEMORY )
+		{
+			regionMappingStorage = null;
+		}
+		else
+		{
+			regionMappingStorage = new SQLRegionMappingStorage(dataSource, attributeMap);
+			regionMappingStorage.createTables();
+		}
 	}
 	
 	@Override
@@ -59,8 +75,7 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 		// map so that we remove duplicates.
 		HashMap<Integer, Integer> overlapNodeIdsMap = new HashMap<Integer, Integer>();
 		
-		List<Integer> regionKeyList = regionMappingStorage.getNodeIdsForUpdate
-				(ContextServiceConfig.REGION_INFO_TABLE_NAME, attrValRangeMap);
+		List<Integer> regionKeyList = regionIndex.getRegionKeysForUpdate(attrValRangeMap);
 		
 		for(int i=0; i<regionKeyList.size(); i++)
 		{
@@ -89,12 +104,17 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 	@Override
 	public List<Integer> getNodeIDsForSearch
 					(HashMap<String, AttributeValueRange> attrValRangeMap)
+	{
+		return getNodeIDsForSearch(CompiledValueSpace.fromRanges(attrValRangeMap));
+	}
+	
+	@Override
+	public List<Integer> getNodeIDsForSearch( CompiledValueSpace queryValueSpace )
 	{
 		// map so that we remove duplicates.
 		HashMap<Integer, Integer> overlapNodeIdsMap = new HashMap<Integer, Integer>();
 				
-		List<Integer> regionKeyList = regionMappingStorage.getNodeIdsForSearch
-					(ContextServiceConfig.REGION_INFO_TABLE_NAME, attrValRangeMap);
+		List<Integer> regionKeyList = regionIndex.getRegionKeysForSearch(queryValueSpace);
 		
 		for(int i=0; i<regionKeyList.size(); i++)
 		{
@@ -102,7 +122,7 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 			
 			List<Integer> regionNodeList = overlapRegion.getNodeList();
 			int randNodeId 
-					= regionNodeList.get(randGen.nextInt(regionNodeList.size()));
+					= chooseSearchNodeOfRegion(regionNodeList, randGen);
 			overlapNodeIdsMap.put(randNodeId, randNodeId );
 		}
 		
@@ -120,6 +140,49 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 	}
 	
 	
+	@Override
+	protected List<List<Integer>> getRegionNodeListsForSearch( CompiledValueSpace queryValueSpace )
+	{
+		List<List<Integer>> regionNodeLists = new LinkedList<List<Integer>>();
+		
+		List<Integer> regionKeyList = regionIndex.getRegionKeysForSearch(queryValueSpace);
+		
+		for(int i=0; i<regionKeyList.size(); i++)
+		{
+			regionNodeLists.add(regionMap.get(regionKeyList.get(i)).getNodeList());
+		}
+		return regionNodeLists;
+	}
+	
+	
+	@Override
+	public List<Integer> getAlternateNodeIDsForSearch
+				(HashMap<String, AttributeValueRange> attrValRangeMap, int failedNodeID)
+	{
+		// map so that we remove duplicates.
+		HashMap<Integer, Integer> alternateNodeIdsMap = new HashMap<Integer, Integer>();
+		
+		List<Integer> regionKeyList = regionIndex.getRegionKeysForSearch(attrValRangeMap);
+		
+		for(int i=0; i<regionKeyList.size(); i++)
+		{
+			List<Integer> regionNodeList = regionMap.get(regionKeyList.get(i)).getNodeList();
+			
+			if( !regionNodeList.contains(failedNodeID) )
+				continue;
+			
+			Integer alternateNodeId 
+					= getAlternateNodeOfRegion(regionNodeList, failedNodeID, randGen);
+			
+			if( alternateNodeId == null )
+				return null;
+			
+			alternateNodeIdsMap.put(alternateNodeId, alternateNodeId);
+		}
+		return new LinkedList<Integer>(alternateNodeIdsMap.keySet());
+	}
+	
+	
 	@Override
 	public void computeRegionMapping()
 	{
@@ -176,7 +239,11 @@ public class UniformGreedyRegionMappingPolicyWithDB extends AbstractRegionMappin
 		
 		assignNodesUniformly();
 		
+		regionIndex = new RegionIntervalIndex(regionMap.values(), attributeMap);
+		
 		// store region in db.
+		if( regionMappingStorage == null )
+			return;
 		
 		Iterator<Integer> regionKeyIter = regionMap.keySet().iterator();
 		
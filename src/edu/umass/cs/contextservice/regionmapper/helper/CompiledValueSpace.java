@@ -0,0 +1,477 @@
+package edu.umass.cs.contextservice.regionmapper.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+
+/**
+ * A value space with the bounds of each attribute in arrays indexed by
+ * the attribute ordinal, its position in AttributeTypes.attributeInOrderList.
+ * Int, Long and Double bounds are primitive doubles, String bounds are their
+ * bytes, so overlap checks compare primitives instead of parsing the String
+ * bounds of AttributeValueRange on every check.
+ * Like AttributeValueRange, a range whose lower bound is greater than its
+ * upper bound is kept as is, it is circular in a search query.
+ *
+ * A value space is compiled once, by QueryParser.compileQuery or
+ * fromRanges, and not modified after that, so it can be shared by threads.
+ * Long values beyond 2^53 lose precision, as in RegionIntervalIndex.
+ * @author ayadav
+ */
+public class CompiledValueSpace
+{
+	// layout of the attributes, rebuilt if the attributes are initialized again.
+	private static volatile Layout currLayout 							= null;
+
+	private final Layout layout;
+	private final boolean[] constrained;
+	private final double[] lowerNum;
+	private final double[] upperNum;
+	private final byte[][] lowerBytes;
+	private final byte[][] upperBytes;
+
+	// the bounds the space was compiled from by fromRanges, to check that
+	// a value space map is unchanged, null if compiled by the parser.
+	private final String[] lowerRefs;
+	private final String[] upperRefs;
+	private int numConstrained;
+	// ranges of attributes that are not in the layout, which are ignored.
+	private int numUnknown;
+
+	/**
+	 * Creates a value space without any constrained attribute.
+	 * Used by QueryParser, which sets the ranges as it parses them.
+	 */
+	public CompiledValueSpace()
+	{
+		this(getLayout(), false);
+	}
+
+	private CompiledValueSpace( Layout layout, boolean keepRefs )
+	{
+		this.layout = layout;
+		int numAttrs = layout.attrNames.length;
+		constrained = new boolean[numAttrs];
+		lowerNum = new double[numAttrs];
+		upperNum = new double[numAttrs];
+		lowerBytes = new byte[numAttrs][];
+		upperBytes = new byte[numAttrs][];
+		lowerRefs = keepRefs? new String[numAttrs] : null;
+		upperRefs = keepRefs? new String[numAttrs] : null;
+		numConstrained = 0;
+		numUnknown = 0;
+	}
+
+	/**
+	 * Compiles the ranges of a value space. Attributes that are not known
+	 * are ignored, like the regions do.
+	 */
+	public static CompiledValueSpace fromRanges( HashMap<String, AttributeValueRange> attrValRangeMap )
+	{
+		CompiledValueSpace valueSpace = new CompiledValueSpace(getLayout(), true);
+
+		Iterator<String> attrIter = attrValRangeMap.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			Integer ordinal = valueSpace.layout.ordinalMap.get(attrName);
+			if( ordinal == null )
+			{
+				valueSpace.numUnknown++;
+				continue;
+			}
+			AttributeValueRange attrValRange = attrValRangeMap.get(attrName);
+			valueSpace.setRange(ordinal, attrValRange.getLowerBound(),
+					attrValRange.getUpperBound());
+			valueSpace.lowerRefs[ordinal] = attrValRange.getLowerBound();
+			valueSpace.upperRefs[ordinal] = attrValRange.getUpperBound();
+		}
+		return valueSpace;
+	}
+
+	/**
+	 * Returns true if this space was compiled by fromRanges from ranges with the
+	 * same attributes and bound Strings as attrValRangeMap, so it is still the
+	 * compiled form of attrValRangeMap. Checks references, it doesn't parse.
+	 */
+	public boolean isCompiledFrom( HashMap<String, AttributeValueRange> attrValRangeMap )
+	{
+		if( (lowerRefs == null) || (layout != getLayout())
+				|| (attrValRangeMap.size() != numConstrained+numUnknown) )
+			return false;
+
+		for( int i=0; i<constrained.length; i++ )
+		{
+			if( !constrained[i] )
+				continue;
+
+			AttributeValueRange attrValRange = attrValRangeMap.get(layout.attrNames[i]);
+			if( (attrValRange == null) || (attrValRange.getLowerBound() != lowerRefs[i])
+					|| (attrValRange.getUpperBound() != upperRefs[i]) )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the ordinal of an attribute, -1 if it is not known.
+	 */
+	public static int getOrdinal( String attrName )
+	{
+		Integer ordinal = getLayout().ordinalMap.get(attrName);
+		return (ordinal == null)? -1 : ordinal;
+	}
+
+	/**
+	 * Returns the ordinal of the attribute whose name is query[start, end),
+	 * without creating the name String, -1 if it is not known.
+	 */
+	public static int getOrdinal( String query, int start, int end )
+	{
+		String[] attrNames = getLayout().attrNames;
+		int length = end - start;
+		for( int i=0; i<attrNames.length; i++ )
+		{
+			if( (attrNames[i].length() == length)
+					&& query.regionMatches(start, attrNames[i], 0, length) )
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the name of the attribute with an ordinal.
+	 */
+	public static String getAttrNameOfOrdinal( int ordinal )
+	{
+		return getLayout().attrNames[ordinal];
+	}
+
+	public static boolean isStringOrdinal( int ordinal )
+	{
+		return getLayout().isStringAttr[ordinal];
+	}
+
+	public int getNumAttrs()
+	{
+		return constrained.length;
+	}
+
+	public String getAttrName( int ordinal )
+	{
+		return layout.attrNames[ordinal];
+	}
+
+	public boolean isStringAttr( int ordinal )
+	{
+		return layout.isStringAttr[ordinal];
+	}
+
+	public boolean isIntegralAttr( int ordinal )
+	{
+		return layout.isIntegralAttr[ordinal];
+	}
+
+	public boolean isConstrained( int ordinal )
+	{
+		return constrained[ordinal];
+	}
+
+	public int getNumConstrained()
+	{
+		return numConstrained;
+	}
+
+	public double getLowerBound( int ordinal )
+	{
+		return lowerNum[ordinal];
+	}
+
+	public double getUpperBound( int ordinal )
+	{
+		return upperNum[ordinal];
+	}
+
+	public byte[] getLowerBytes( int ordinal )
+	{
+		return lowerBytes[ordinal];
+	}
+
+	public byte[] getUpperBytes( int ordinal )
+	{
+		return upperBytes[ordinal];
+	}
+
+	/**
+	 * Returns true if the lower bound of the attribute is greater than
+	 * its upper bound, a circular range in a search query.
+	 */
+	public boolean isCircular( int ordinal )
+	{
+		if( layout.isStringAttr[ordinal] )
+			return compareBytes(lowerBytes[ordinal], upperBytes[ordinal]) > 0;
+		return lowerNum[ordinal] > upperNum[ordinal];
+	}
+
+	/**
+	 * Minimum and maximum of an attribute, for a range open on one side.
+	 */
+	public double getMinValue( int ordinal )
+	{
+		return layout.minNum[ordinal];
+	}
+
+	public double getMaxValue( int ordinal )
+	{
+		return layout.maxNum[ordinal];
+	}
+
+	public byte[] getMinBytes( int ordinal )
+	{
+		return layout.minBytes[ordinal];
+	}
+
+	public byte[] getMaxBytes( int ordinal )
+	{
+		return layout.maxBytes[ordinal];
+	}
+
+	/**
+	 * Constrains an attribute to the whole range, before the parser sets
+	 * one of its bounds. Does nothing if the attribute is constrained.
+	 */
+	public void setFullRange( int ordinal )
+	{
+		if( constrained[ordinal] )
+			return;
+
+		constrained[ordinal] = true;
+		numConstrained++;
+		lowerNum[ordinal] = layout.minNum[ordinal];
+		upperNum[ordinal] = layout.maxNum[ordinal];
+		lowerBytes[ordinal] = layout.minBytes[ordinal];
+		upperBytes[ordinal] = layout.maxBytes[ordinal];
+	}
+
+	public void setLowerBound( int ordinal, double value )
+	{
+		setFullRange(ordinal);
+		lowerNum[ordinal] = value;
+	}
+
+	public void setUpperBound( int ordinal, double value )
+	{
+		setFullRange(ordinal);
+		upperNum[ordinal] = value;
+	}
+
+	public void setLowerBytes( int ordinal, byte[] value )
+	{
+		setFullRange(ordinal);
+		lowerBytes[ordinal] = value;
+	}
+
+	public void setUpperBytes( int ordinal, byte[] value )
+	{
+		setFullRange(ordinal);
+		upperBytes[ordinal] = value;
+	}
+
+	private void setRange( int ordinal, String lowerBound, String upperBound )
+	{
+		setFullRange(ordinal);
+		if( layout.isStringAttr[ordinal] )
+		{
+			lowerBytes[ordinal] = toBytes(lowerBound);
+			upperBytes[ordinal] = toBytes(upperBound);
+		}
+		else
+		{
+			lowerNum[ordinal] = layout.toNumeric(ordinal, lowerBound);
+			upperNum[ordinal] = layout.toNumeric(ordinal, upperBound);
+		}
+	}
+
+	/**
+	 * Returns true if, for each attribute constrained in both value spaces,
+	 * the range of this space overlaps the range of other, with the same
+	 * end points as AttributeTypes.checkOverlapOfTwoIntervals, this range
+	 * being its first interval. Attributes constrained in only one space
+	 * are not checked.
+	 */
+	public boolean overlaps( CompiledValueSpace other )
+	{
+		assert( other.layout == layout );
+		for( int i=0; i<constrained.length; i++ )
+		{
+			if( !constrained[i] || !other.constrained[i] )
+				continue;
+
+			boolean overlap;
+			if( layout.isStringAttr[i] )
+			{
+				byte[] lower1 = lowerBytes[i];
+				byte[] upper1 = upperBytes[i];
+				byte[] lower2 = other.lowerBytes[i];
+				byte[] upper2 = other.upperBytes[i];
+				overlap = ( (compareBytes(lower1, lower2) >= 0) && (compareBytes(lower1, upper2) < 0) )
+						|| ( (compareBytes(upper1, lower2) > 0) && (compareBytes(upper1, upper2) <= 0) )
+						|| ( (compareBytes(lower2, lower1) >= 0) && (compareBytes(upper2, upper1) <= 0) );
+			}
+			else
+			{
+				double lower1 = lowerNum[i];
+				double upper1 = upperNum[i];
+				double lower2 = other.lowerNum[i];
+				double upper2 = other.upperNum[i];
+				overlap = ( (lower1 >= lower2) && (lower1 < upper2) )
+						|| ( (upper1 > lower2) && (upper1 <= upper2) )
+						|| ( (lower2 >= lower1) && (upper2 <= upper1) );
+			}
+
+			if( !overlap )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the ranges of the constrained attributes, for code
+	 * that takes ranges with String bounds.
+	 */
+	public HashMap<String, AttributeValueRange> toAttrValRangeMap()
+	{
+		HashMap<String, AttributeValueRange> attrValRangeMap
+						= new HashMap<String, AttributeValueRange>();
+		for( int i=0; i<constrained.length; i++ )
+		{
+			if( !constrained[i] )
+				continue;
+
+			attrValRangeMap.put(layout.attrNames[i], new AttributeValueRange(
+					toValueString(i, lowerNum[i], lowerBytes[i]),
+					toValueString(i, upperNum[i], upperBytes[i])));
+		}
+		return attrValRangeMap;
+	}
+
+	private String toValueString( int ordinal, double numVal, byte[] bytesVal )
+	{
+		if( layout.isStringAttr[ordinal] )
+			return new String(bytesVal, StandardCharsets.ISO_8859_1);
+		if( layout.isIntegralAttr[ordinal] )
+			return Long.toString((long) numVal);
+		return Double.toString(numVal);
+	}
+
+	@Override
+	public String toString()
+	{
+		return toAttrValRangeMap().toString();
+	}
+
+	/**
+	 * The bytes of a String value, one per char, which compare as unsigned
+	 * bytes in the same order as the Strings for chars up to 255.
+	 */
+	public static byte[] toBytes( String value )
+	{
+		return value.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Compares two String values as unsigned bytes.
+	 */
+	public static int compareBytes( byte[] value1, byte[] value2 )
+	{
+		int minLength = Math.min(value1.length, value2.length);
+		for( int i=0; i<minLength; i++ )
+		{
+			int diff = (value1[i] & 0xff) - (value2[i] & 0xff);
+			if( diff != 0 )
+				return diff;
+		}
+		return value1.length - value2.length;
+	}
+
+	private static Layout getLayout()
+	{
+		Layout layout = currLayout;
+		if( (layout == null) || (layout.attrOrderList != AttributeTypes.attributeInOrderList)
+				|| (layout.attributeMap != AttributeTypes.attributeMap)
+				|| (layout.attrNames.length != AttributeTypes.attributeInOrderList.size()) )
+		{
+			layout = new Layout(AttributeTypes.attributeInOrderList, AttributeTypes.attributeMap);
+			currLayout = layout;
+		}
+		return layout;
+	}
+
+	/**
+	 * Ordinals and types of the attributes, with their parsed minimum and maximum.
+	 */
+	private static class Layout
+	{
+		final List<String> attrOrderList;
+		final HashMap<String, AttributeMetaInfo> attributeMap;
+
+		final String[] attrNames;
+		final boolean[] isStringAttr;
+		final boolean[] isIntegralAttr;
+		final double[] minNum;
+		final double[] maxNum;
+		final byte[][] minBytes;
+		final byte[][] maxBytes;
+		final HashMap<String, Integer> ordinalMap;
+
+		Layout( List<String> attrOrderList, HashMap<String, AttributeMetaInfo> attributeMap )
+		{
+			this.attrOrderList = attrOrderList;
+			this.attributeMap = attributeMap;
+
+			int numAttrs = attrOrderList.size();
+			attrNames = new String[numAttrs];
+			isStringAttr = new boolean[numAttrs];
+			isIntegralAttr = new boolean[numAttrs];
+			minNum = new double[numAttrs];
+			maxNum = new double[numAttrs];
+			minBytes = new byte[numAttrs][];
+			maxBytes = new byte[numAttrs][];
+			ordinalMap = new HashMap<String, Integer>();
+
+			int ordinal = 0;
+			for( String attrName : attrOrderList )
+			{
+				AttributeMetaInfo attrMetaInfo = attributeMap.get(attrName);
+				String dataType = attrMetaInfo.getDataType();
+
+				attrNames[ordinal] = attrName;
+				isStringAttr[ordinal] = AttributeTypes.StringType.equals(dataType);
+				isIntegralAttr[ordinal] = AttributeTypes.IntType.equals(dataType)
+						|| AttributeTypes.LongType.equals(dataType);
+				ordinalMap.put(attrName, ordinal);
+
+				if( isStringAttr[ordinal] )
+				{
+					minBytes[ordinal] = toBytes(attrMetaInfo.getMinValue());
+					maxBytes[ordinal] = toBytes(attrMetaInfo.getMaxValue());
+				}
+				else
+				{
+					minNum[ordinal] = toNumeric(ordinal, attrMetaInfo.getMinValue());
+					maxNum[ordinal] = toNumeric(ordinal, attrMetaInfo.getMaxValue());
+				}
+				ordinal++;
+			}
+		}
+
+		double toNumeric( int ordinal, String value )
+		{
+			return isIntegralAttr[ordinal]? Long.parseLong(value) : Double.parseDouble(value);
+		}
+	}
+}
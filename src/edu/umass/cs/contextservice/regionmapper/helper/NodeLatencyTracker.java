@@ -0,0 +1,275 @@
+package edu.umass.cs.contextservice.regionmapper.helper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks, at the node that sends searches to other nodes, the latency of
+ * each node's replies as an exponentially weighted moving average, and the
+ * number of searches sent to each node that it hasn't replied to yet.
+ * Region mapping policies use it to choose the replica of a region a search
+ * is sent to, and the recent reply latencies of all nodes give the delay
+ * after which a search is also sent to another replica of a slow node.
+ *
+ * A node is ranked like in C3, by its average latency times the cube of its
+ * outstanding searches plus one, so that a node that has many searches queued
+ * loses its searches before its average latency catches up. A replica is
+ * chosen by the power of two choices, the better ranked of two random replicas,
+ * so that the nodes that look fastest are not all sent every search.
+ * @author ayadav
+ */
+public class NodeLatencyTracker
+{
+	// weight of a new latency sample in the average.
+	private static final double EWMA_ALPHA								= 0.1;
+
+	// number of recent reply latencies the hedge delay is computed from.
+	private static final int NUM_RECENT_LATENCIES						= 1024;
+	// the hedge delay is recomputed after this many new latencies.
+	private static final int PERCENTILE_UPDATE_INTERVAL					= 64;
+	// fewer latencies than this give no hedge delay.
+	private static final int MIN_LATENCIES_FOR_PERCENTILE				= 32;
+
+	private final ConcurrentHashMap<Integer, NodeStats> nodeStatsMap;
+
+	private final long[] recentLatencies;
+	private int numLatencies;
+	private int nextLatencyIndex;
+	private int latenciesSinceUpdate;
+
+	private final double hedgePercentile;
+	private volatile long hedgeLatencyNanos;
+
+	/**
+	 * @param hedgePercentile percentile of the recent reply latencies
+	 * returned by getHedgeDelayNanos, 0 if searches are not hedged.
+	 */
+	public NodeLatencyTracker( double hedgePercentile )
+	{
+		this.hedgePercentile = hedgePercentile;
+		nodeStatsMap = new ConcurrentHashMap<Integer, NodeStats>();
+		recentLatencies = new long[NUM_RECENT_LATENCIES];
+		numLatencies = 0;
+		nextLatencyIndex = 0;
+		latenciesSinceUpdate = 0;
+		hedgeLatencyNanos = -1;
+	}
+
+	/**
+	 * Called when a search is sent to a node.
+	 */
+	public void recordSend( int nodeid )
+	{
+		getNodeStats(nodeid).recordSend();
+	}
+
+	/**
+	 * Called when a node's reply to a search is complete,
+	 * latencyNanos after the search was sent to it.
+	 */
+	public void recordReply( int nodeid, long latencyNanos )
+	{
+		getNodeStats(nodeid).recordReply(latencyNanos);
+		addRecentLatency(latencyNanos);
+	}
+
+	/**
+	 * Called when a search completes without a reply from a node,
+	 * elapsedNanos after the search was sent to it. The node's reply
+	 * would have taken at least elapsedNanos, so its average
+	 * latency is raised to that, but not lowered.
+	 */
+	public void recordNoReply( int nodeid, long elapsedNanos )
+	{
+		getNodeStats(nodeid).recordNoReply(elapsedNanos);
+	}
+
+	/**
+	 * Returns the C3 rank of a node, lower is better. A node without
+	 * replies so far has an average latency of 0, so that it is tried.
+	 */
+	public double getNodeScore( int nodeid )
+	{
+		NodeStats nodeStats = nodeStatsMap.get(nodeid);
+		if( nodeStats == null )
+			return 0.0;
+		return nodeStats.getScore();
+	}
+
+	public double getAverageLatencyNanos( int nodeid )
+	{
+		NodeStats nodeStats = nodeStatsMap.get(nodeid);
+		return (nodeStats == null)? 0.0 : nodeStats.ewmaLatencyNanos;
+	}
+
+	public int getNumOutstanding( int nodeid )
+	{
+		NodeStats nodeStats = nodeStatsMap.get(nodeid);
+		return (nodeStats == null)? 0 : nodeStats.getNumOutstanding();
+	}
+
+	/**
+	 * Chooses a node of nodeList by the power of two choices,
+	 * the better ranked of two distinct random nodes.
+	 * Nodes in excludedNodes are not chosen, returns null if
+	 * there is no other node. excludedNodes can be null.
+	 */
+	public Integer chooseNode( List<Integer> nodeList, Random randGen,
+			List<Integer> excludedNodes )
+	{
+		int numNodes = nodeList.size();
+		int numCandidates = numNodes;
+		if( excludedNodes != null )
+		{
+			numCandidates = 0;
+			for( int i=0; i<numNodes; i++ )
+			{
+				if( !excludedNodes.contains(nodeList.get(i)) )
+					numCandidates++;
+			}
+		}
+
+		if( numCandidates == 0 )
+			return null;
+
+		Integer firstNode = getCandidate(nodeList, excludedNodes, randGen.nextInt(numCandidates));
+		if( numCandidates == 1 )
+			return firstNode;
+
+		int secondIndex = randGen.nextInt(numCandidates-1);
+		Integer secondNode = getCandidate(nodeList, excludedNodes, secondIndex);
+		// the second choice skips the first one.
+		if( secondNode.equals(firstNode) )
+			secondNode = getCandidate(nodeList, excludedNodes, numCandidates-1);
+
+		return (getNodeScore(secondNode) < getNodeScore(firstNode))? secondNode : firstNode;
+	}
+
+	/**
+	 * Returns the delay after which a search that a node hasn't replied
+	 * to is sent to another replica, the hedge percentile of the recent
+	 * reply latencies of all nodes. Returns -1 if searches are not hedged
+	 * or not enough replies have been received yet.
+	 */
+	public long getHedgeDelayNanos()
+	{
+		return hedgeLatencyNanos;
+	}
+
+	private static Integer getCandidate( List<Integer> nodeList, List<Integer> excludedNodes,
+			int candidateIndex )
+	{
+		int currIndex = 0;
+		Integer lastCandidate = null;
+		for( int i=0; i<nodeList.size(); i++ )
+		{
+			Integer nodeid = nodeList.get(i);
+			if( (excludedNodes != null) && excludedNodes.contains(nodeid) )
+				continue;
+
+			if( currIndex == candidateIndex )
+				return nodeid;
+			lastCandidate = nodeid;
+			currIndex++;
+		}
+		return lastCandidate;
+	}
+
+	private NodeStats getNodeStats( int nodeid )
+	{
+		NodeStats nodeStats = nodeStatsMap.get(nodeid);
+		if( nodeStats == null )
+		{
+			NodeStats newStats = new NodeStats();
+			nodeStats = nodeStatsMap.putIfAbsent(nodeid, newStats);
+			if( nodeStats == null )
+				nodeStats = newStats;
+		}
+		return nodeStats;
+	}
+
+	private void addRecentLatency( long latencyNanos )
+	{
+		if( hedgePercentile <= 0 )
+			return;
+
+		long[] sortedLatencies = null;
+		synchronized( recentLatencies )
+		{
+			recentLatencies[nextLatencyIndex] = latencyNanos;
+			nextLatencyIndex = (nextLatencyIndex+1) % recentLatencies.length;
+			numLatencies = Math.min(numLatencies+1, recentLatencies.length);
+			latenciesSinceUpdate++;
+
+			if( (numLatencies >= MIN_LATENCIES_FOR_PERCENTILE)
+					&& ( (latenciesSinceUpdate >= PERCENTILE_UPDATE_INTERVAL)
+							|| (hedgeLatencyNanos < 0) ) )
+			{
+				sortedLatencies = Arrays.copyOf(recentLatencies, numLatencies);
+				latenciesSinceUpdate = 0;
+			}
+		}
+
+		// sorted outside the lock, replies don't wait for it.
+		if( sortedLatencies != null )
+		{
+			Arrays.sort(sortedLatencies);
+			int index = (int)Math.ceil(hedgePercentile/100.0*sortedLatencies.length) - 1;
+			index = Math.max(0, Math.min(index, sortedLatencies.length-1));
+			hedgeLatencyNanos = sortedLatencies[index];
+		}
+	}
+
+	/**
+	 * Average reply latency and outstanding searches of a node.
+	 */
+	private static class NodeStats
+	{
+		private volatile double ewmaLatencyNanos							= 0.0;
+		private boolean hasLatency											= false;
+		private int numOutstanding											= 0;
+
+		private synchronized void recordSend()
+		{
+			numOutstanding++;
+		}
+
+		private synchronized void recordReply( long latencyNanos )
+		{
+			numOutstanding = Math.max(0, numOutstanding-1);
+			if( !hasLatency )
+			{
+				ewmaLatencyNanos = latencyNanos;
+				hasLatency = true;
+			}
+			else
+			{
+				ewmaLatencyNanos = EWMA_ALPHA*latencyNanos + (1-EWMA_ALPHA)*ewmaLatencyNanos;
+			}
+		}
+
+		private synchronized void recordNoReply( long elapsedNanos )
+		{
+			numOutstanding = Math.max(0, numOutstanding-1);
+			if( elapsedNanos > ewmaLatencyNanos )
+			{
+				ewmaLatencyNanos = elapsedNanos;
+				hasLatency = true;
+			}
+		}
+
+		private synchronized int getNumOutstanding()
+		{
+			return numOutstanding;
+		}
+
+		private synchronized double getScore()
+		{
+			double queueFactor = 1.0 + numOutstanding;
+			// 1 ns so that outstanding searches rank a node without replies.
+			return (ewmaLatencyNanos + 1.0) * queueFactor * queueFactor * queueFactor;
+		}
+	}
+}
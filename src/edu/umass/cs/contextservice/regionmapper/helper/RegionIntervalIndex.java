@@ -0,0 +1,535 @@
+package edu.umass.cs.contextservice.regionmapper.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+
+/**
+ * In-memory multi-dimensional index over the value spaces of regions.
+ * It is a static R-tree that is bulk loaded once, after the regions are
+ * computed, by sorting and tiling the regions on one attribute per tree level.
+ * Each internal node keeps the bounding box of its children, so a lookup only
+ * descends into subtrees whose box overlaps the update value or the search query.
+ *
+ * The overlap semantics are same as in SQLRegionMappingStorage. A region stores
+ * an attribute range as [lower, upper), a search query range is [queryMin, queryMax]
+ * with both end points included, and a search query range with lower bound greater
+ * than upper bound is a circular query that is split into [lower, maxValue] and
+ * [minValue, upper].
+ *
+ * The index is not modified after it is built, so lookups are thread safe
+ * without any locking.
+ * @author ayadav
+ */
+public class RegionIntervalIndex
+{
+	// maximum number of children of an R-tree node.
+	private static final int NODE_FANOUT								= 8;
+
+	private final HashMap<String, AttributeMetaInfo> attributeMap;
+
+	// attribute name of each dimension in the bounds arrays
+	private final String[] dimensionAttrNames;
+	private final boolean[] stringDimension;
+	// ordinal of the attribute of each dimension in a CompiledValueSpace.
+	private final int[] dimensionOrdinals;
+
+	private final IndexNode rootNode;
+
+
+	public RegionIntervalIndex( Collection<RegionInfo> regionList,
+			HashMap<String, AttributeMetaInfo> attributeMap )
+	{
+		this.attributeMap = attributeMap;
+
+		int numDims = attributeMap.size();
+		dimensionAttrNames = new String[numDims];
+		stringDimension = new boolean[numDims];
+		dimensionOrdinals = new int[numDims];
+
+		int currDim = 0;
+		Iterator<String> attrIter = attributeMap.keySet().iterator();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			dimensionAttrNames[currDim] = attrName;
+			stringDimension[currDim] = AttributeTypes.StringType.equals
+							(attributeMap.get(attrName).getDataType());
+			dimensionOrdinals[currDim] = CompiledValueSpace.getOrdinal(attrName);
+			currDim++;
+		}
+
+		List<IndexNode> leafList = new ArrayList<IndexNode>();
+		Iterator<RegionInfo> regionIter = regionList.iterator();
+
+		while( regionIter.hasNext() )
+		{
+			leafList.add(createLeafNode(regionIter.next()));
+		}
+
+		rootNode = leafList.size() > 0 ? bulkLoad(leafList, 0) : null;
+	}
+
+	/**
+	 * Returns the keys of regions whose value space contains the
+	 * update value. Lower and upper bound in attrValRangeMap are same for
+	 * an update.
+	 * @param attrValRangeMap
+	 * @return
+	 */
+	public List<Integer> getRegionKeysForUpdate
+					( HashMap<String, AttributeValueRange> attrValRangeMap )
+	{
+		return getRegionKeysForUpdate(CompiledValueSpace.fromRanges(attrValRangeMap));
+	}
+
+	/**
+	 * Returns the keys of regions whose value space contains the
+	 * update value, the lower bounds of updateValueSpace.
+	 * @param updateValueSpace
+	 * @return
+	 */
+	public List<Integer> getRegionKeysForUpdate( CompiledValueSpace updateValueSpace )
+	{
+		List<Integer> regionKeyList = new LinkedList<Integer>();
+
+		if( rootNode == null )
+			return regionKeyList;
+
+		QueryBox queryBox = new QueryBox(dimensionAttrNames.length, true);
+
+		for( int dim=0; dim<dimensionOrdinals.length; dim++ )
+		{
+			int ordinal = dimensionOrdinals[dim];
+			if( !isConstrainedDimension(updateValueSpace, ordinal) )
+				continue;
+
+			if( stringDimension[dim] )
+			{
+				byte[] value = updateValueSpace.getLowerBytes(ordinal);
+				queryBox.setStringDimension(dim, value, value);
+			}
+			else
+			{
+				double value = updateValueSpace.getLowerBound(ordinal);
+				queryBox.setNumericDimension(dim, value, value);
+			}
+		}
+
+		searchNode(rootNode, queryBox, regionKeyList);
+		return regionKeyList;
+	}
+
+	/**
+	 * Returns the keys of regions whose value space overlaps with the
+	 * search query value space.
+	 * @param attrValRangeMap
+	 * @return
+	 */
+	public List<Integer> getRegionKeysForSearch
+					( HashMap<String, AttributeValueRange> attrValRangeMap )
+	{
+		return getRegionKeysForSearch(CompiledValueSpace.fromRanges(attrValRangeMap));
+	}
+
+	/**
+	 * Returns the keys of regions whose value space overlaps with the
+	 * search query value space, compiled by QueryParser.compileQuery.
+	 * @param queryValueSpace
+	 * @return
+	 */
+	public List<Integer> getRegionKeysForSearch( CompiledValueSpace queryValueSpace )
+	{
+		List<Integer> regionKeyList = new LinkedList<Integer>();
+
+		if( rootNode == null )
+			return regionKeyList;
+
+		QueryBox queryBox = new QueryBox(dimensionAttrNames.length, false);
+		// only created for a circular query.
+		List<QueryBox> queryBoxList = null;
+
+		for( int dim=0; dim<dimensionOrdinals.length; dim++ )
+		{
+			int ordinal = dimensionOrdinals[dim];
+			if( !isConstrainedDimension(queryValueSpace, ordinal) )
+				continue;
+
+			if( !queryValueSpace.isCircular(ordinal) )
+			{
+				if( queryBoxList == null )
+				{
+					setQueryRange(queryBox, dim, queryValueSpace, ordinal);
+				}
+				else
+				{
+					Iterator<QueryBox> boxIter = queryBoxList.iterator();
+					while( boxIter.hasNext() )
+					{
+						setQueryRange(boxIter.next(), dim, queryValueSpace, ordinal);
+					}
+				}
+			}
+			else
+			{
+				if( queryBoxList == null )
+				{
+					queryBoxList = new LinkedList<QueryBox>();
+					queryBoxList.add(queryBox);
+				}
+
+				// circular query, each box is split in two.
+				List<QueryBox> splitBoxList = new LinkedList<QueryBox>();
+				Iterator<QueryBox> boxIter = queryBoxList.iterator();
+				while( boxIter.hasNext() )
+				{
+					QueryBox currBox = boxIter.next();
+					QueryBox copyBox = currBox.copy();
+
+					if( stringDimension[dim] )
+					{
+						currBox.setStringDimension(dim, queryValueSpace.getLowerBytes(ordinal),
+								queryValueSpace.getMaxBytes(ordinal));
+						copyBox.setStringDimension(dim, queryValueSpace.getMinBytes(ordinal),
+								queryValueSpace.getUpperBytes(ordinal));
+					}
+					else
+					{
+						currBox.setNumericDimension(dim, queryValueSpace.getLowerBound(ordinal),
+								queryValueSpace.getMaxValue(ordinal));
+						copyBox.setNumericDimension(dim, queryValueSpace.getMinValue(ordinal),
+								queryValueSpace.getUpperBound(ordinal));
+					}
+
+					splitBoxList.add(currBox);
+					splitBoxList.add(copyBox);
+				}
+				queryBoxList = splitBoxList;
+			}
+		}
+
+		if( queryBoxList == null )
+		{
+			searchNode(rootNode, queryBox, regionKeyList);
+			return regionKeyList;
+		}
+
+		// removing duplicates that overlap with more than one split box.
+		HashMap<Integer, Boolean> regionKeyMap = new HashMap<Integer, Boolean>();
+		Iterator<QueryBox> boxIter = queryBoxList.iterator();
+		while( boxIter.hasNext() )
+		{
+			List<Integer> boxKeyList = new LinkedList<Integer>();
+			searchNode(rootNode, boxIter.next(), boxKeyList);
+
+			for( int i=0; i<boxKeyList.size(); i++ )
+			{
+				if( regionKeyMap.put(boxKeyList.get(i), true) == null )
+				{
+					regionKeyList.add(boxKeyList.get(i));
+				}
+			}
+		}
+		return regionKeyList;
+	}
+
+	private static boolean isConstrainedDimension( CompiledValueSpace valueSpace, int ordinal )
+	{
+		return (ordinal >= 0) && (ordinal < valueSpace.getNumAttrs())
+				&& valueSpace.isConstrained(ordinal);
+	}
+
+	private void setQueryRange( QueryBox queryBox, int dim, 
+			CompiledValueSpace queryValueSpace, int ordinal )
+	{
+		if( stringDimension[dim] )
+		{
+			queryBox.setStringDimension(dim, queryValueSpace.getLowerBytes(ordinal),
+					queryValueSpace.getUpperBytes(ordinal));
+		}
+		else
+		{
+			queryBox.setNumericDimension(dim, queryValueSpace.getLowerBound(ordinal),
+					queryValueSpace.getUpperBound(ordinal));
+		}
+	}
+
+
+	private void searchNode( IndexNode currNode, QueryBox queryBox,
+									List<Integer> regionKeyList )
+	{
+		if( currNode.childNodes == null )
+		{
+			if( queryBox.matchesRegion(currNode) )
+			{
+				regionKeyList.add(currNode.regionKey);
+			}
+			return;
+		}
+
+		for( int i=0; i<currNode.childNodes.length; i++ )
+		{
+			IndexNode childNode = currNode.childNodes[i];
+
+			if( queryBox.intersectsBoundingBox(childNode) )
+			{
+				searchNode(childNode, queryBox, regionKeyList);
+			}
+		}
+	}
+
+
+	private IndexNode createLeafNode( RegionInfo regionInfo )
+	{
+		int numDims = dimensionAttrNames.length;
+		IndexNode leafNode = new IndexNode(numDims);
+		leafNode.regionKey = regionInfo.getRegionKey();
+		leafNode.lowerBytes = new byte[numDims][];
+		leafNode.upperBytes = new byte[numDims][];
+
+		HashMap<String, AttributeValueRange> valSpaceBoundary
+						= regionInfo.getValueSpaceInfo().getValueSpaceBoundary();
+
+		for( int dim=0; dim<numDims; dim++ )
+		{
+			String attrName = dimensionAttrNames[dim];
+			AttributeValueRange attrValRange = valSpaceBoundary.get(attrName);
+
+			if( attrValRange == null )
+			{
+				// attribute not partitioned in this region, so the region
+				// spans whole domain of the attribute.
+				AttributeMetaInfo attrMetaInfo = attributeMap.get(attrName);
+				attrValRange = new AttributeValueRange( attrMetaInfo.getMinValue(),
+											attrMetaInfo.getMaxValue() );
+			}
+
+			if( stringDimension[dim] )
+			{
+				leafNode.lowerBytes[dim] = CompiledValueSpace.toBytes(attrValRange.getLowerBound());
+				leafNode.upperBytes[dim] = CompiledValueSpace.toBytes(attrValRange.getUpperBound());
+				leafNode.lowerBounds[dim] = Double.NEGATIVE_INFINITY;
+				leafNode.upperBounds[dim] = Double.POSITIVE_INFINITY;
+			}
+			else
+			{
+				leafNode.lowerBounds[dim] = Double.parseDouble(attrValRange.getLowerBound());
+				leafNode.upperBounds[dim] = Double.parseDouble(attrValRange.getUpperBound());
+			}
+		}
+		return leafNode;
+	}
+
+	/**
+	 * Sort-tile bulk loading. Nodes are sorted on the center of one dimension,
+	 * cycling through dimensions by level, and packed NODE_FANOUT at a time
+	 * until a single root remains.
+	 */
+	private IndexNode bulkLoad( List<IndexNode> nodeList, int level )
+	{
+		if( nodeList.size() == 1 )
+		{
+			return nodeList.get(0);
+		}
+
+		final int sortDim = level % dimensionAttrNames.length;
+		IndexNode[] nodeArray = nodeList.toArray(new IndexNode[nodeList.size()]);
+
+		Arrays.sort(nodeArray, new Comparator<IndexNode>()
+		{
+			@Override
+			public int compare(IndexNode node1, IndexNode node2)
+			{
+				return Double.compare( node1.lowerBounds[sortDim] + node1.upperBounds[sortDim],
+						node2.lowerBounds[sortDim] + node2.upperBounds[sortDim] );
+			}
+		});
+
+		List<IndexNode> parentList = new ArrayList<IndexNode>();
+
+		for( int start=0; start<nodeArray.length; start=start+NODE_FANOUT )
+		{
+			int end = Math.min(start+NODE_FANOUT, nodeArray.length);
+			IndexNode parentNode = new IndexNode(dimensionAttrNames.length);
+			parentNode.childNodes = Arrays.copyOfRange(nodeArray, start, end);
+
+			Arrays.fill(parentNode.lowerBounds, Double.POSITIVE_INFINITY);
+			Arrays.fill(parentNode.upperBounds, Double.NEGATIVE_INFINITY);
+
+			for( int i=0; i<parentNode.childNodes.length; i++ )
+			{
+				IndexNode childNode = parentNode.childNodes[i];
+
+				for( int dim=0; dim<dimensionAttrNames.length; dim++ )
+				{
+					parentNode.lowerBounds[dim]
+							= Math.min(parentNode.lowerBounds[dim], childNode.lowerBounds[dim]);
+					parentNode.upperBounds[dim]
+							= Math.max(parentNode.upperBounds[dim], childNode.upperBounds[dim]);
+				}
+			}
+			parentList.add(parentNode);
+		}
+		return bulkLoad(parentList, level+1);
+	}
+
+
+	/**
+	 * A node of the R-tree. Leaf nodes have childNodes set to null
+	 * and store the exact region bounds. Numeric bounds are stored as doubles,
+	 * string bounds are stored as bytes and only checked at leaves.
+	 */
+	private static class IndexNode
+	{
+		private final double[] lowerBounds;
+		private final double[] upperBounds;
+
+		private IndexNode[] childNodes;
+
+		// only set in leaf nodes
+		private int regionKey;
+		private byte[][] lowerBytes;
+		private byte[][] upperBytes;
+
+		private IndexNode(int numDims)
+		{
+			lowerBounds = new double[numDims];
+			upperBounds = new double[numDims];
+		}
+	}
+
+	/**
+	 * Value space of an update or a search query. Dimensions
+	 * not specified in the query are not constrained.
+	 */
+	private static class QueryBox
+	{
+		private final boolean isUpdate;
+		private final boolean[] constrained;
+		private final double[] queryMin;
+		private final double[] queryMax;
+		private final byte[][] queryMinBytes;
+		private final byte[][] queryMaxBytes;
+
+		private QueryBox(int numDims, boolean isUpdate)
+		{
+			this.isUpdate = isUpdate;
+			constrained = new boolean[numDims];
+			queryMin = new double[numDims];
+			queryMax = new double[numDims];
+			queryMinBytes = new byte[numDims][];
+			queryMaxBytes = new byte[numDims][];
+		}
+
+		private void setNumericDimension( int dim, double lowerBound, double upperBound )
+		{
+			constrained[dim] = true;
+			queryMin[dim] = lowerBound;
+			queryMax[dim] = upperBound;
+		}
+
+		private void setStringDimension( int dim, byte[] lowerBound, byte[] upperBound )
+		{
+			constrained[dim] = true;
+			queryMinBytes[dim] = lowerBound;
+			queryMaxBytes[dim] = upperBound;
+		}
+
+		private QueryBox copy()
+		{
+			QueryBox copyBox = new QueryBox(constrained.length, isUpdate);
+			System.arraycopy(constrained, 0, copyBox.constrained, 0, constrained.length);
+			System.arraycopy(queryMin, 0, copyBox.queryMin, 0, queryMin.length);
+			System.arraycopy(queryMax, 0, copyBox.queryMax, 0, queryMax.length);
+			System.arraycopy(queryMinBytes, 0, copyBox.queryMinBytes, 0, queryMinBytes.length);
+			System.arraycopy(queryMaxBytes, 0, copyBox.queryMaxBytes, 0, queryMaxBytes.length);
+			return copyBox;
+		}
+
+		/**
+		 * Conservative check used for internal nodes.
+		 * Both end points are treated as included.
+		 */
+		private boolean intersectsBoundingBox( IndexNode indexNode )
+		{
+			for( int dim=0; dim<constrained.length; dim++ )
+			{
+				if( !constrained[dim] || (queryMinBytes[dim] != null) )
+					continue;
+
+				if( (indexNode.lowerBounds[dim] > queryMax[dim])
+						|| (indexNode.upperBounds[dim] < queryMin[dim]) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Exact check at leaves, same as the SQL predicates in
+		 * SQLRegionMappingStorage.
+		 */
+		private boolean matchesRegion( IndexNode leafNode )
+		{
+			for( int dim=0; dim<constrained.length; dim++ )
+			{
+				if( !constrained[dim] )
+					continue;
+
+				boolean dimMatch;
+
+				if( queryMinBytes[dim] != null )
+				{
+					dimMatch = matchString( leafNode.lowerBytes[dim], leafNode.upperBytes[dim],
+							queryMinBytes[dim], queryMaxBytes[dim] );
+				}
+				else
+				{
+					dimMatch = matchNumeric( leafNode.lowerBounds[dim], leafNode.upperBounds[dim],
+							queryMin[dim], queryMax[dim] );
+				}
+
+				if( !dimMatch )
+					return false;
+			}
+			return true;
+		}
+
+		private boolean matchNumeric( double lower, double upper,
+				double qMin, double qMax )
+		{
+			if( isUpdate )
+			{
+				return (lower <= qMin) && (upper > qMin);
+			}
+			return ( (lower <= qMin) && (upper > qMin) ) ||
+					( (lower <= qMax) && (upper > qMax) ) ||
+					( (lower >= qMin) && (upper <= qMax) );
+		}
+
+		private boolean matchString( byte[] lower, byte[] upper,
+				byte[] qMin, byte[] qMax )
+		{
+			if( isUpdate )
+			{
+				return (CompiledValueSpace.compareBytes(lower, qMin) <= 0)
+						&& (CompiledValueSpace.compareBytes(upper, qMin) > 0);
+			}
+			return ( (CompiledValueSpace.compareBytes(lower, qMin) <= 0)
+						&& (CompiledValueSpace.compareBytes(upper, qMin) > 0) ) ||
+					( (CompiledValueSpace.compareBytes(lower, qMax) <= 0)
+						&& (CompiledValueSpace.compareBytes(upper, qMax) > 0) ) ||
+					( (CompiledValueSpace.compareBytes(lower, qMin) >= 0)
+						&& (CompiledValueSpace.compareBytes(upper, qMax) <= 0) );
+		}
+	}
+}
@@ -18,9 +18,14 @@ public class ValueSpaceInfo
 {
 	private final HashMap<String, AttributeValueRange> valueSpaceBoundary;
 	
+	// the boundary compiled for overlap checks, compiled again 
+	// when the boundary is edited.
+	private volatile CompiledValueSpace compiledValueSpace;
+	
 	public ValueSpaceInfo()
 	{
 		valueSpaceBoundary = new HashMap<String, AttributeValueRange>();
+		compiledValueSpace = null;
 	}
 	
 	public HashMap<String, AttributeValueRange> getValueSpaceBoundary()
@@ -28,6 +33,22 @@ public class ValueSpaceInfo
 		return this.valueSpaceBoundary;
 	}
 	
+	/**
+	 * Returns the value space boundary with primitive bounds.
+	 * The compiled boundary is cached until an attribute or 
+	 * a bound of the boundary is changed.
+	 */
+	public CompiledValueSpace getCompiledValueSpace()
+	{
+		CompiledValueSpace compiled = compiledValueSpace;
+		if( (compiled == null) || !compiled.isCompiledFrom(valueSpaceBoundary) )
+		{
+			compiled = CompiledValueSpace.fromRanges(valueSpaceBoundary);
+			compiledValueSpace = compiled;
+		}
+		return compiled;
+	}
+	
 //	public void setValueSpaceBoundary(HashMap<String, AttributeValueRange> valSpaceBoundary)
 //	{
 //		this.valueSpaceBoundary = valSpaceBoundary;
@@ -125,6 +146,13 @@ public class ValueSpaceInfo
 						== valSpace2.getValueSpaceBoundary().size());
 		
 		
+		// compares primitive bounds of the attributes of AttributeTypes.
+		if( attributeMap == AttributeTypes.attributeMap )
+		{
+			return valSpace1.getCompiledValueSpace().overlaps(
+					valSpace2.getCompiledValueSpace());
+		}
+		
 		boolean overlap = true;
 		
 		Iterator<String> attrIter = valSpace1.getValueSpaceBoundary().keySet().iterator();
@@ -1,7 +1,6 @@
 package edu.umass.cs.contextservice.schemes;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
@@ -11,11 +10,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.messages.ContextServicePacket;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUserReply;
 import edu.umass.cs.contextservice.messages.RefreshTrigger;
@@ -48,14 +49,125 @@ public abstract class AbstractScheme implements PacketDemultiplexer<JSONObject>,
 	protected ConcurrentHashMap<Long, UpdateInfo> pendingUpdateRequests		= null;
 	
 	
-	protected long updateIdCounter											= 0;
-	
-	protected final Object pendingUpdateLock								= new Object();
+	// request IDs of updates, updates of different GUIDs take them concurrently
+	protected final AtomicLong updateIdCounter								= new AtomicLong(0);
 	
 	// lock for synchronizing number of msg update
 	protected long numMessagesInSystem										= 0;
 	
-	private static final String HANDLER_METHOD_PREFIX = ContextServicePacket.HANDLER_METHOD_PREFIX; // could be any String as scope is local
+	// requests whose deadline expired before all replies were received, 
+	// and searches that were retried at other nodes because of a deadline.
+	protected final AtomicLong numExpiredQueries							= new AtomicLong(0);
+	protected final AtomicLong numExpiredUpdates							= new AtomicLong(0);
+	protected final AtomicLong numQueryRetries								= new AtomicLong(0);
+	// searches sent to other nodes because their nodes were slow to reply.
+	protected final AtomicLong numQueryHedges								= new AtomicLong(0);
+	
+	/**
+	 * Calls the handler method of one packet type.
+	 */
+	private static abstract class PacketHandler
+	{
+		public abstract void handle( AbstractScheme scheme, ContextServicePacket csPacket );
+	}
+	
+	// handler of each packet type that a node receives, indexed by the PacketType ordinal.
+	// Other packet types, like replies sent to clients, have no handler.
+	private static final PacketHandler[] handlerTable = 
+				new PacketHandler[ContextServicePacket.PacketType.values().length];
+	static
+	{
+		handlerTable[ContextServicePacket.PacketType.QUERY_MSG_FROM_USER.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleQueryMsgFromUser(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.VALUE_UPDATE_MSG_FROM_GNS.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleValueUpdateFromGNS(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleQueryMesgToSubspaceRegion(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.QUERY_MESG_TO_SUBSPACE_REGION_REPLY.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleQueryMesgToSubspaceRegionReply(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_MESSAGE.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleValueUpdateToSubspaceRegionMessage(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.GET_MESSAGE.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleGetMessage(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.GET_REPLY_MESSAGE.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleGetReplyMessage(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleValueUpdateToSubspaceRegionReplyMessage(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.CONFIG_REQUEST.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleClientConfigRequest(csPacket, null);
+				}
+			};
+		handlerTable[ContextServicePacket.PacketType.SEARCH_CACHE_INVALIDATION.ordinal()] = 
+			new PacketHandler()
+			{
+				@Override
+				public void handle( AbstractScheme scheme, ContextServicePacket csPacket )
+				{
+					scheme.handleSearchCacheInvalidation(csPacket, null);
+				}
+			};
+	}
 	
 	private static final List<ContextServicePacket.PacketType> types =
 				ContextServicePacket.PacketType.getPacketTypes();
@@ -124,7 +236,9 @@ public abstract class AbstractScheme implements PacketDemultiplexer<JSONObject>,
 		{
 			if( (csPacket = this.getContextServicePacket(jsonObject)) != null )
 			{
-				this.protocolExecutor.handleEvent(csPacket);
+				// calls the handler directly, like protocolExecutor would do, 
+				// as this task is registered for all packet types.
+				this.dispatchPacket(csPacket);
 			}
 		} catch(JSONException je)
 		{
@@ -138,6 +252,26 @@ public abstract class AbstractScheme implements PacketDemultiplexer<JSONObject>,
 		return this.numMessagesInSystem;
 	}
 	
+	public long getNumExpiredQueries()
+	{
+		return this.numExpiredQueries.get();
+	}
+	
+	public long getNumExpiredUpdates()
+	{
+		return this.numExpiredUpdates.get();
+	}
+	
+	public long getNumQueryRetries()
+	{
+		return this.numQueryRetries.get();
+	}
+	
+	public long getNumQueryHedges()
+	{
+		return this.numQueryHedges.get();
+	}
+	
 	protected void sendQueryReplyBackToUser(InetSocketAddress destAddress, QueryMsgFromUserReply qmesgUR)
 	{
 		try
@@ -230,24 +364,25 @@ public abstract class AbstractScheme implements PacketDemultiplexer<JSONObject>,
 		ProtocolEvent<ContextServicePacket.PacketType, String> event,
 		ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks)
 	{
-		ContextServicePacket.PacketType type = event.getType();
-		try
-		{
-			this.getClass().getMethod(HANDLER_METHOD_PREFIX+
-				ContextServicePacket.getPacketTypeClassName(type), ProtocolEvent.class, 
-				ProtocolTask[].class).invoke(this, 
-					(ContextServicePacket)event, ptasks);
-		} catch(NoSuchMethodException nsme)
-		{
-			nsme.printStackTrace();
-		} catch(InvocationTargetException ite)
-		{
-			ite.printStackTrace();
-		} catch(IllegalAccessException iae)
+		this.dispatchPacket((ContextServicePacket)event);
+		return null;
+	}
+	
+	/**
+	 * Calls the handler method of the packet's type from the handlerTable.
+	 * Handlers are called on the thread that received the packet, 
+	 * so they should either be cheap or hand the packet over to another thread.
+	 */
+	protected void dispatchPacket( ContextServicePacket csPacket )
+	{
+		PacketHandler handler = handlerTable[csPacket.getType().ordinal()];
+		if( handler == null )
 		{
-			iae.printStackTrace();
+			ContextServiceLogger.getLogger().warning("No handler for packet type "
+						+csPacket.getType());
+			return;
 		}
-		return null;
+		handler.handle(this, csPacket);
 	}
 	
 	
@@ -318,4 +453,8 @@ public abstract class AbstractScheme implements PacketDemultiplexer<JSONObject>,
 	public abstract GenericMessagingTask<Integer,?>[] handleACLUpdateToSubspaceRegionReplyMessage(
 			ProtocolEvent<ContextServicePacket.PacketType, String> event,
 			ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks);
+	
+	public abstract GenericMessagingTask<Integer,?>[] handleSearchCacheInvalidation(
+			ProtocolEvent<ContextServicePacket.PacketType, String> event,
+			ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks);
 }
\ No newline at end of file
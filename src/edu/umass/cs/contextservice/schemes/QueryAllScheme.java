@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONArray;
@@ -31,9 +32,10 @@ import edu.umass.cs.contextservice.messages.QueryMsgFromUser;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUserReply;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNS;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNSReply;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
 import edu.umass.cs.contextservice.queryparsing.QueryInfo;
 import edu.umass.cs.contextservice.schemes.helperclasses.SearchReplyInfo;
-import edu.umass.cs.contextservice.updates.GUIDUpdateInfo;
+import edu.umass.cs.contextservice.updates.GUIDUpdateSerializer;
 import edu.umass.cs.contextservice.updates.UpdateInfo;
 import edu.umass.cs.contextservice.utils.Utils;
 import edu.umass.cs.nio.GenericMessagingTask;
@@ -49,7 +51,7 @@ public class QueryAllScheme extends AbstractScheme
 	
 	private final ExecutorService nodeES;
 	
-	private HashMap<String, GUIDUpdateInfo> guidUpdateInfoMap						= null;
+	private final GUIDUpdateSerializer guidUpdateSerializer;
 	
 	private final Object pendingQueryLock											= new Object();
 	private long queryIdCounter														= 0;
@@ -62,7 +64,7 @@ public class QueryAllScheme extends AbstractScheme
 		
 		nodeES = Executors.newFixedThreadPool(ContextServiceConfig.threadPoolSize);
 		
-		guidUpdateInfoMap = new HashMap<String, GUIDUpdateInfo>();
+		guidUpdateSerializer = new GUIDUpdateSerializer();
 		
 		ContextServiceLogger.getLogger().fine("configure subspace completed");
 		
@@ -196,6 +198,15 @@ public class QueryAllScheme extends AbstractScheme
 		return null;
 	}
 	
+	@Override
+	public GenericMessagingTask<Integer, ?>[] handleSearchCacheInvalidation(
+			ProtocolEvent<PacketType, String> event, 
+			ProtocolTask<Integer, PacketType, String>[] ptasks)
+	{
+		// this scheme doesn't cache search results.
+		return null;
+	}
+	
 	private void processQueryMsgFromUser
 				(QueryMsgFromUser queryMsgFromUser)
 	{
@@ -268,7 +279,7 @@ public class QueryAllScheme extends AbstractScheme
 	    	
 			try
 			{
-				this.messenger.sendToID( nodeid, queryMesgToSubspaceRegion.toJSONObject() );
+				this.messenger.sendToID( nodeid, BinaryWireFormat.toWireJSON(queryMesgToSubspaceRegion) );
 			} catch (IOException e)
 			{
 				e.printStackTrace();
@@ -315,28 +326,13 @@ public class QueryAllScheme extends AbstractScheme
 			// if no outstanding request then it is set to true
 			boolean sendOutRequest 			= false;
 			
-			synchronized( this.pendingUpdateLock )
-			{
-				updReq = new UpdateInfo(valueUpdateFromGNS, updateIdCounter++);
-				pendingUpdateRequests.put(updReq.getRequestId(), updReq);
-				requestID = updReq.getRequestId();
-				
-				GUIDUpdateInfo guidUpdateInfo = this.guidUpdateInfoMap.get(GUID);
-				
-				if(guidUpdateInfo == null)
-				{
-					guidUpdateInfo = new GUIDUpdateInfo(GUID);
-					guidUpdateInfo.addUpdateReqNumToQueue(requestID);
-					this.guidUpdateInfoMap.put(GUID, guidUpdateInfo);
-					sendOutRequest = true;
-				}
-				else
-				{
-					guidUpdateInfo.addUpdateReqNumToQueue(requestID);
-					// no need to send out request. it will be sent once the current
-					// outstanding gets completed
-				}
-			}
+			updReq = new UpdateInfo(valueUpdateFromGNS, updateIdCounter.getAndIncrement());
+			pendingUpdateRequests.put(updReq.getRequestId(), updReq);
+			requestID = updReq.getRequestId();
+			
+			// if there is an outstanding update for the GUID, this update is 
+			// sent out once the outstanding one, and those before it, complete.
+			sendOutRequest = guidUpdateSerializer.addUpdate(GUID, requestID);
 			
 			if( sendOutRequest )
 			{
@@ -352,15 +348,18 @@ public class QueryAllScheme extends AbstractScheme
 	private void processUpdateSerially(UpdateInfo updateReq)
 	{
 		assert( updateReq != null );
-		try
-		{
-			ContextServiceLogger.getLogger().fine
-					( "processUpdateSerially called "+updateReq.getRequestId() +
-					" JSON"+updateReq.getValueUpdateFromGNS().toJSONObject().toString() );
-		}
-		catch(JSONException jso)
+		if( ContextServiceLogger.getLogger().isLoggable(Level.FINE) )
 		{
-			jso.printStackTrace();
+			try
+			{
+				ContextServiceLogger.getLogger().fine
+						( "processUpdateSerially called "+updateReq.getRequestId() +
+						" JSON"+updateReq.getValueUpdateFromGNS().toJSONObject().toString() );
+			}
+			catch(JSONException jso)
+			{
+				jso.printStackTrace();
+			}
 		}
 		
 		String GUID 	 		= updateReq.getValueUpdateFromGNS().getGUID();
@@ -553,38 +552,11 @@ public class QueryAllScheme extends AbstractScheme
 	
 	private void startANewUpdate(UpdateInfo removedUpdate, long requestID)
 	{
-		boolean startANewUpdate = false;
-		Long nextRequestID = null;
-		synchronized( this.pendingUpdateLock )
-		{
-			// remove from guidUpdateInfo
-			GUIDUpdateInfo guidUpdateInfo = 
-					this.guidUpdateInfoMap.get(removedUpdate.getValueUpdateFromGNS().getGUID());
-			
-			assert(guidUpdateInfo!=null);
-			Long currRequestID = guidUpdateInfo.removeFromQueue();
-			// it must not be null
-			assert(currRequestID != null);
-			// it should be same as current requestID
-			assert(requestID == currRequestID);
-			
-			// get the next requestID
-			nextRequestID = guidUpdateInfo.getNextRequestID();
-			if(nextRequestID == null)
-			{
-				// remove the guidUpdateInfo, there are no more updates for this GUID
-				this.guidUpdateInfoMap.remove(removedUpdate.getValueUpdateFromGNS().getGUID());
-			}
-			else
-			{
-				// start a new update serially outside the lock
-				startANewUpdate = true;
-			}
-		}
+		Long nextRequestID = guidUpdateSerializer.completeUpdate
+				(removedUpdate.getValueUpdateFromGNS().getGUID(), requestID);
 		
-		if(startANewUpdate)
+		if( nextRequestID != null )
 		{
-			assert(nextRequestID != null);
 			this.processUpdateSerially(pendingUpdateRequests.get(nextRequestID));
 		}
 	}
@@ -607,7 +579,7 @@ public class QueryAllScheme extends AbstractScheme
 		
 		try
 		{
-			this.messenger.sendToID(queryMesgToSubspaceRegion.getSender(), queryMesgToSubspaceRegionReply.toJSONObject());
+			this.messenger.sendToID(queryMesgToSubspaceRegion.getSender(), BinaryWireFormat.toWireJSON(queryMesgToSubspaceRegionReply));
 		} catch (IOException e)
 		{
 			e.printStackTrace();
@@ -7,8 +7,11 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.json.JSONArray;
@@ -25,8 +28,10 @@ import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.database.AbstractDataStorageDB;
 import edu.umass.cs.contextservice.database.RegionMappingDataStorageDB;
 import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
+import edu.umass.cs.contextservice.database.datasource.InMemoryDataSource;
 import edu.umass.cs.contextservice.database.datasource.MySQLDataSource;
 import edu.umass.cs.contextservice.database.datasource.SQLiteDataSource;
+import edu.umass.cs.contextservice.database.guidattributes.SearchResultChunkCallback;
 import edu.umass.cs.contextservice.database.triggers.GroupGUIDInfoClass;
 import edu.umass.cs.contextservice.gns.GNSCalls;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
@@ -38,12 +43,15 @@ import edu.umass.cs.contextservice.messages.GetReplyMessage;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegion;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUser;
+import edu.umass.cs.contextservice.messages.SearchCacheInvalidation;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNS;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNSReply;
 import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
 import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionReplyMessage;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
 import edu.umass.cs.contextservice.profilers.CNSProfiler;
 import edu.umass.cs.contextservice.queryparsing.QueryInfo;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
 import edu.umass.cs.contextservice.regionmapper.AbstractRegionMappingPolicy;
 import edu.umass.cs.contextservice.regionmapper.FileBasedRegionMappingPolicy;
 import edu.umass.cs.contextservice.regionmapper.HyperdexBasedRegionMappingPolicy;
@@ -53,8 +61,10 @@ import edu.umass.cs.contextservice.schemes.components.AbstractGUIDAttrValueProce
 import edu.umass.cs.contextservice.schemes.components.GUIDAttrValueProcessing;
 import edu.umass.cs.contextservice.schemes.components.TriggerProcessing;
 import edu.umass.cs.contextservice.schemes.components.TriggerProcessingInterface;
-import edu.umass.cs.contextservice.updates.GUIDUpdateInfo;
+import edu.umass.cs.contextservice.updates.GUIDUpdateSerializer;
 import edu.umass.cs.contextservice.updates.UpdateInfo;
+import edu.umass.cs.contextservice.utils.TimerWheel;
+import edu.umass.cs.contextservice.utils.KeyedLocks;
 import edu.umass.cs.contextservice.utils.Utils;
 import edu.umass.cs.nio.GenericMessagingTask;
 import edu.umass.cs.nio.JSONMessenger;
@@ -66,7 +76,12 @@ public class RegionMappingBasedScheme extends AbstractScheme
 	private  AbstractDataStorageDB hyperspaceDB 							= null;
 	private final ExecutorService nodeES;
 	
-	private HashMap<String, GUIDUpdateInfo> guidUpdateInfoMap				= null;
+	private final GUIDUpdateSerializer guidUpdateSerializer;
+	
+	// deadlines of the searches and updates started at this node, and 
+	// the hedging of searches, null if ContextServiceConfig.requestTimeoutMs 
+	// and ContextServiceConfig.searchHedgePercentile are 0.
+	private final TimerWheel requestTimeoutWheel;
 	
 	private final AbstractRegionMappingPolicy regionMappingPolicy;
 	
@@ -78,9 +93,14 @@ public class RegionMappingBasedScheme extends AbstractScheme
 	
 	private AbstractDataSource dataSource;
 	
-	private HashMap<String, Boolean> groupGUIDSyncMap;
+	// taken for a groupGUID:userIP:userPort while the query is checked
+	// and stored in the primary trigger subspace.
+	private KeyedLocks groupGUIDLocks;
 	public static final Logger log 											= ContextServiceLogger.getLogger();
 	
+	// with the default tick, deadlines up to 51.2s are in one turn of the wheel.
+	private static final int TIMER_WHEEL_NUM_BUCKETS						= 512;
+	
 	
 	public RegionMappingBasedScheme(CSNodeConfig nc, 
 			JSONMessenger<Integer> m) throws Exception
@@ -101,11 +121,27 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		{
 			dataSource = new SQLiteDataSource(this.getMyID());
 		}
+		else if(ContextServiceConfig.sqlDBType == ContextServiceConfig.SQL_DB_TYPE.IN_MEMORY)
+		{
+			dataSource = new InMemoryDataSource(this.getMyID());
+		}
 		
 		nodeES = Executors.newFixedThreadPool(
 				ContextServiceConfig.threadPoolSize);
 		
-		guidUpdateInfoMap = new HashMap<String, GUIDUpdateInfo>();
+		guidUpdateSerializer = new GUIDUpdateSerializer();
+		
+		if( (ContextServiceConfig.requestTimeoutMs > 0) 
+				|| (ContextServiceConfig.searchHedgePercentile > 0) )
+		{
+			requestTimeoutWheel = new TimerWheel(ContextServiceConfig.timerWheelTickMs, 
+					TIMER_WHEEL_NUM_BUCKETS, nodeES);
+			new Thread(requestTimeoutWheel).start();
+		}
+		else
+		{
+			requestTimeoutWheel = null;
+		}
 		
 		switch(ContextServiceConfig.regionMappingPolicy)
 		{
@@ -154,7 +190,7 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		{
 			if(ContextServiceConfig.uniqueGroupGUIDEnabled)
 			{
-				groupGUIDSyncMap = new HashMap<String, Boolean>();
+				groupGUIDLocks = new KeyedLocks();
 			}
 			triggerProcessing = new TriggerProcessing(this.getMyID(), 
 				regionMappingPolicy, hyperspaceDB, messenger);
@@ -210,7 +246,16 @@ public class RegionMappingBasedScheme extends AbstractScheme
 			ProtocolEvent<PacketType, String> event,
 			ProtocolTask<Integer, PacketType, String>[] ptasks)
 	{
-		nodeES.execute(new HandleEventThread(event));
+		if( ContextServiceConfig.inlineQueryReplyProcessing )
+		{
+			// aggregating a reply only updates the pending query, 
+			// so it is cheaper to do it here than to hand it to nodeES.
+			processEvent(event);
+		}
+		else
+		{
+			nodeES.execute(new HandleEventThread(event));
+		}
 		return null;
 	}
 
@@ -304,6 +349,16 @@ public class RegionMappingBasedScheme extends AbstractScheme
 	}
 	
 	
+	@Override
+	public GenericMessagingTask<Integer, ?>[] handleSearchCacheInvalidation(
+			ProtocolEvent<PacketType, String> event, 
+			ProtocolTask<Integer, PacketType, String>[] ptasks)
+	{
+		nodeES.execute(new HandleEventThread(event));
+		return null;
+	}
+	
+	
 	private void processQueryMsgFromUser
 		( QueryMsgFromUser queryMsgFromUser )
 	{
@@ -326,8 +381,9 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		
 		ContextServiceLogger.getLogger().fine("QUERY RECVD: QUERY_MSG recvd query recvd "+query);
 		
-		// create the empty group in GNS
-		String grpGUID = GNSCalls.createQueryGroup(query);
+		// create the empty group in GNS, queries that differ only in how
+		// they are written get the same group and share their stored trigger.
+		String grpGUID = GNSCalls.createQueryGroup(QueryParser.getCanonicalQuery(query));
 		
 		if( grpGUID.length() <= 0 )
 		{
@@ -368,43 +424,61 @@ public class RegionMappingBasedScheme extends AbstractScheme
 			= new QueryInfo( query, this.getMyID(), grpGUID, userReqID, 
 					userIP, userPort, expiryTime );
 		
+		// triggers are stored for the ranges of a query, a query of several 
+		// boxes, with OR, NOT or IN, is answered without a trigger.
+		boolean triggerQuery = ContextServiceConfig.triggerEnabled 
+				&& (currReq.getSearchBoxes().size() == 1);
 		
-		if( ContextServiceConfig.triggerEnabled && 
-					ContextServiceConfig.uniqueGroupGUIDEnabled )
+		if( triggerQuery && ContextServiceConfig.uniqueGroupGUIDEnabled )
 	    {
-			synchronized(this.groupGUIDSyncMap)
+			// only the same query from the same querier waits here.
+			boolean found;
+			groupGUIDLocks.lock(hashKey);
+			try
 			{
-				while(groupGUIDSyncMap.get(hashKey) != null )
-				{
-					try {
-						groupGUIDSyncMap.wait();
-					} catch (InterruptedException e) 
-					{
-						e.printStackTrace();
-					}
-				}
-				groupGUIDSyncMap.put(hashKey, new Boolean(true));
+				found = this.triggerProcessing.processTriggerOnQueryMsgFromUser(currReq);
 			}
-			
-	    	boolean found 
-	    		= this.triggerProcessing.processTriggerOnQueryMsgFromUser(currReq);
-	    	
-	    	synchronized(this.groupGUIDSyncMap)
+			finally
 			{
-				groupGUIDSyncMap.remove(hashKey);
-				groupGUIDSyncMap.notify();
+				groupGUIDLocks.unlock(hashKey);
 			}
 	    	// if inserted first time then in secondary subspaces trigger info is stored for this query.
 	    	storeQueryForTrigger = !found;
 	    	
 	    }
-		else if( ContextServiceConfig.triggerEnabled )
+		else if( triggerQuery )
 		{
 			storeQueryForTrigger = true;
 		}
 		
-		guidAttrValProcessing.processQueryMsgFromUser
+		boolean sentToNodes = guidAttrValProcessing.processQueryMsgFromUser
 										(currReq, storeQueryForTrigger);
+		
+		if( storeQueryForTrigger )
+		{
+			this.triggerProcessing.processSearchExpiryOnQueryMsgFromUser(currReq);
+		}
+		
+		// a search answered from the cache has no replies to wait for.
+		if( sentToNodes && (ContextServiceConfig.requestTimeoutMs > 0) )
+		{
+			currReq.setReplyTimeout( requestTimeoutWheel.schedule(
+					new QueryTimeoutTask(currReq.getRequestId(), 
+							ContextServiceConfig.searchTimeoutRetries), 
+					ContextServiceConfig.requestTimeoutMs) );
+		}
+		
+		if( sentToNodes && (requestTimeoutWheel != null) )
+		{
+			long hedgeDelayMs = guidAttrValProcessing.getSearchHedgeDelayMs();
+			// a search is retried on its deadline anyway.
+			if( (hedgeDelayMs >= 0) && ( (ContextServiceConfig.requestTimeoutMs <= 0) 
+					|| (hedgeDelayMs < ContextServiceConfig.requestTimeoutMs) ) )
+			{
+				currReq.setHedgeTimeout( requestTimeoutWheel.schedule(
+						new QueryHedgeTask(currReq.getRequestId()), hedgeDelayMs) );
+			}
+		}
 	}
 	
 	private void processValueUpdateFromGNS( ValueUpdateFromGNS valueUpdateFromGNS )
@@ -447,28 +521,24 @@ public class RegionMappingBasedScheme extends AbstractScheme
 			// if no outstanding request then it is set to true
 			boolean sendOutRequest 			= false;
 			
-			synchronized( this.pendingUpdateLock )
+			updReq = new UpdateInfo(valueUpdateFromGNS, updateIdCounter.getAndIncrement());
+			
+			if( ContextServiceConfig.coalesceGUIDUpdates )
+			{
+				// a coalesced update is replied to when the queued update 
+				// it was merged into completes.
+				sendOutRequest = (guidUpdateSerializer.addOrCoalesceUpdate
+						(GUID, updReq, pendingUpdateRequests) 
+							== GUIDUpdateSerializer.START_UPDATE);
+			}
+			else
 			{
-				updReq = new UpdateInfo(valueUpdateFromGNS, updateIdCounter++);
-				
 				pendingUpdateRequests.put(updReq.getRequestId(), updReq);
 				requestID = updReq.getRequestId();
 				
-				GUIDUpdateInfo guidUpdateInfo = this.guidUpdateInfoMap.get(GUID);
-				
-				if(guidUpdateInfo == null)
-				{
-					guidUpdateInfo = new GUIDUpdateInfo(GUID);
-					guidUpdateInfo.addUpdateReqNumToQueue(requestID);
-					this.guidUpdateInfoMap.put(GUID, guidUpdateInfo);
-					sendOutRequest = true;
-				}
-				else
-				{
-					guidUpdateInfo.addUpdateReqNumToQueue(requestID);
-					// no need to send out request. it will be sent once the current
-					// outstanding gets completed
-				}
+				// if there is an outstanding update for the GUID, this update is 
+				// sent out once the outstanding one, and those before it, complete.
+				sendOutRequest = guidUpdateSerializer.addUpdate(GUID, requestID);
 			}
 			
 			if( sendOutRequest )
@@ -487,15 +557,25 @@ public class RegionMappingBasedScheme extends AbstractScheme
 	{
 		assert(updateReq != null);
 		
-		try
+		if( ContextServiceLogger.getLogger().isLoggable(Level.FINE) )
 		{
-			ContextServiceLogger.getLogger().fine
-					( "processUpdateSerially called "+updateReq.getRequestId() +
-					" JSON"+updateReq.getValueUpdateFromGNS().toJSONObject().toString() );
+			try
+			{
+				ContextServiceLogger.getLogger().fine
+						( "processUpdateSerially called "+updateReq.getRequestId() +
+						" JSON"+updateReq.getValueUpdateFromGNS().toJSONObject().toString() );
+			}
+			catch(JSONException jso)
+			{
+				jso.printStackTrace();
+			}
 		}
-		catch(JSONException jso)
+		
+		if( ContextServiceConfig.requestTimeoutMs > 0 )
 		{
-			jso.printStackTrace();
+			updateReq.setReplyTimeout( requestTimeoutWheel.schedule(
+					new UpdateTimeoutTask(updateReq.getRequestId()), 
+					ContextServiceConfig.requestTimeoutMs) );
 		}
 		
 		guidAttrValProcessing.processUpdateFromGNS(updateReq);
@@ -582,34 +662,27 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		
 		if( updInfo == null )
 		{
-			ContextServiceLogger.getLogger().severe( "updInfo null, update already removed from "
-					+ " the pending queue before recv all replies requestID "+requestID
+			// only an update whose deadline expired is removed 
+			// from the pending queue before all replies are received.
+			ContextServiceLogger.getLogger().fine( "updInfo null, reply for an expired "
+					+ "update requestID "+requestID
 					+ "  valueUpdateToSubspaceRegionReplyMessage "
 					+ valueUpdateToSubspaceRegionReplyMessage );
-			assert(false);
+			return;
 		}
 		boolean completion = updInfo.setUpdateReply( toBeRemovedGroups, toBeAddedGroups);
 		
-		if( completion )
+		// the last reply and the deadline can complete an update concurrently,
+		// the one that removes it from the pending queue completes it.
+		if( completion && pendingUpdateRequests.remove(requestID, updInfo) )
 		{
-			ValueUpdateFromGNSReply valueUpdateFromGNSReply = new ValueUpdateFromGNSReply
-			(this.getMyID(), updInfo.getValueUpdateFromGNS().getVersionNum(), updInfo.getValueUpdateFromGNS().getUserRequestID());
+			updInfo.cancelReplyTimeout();
 			
 			ContextServiceLogger.getLogger().fine("reply IP Port "+updInfo.getValueUpdateFromGNS().getSourceIP()
 					+":"+updInfo.getValueUpdateFromGNS().getSourcePort()+ " ValueUpdateFromGNSReply for requestId "+requestID
-					+" "+valueUpdateFromGNSReply+" ValueUpdateToSubspaceRegionReplyMessage "+valueUpdateToSubspaceRegionReplyMessage);
-			try
-			{
-				this.messenger.sendToAddress( new InetSocketAddress(updInfo.getValueUpdateFromGNS().getSourceIP()
-						, updInfo.getValueUpdateFromGNS().getSourcePort()), 
-						valueUpdateFromGNSReply.toJSONObject() );
-			} catch (IOException e)
-			{
-				e.printStackTrace();
-			} catch (JSONException e)
-			{
-				e.printStackTrace();
-			}
+					+" ValueUpdateToSubspaceRegionReplyMessage "+valueUpdateToSubspaceRegionReplyMessage);
+			
+			sendValueUpdateFromGNSReplies(updInfo, false);
 			
 			if(ContextServiceConfig.triggerEnabled)
 			{
@@ -619,6 +692,7 @@ public class RegionMappingBasedScheme extends AbstractScheme
 						( updInfo.getToBeRemovedMap(), 
 						  updInfo.getToBeAddedMap(), updInfo.getValueUpdateFromGNS().getGUID(), 
 						  updInfo.getValueUpdateFromGNS().getVersionNum(), 
+						  updInfo.getRequestId(), 
 						  updInfo.getValueUpdateFromGNS().getUpdateStartTime() );
 				} 
 				catch (JSONException e) 
@@ -627,58 +701,91 @@ public class RegionMappingBasedScheme extends AbstractScheme
 				}
 			}
 			
-			UpdateInfo removedUpdate 
-					=  pendingUpdateRequests.remove(requestID);
-			
 			// starts the queues serialized updates for that guid
-			if(removedUpdate != null)
+			startANewUpdate(updInfo, requestID);
+			
+			if(ContextServiceConfig.PROFILER_ENABLED)
 			{
-				startANewUpdate(removedUpdate, requestID);
-				
-				if(ContextServiceConfig.PROFILER_ENABLED)
-				{
-					removedUpdate.getUpdateStats().setUpdateFinishTime();
-					profStats.addUpdateStats(removedUpdate.getUpdateStats());
-				}
+				updInfo.getUpdateStats().setUpdateFinishTime();
+				profStats.addUpdateStats(updInfo.getUpdateStats());
 			}
 		}
 	}
 	
+	/**
+	 * Called when the deadline for the replies of an update expires. 
+	 * The update is completed without the missing replies, so that the 
+	 * next update of the GUID can start. Its requesters are replied to 
+	 * as timed out, and no triggers are sent for it as the groups it 
+	 * left and joined are not known.
+	 * An update is not retried, as it has to be applied at all nodes 
+	 * of its regions, there is no other node to send it to.
+	 */
+	private void processUpdateTimeout( long requestID )
+	{
+		UpdateInfo updInfo = pendingUpdateRequests.get(requestID);
+		
+		if( updInfo == null || !pendingUpdateRequests.remove(requestID, updInfo) )
+		{
+			// completed by the last reply.
+			return;
+		}
+		numExpiredUpdates.incrementAndGet();
+		
+		ContextServiceLogger.getLogger().warning("Update requestId "+requestID
+				+" of GUID "+updInfo.getValueUpdateFromGNS().getGUID()
+				+" expired before all replies were received");
+		
+		sendValueUpdateFromGNSReplies(updInfo, true);
+		
+		startANewUpdate(updInfo, requestID);
+	}
 	
-	private void startANewUpdate(UpdateInfo removedUpdate, long requestID)
+	/**
+	 * Replies to the requester of the update, and to the requesters 
+	 * of each update merged into it.
+	 */
+	private void sendValueUpdateFromGNSReplies( UpdateInfo updInfo, boolean timedOut )
 	{
-		boolean startANewUpdate = false;
-		Long nextRequestID = null;
-		synchronized( this.pendingUpdateLock )
+		sendValueUpdateFromGNSReply(updInfo.getValueUpdateFromGNS(), timedOut);
+		
+		List<ValueUpdateFromGNS> coalescedUpdates = updInfo.getCoalescedUpdates();
+		if( coalescedUpdates != null )
 		{
-			// remove from guidUpdateInfo
-			GUIDUpdateInfo guidUpdateInfo = 
-					this.guidUpdateInfoMap.get(removedUpdate.getValueUpdateFromGNS().getGUID());
-			
-			assert(guidUpdateInfo!=null);
-			Long currRequestID = guidUpdateInfo.removeFromQueue();
-			// it must not be null
-			assert(currRequestID != null);
-			// it should be same as current requestID
-			assert(requestID == currRequestID);
-			
-			// get the next requestID
-			nextRequestID = guidUpdateInfo.getNextRequestID();
-			if(nextRequestID == null)
+			for( ValueUpdateFromGNS coalescedUpdate : coalescedUpdates )
 			{
-				// remove the guidUpdateInfo, there are no more updates for this GUID
-				this.guidUpdateInfoMap.remove(removedUpdate.getValueUpdateFromGNS().getGUID());
-			}
-			else
-			{
-				// start a new update serially outside the lock
-				startANewUpdate = true;
+				sendValueUpdateFromGNSReply(coalescedUpdate, timedOut);
 			}
 		}
+	}
+	
+	private void sendValueUpdateFromGNSReply( ValueUpdateFromGNS valueUpdateFromGNS, 
+			boolean timedOut )
+	{
+		ValueUpdateFromGNSReply valueUpdateFromGNSReply = new ValueUpdateFromGNSReply
+			(this.getMyID(), valueUpdateFromGNS.getVersionNum(), 
+					valueUpdateFromGNS.getUserRequestID(), timedOut);
+		try
+		{
+			this.messenger.sendToAddress( new InetSocketAddress(valueUpdateFromGNS.getSourceIP()
+					, valueUpdateFromGNS.getSourcePort()), 
+					valueUpdateFromGNSReply.toJSONObject() );
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	private void startANewUpdate(UpdateInfo removedUpdate, long requestID)
+	{
+		Long nextRequestID = guidUpdateSerializer.completeUpdate
+				(removedUpdate.getValueUpdateFromGNS().getGUID(), requestID);
 		
-		if(startANewUpdate)
+		if( nextRequestID != null )
 		{
-			assert(nextRequestID != null);
 			this.processUpdateSerially(pendingUpdateRequests.get(nextRequestID));
 		}
 	}
@@ -740,8 +847,17 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		int privacyScheme 			 = queryMesgToSubspaceRegion.getPrivacyOrdinal();
 		int resultSize = -1;
 		
+		// with streaming, results are sent in chunks as they are read
+		// and the reply below only contains the result size.
+		SearchReplyChunkSender chunkSender = null;
+		if( ContextServiceConfig.streamSearchReplies 
+				&& ContextServiceConfig.sendFullRepliesWithinCS )
+		{
+			chunkSender = new SearchReplyChunkSender(queryMesgToSubspaceRegion);
+		}
+		
 		resultSize = this.guidAttrValProcessing.processQueryMesgToSubspaceRegion
-				(queryMesgToSubspaceRegion, resultGUIDArray);
+				(queryMesgToSubspaceRegion, resultGUIDArray, chunkSender);
 		
 		
 		if(storeQueryForTrigger)
@@ -751,16 +867,19 @@ public class RegionMappingBasedScheme extends AbstractScheme
 					(queryMesgToSubspaceRegion);	
 		}
 		
+		int numChunksSent = (chunkSender != null)? chunkSender.getNumChunksSent() : 0;
+		
 		QueryMesgToSubspaceRegionReply queryMesgToSubspaceRegionReply = 
 		new QueryMesgToSubspaceRegionReply( this.getMyID(), 
 				queryMesgToSubspaceRegion.getRequestId(), 
-				groupGUID, resultGUIDArray, resultSize, privacyScheme);
+				groupGUID, resultGUIDArray, resultSize, privacyScheme, 
+				numChunksSent, true );
 		
 		
 		try
 		{
 			this.messenger.sendToID(queryMesgToSubspaceRegion.getSender(), 
-					queryMesgToSubspaceRegionReply.toJSONObject());
+					BinaryWireFormat.toWireJSON(queryMesgToSubspaceRegionReply));
 		} catch (IOException e)
 		{
 			e.printStackTrace();
@@ -775,68 +894,84 @@ public class RegionMappingBasedScheme extends AbstractScheme
 	
 	
 	private void processValueUpdateToSubspaceRegionMessage(
-				ValueUpdateToSubspaceRegionMessage 
+				final ValueUpdateToSubspaceRegionMessage 
 				valueUpdateToSubspaceRegionMessage )
-	{	
-		this.guidAttrValProcessing.processValueUpdateToSubspaceRegionMessage
-					( valueUpdateToSubspaceRegionMessage);
-		
-		HashMap<String, GroupGUIDInfoClass> removedGroups 
+	{
+		final HashMap<String, GroupGUIDInfoClass> removedGroups 
 							= new HashMap<String, GroupGUIDInfoClass>();
-		HashMap<String, GroupGUIDInfoClass> addedGroups 
+		final HashMap<String, GroupGUIDInfoClass> addedGroups 
 							= new HashMap<String, GroupGUIDInfoClass>();
 		
-		JSONArray toBeRemovedGroups = new JSONArray();
-		JSONArray toBeAddedGroups = new JSONArray();
+		// trigger processing doesn't read the attribute index, so the triggered
+		// groups are found in parallel with the write. The reply is sent by 
+		// whichever of the two finishes last, the write can finish in a group 
+		// commit with writes from other threads.
+		// it is skipped if no query stored here can be triggered by the update.
+		final boolean processTriggers = ContextServiceConfig.triggerEnabled
+				&& this.triggerProcessing.mayTriggerGroups(valueUpdateToSubspaceRegionMessage);
+		final AtomicInteger numPending 
+				= new AtomicInteger(processTriggers? 2 : 1);
 		
-		if( ContextServiceConfig.triggerEnabled )
+		Runnable sendReplyWhenDone = new Runnable()
 		{
-			// sending triggers right here.
-			try
+			@Override
+			public void run()
 			{
-				this.triggerProcessing.processTriggerForValueUpdateToSubspaceRegion
-							(valueUpdateToSubspaceRegionMessage, removedGroups, addedGroups);
-				
-				
-				Iterator<String> groupGUIDIter = removedGroups.keySet().iterator();
-				while( groupGUIDIter.hasNext() )
+				if( numPending.decrementAndGet() == 0 )
 				{
-					String groupGUID = groupGUIDIter.next();
-					GroupGUIDInfoClass groupGUIDInfo = removedGroups.get(groupGUID);
-					toBeRemovedGroups.put(groupGUIDInfo.toJSONObjectImpl());
-				}
-				
-				groupGUIDIter = addedGroups.keySet().iterator();
-				while( groupGUIDIter.hasNext() )
-				{
-					String groupGUID = groupGUIDIter.next();
-					GroupGUIDInfoClass groupGUIDInfo = addedGroups.get(groupGUID);
-					toBeAddedGroups.put(groupGUIDInfo.toJSONObjectImpl());
+					// the update is written, so a search that 
+					// didn't read it is registered by now.
+					guidAttrValProcessing.sendSearchCacheInvalidations
+									(valueUpdateToSubspaceRegionMessage);
+					
+					sendValueUpdateToSubspaceRegionReply(valueUpdateToSubspaceRegionMessage, 
+							removedGroups, addedGroups);
 				}
-				
-				
-				//this.triggerProcessing.sendOutAggregatedRefreshTrigger
-				//	(removedGroups, addedGroups, updateGUID, versionNum, updateStartTime);
-			} catch (InterruptedException e1)
-			{
-				e1.printStackTrace();
-			} catch (JSONException e)
-			{
-				e.printStackTrace();
 			}
+		};
+		
+		if( processTriggers )
+		{
+			this.triggerProcessing.processTriggerForValueUpdateToSubspaceRegion
+						(valueUpdateToSubspaceRegionMessage, removedGroups, addedGroups, 
+								sendReplyWhenDone);
 		}
 		
-		ValueUpdateToSubspaceRegionReplyMessage  
-		valueUpdateToSubspaceRegionReplyMessage 
-			= new ValueUpdateToSubspaceRegionReplyMessage(this.getMyID(), 
-				valueUpdateToSubspaceRegionMessage.getVersionNum(), 
-				valueUpdateToSubspaceRegionMessage.getRequestID(), 
-				toBeRemovedGroups, toBeAddedGroups);
+		this.guidAttrValProcessing.processValueUpdateToSubspaceRegionMessage
+			( valueUpdateToSubspaceRegionMessage, sendReplyWhenDone );
+	}
 	
+	private void sendValueUpdateToSubspaceRegionReply(
+			ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage, 
+			HashMap<String, GroupGUIDInfoClass> removedGroups, 
+			HashMap<String, GroupGUIDInfoClass> addedGroups )
+	{
+		JSONArray toBeRemovedGroups = new JSONArray();
+		JSONArray toBeAddedGroups = new JSONArray();
+		
 		try
 		{
-			this.messenger.sendToID(valueUpdateToSubspaceRegionMessage.getSender(), 
-					valueUpdateToSubspaceRegionReplyMessage.toJSONObject());
+			Iterator<GroupGUIDInfoClass> groupGUIDIter = removedGroups.values().iterator();
+			while( groupGUIDIter.hasNext() )
+			{
+				toBeRemovedGroups.put(groupGUIDIter.next().toJSONObjectImpl());
+			}
+			
+			groupGUIDIter = addedGroups.values().iterator();
+			while( groupGUIDIter.hasNext() )
+			{
+				toBeAddedGroups.put(groupGUIDIter.next().toJSONObjectImpl());
+			}
+			
+			ValueUpdateToSubspaceRegionReplyMessage  
+			valueUpdateToSubspaceRegionReplyMessage 
+				= new ValueUpdateToSubspaceRegionReplyMessage(this.getMyID(), 
+					valueUpdateToSubspaceRegionMessage.getVersionNum(), 
+					valueUpdateToSubspaceRegionMessage.getRequestID(), 
+					toBeRemovedGroups, toBeAddedGroups);
+			
+			messenger.sendToID(valueUpdateToSubspaceRegionMessage.getSender(), 
+					BinaryWireFormat.toWireJSON(valueUpdateToSubspaceRegionReplyMessage));
 		} catch (IOException e)
 		{
 			e.printStackTrace();
@@ -846,129 +981,298 @@ public class RegionMappingBasedScheme extends AbstractScheme
 		}
 	}
 	
-	private class HandleEventThread implements Runnable
+	/**
+	 * Processes a received packet. Called from HandleEventThread 
+	 * on nodeES, or inline on the receiving thread for cheap packets.
+	 */
+	private void processEvent( ProtocolEvent<PacketType, String> event )
 	{
-		private final ProtocolEvent<PacketType, String> event;
-		
-		public HandleEventThread(ProtocolEvent<PacketType, String> event)
-		{
-			this.event = event;
-		}
-		
-		@Override
-		public void run()
+		// this try catch is very important.
+		// otherwise exception from these methods are not at all printed by executor service
+		// and debugging gets very time consuming
+		try
 		{
-			// this try catch is very important.
-			// otherwise exception from these methods are not at all printed by executor service
-			// and debugging gets very time consuming
-			try
+			switch( event.getType() )
 			{
-				switch( event.getType() )
+				case  QUERY_MSG_FROM_USER:
 				{
-					case  QUERY_MSG_FROM_USER:
+					QueryMsgFromUser queryMsgFromUser 
+											= (QueryMsgFromUser)event;
+					
+					processQueryMsgFromUser(queryMsgFromUser);
+					
+					break;
+				}
+				case QUERY_MESG_TO_SUBSPACE_REGION:
+				{	
+					QueryMesgToSubspaceRegion queryMesgToSubspaceRegion = 
+							(QueryMesgToSubspaceRegion) event;
+					
+					// toString of a packet creates its JSON, so only when logged
+					if( log.isLoggable(Level.FINE) )
 					{
-						QueryMsgFromUser queryMsgFromUser 
-												= (QueryMsgFromUser)event;
-						
-						processQueryMsgFromUser(queryMsgFromUser);
-						
-						break;
-					}
-					case QUERY_MESG_TO_SUBSPACE_REGION:
-					{	
-						QueryMesgToSubspaceRegion queryMesgToSubspaceRegion = 
-								(QueryMesgToSubspaceRegion) event;
-						
 						log.fine("CS"+getMyID()+" received " + event.getType() + ": " + event);
-						
-						processQueryMesgToSubspaceRegion(queryMesgToSubspaceRegion);
-						
-						break;
 					}
-					case QUERY_MESG_TO_SUBSPACE_REGION_REPLY:
+					
+					processQueryMesgToSubspaceRegion(queryMesgToSubspaceRegion);
+					
+					break;
+				}
+				case QUERY_MESG_TO_SUBSPACE_REGION_REPLY:
+				{
+					QueryMesgToSubspaceRegionReply queryMesgToSubspaceRegionReply = 
+							(QueryMesgToSubspaceRegionReply)event;
+					
+					if( log.isLoggable(Level.FINE) )
 					{
-						QueryMesgToSubspaceRegionReply queryMesgToSubspaceRegionReply = 
-								(QueryMesgToSubspaceRegionReply)event;
-						
 						log.fine("CS"+getMyID()+" received " + event.getType() + ": " 
 																+ queryMesgToSubspaceRegionReply);
-						
-						guidAttrValProcessing.processQueryMesgToSubspaceRegionReply
-													(queryMesgToSubspaceRegionReply);
-						
-						break;
 					}
-					case VALUE_UPDATE_MSG_FROM_GNS:
+					
+					guidAttrValProcessing.processQueryMesgToSubspaceRegionReply
+												(queryMesgToSubspaceRegionReply);
+					
+					break;
+				}
+				case VALUE_UPDATE_MSG_FROM_GNS:
+				{
+					ValueUpdateFromGNS valUpdMsgFromGNS 
+											= (ValueUpdateFromGNS)event;
+					
+					if( log.isLoggable(Level.FINE) )
 					{
-						ValueUpdateFromGNS valUpdMsgFromGNS 
-												= (ValueUpdateFromGNS)event;
-						
 						ContextServiceLogger.getLogger().fine("CS"+getMyID()
 												+" received " + event.getType() + ": " + valUpdMsgFromGNS);
-						
-						processValueUpdateFromGNS(valUpdMsgFromGNS);
-						break;
 					}
 					
-					case VALUEUPDATE_TO_SUBSPACE_REGION_MESSAGE:
-					{
-						/* Actions:
-						 * - send the update message to the responsible value node
-						 */
-						ValueUpdateToSubspaceRegionMessage 
-							valueUpdateToSubspaceRegionMessage 
-									= (ValueUpdateToSubspaceRegionMessage)event;
-						
-						processValueUpdateToSubspaceRegionMessage(valueUpdateToSubspaceRegionMessage);
-						break;
-					}
+					processValueUpdateFromGNS(valUpdMsgFromGNS);
+					break;
+				}
+				
+				case VALUEUPDATE_TO_SUBSPACE_REGION_MESSAGE:
+				{
+					/* Actions:
+					 * - send the update message to the responsible value node
+					 */
+					ValueUpdateToSubspaceRegionMessage 
+						valueUpdateToSubspaceRegionMessage 
+								= (ValueUpdateToSubspaceRegionMessage)event;
 					
-					case GET_MESSAGE:
+					processValueUpdateToSubspaceRegionMessage(valueUpdateToSubspaceRegionMessage);
+					break;
+				}
+				
+				case GET_MESSAGE:
+				{
+					GetMessage getMessage 
+								= (GetMessage)event;
+					//log.fine("CS"+getMyID()+" received " + event.getType() + ": " + valueUpdateToSubspaceRegionMessage);
+					if( log.isLoggable(Level.FINE) )
 					{
-						GetMessage getMessage 
-									= (GetMessage)event;
-						//log.fine("CS"+getMyID()+" received " + event.getType() + ": " + valueUpdateToSubspaceRegionMessage);
 						ContextServiceLogger.getLogger().fine("CS"+getMyID()+" received " + event.getType() + ": " 
 										+ getMessage);
-						
-						processGetMessage(getMessage);
-						break;
 					}
 					
-					case VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE:
+					processGetMessage(getMessage);
+					break;
+				}
+				
+				case VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE:
+				{
+					ValueUpdateToSubspaceRegionReplyMessage valueUpdateToSubspaceRegionReplyMessage 
+								= (ValueUpdateToSubspaceRegionReplyMessage)event;
+					
+					if( log.isLoggable(Level.FINE) )
 					{
-						ValueUpdateToSubspaceRegionReplyMessage valueUpdateToSubspaceRegionReplyMessage 
-									= (ValueUpdateToSubspaceRegionReplyMessage)event;
-						
 						ContextServiceLogger.getLogger().fine("CS"+getMyID()+" received " + event.getType() + ": " 
 								+ valueUpdateToSubspaceRegionReplyMessage);
-						processValueUpdateToSubspaceRegionMessageReply(valueUpdateToSubspaceRegionReplyMessage);
-						break;
 					}
+					processValueUpdateToSubspaceRegionMessageReply(valueUpdateToSubspaceRegionReplyMessage);
+					break;
+				}
+				
+				case CONFIG_REQUEST:
+				{
+					ClientConfigRequest configRequest 
+								= (ClientConfigRequest)event;
 					
-					case CONFIG_REQUEST:
+					if( log.isLoggable(Level.FINE) )
 					{
-						ClientConfigRequest configRequest 
-									= (ClientConfigRequest)event;
-						
 						ContextServiceLogger.getLogger().fine("CS"+getMyID()+" received " + event.getType() + ": " 
 								+ configRequest);
-						processClientConfigRequest(configRequest);
-						break;
 					}
+					processClientConfigRequest(configRequest);
+					break;
+				}
+				
+				case SEARCH_CACHE_INVALIDATION:
+				{
+					SearchCacheInvalidation searchCacheInvalidation 
+								= (SearchCacheInvalidation)event;
 					
-					default:
+					if( log.isLoggable(Level.FINE) )
 					{
-						assert(false);
-						break;
+						ContextServiceLogger.getLogger().fine("CS"+getMyID()+" received " + event.getType() + ": " 
+								+ searchCacheInvalidation);
 					}
+					guidAttrValProcessing.processSearchCacheInvalidation(searchCacheInvalidation);
+					break;
+				}
+				
+				default:
+				{
+					assert(false);
+					break;
+				}
+			}
+		}
+		catch(Exception | Error ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+	
+	private class HandleEventThread implements Runnable
+	{
+		private final ProtocolEvent<PacketType, String> event;
+		
+		public HandleEventThread(ProtocolEvent<PacketType, String> event)
+		{
+			this.event = event;
+		}
+		
+		@Override
+		public void run()
+		{
+			processEvent(event);
+		}
+	}
+	
+	/**
+	 * Runs when the deadline of a search expires, on nodeES.
+	 * Sets a new deadline if the search is retried at other nodes.
+	 */
+	private class QueryTimeoutTask implements Runnable
+	{
+		private final long requestId;
+		private final int retriesLeft;
+		
+		public QueryTimeoutTask( long requestId, int retriesLeft )
+		{
+			this.requestId = requestId;
+			this.retriesLeft = retriesLeft;
+		}
+		
+		@Override
+		public void run()
+		{
+			int result = guidAttrValProcessing.processQueryTimeout
+											(requestId, retriesLeft > 0);
+			
+			if( result == AbstractGUIDAttrValueProcessing.TIMEOUT_REQUEST_RETRIED )
+			{
+				numQueryRetries.incrementAndGet();
+				
+				QueryInfo queryInfo = pendingQueryRequests.get(requestId);
+				if( queryInfo != null )
+				{
+					queryInfo.setReplyTimeout( requestTimeoutWheel.schedule(
+						new QueryTimeoutTask(requestId, retriesLeft-1), 
+						ContextServiceConfig.requestTimeoutMs) );
 				}
 			}
-			catch(Exception | Error ex)
+			else if( result == AbstractGUIDAttrValueProcessing.TIMEOUT_REQUEST_EXPIRED )
+			{
+				numExpiredQueries.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Runs when the hedge delay of a search expires, on nodeES.
+	 */
+	private class QueryHedgeTask implements Runnable
+	{
+		private final long requestId;
+		
+		public QueryHedgeTask( long requestId )
+		{
+			this.requestId = requestId;
+		}
+		
+		@Override
+		public void run()
+		{
+			if( guidAttrValProcessing.processQueryHedge(requestId) )
+			{
+				numQueryHedges.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Runs when the deadline of an update expires, on nodeES.
+	 */
+	private class UpdateTimeoutTask implements Runnable
+	{
+		private final long requestID;
+		
+		public UpdateTimeoutTask( long requestID )
+		{
+			this.requestID = requestID;
+		}
+		
+		@Override
+		public void run()
+		{
+			processUpdateTimeout(requestID);
+		}
+	}
+	
+	/**
+	 * Sends each chunk of search results to the query coordinator
+	 * as it is read from the database.
+	 */
+	private class SearchReplyChunkSender implements SearchResultChunkCallback
+	{
+		private final QueryMesgToSubspaceRegion queryMesgToSubspaceRegion;
+		private int numChunksSent;
+		
+		public SearchReplyChunkSender( QueryMesgToSubspaceRegion queryMesgToSubspaceRegion )
+		{
+			this.queryMesgToSubspaceRegion = queryMesgToSubspaceRegion;
+			this.numChunksSent = 0;
+		}
+		
+		@Override
+		public void processResultChunk( JSONArray resultChunk )
+		{
+			QueryMesgToSubspaceRegionReply chunkReply = 
+				new QueryMesgToSubspaceRegionReply( getMyID(), 
+					queryMesgToSubspaceRegion.getRequestId(), 
+					queryMesgToSubspaceRegion.getGroupGUID(), resultChunk, 
+					resultChunk.length(), queryMesgToSubspaceRegion.getPrivacyOrdinal(), 
+					numChunksSent, false );
+			
+			numChunksSent++;
+			
+			try
 			{
-				ex.printStackTrace();
+				messenger.sendToID(queryMesgToSubspaceRegion.getSender(), 
+						BinaryWireFormat.toWireJSON(chunkReply));
+			} catch (IOException e)
+			{
+				e.printStackTrace();
+			} catch (JSONException e)
+			{
+				e.printStackTrace();
 			}
 		}
+		
+		public int getNumChunksSent()
+		{
+			return this.numChunksSent;
+		}
 	}
 	
 	
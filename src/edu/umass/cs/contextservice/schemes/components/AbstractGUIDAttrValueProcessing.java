@@ -16,12 +16,15 @@ import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.database.AbstractDataStorageDB;
 import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.guidattributes.SearchResultChunkCallback;
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.hyperspace.storage.AttributePartitionInfo;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegion;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+import edu.umass.cs.contextservice.messages.SearchCacheInvalidation;
 import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
 import edu.umass.cs.contextservice.profilers.CNSProfiler;
 import edu.umass.cs.contextservice.queryparsing.QueryInfo;
 import edu.umass.cs.contextservice.regionmapper.AbstractRegionMappingPolicy;
@@ -33,6 +36,14 @@ import edu.umass.cs.nio.JSONMessenger;
 
 public abstract class AbstractGUIDAttrValueProcessing
 {	
+	// results of processQueryTimeout
+	// the request completed before or on the timeout, nothing more to do.
+	public static final int TIMEOUT_REQUEST_DONE						= 0;
+	// the request was sent to other nodes, it needs a new deadline.
+	public static final int TIMEOUT_REQUEST_RETRIED						= 1;
+	// the request completed with a partial reply.
+	public static final int TIMEOUT_REQUEST_EXPIRED						= 2;
+	
 	protected final AbstractRegionMappingPolicy regionMappingPolicy;
 	protected final Random replicaChoosingRand;
 	
@@ -241,7 +252,7 @@ public abstract class AbstractGUIDAttrValueProcessing
 			try
 			{
 				this.messenger.sendToID(nodeid, 
-							oldValueUpdateToSubspaceRegionMessage.toJSONObject());
+							BinaryWireFormat.toWireJSON(oldValueUpdateToSubspaceRegionMessage));
 			} catch (IOException e)
 			{
 				e.printStackTrace();
@@ -312,7 +323,7 @@ public abstract class AbstractGUIDAttrValueProcessing
 			try
 			{
 				this.messenger.sendToID(nodeid, 
-						newValueUpdateToSubspaceRegionMessage.toJSONObject());
+						BinaryWireFormat.toWireJSON(newValueUpdateToSubspaceRegionMessage));
 			} catch (IOException e)
 			{
 				e.printStackTrace();
@@ -344,7 +355,7 @@ public abstract class AbstractGUIDAttrValueProcessing
 			try
 			{
 				this.messenger.sendToID
-					(nodeid, valueUpdateToSubspaceRegionMessage.toJSONObject());
+					(nodeid, BinaryWireFormat.toWireJSON(valueUpdateToSubspaceRegionMessage));
 			}
 			catch (IOException e)
 			{
@@ -462,7 +473,7 @@ public abstract class AbstractGUIDAttrValueProcessing
 			try
 			{
 				this.messenger.sendToID
-					(nodeid, valueUpdateToSubspaceRegionMessage.toJSONObject());
+					(nodeid, BinaryWireFormat.toWireJSON(valueUpdateToSubspaceRegionMessage));
 			}
 			catch (IOException e)
 			{
@@ -570,8 +581,15 @@ public abstract class AbstractGUIDAttrValueProcessing
 	}
 	
 	
+	/**
+	 * Applies the attribute-index write for the message. The write can be
+	 * group committed, so onCommit is called once it is applied.
+	 * @param valueUpdateToSubspaceRegionMessage
+	 * @param onCommit
+	 */
 	public void processValueUpdateToSubspaceRegionMessage( 
-			ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage )
+			ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage, 
+			Runnable onCommit )
 	{
 		String GUID 			= valueUpdateToSubspaceRegionMessage.getGUID();
 		JSONObject jsonToWrite  = valueUpdateToSubspaceRegionMessage.getJSONToWrite();
@@ -580,45 +598,45 @@ public abstract class AbstractGUIDAttrValueProcessing
 		
 		String tableName 		= DBConstants.ATTR_INDEX_TABLE_NAME;
 		
-		try 
+		int writeType			= -1;
+		
+		switch(operType)
 		{
-			switch(operType)
+			case ValueUpdateToSubspaceRegionMessage.ADD_ENTRY:
+			{
+				writeType = DBConstants.INSERT_REC;
+				break;
+			}
+			case ValueUpdateToSubspaceRegionMessage.REMOVE_ENTRY:
 			{
-				case ValueUpdateToSubspaceRegionMessage.ADD_ENTRY:
+				writeType = DBConstants.DELETE_REC;
+				break;
+			}
+			case ValueUpdateToSubspaceRegionMessage.UPDATE_ENTRY:
+			{
+				if( firstTimeInsert )
 				{
-					//if(!ContextServiceConfig.DISABLE_SECONDARY_SUBSPACES_UPDATES)
-					{
-						this.hyperspaceDB.storeGUIDUsingAttrIndex
-							(tableName, GUID, jsonToWrite, DBConstants.INSERT_REC);
-					}
-					break;
+					writeType = DBConstants.INSERT_REC;
 				}
-				case ValueUpdateToSubspaceRegionMessage.REMOVE_ENTRY:
+				else
 				{
-					//if(!ContextServiceConfig.DISABLE_SECONDARY_SUBSPACES_UPDATES)
-					{
-						this.hyperspaceDB.deleteGUIDFromTable(tableName, GUID);
-					}
-					break;
-				}
-				case ValueUpdateToSubspaceRegionMessage.UPDATE_ENTRY:
-				{
-					//if(!ContextServiceConfig.DISABLE_SECONDARY_SUBSPACES_UPDATES)
-					{
-						if( firstTimeInsert )
-						{
-							this.hyperspaceDB.storeGUIDUsingAttrIndex
-									(tableName, GUID, jsonToWrite, DBConstants.INSERT_REC);
-						}
-						else
-						{
-							this.hyperspaceDB.storeGUIDUsingAttrIndex
-									(tableName, GUID, jsonToWrite, DBConstants.UPDATE_REC);
-						}
-					}
-					break;
+					writeType = DBConstants.UPDATE_REC;
 				}
+				break;
 			}
+		}
+		
+		if( writeType == -1 )
+		{
+			assert(false);
+			onCommit.run();
+			return;
+		}
+		
+		try 
+		{
+			this.hyperspaceDB.storeGUIDUsingAttrIndex
+					(tableName, GUID, jsonToWrite, writeType, onCommit);
 		} catch (JSONException e)
 		{
 			e.printStackTrace();
@@ -626,7 +644,12 @@ public abstract class AbstractGUIDAttrValueProcessing
 	}
 	
 	
-	public abstract void processQueryMsgFromUser
+	/**
+	 * Returns false if the search was not sent to any node, 
+	 * as it was answered from the search result cache or failed, 
+	 * then it has no deadline.
+	 */
+	public abstract boolean processQueryMsgFromUser
 		( QueryInfo queryInfo, boolean storeQueryForTrigger );
 	
 	public abstract void processQueryMesgToSubspaceRegionReply(QueryMesgToSubspaceRegionReply 
@@ -634,6 +657,29 @@ public abstract class AbstractGUIDAttrValueProcessing
 	
 	public abstract void processUpdateFromGNS( UpdateInfo updateReq );
 	
+	public abstract int processQueryTimeout( long requestId, boolean retryAllowed );
+	
+	/**
+	 * Returns true if the search was also sent to other nodes.
+	 */
+	public abstract boolean processQueryHedge( long requestId );
+	
+	/**
+	 * Returns -1 if the search is not to be hedged.
+	 */
+	public abstract long getSearchHedgeDelayMs();
+	
 	public abstract int processQueryMesgToSubspaceRegion(QueryMesgToSubspaceRegion 
-														queryMesgToSubspaceRegion, JSONArray resultGUIDs);
+									queryMesgToSubspaceRegion, JSONArray resultGUIDs, 
+									SearchResultChunkCallback chunkCallback);
+	
+	public abstract void processSearchCacheInvalidation( SearchCacheInvalidation 
+									searchCacheInvalidation );
+	
+	/**
+	 * Called once an update is written at this node, sends invalidations 
+	 * for the cached search results the update can change.
+	 */
+	public abstract void sendSearchCacheInvalidations( ValueUpdateToSubspaceRegionMessage 
+									valueUpdateToSubspaceRegionMessage );
 }
\ No newline at end of file
@@ -6,6 +6,8 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -17,16 +19,24 @@ import edu.umass.cs.contextservice.config.ContextServiceConfig;
 import edu.umass.cs.contextservice.config.ContextServiceConfig.PrivacySchemes;
 import edu.umass.cs.contextservice.database.AbstractDataStorageDB;
 import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.guidattributes.SearchResultChunkCallback;
 import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
 import edu.umass.cs.contextservice.logging.ContextServiceLogger;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegion;
 import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
 import edu.umass.cs.contextservice.messages.QueryMsgFromUserReply;
+import edu.umass.cs.contextservice.messages.SearchCacheInvalidation;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
 import edu.umass.cs.contextservice.profilers.CNSProfiler;
 import edu.umass.cs.contextservice.queryparsing.QueryInfo;
 import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
 import edu.umass.cs.contextservice.regionmapper.AbstractRegionMappingPolicy;
 import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
+import edu.umass.cs.contextservice.regionmapper.helper.NodeLatencyTracker;
 import edu.umass.cs.contextservice.schemes.helperclasses.SearchReplyInfo;
 import edu.umass.cs.contextservice.updates.UpdateInfo;
 import edu.umass.cs.nio.JSONMessenger;
@@ -34,6 +44,17 @@ import edu.umass.cs.nio.JSONMessenger;
 public class GUIDAttrValueProcessing
 								extends AbstractGUIDAttrValueProcessing 
 {
+	// results of searches received from users, null if not cached.
+	private final SearchResultCache searchResultCache;
+	
+	// searches of other nodes whose results are cached, null if 
+	// cached results are not invalidated by updates.
+	private final SearchCacheRegistry searchCacheRegistry;
+	
+	// latencies of the replies of the nodes searches are sent to, null 
+	// if replicas are chosen randomly and searches are not hedged.
+	private final NodeLatencyTracker nodeLatencyTracker;
+	
 	public GUIDAttrValueProcessing( Integer myID, 
 			AbstractRegionMappingPolicy regionMappingPolicy, 
 			AbstractDataStorageDB hyperspaceDB, 
@@ -44,29 +65,102 @@ public class GUIDAttrValueProcessing
 		super(myID, regionMappingPolicy, 
 				hyperspaceDB, messenger , 
 				pendingQueryRequests,  profStats);
+		
+		// streamed results are forwarded to the user as they 
+		// arrive, they are not kept for the cache.
+		boolean streamedToClient = ContextServiceConfig.streamSearchReplies 
+				&& ContextServiceConfig.sendFullRepliesWithinCS 
+				&& ContextServiceConfig.sendFullRepliesToClient;
+		
+		if( (ContextServiceConfig.searchCacheSize > 0) && !streamedToClient )
+		{
+			searchResultCache = new SearchResultCache(ContextServiceConfig.searchCacheSize, 
+					ContextServiceConfig.searchCacheTtlMs);
+			
+			searchCacheRegistry = ContextServiceConfig.searchCachePreciseInvalidation?
+					new SearchCacheRegistry(ContextServiceConfig.searchCacheTtlMs) : null;
+		}
+		else
+		{
+			searchResultCache = null;
+			searchCacheRegistry = null;
+		}
+		
+		if( ContextServiceConfig.adaptiveReplicaSelection 
+				|| (ContextServiceConfig.searchHedgePercentile > 0) )
+		{
+			nodeLatencyTracker = new NodeLatencyTracker(ContextServiceConfig.searchHedgePercentile);
+			if( ContextServiceConfig.adaptiveReplicaSelection )
+			{
+				regionMappingPolicy.setNodeLatencyTracker(nodeLatencyTracker);
+			}
+		}
+		else
+		{
+			nodeLatencyTracker = null;
+		}
 	}
 	
-	public void processQueryMsgFromUser
+	public boolean processQueryMsgFromUser
 		( QueryInfo queryInfo, boolean storeQueryForTrigger )
 	{
-		String query;
-		String userIP;
-		int userPort;
 		String grpGUID;
-		long expiryTime;
 		
-		query   = queryInfo.getQuery();
-		userIP  = queryInfo.getUserIP();
-		userPort   = queryInfo.getUserPort();
 		grpGUID = queryInfo.getGroupGUID();
-		expiryTime = queryInfo.getExpiryTime();
 		
 		
 		if( grpGUID.length() <= 0 )
 		{
 			ContextServiceLogger.getLogger().fine
 			("Query request failed at the recieving node ");
-			return;
+			return false;
+		}
+		
+		List<HashMap<String, AttributeValueRange>> searchBoxes = queryInfo.getSearchBoxes();
+		
+		// a query that is not valid, or that selects no GUIDs, 
+		// is not sent to any node.
+		if( searchBoxes.isEmpty() )
+		{
+			synchronized(this.pendingQueryLock)
+			{
+				queryInfo.setQueryRequestID(queryIdCounter++);
+			}
+			pendingQueryRequests.put(queryInfo.getRequestId(), queryInfo);
+			queryInfo.initializeSearchQueryReplyInfo(new LinkedList<Integer>());
+			sendQueryReplyToUser(queryInfo, 0);
+			return false;
+		}
+		
+		if( searchResultCache != null )
+		{
+			String cacheKey = QueryParser.getCanonicalQuery(searchBoxes)
+						+queryInfo.getQueryOptions().toQueryClause();
+			if( queryInfo.getSearchAggregates() != null )
+			{
+				cacheKey = queryInfo.getSearchAggregates().toSelectClause()+cacheKey;
+			}
+			
+			// a query to be stored for triggers has to go to the nodes.
+			if( !storeQueryForTrigger )
+			{
+				SearchResultCache.CacheEntry cacheEntry = searchResultCache.get(cacheKey);
+				
+				if(ContextServiceConfig.PROFILER_ENABLED)
+				{
+					if( cacheEntry != null )
+						profStats.incrementSearchCacheHits();
+					else
+						profStats.incrementSearchCacheMisses();
+				}
+				
+				if( cacheEntry != null )
+				{
+					sendCachedReplyToUser(queryInfo, cacheEntry);
+					return false;
+				}
+			}
+			queryInfo.setCacheFill(searchResultCache.startFill(cacheKey));
 		}
 	    
 		synchronized(this.pendingQueryLock)
@@ -77,9 +171,16 @@ public class GUIDAttrValueProcessing
 		
 		
 		long start = System.currentTimeMillis();
-		List<Integer> nodeList 
-				= regionMappingPolicy.getNodeIDsForSearch
-					(queryInfo.getSearchQueryAttrValMap());
+		List<Integer> nodeList;
+		if( searchBoxes.size() == 1 )
+		{
+			nodeList = regionMappingPolicy.getNodeIDsForSearch(
+					CompiledValueSpace.fromRanges(searchBoxes.get(0)));
+		}
+		else
+		{
+			nodeList = getNodeIDsForBoxes(queryInfo, searchBoxes);
+		}
 		long end = System.currentTimeMillis();
 		
 		if(ContextServiceConfig.PROFILER_ENABLED)
@@ -88,37 +189,123 @@ public class GUIDAttrValueProcessing
 								(nodeList.size(), (end-start));
 		}
 		
+		queryInfo.setStoreQueryForTrigger(storeQueryForTrigger);
 		queryInfo.initializeSearchQueryReplyInfo(nodeList);
 		
 		for(int i=0; i< nodeList.size(); i++)
 		{
-			int nodeid = nodeList.get(i);
-			
-			QueryMesgToSubspaceRegion queryMesgToSubspaceRegion = 
-					new QueryMesgToSubspaceRegion
-	    			(myID, queryInfo.getRequestId(), query, grpGUID, 
-	    					userIP, userPort, storeQueryForTrigger, 
-	    					expiryTime, PrivacySchemes.NO_PRIVACY.ordinal());
-			
-			try
-			{
-				this.messenger.sendToID( nodeid, 
-						queryMesgToSubspaceRegion.toJSONObject() );
-			} catch (IOException e)
-			{
-				e.printStackTrace();
-			} catch (JSONException e)
-			{
-				e.printStackTrace();
-			}
-			ContextServiceLogger.getLogger().info("Sending QueryMesgToSubspaceRegion mesg from " 
-					+ myID +" to node "+nodeid);
+			sendQueryMesgToNode(queryInfo, nodeList.get(i));
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the nodes whose regions overlap any of the boxes, each once,
+	 * and sets in queryInfo the boxes each node is sent, so that a node 
+	 * gets one message with all the boxes that overlap its regions.
+	 * The policy chooses one node of each region for all the boxes, so a
+	 * GUID in two boxes isn't returned by two nodes that store it.
+	 */
+	private List<Integer> getNodeIDsForBoxes( QueryInfo queryInfo, 
+			List<HashMap<String, AttributeValueRange>> searchBoxes )
+	{
+		LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> nodeBoxesMap 
+				= regionMappingPolicy.getNodeIDsForSearchBoxes(searchBoxes);
+		
+		// the policy doesn't store regions on node lists, the search is routed
+		// once by the bounding box of its boxes and each node is sent all of them.
+		if( nodeBoxesMap == null )
+		{
+			return regionMappingPolicy.getNodeIDsForSearch(queryInfo.getSearchQueryAttrValMap());
+		}
+		
+		Iterator<Integer> nodeIdIter = nodeBoxesMap.keySet().iterator();
+		while( nodeIdIter.hasNext() )
+		{
+			int nodeid = nodeIdIter.next();
+			queryInfo.setBoxesForNode(nodeid, nodeBoxesMap.get(nodeid));
+		}
+		return new LinkedList<Integer>(nodeBoxesMap.keySet());
+	}
+	
+	/**
+	 * Returns the nodes that together store the regions of the boxes of nodeid 
+	 * that nodeid stores, with the boxes each is to be sent. Returns null if 
+	 * there are no such nodes, or if one of them was already sent the search, 
+	 * as it wasn't sent these boxes.
+	 */
+	private LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> 
+				getAlternateNodeIDsForBoxes( QueryInfo queryInfo, int nodeid )
+	{
+		LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> alternateBoxesMap 
+				= regionMappingPolicy.getAlternateNodeIDsForSearchBoxes(
+						queryInfo.getBoxesForNode(nodeid), nodeid);
+		if( alternateBoxesMap == null )
+			return null;
+		
+		Iterator<Integer> nodeIdIter = alternateBoxesMap.keySet().iterator();
+		while( nodeIdIter.hasNext() )
+		{
+			if( queryInfo.isQueriedNode(nodeIdIter.next()) )
+				return null;
+		}
+		return alternateBoxesMap;
+	}
+	
+	private void sendQueryMesgToNode( QueryInfo queryInfo, int nodeid )
+	{
+		recordQuerySend(queryInfo, nodeid);
+		
+		// the nodes only need the key if they are to invalidate the result.
+		String cacheKey = null;
+		if( (queryInfo.getCacheFill() != null) 
+				&& ContextServiceConfig.searchCachePreciseInvalidation )
+		{
+			cacheKey = queryInfo.getCacheFill().getKey();
+		}
+		
+		QueryMesgToSubspaceRegion queryMesgToSubspaceRegion = 
+				new QueryMesgToSubspaceRegion
+    			(myID, queryInfo.getRequestId(), queryInfo.getQueryForNode(nodeid), 
+    					queryInfo.getGroupGUID(), queryInfo.getUserIP(), 
+    					queryInfo.getUserPort(), queryInfo.getStoreQueryForTrigger(), 
+    					queryInfo.getExpiryTime(), PrivacySchemes.NO_PRIVACY.ordinal(), 
+    					cacheKey);
+		
+		try
+		{
+			this.messenger.sendToID( nodeid, 
+					BinaryWireFormat.toWireJSON(queryMesgToSubspaceRegion) );
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+		ContextServiceLogger.getLogger().info("Sending QueryMesgToSubspaceRegion mesg from " 
+				+ myID +" to node "+nodeid);
+	}
+	
+	/**
+	 * Records the time the search is sent to a node, the node's 
+	 * outstanding searches are counted once per search.
+	 */
+	private void recordQuerySend( QueryInfo queryInfo, int nodeid )
+	{
+		if( nodeLatencyTracker == null )
+			return;
+		
+		if( queryInfo.setNodeSendTime(nodeid, System.nanoTime()) == null )
+		{
+			nodeLatencyTracker.recordSend(nodeid);
 		}
 	}
 	
 	public int processQueryMesgToSubspaceRegion(QueryMesgToSubspaceRegion 
 													queryMesgToSubspaceRegion, 
-													JSONArray resultGUIDs)
+													JSONArray resultGUIDs, 
+													SearchResultChunkCallback chunkCallback)
 	{
 		String query 				 		= queryMesgToSubspaceRegion.getQuery();
 		// we don't evaluate the query over full value space on all attributes here.
@@ -126,11 +313,43 @@ public class GUIDAttrValueProcessing
 		// so a query should only be evaluated on attributes that are specified 
 		// in the query. Attributes that are not spcfied are stored with Double.MIN
 		// value, which is outside the Min max value corresponding to an attribute.
-		HashMap<String, AttributeValueRange> searchAttrValRange	 = QueryParser.parseQuery(query);
+		List<HashMap<String, AttributeValueRange>> searchBoxes = QueryParser.parseQueryBoxes(query);
+		HashMap<String, AttributeValueRange> searchAttrValRange	 = (searchBoxes.size() == 1)? 
+				searchBoxes.get(0) : QueryParser.parseQuery(query);
+		SearchQueryOptions queryOptions = QueryParser.parseQueryOptions(query);
+		SearchAggregates searchAggregates = QueryParser.parseSearchAggregates(query);
+		
+		// ordered results are merged at the coordinator, 
+		// which needs all of them, so they are not streamed.
+		if( queryOptions.hasOrderBy() )
+		{
+			chunkCallback = null;
+		}
+		
+		// registered before the search reads the index, so an update 
+		// written after the read finds the registration.
+		if( (searchCacheRegistry != null) && (queryMesgToSubspaceRegion.getCacheKey() != null) )
+		{
+			searchCacheRegistry.register(queryMesgToSubspaceRegion.getSender(), 
+					queryMesgToSubspaceRegion.getCacheKey(), searchAttrValRange);
+		}
 		
 		long start = System.currentTimeMillis();
-		int resultSize = this.hyperspaceDB.processSearchQueryUsingAttrIndex
-				(searchAttrValRange, resultGUIDs);
+		int resultSize;
+		if( searchAggregates != null )
+		{
+			// the reply has the partial aggregates of the GUIDs here, 
+			// the result size is the number of those GUIDs.
+			SearchAggregates.Accumulator accumulator = this.hyperspaceDB
+					.processAggregateQueryUsingAttrIndex(searchBoxes, searchAggregates);
+			resultGUIDs.put(accumulator.toPartialJSON());
+			resultSize = (int) Math.min(accumulator.getNumGUIDs(), Integer.MAX_VALUE);
+		}
+		else
+		{
+			resultSize = this.hyperspaceDB.processSearchQueryUsingAttrIndex
+					(searchBoxes, queryOptions, resultGUIDs, chunkCallback);
+		}
 		long end = System.currentTimeMillis();
 		
 		if(ContextServiceConfig.PROFILER_ENABLED)
@@ -150,90 +369,519 @@ public class GUIDAttrValueProcessing
 		
 		QueryInfo queryInfo = pendingQueryRequests.get(requestId);
 		
+		// the search completed without this reply, as its deadline expired.
+		if( queryInfo == null )
+		{
+			ContextServiceLogger.getLogger().fine("Reply from "+senderID
+					+" for completed search requestId "+requestId);
+			return;
+		}
+		
+		// the latency of a node's reply is recorded even if 
+		// the node was replaced and its reply isn't used.
+		if( queryMesgToSubspaceRegionReply.isLastChunk() && (nodeLatencyTracker != null) )
+		{
+			Long sendTime = queryInfo.removeNodeSendTime(senderID);
+			if( sendTime != null )
+			{
+				nodeLatencyTracker.recordReply(senderID, System.nanoTime()-sendTime);
+			}
+		}
+		
+		// a chunk is forwarded before it is added, so that all chunks
+		// are forwarded by the time the last reply is sent to the user.
+		// chunks of a node that was replaced are not forwarded.
+		if( !queryMesgToSubspaceRegionReply.isLastChunk() && 
+				ContextServiceConfig.sendFullRepliesToClient && 
+				queryInfo.acceptsReplyFrom(senderID) )
+		{
+			forwardResultChunkToUser( queryInfo, 
+					queryMesgToSubspaceRegionReply.getResultGUIDs() );
+		}
+		
 		boolean allRepRecvd = 
 				queryInfo.addReplyFromANode( senderID, queryMesgToSubspaceRegionReply);
 		
 		if( allRepRecvd )
 		{
-			JSONArray concatResult 							 = new JSONArray();
-
-			int totalNumReplies 							 = 0;
-			
-			HashMap<Integer, SearchReplyInfo> searchReplyMap 
-											= queryInfo.getSearchReplyMap();
+			sendQueryReplyToUser(queryInfo, 0);
+		}
+	}
+	
+	/**
+	 * Called when the deadline for the replies of a search expires. 
+	 * If retryAllowed, the search is sent to other nodes that store the 
+	 * regions of the nodes from which nothing has been received. 
+	 * Otherwise, or if there are no such nodes, the user is sent 
+	 * the results received so far, as a partial reply.
+	 * Returns TIMEOUT_REQUEST_RETRIED if the search was sent to other nodes, 
+	 * then the caller sets a new deadline.
+	 */
+	@Override
+	public int processQueryTimeout( long requestId, boolean retryAllowed )
+	{
+		QueryInfo queryInfo = pendingQueryRequests.get(requestId);
+		
+		if( queryInfo == null )
+		{
+			return TIMEOUT_REQUEST_DONE;
+		}
+		
+		boolean retried = false;
+		
+		if( retryAllowed )
+		{
+			retried = sendToAlternateNodes(queryInfo, "timed out");
 			
-			if( ContextServiceConfig.sendFullRepliesToClient )
-			{	
-				if(!ContextServiceConfig.LIMITED_SEARCH_REPLY_ENABLE)
-				{
-					Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+			// the nodes replaced by nodes that have replied already.
+			if( queryInfo.checkAllRepliesRecvd() )
+			{
+				sendQueryReplyToUser(queryInfo, 0);
+				return TIMEOUT_REQUEST_DONE;
+			}
+		}
+		
+		if( retried )
+		{
+			return TIMEOUT_REQUEST_RETRIED;
+		}
+		
+		int numNodesTimedOut = queryInfo.getNumNodesNotReplied();
+		
+		if( numNodesTimedOut == 0 )
+		{
+			// completed by a reply in the meantime.
+			return TIMEOUT_REQUEST_DONE;
+		}
+		
+		if( !sendQueryReplyToUser(queryInfo, numNodesTimedOut) )
+		{
+			return TIMEOUT_REQUEST_DONE;
+		}
+		
+		ContextServiceLogger.getLogger().warning("Search requestId "+requestId
+				+" expired, "+numNodesTimedOut+" nodes didn't reply");
+		return TIMEOUT_REQUEST_EXPIRED;
+	}
+	
+	/**
+	 * Called when the nodes of a search haven't replied after the hedge
+	 * delay. The search is also sent to other nodes that store the regions 
+	 * of the nodes from which nothing has been received, and the replies
+	 * of the nodes that reply first are used.
+	 * Returns true if the search was sent to other nodes.
+	 */
+	@Override
+	public boolean processQueryHedge( long requestId )
+	{
+		QueryInfo queryInfo = pendingQueryRequests.get(requestId);
+		
+		if( queryInfo == null )
+		{
+			return false;
+		}
+		
+		boolean hedged = sendToAlternateNodes(queryInfo, "is slow");
+		
+		// the nodes replaced by nodes that have replied already.
+		if( queryInfo.checkAllRepliesRecvd() )
+		{
+			sendQueryReplyToUser(queryInfo, 0);
+		}
+		return hedged;
+	}
+	
+	/**
+	 * Returns the delay after which a search is hedged, the hedge percentile
+	 * of the recent latencies of the nodes' replies, but at least 
+	 * ContextServiceConfig.searchHedgeMinDelayMs. Returns -1 if searches 
+	 * are not hedged or not enough replies have been received yet.
+	 */
+	@Override
+	public long getSearchHedgeDelayMs()
+	{
+		if( (nodeLatencyTracker == null) || (ContextServiceConfig.searchHedgePercentile <= 0) )
+			return -1;
+		
+		long hedgeDelayNanos = nodeLatencyTracker.getHedgeDelayNanos();
+		if( hedgeDelayNanos < 0 )
+			return -1;
+		
+		long hedgeDelayMs = (hedgeDelayNanos + 999999)/1000000;
+		return Math.max(hedgeDelayMs, ContextServiceConfig.searchHedgeMinDelayMs);
+	}
 	
-					while( nodeIdIter.hasNext() )
+	/**
+	 * Replaces the nodes of a search from which nothing has been received
+	 * with other nodes that store their regions, and sends the search to 
+	 * them. Returns true if the search was sent to any node.
+	 */
+	private boolean sendToAlternateNodes( QueryInfo queryInfo, String reason )
+	{
+		boolean sent = false;
+		List<Integer> timedOutNodes = queryInfo.getNodesWithoutReply();
+		
+		for( int i=0; i<timedOutNodes.size(); i++ )
+		{
+			int nodeid = timedOutNodes.get(i);
+			List<Integer> alternateNodes;
+			if( queryInfo.getSearchBoxes().size() == 1 )
+			{
+				alternateNodes = regionMappingPolicy.getAlternateNodeIDsForSearch
+						(queryInfo.getSearchQueryAttrValMap(), nodeid);
+			}
+			else
+			{
+				LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> 
+					alternateBoxesMap = getAlternateNodeIDsForBoxes(queryInfo, nodeid);
+				alternateNodes = null;
+				if( alternateBoxesMap != null )
+				{
+					alternateNodes = new LinkedList<Integer>(alternateBoxesMap.keySet());
+					for( int j=0; j<alternateNodes.size(); j++ )
 					{
-						int nodeid = nodeIdIter.next();
-						SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
-						concatResult.put(replyInfo.replyArray);
-						totalNumReplies = totalNumReplies + replyInfo.replyArray.length();
+						queryInfo.setBoxesForNode(alternateNodes.get(j), 
+								alternateBoxesMap.get(alternateNodes.get(j)));
 					}
 				}
-				else
+			}
+			
+			if( alternateNodes == null )
+				continue;
+			
+			List<Integer> newNodes 
+					= queryInfo.replaceNodeWithoutReply(nodeid, alternateNodes);
+			
+			if( newNodes == null )
+				continue;
+			
+			ContextServiceLogger.getLogger().info("Search requestId "+queryInfo.getRequestId()
+					+" "+reason+" at node "+nodeid+", retrying at nodes "+newNodes);
+			
+			for( int j=0; j<newNodes.size(); j++ )
+			{
+				sendQueryMesgToNode(queryInfo, newNodes.get(j));
+				sent = true;
+			}
+		}
+		return sent;
+	}
+	
+	/**
+	 * Sends the results of a search to the user and removes the search from 
+	 * the pending searches. If numNodesTimedOut is more than 0, the results are 
+	 * the ones received so far. Returns false if the search was completed 
+	 * before, by the last reply or its deadline.
+	 */
+	private boolean sendQueryReplyToUser( QueryInfo queryInfo, int numNodesTimedOut )
+	{
+		long requestId = queryInfo.getRequestId();
+		
+		// the last reply and the deadline can complete a search concurrently,
+		// the one that removes it replies to the user.
+		if( !pendingQueryRequests.remove(requestId, queryInfo) )
+		{
+			return false;
+		}
+		queryInfo.cancelReplyTimeout();
+		int numChunksForwarded = queryInfo.closeChunkForwarding();
+		
+		// the nodes that haven't replied would have taken at least this long.
+		if( nodeLatencyTracker != null )
+		{
+			long currTime = System.nanoTime();
+			List<Integer> nodesSentTo = queryInfo.getNodesSentTo();
+			for( int i=0; i<nodesSentTo.size(); i++ )
+			{
+				Long sendTime = queryInfo.removeNodeSendTime(nodesSentTo.get(i));
+				if( sendTime != null )
+				{
+					nodeLatencyTracker.recordNoReply(nodesSentTo.get(i), currTime-sendTime);
+				}
+			}
+		}
+		
+		JSONArray concatResult 							 = new JSONArray();
+
+		int totalNumReplies 							 = 0;
+		
+		// aggregates of the nodes, merged as their replies arrived.
+		JSONObject aggregates							 = null;
+		
+		HashMap<Integer, SearchReplyInfo> searchReplyMap 
+										= queryInfo.getSearchReplyMap();
+		
+		SearchQueryOptions queryOptions = queryInfo.getQueryOptions();
+		int resultLimit = queryOptions.getResultLimit();
+		
+		// results of searches with ORDER BY are not streamed.
+		boolean streamedReplies = ContextServiceConfig.streamSearchReplies 
+							&& ContextServiceConfig.sendFullRepliesWithinCS
+							&& !queryOptions.hasOrderBy();
+		
+		if( queryInfo.getSearchAggregates() != null )
+		{
+			try
+			{
+				aggregates = queryInfo.getAggregateResult();
+				concatResult.put(aggregates);
+			} catch (JSONException e)
+			{
+				e.printStackTrace();
+			}
+			
+			Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+			while( nodeIdIter.hasNext() )
+			{
+				totalNumReplies = totalNumReplies 
+						+ searchReplyMap.get(nodeIdIter.next()).numReplies;
+			}
+		}
+		else if( streamedReplies && ContextServiceConfig.sendFullRepliesToClient )
+		{
+			// results have already been forwarded in chunks.
+			totalNumReplies = queryInfo.getNumResultsForwarded();
+		}
+		else if( ContextServiceConfig.sendFullRepliesToClient )
+		{	
+			if( queryOptions.hasOrderBy() )
+			{
+				// each node's results are in the order, up to the limit.
+				List<JSONArray> nodeResults = new LinkedList<JSONArray>();
+				Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+				while( nodeIdIter.hasNext() )
+				{
+					nodeResults.add(searchReplyMap.get(nodeIdIter.next()).replyArray);
+				}
+				
+				try
+				{
+					JSONArray mergedArray = new SearchResultMerger(queryOptions)
+							.merge(nodeResults, resultLimit);
+					concatResult.put(mergedArray);
+					totalNumReplies = mergedArray.length();
+				} catch (JSONException e)
+				{
+					e.printStackTrace();
+				}
+			}
+			else if( resultLimit == SearchQueryOptions.NO_LIMIT )
+			{
+				Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+
+				while( nodeIdIter.hasNext() )
+				{
+					int nodeid = nodeIdIter.next();
+					SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
+					// no reply from the node before the deadline
+					if( replyInfo.replyArray == null )
+						continue;
+					concatResult.put(replyInfo.replyArray);
+					totalNumReplies = totalNumReplies + replyInfo.replyArray.length();
+				}
+			}
+			else
+			{
+				JSONArray limitedArray = new JSONArray();
+				Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+				while( nodeIdIter.hasNext() )
 				{
-					JSONArray limitedArray = new JSONArray();
-					Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
-					while( nodeIdIter.hasNext() )
+					int nodeid = nodeIdIter.next();
+					SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
+					if( replyInfo.replyArray == null )
+						continue;
+				
+					for(int i=0; i<replyInfo.replyArray.length(); i++)
 					{
-						int nodeid = nodeIdIter.next();
-						SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
-					
-						for(int i=0; i<replyInfo.replyArray.length(); i++)
-						{
-							try {
-								limitedArray.put(replyInfo.replyArray.getJSONObject(i));
-							} catch (JSONException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
-							
-							if(limitedArray.length() >= 
-										ContextServiceConfig.LIMITED_SEARCH_REPLY_SIZE)
-							{
-								break;
-							}
+						try {
+							limitedArray.put(replyInfo.replyArray.getJSONObject(i));
+						} catch (JSONException e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
 						}
-						if(limitedArray.length() >= 
-								ContextServiceConfig.LIMITED_SEARCH_REPLY_SIZE)
+						
+						if(limitedArray.length() >= resultLimit)
 						{
 							break;
 						}
 					}
-					
-					concatResult.put(limitedArray);
-					totalNumReplies = totalNumReplies + limitedArray.length();
+					if(limitedArray.length() >= resultLimit)
+					{
+						break;
+					}
 				}
+				
+				concatResult.put(limitedArray);
+				totalNumReplies = totalNumReplies + limitedArray.length();
+			}
+		}
+		else
+		{
+			Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+
+			while( nodeIdIter.hasNext() )
+			{
+				int nodeid = nodeIdIter.next();
+				SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
+				int currRepSize = replyInfo.numReplies;
+				totalNumReplies = totalNumReplies + currRepSize;
+			}
+			
+			if( (resultLimit != SearchQueryOptions.NO_LIMIT) && (totalNumReplies > resultLimit) )
+			{
+				totalNumReplies = resultLimit;
+			}
+		}
+		
+		SearchResultCache.CacheFill cacheFill = queryInfo.getCacheFill();
+		if( cacheFill != null )
+		{
+			// a partial result is not cached.
+			if( numNodesTimedOut == 0 )
+			{
+				searchResultCache.completeFill(cacheFill, concatResult, totalNumReplies);
 			}
 			else
 			{
-				Iterator<Integer> nodeIdIter = searchReplyMap.keySet().iterator();
+				searchResultCache.abandonFill(cacheFill);
+			}
+		}
+		
+		// the cached result of an aggregate query is its aggregates,
+		// they are not sent as GUIDs.
+		if( aggregates != null )
+		{
+			concatResult = new JSONArray();
+		}
+		
+		QueryMsgFromUserReply queryMsgFromUserReply 
+			= new QueryMsgFromUserReply( myID, 
+					queryInfo.getQuery(), queryInfo.getGroupGUID(), concatResult, 
+					queryInfo.getUserReqID(), totalNumReplies, 
+					PrivacySchemes.NO_PRIVACY.ordinal(), 
+					numChunksForwarded, true, numNodesTimedOut, aggregates );
+		
+		try
+		{
+			this.messenger.sendToAddress(new InetSocketAddress(queryInfo.getUserIP(), 
+					queryInfo.getUserPort()), queryMsgFromUserReply.toJSONObject());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+		ContextServiceLogger.getLogger().info("Sending queryMsgFromUserReply mesg from " 
+				+ myID +" to node "+new InetSocketAddress(queryInfo.getUserIP(), queryInfo.getUserPort()));
 
-				while( nodeIdIter.hasNext() )
-				{
-					int nodeid = nodeIdIter.next();
-					SearchReplyInfo replyInfo = searchReplyMap.get(nodeid);
-					int currRepSize = replyInfo.numReplies;
-					totalNumReplies = totalNumReplies + currRepSize;
-				}
+		if(ContextServiceConfig.PROFILER_ENABLED)
+		{
+			queryInfo.getSearchStats().setQueryEndTime();
+			profStats.addSearchStats(queryInfo.getSearchStats());
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Replies to the user with a cached result, the search is not sent to any node.
+	 */
+	private void sendCachedReplyToUser( QueryInfo queryInfo, 
+			SearchResultCache.CacheEntry cacheEntry )
+	{
+		JSONArray resultArray = cacheEntry.getResultArray();
+		JSONObject aggregates = null;
+		
+		try
+		{
+			// the cached result of an aggregate query is its aggregates.
+			if( queryInfo.getSearchAggregates() != null )
+			{
+				aggregates = resultArray.getJSONObject(0);
+				resultArray = new JSONArray();
 			}
 			
 			QueryMsgFromUserReply queryMsgFromUserReply 
 				= new QueryMsgFromUserReply( myID, 
-						queryInfo.getQuery(), queryInfo.getGroupGUID(), concatResult, 
-						queryInfo.getUserReqID(), totalNumReplies, 
-						PrivacySchemes.NO_PRIVACY.ordinal() );
+						queryInfo.getQuery(), queryInfo.getGroupGUID(), 
+						resultArray, queryInfo.getUserReqID(), 
+						cacheEntry.getNumResults(), PrivacySchemes.NO_PRIVACY.ordinal(), 
+						0, true, 0, aggregates );
 			
+			this.messenger.sendToAddress(new InetSocketAddress(queryInfo.getUserIP(), 
+					queryInfo.getUserPort()), queryMsgFromUserReply.toJSONObject());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	@Override
+	public void processSearchCacheInvalidation( SearchCacheInvalidation 
+													searchCacheInvalidation )
+	{
+		if( searchResultCache == null )
+			return;
+		
+		JSONArray cacheKeys = searchCacheInvalidation.getCacheKeys();
+		try
+		{
+			for( int i=0; i<cacheKeys.length(); i++ )
+			{
+				searchResultCache.invalidate(cacheKeys.getString(i));
+			}
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+		
+		if(ContextServiceConfig.PROFILER_ENABLED)
+		{
+			profStats.addSearchCacheInvalidations(cacheKeys.length());
+		}
+	}
+	
+	@Override
+	public void sendSearchCacheInvalidations( ValueUpdateToSubspaceRegionMessage 
+													valueUpdateToSubspaceRegionMessage )
+	{
+		if( searchCacheRegistry == null )
+			return;
+		
+		List<SearchCacheRegistry.Registration> matched 
+				= searchCacheRegistry.removeMatching(valueUpdateToSubspaceRegionMessage);
+		
+		if( matched.isEmpty() )
+			return;
+		
+		// one message to each caching node.
+		HashMap<Integer, JSONArray> cacheKeyMap = new HashMap<Integer, JSONArray>();
+		Iterator<SearchCacheRegistry.Registration> regIter = matched.iterator();
+		while( regIter.hasNext() )
+		{
+			SearchCacheRegistry.Registration registration = regIter.next();
+			JSONArray cacheKeys = cacheKeyMap.get(registration.getCachingNodeID());
+			if( cacheKeys == null )
+			{
+				cacheKeys = new JSONArray();
+				cacheKeyMap.put(registration.getCachingNodeID(), cacheKeys);
+			}
+			cacheKeys.put(registration.getCacheKey());
+		}
+		
+		Iterator<Integer> nodeIdIter = cacheKeyMap.keySet().iterator();
+		while( nodeIdIter.hasNext() )
+		{
+			int nodeid = nodeIdIter.next();
+			SearchCacheInvalidation searchCacheInvalidation 
+					= new SearchCacheInvalidation(myID, cacheKeyMap.get(nodeid));
 			try
 			{
-				this.messenger.sendToAddress(new InetSocketAddress(queryInfo.getUserIP(), 
-						queryInfo.getUserPort()), queryMsgFromUserReply.toJSONObject());
+				this.messenger.sendToID(nodeid, searchCacheInvalidation.toJSONObject());
 			} catch (IOException e)
 			{
 				e.printStackTrace();
@@ -241,16 +889,44 @@ public class GUIDAttrValueProcessing
 			{
 				e.printStackTrace();
 			}
-			ContextServiceLogger.getLogger().info("Sending queryMsgFromUserReply mesg from " 
-					+ myID +" to node "+new InetSocketAddress(queryInfo.getUserIP(), queryInfo.getUserPort()));
-
-			QueryInfo qInfo = pendingQueryRequests.remove(requestId);
-			
-			if(ContextServiceConfig.PROFILER_ENABLED)
+		}
+	}
+	
+	private void forwardResultChunkToUser( QueryInfo queryInfo, JSONArray resultChunk )
+	{
+		QueryInfo.ChunkToForward chunkToForward 
+				= queryInfo.reserveChunkToForward(resultChunk.length());
+		
+		if( chunkToForward == null )
+			return;
+		
+		try
+		{
+			// the chunk crosses the result limit.
+			if( chunkToForward.numResults < resultChunk.length() )
 			{
-				qInfo.getSearchStats().setQueryEndTime();
-				profStats.addSearchStats(qInfo.getSearchStats());
+				JSONArray limitedChunk = new JSONArray();
+				for( int i=0; i<chunkToForward.numResults; i++ )
+				{
+					limitedChunk.put(resultChunk.get(i));
+				}
+				resultChunk = limitedChunk;
 			}
+			
+			QueryMsgFromUserReply chunkReply 
+				= new QueryMsgFromUserReply( myID, 
+						queryInfo.getQuery(), queryInfo.getGroupGUID(), resultChunk, 
+						queryInfo.getUserReqID(), resultChunk.length(), 
+						PrivacySchemes.NO_PRIVACY.ordinal(), chunkToForward.chunkNum, false );
+			
+			this.messenger.sendToAddress(new InetSocketAddress(queryInfo.getUserIP(), 
+					queryInfo.getUserPort()), chunkReply.toJSONObject());
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
 		}
 	}
 	
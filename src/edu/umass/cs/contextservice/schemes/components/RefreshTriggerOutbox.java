@@ -0,0 +1,346 @@
+package edu.umass.cs.contextservice.schemes.components;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.triggers.GroupGUIDInfoClass;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.messages.RefreshTrigger;
+import edu.umass.cs.nio.JSONMessenger;
+
+/**
+ * Batches the refresh triggers sent to each subscriber, a client ip:port.
+ *
+ * The groups removed and added by an update are queued in the outbox of
+ * their subscriber, and the flush thread sends everything queued for a
+ * subscriber as one RefreshTrigger every flush interval. A group that is
+ * added and then removed for the same GUID, or removed and then added,
+ * before the flush cancels out, as the subscriber's view of the group
+ * is the same as before.
+ *
+ * When the outbox of a subscriber reaches the maximum batch size, the
+ * thread queuing the triggers sends the batch itself, so the update path
+ * slows down instead of the outboxes growing without bound.
+ * @author ayadav
+ */
+public class RefreshTriggerOutbox implements Runnable
+{
+	private final Integer myID;
+	private final JSONMessenger<Integer> messenger;
+	private final long flushIntervalMs;
+	private final int maxBatchSize;
+
+	// key is ip:port of the subscriber.
+	private final ConcurrentHashMap<String, SubscriberOutbox> outboxMap;
+
+	// number of group changes queued in all outboxes.
+	private final AtomicLong queueDepth;
+	private final AtomicLong maxQueueDepth;
+	private final AtomicLong numQueued;
+	private final AtomicLong numCollapsed;
+	private final AtomicLong numBatchesSent;
+	// batches sent by the update path as an outbox was full.
+	private final AtomicLong numFullFlushes;
+
+	public RefreshTriggerOutbox( Integer myID, JSONMessenger<Integer> messenger,
+			long flushIntervalMs, int maxBatchSize )
+	{
+		assert( flushIntervalMs > 0 );
+		assert( maxBatchSize > 0 );
+		this.myID = myID;
+		this.messenger = messenger;
+		this.flushIntervalMs = flushIntervalMs;
+		this.maxBatchSize = maxBatchSize;
+
+		outboxMap = new ConcurrentHashMap<String, SubscriberOutbox>();
+		queueDepth = new AtomicLong(0);
+		maxQueueDepth = new AtomicLong(0);
+		numQueued = new AtomicLong(0);
+		numCollapsed = new AtomicLong(0);
+		numBatchesSent = new AtomicLong(0);
+		numFullFlushes = new AtomicLong(0);
+	}
+
+	/**
+	 * Queues the groups removed and added by an update of updateGUID.
+	 */
+	public void addTriggers( HashMap<String, GroupGUIDInfoClass> removedGroups,
+			HashMap<String, GroupGUIDInfoClass> addedGroups, String updateGUID,
+			long versionNum, long updateSeqNum, long updateStartTime )
+	{
+		addTriggers(removedGroups, false, updateGUID, versionNum, updateSeqNum, updateStartTime);
+		addTriggers(addedGroups, true, updateGUID, versionNum, updateSeqNum, updateStartTime);
+	}
+
+	@Override
+	public void run()
+	{
+		while( true )
+		{
+			try
+			{
+				Thread.sleep(flushIntervalMs);
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+
+			int numSent = 0;
+			Iterator<SubscriberOutbox> outboxIter = outboxMap.values().iterator();
+			while( outboxIter.hasNext() )
+			{
+				if( flush(outboxIter.next()) )
+					numSent++;
+			}
+
+			if( numSent > 0 )
+			{
+				ContextServiceLogger.getLogger().fine("RefreshTriggerOutbox sent "+numSent
+						+" batches, queueDepth "+queueDepth.get()
+						+" maxQueueDepth "+maxQueueDepth.get()
+						+" numQueued "+numQueued.get()
+						+" numCollapsed "+numCollapsed.get()
+						+" numBatchesSent "+numBatchesSent.get()
+						+" numFullFlushes "+numFullFlushes.get());
+			}
+		}
+	}
+
+	public long getQueueDepth()
+	{
+		return queueDepth.get();
+	}
+
+	public long getMaxQueueDepth()
+	{
+		return maxQueueDepth.get();
+	}
+
+	public long getNumQueued()
+	{
+		return numQueued.get();
+	}
+
+	public long getNumCollapsed()
+	{
+		return numCollapsed.get();
+	}
+
+	public long getNumBatchesSent()
+	{
+		return numBatchesSent.get();
+	}
+
+	public long getNumFullFlushes()
+	{
+		return numFullFlushes.get();
+	}
+
+	private void addTriggers( HashMap<String, GroupGUIDInfoClass> groups, boolean added,
+			String updateGUID, long versionNum, long updateSeqNum, long updateStartTime )
+	{
+		Iterator<String> groupIter = groups.keySet().iterator();
+		while( groupIter.hasNext() )
+		{
+			GroupGUIDInfoClass groupInfo = groups.get(groupIter.next());
+			String groupGUID = groupInfo.getGroupGUID();
+			String ipPortKey = groupInfo.getUserIP()+":"+groupInfo.getUserPort();
+
+			SubscriberOutbox outbox = outboxMap.get(ipPortKey);
+			if( outbox == null )
+			{
+				SubscriberOutbox newOutbox = new SubscriberOutbox(groupInfo.getUserIP(),
+						groupInfo.getUserPort());
+				outbox = outboxMap.putIfAbsent(ipPortKey, newOutbox);
+				if( outbox == null )
+					outbox = newOutbox;
+			}
+
+			if( outbox.addTrigger(groupGUID, added, updateGUID, versionNum, updateSeqNum, 
+					updateStartTime) )
+			{
+				numFullFlushes.incrementAndGet();
+				flush(outbox);
+			}
+		}
+	}
+
+	/**
+	 * Sends the queued triggers of a subscriber.
+	 * Returns false if there were none.
+	 */
+	private boolean flush( SubscriberOutbox outbox )
+	{
+		RefreshTrigger refTrig = outbox.takeBatch();
+		if( refTrig == null )
+			return false;
+
+		try
+		{
+			this.messenger.sendToAddress( new InetSocketAddress(outbox.userIP, outbox.userPort),
+					refTrig.toJSONObject() );
+			numBatchesSent.incrementAndGet();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	private void updateQueueDepth( long delta )
+	{
+		long depth = queueDepth.addAndGet(delta);
+		long maxDepth = maxQueueDepth.get();
+		while( (depth > maxDepth) && !maxQueueDepth.compareAndSet(maxDepth, depth) )
+		{
+			maxDepth = maxQueueDepth.get();
+		}
+	}
+
+
+	/**
+	 * A group removed or added for a GUID, waiting to be sent.
+	 */
+	private static class PendingTrigger
+	{
+		final String groupGUID;
+		final String updateGUID;
+		final long updateSeqNum;
+		final boolean added;
+
+		PendingTrigger( String groupGUID, String updateGUID, long updateSeqNum, boolean added )
+		{
+			this.groupGUID = groupGUID;
+			this.updateGUID = updateGUID;
+			this.updateSeqNum = updateSeqNum;
+			this.added = added;
+		}
+	}
+
+	private class SubscriberOutbox
+	{
+		final String userIP;
+		final int userPort;
+
+		// key is groupGUID:updateGUID, in the order queued.
+		private LinkedHashMap<String, PendingTrigger> pendingTriggers;
+		// of the last update queued.
+		private String lastUpdateGUID;
+		private long lastVersionNum;
+		private long lastUpdateStartTime;
+
+		SubscriberOutbox( String userIP, int userPort )
+		{
+			this.userIP = userIP;
+			this.userPort = userPort;
+			this.pendingTriggers = new LinkedHashMap<String, PendingTrigger>();
+		}
+
+		/**
+		 * Returns true if the outbox is full and should be flushed now.
+		 */
+		synchronized boolean addTrigger( String groupGUID, boolean added,
+				String updateGUID, long versionNum, long updateSeqNum, long updateStartTime )
+		{
+			numQueued.incrementAndGet();
+			lastUpdateGUID = updateGUID;
+			lastVersionNum = versionNum;
+			lastUpdateStartTime = updateStartTime;
+
+			String key = groupGUID+":"+updateGUID;
+			PendingTrigger pending = pendingTriggers.get(key);
+
+			if( (pending != null) && (pending.added != added) )
+			{
+				// the GUID left and rejoined the group, or the other way
+				// round, since the last flush, nothing changed for the subscriber.
+				pendingTriggers.remove(key);
+				numCollapsed.incrementAndGet();
+				updateQueueDepth(-1);
+				return false;
+			}
+			if( pending == null )
+			{
+				updateQueueDepth(1);
+			}
+			pendingTriggers.put(key, new PendingTrigger(groupGUID, updateGUID, updateSeqNum, added));
+			return pendingTriggers.size() >= maxBatchSize;
+		}
+
+		/**
+		 * Removes the queued triggers and returns them as one RefreshTrigger,
+		 * or null if there are none.
+		 */
+		RefreshTrigger takeBatch()
+		{
+			LinkedHashMap<String, PendingTrigger> batch;
+			String updateGUID;
+			long versionNum;
+			long updateStartTime;
+
+			synchronized( this )
+			{
+				if( pendingTriggers.isEmpty() )
+					return null;
+
+				batch = pendingTriggers;
+				pendingTriggers = new LinkedHashMap<String, PendingTrigger>();
+				updateGUID = lastUpdateGUID;
+				versionNum = lastVersionNum;
+				updateStartTime = lastUpdateStartTime;
+			}
+			updateQueueDepth(-batch.size());
+
+			JSONArray toBeRemoved = new JSONArray();
+			JSONArray toBeAdded = new JSONArray();
+			JSONArray removedUpdateGUIDs = new JSONArray();
+			JSONArray addedUpdateGUIDs = new JSONArray();
+			JSONArray removedUpdateSeqNums = new JSONArray();
+			JSONArray addedUpdateSeqNums = new JSONArray();
+			int numRemoved = 0;
+			int numAdded = 0;
+
+			Iterator<PendingTrigger> pendingIter = batch.values().iterator();
+			while( pendingIter.hasNext() )
+			{
+				PendingTrigger pending = pendingIter.next();
+				if( pending.added )
+				{
+					numAdded++;
+					if( ContextServiceConfig.sendFullRepliesToClient )
+					{
+						toBeAdded.put(pending.groupGUID);
+						addedUpdateGUIDs.put(pending.updateGUID);
+						addedUpdateSeqNums.put(pending.updateSeqNum);
+					}
+				}
+				else
+				{
+					numRemoved++;
+					if( ContextServiceConfig.sendFullRepliesToClient )
+					{
+						toBeRemoved.put(pending.groupGUID);
+						removedUpdateGUIDs.put(pending.updateGUID);
+						removedUpdateSeqNums.put(pending.updateSeqNum);
+					}
+				}
+			}
+
+			return new RefreshTrigger(myID, toBeRemoved, toBeAdded, versionNum, updateGUID,
+					updateStartTime, numRemoved, numAdded, removedUpdateGUIDs, addedUpdateGUIDs, 
+					-1, removedUpdateSeqNums, addedUpdateSeqNums);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package edu.umass.cs.contextservice.schemes.components;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.database.recordformat.AttrValueSchema;
+import edu.umass.cs.contextservice.database.recordformat.HashIndexGUIDRecord;
+import edu.umass.cs.contextservice.database.triggers.SubscriptionSummary;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Searches whose results are cached at other nodes, registered at a node
+ * the search was sent to, so that the node can tell the caching node when
+ * an update it applies can change the cached result.
+ *
+ * A search is registered before it is run, and an update is checked once it
+ * is written, so an update either is read by the search or finds it here.
+ * An update matches a registration if the GUID's old or new value, the ones
+ * SubscriptionSummary.getValuesToCheck gives, satisfies the query; a value
+ * that can't be compared matches. A matched registration is removed, the
+ * next search of the query registers again.
+ * A registration is kept for ttlMs, as long as the cached result can be used.
+ * Thread safe.
+ * @author ayadav
+ */
+public class SearchCacheRegistry
+{
+	private static final int SUMMARY_NUM_BUCKETS				= 64;
+
+	private final AttrValueSchema schema;
+	private final long ttlMs;
+
+	// key is cachingNodeID:cacheKey, in the order of expiry
+	// as a registration is moved to the end when renewed.
+	private final LinkedHashMap<String, Registration> registrationMap;
+	// summary of the registered queries, to skip
+	// the registrations of most updates at once.
+	private final SubscriptionSummary summary;
+
+	/**
+	 * A cached search to invalidate.
+	 */
+	public static class Registration
+	{
+		private final int cachingNodeID;
+		private final String cacheKey;
+		// indexed by attribute ordinal, null for attributes not in the query.
+		private final String[] lowerBounds;
+		private final String[] upperBounds;
+		private long expiryTime;
+
+		Registration( int cachingNodeID, String cacheKey, String[] lowerBounds,
+				String[] upperBounds )
+		{
+			this.cachingNodeID = cachingNodeID;
+			this.cacheKey = cacheKey;
+			this.lowerBounds = lowerBounds;
+			this.upperBounds = upperBounds;
+		}
+
+		public int getCachingNodeID()
+		{
+			return this.cachingNodeID;
+		}
+
+		public String getCacheKey()
+		{
+			return this.cacheKey;
+		}
+	}
+
+	public SearchCacheRegistry( long ttlMs )
+	{
+		assert( ttlMs > 0 );
+		this.schema = new AttrValueSchema(AttributeTypes.attributeInOrderList,
+				AttributeTypes.attributeMap);
+		this.ttlMs = ttlMs;
+		registrationMap = new LinkedHashMap<String, Registration>();
+		summary = new SubscriptionSummary(schema, SUMMARY_NUM_BUCKETS);
+	}
+
+	/**
+	 * Registers a search whose result will be cached at cachingNodeID.
+	 */
+	public synchronized void register( int cachingNodeID, String cacheKey,
+			HashMap<String, AttributeValueRange> searchAttrValRange )
+	{
+		String regKey = cachingNodeID+":"+cacheKey;
+		Registration registration = registrationMap.remove(regKey);
+
+		if( registration == null )
+		{
+			String[] lowerBounds = new String[schema.getNumAttrs()];
+			String[] upperBounds = new String[schema.getNumAttrs()];
+
+			Iterator<String> attrIter = searchAttrValRange.keySet().iterator();
+			while( attrIter.hasNext() )
+			{
+				String attrName = attrIter.next();
+				int ordinal = schema.getOrdinal(attrName);
+				if( ordinal < 0 )
+					continue;
+
+				AttributeValueRange attrValRange = searchAttrValRange.get(attrName);
+				lowerBounds[ordinal] = attrValRange.getLowerBound();
+				upperBounds[ordinal] = attrValRange.getUpperBound();
+			}
+			registration = new Registration(cachingNodeID, cacheKey, lowerBounds,
+					upperBounds);
+			summary.addQuery(regKey, lowerBounds, upperBounds);
+		}
+		registration.expiryTime = System.currentTimeMillis() + ttlMs;
+		registrationMap.put(regKey, registration);
+	}
+
+	/**
+	 * Removes and returns the registrations whose result can be changed
+	 * by the update, which must be written before this is called.
+	 */
+	public synchronized List<Registration> removeMatching(
+			ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage )
+	{
+		List<Registration> matched = new LinkedList<Registration>();
+		removeExpired(System.currentTimeMillis());
+
+		if( registrationMap.isEmpty() )
+			return matched;
+
+		HashIndexGUIDRecord oldGuidRec = HashIndexGUIDRecord.fromJSON(
+				valueUpdateToSubspaceRegionMessage.getOldValJSON());
+
+		if( !summary.mayTriggerGroups(oldGuidRec,
+				valueUpdateToSubspaceRegionMessage.getUpdateAttrValJSON(),
+				valueUpdateToSubspaceRegionMessage.getOperType(),
+				valueUpdateToSubspaceRegionMessage.getNewUnsetAttrs(),
+				valueUpdateToSubspaceRegionMessage.getFirstTimeInsert()) )
+		{
+			return matched;
+		}
+
+		String[][] valuesToCheck = null;
+		try
+		{
+			valuesToCheck = summary.getValuesToCheck(oldGuidRec,
+					valueUpdateToSubspaceRegionMessage.getUpdateAttrValJSON(),
+					valueUpdateToSubspaceRegionMessage.getOperType(),
+					valueUpdateToSubspaceRegionMessage.getNewUnsetAttrs(),
+					valueUpdateToSubspaceRegionMessage.getFirstTimeInsert());
+		}
+		catch( JSONException jsonEx )
+		{
+			// values not known, every registration matches.
+			jsonEx.printStackTrace();
+		}
+
+		Iterator<String> regKeyIter = registrationMap.keySet().iterator();
+		while( regKeyIter.hasNext() )
+		{
+			String regKey = regKeyIter.next();
+			Registration registration = registrationMap.get(regKey);
+
+			if( (valuesToCheck == null) || matchesAny(registration, valuesToCheck) )
+			{
+				regKeyIter.remove();
+				summary.removeQuery(regKey);
+				matched.add(registration);
+			}
+		}
+		return matched;
+	}
+
+	public synchronized int getNumRegistrations()
+	{
+		return registrationMap.size();
+	}
+
+	/**
+	 * Removes the registrations expired at currTime, from the start.
+	 * Must be called with the registry's lock held.
+	 */
+	private void removeExpired( long currTime )
+	{
+		Iterator<String> regKeyIter = registrationMap.keySet().iterator();
+		while( regKeyIter.hasNext() )
+		{
+			String regKey = regKeyIter.next();
+			if( registrationMap.get(regKey).expiryTime > currTime )
+				break;
+
+			regKeyIter.remove();
+			summary.removeQuery(regKey);
+		}
+	}
+
+	private boolean matchesAny( Registration registration, String[][] valuesToCheck )
+	{
+		for( int i=0; i<valuesToCheck.length; i++ )
+		{
+			if( matches(registration, valuesToCheck[i]) )
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the values satisfy the query, or can't be compared.
+	 * A range with the lower bound above the upper bound wraps around,
+	 * like in the trigger index.
+	 */
+	private boolean matches( Registration registration, String[] values )
+	{
+		for( int i=0; i<schema.getNumAttrs(); i++ )
+		{
+			String lower = registration.lowerBounds[i];
+			String upper = registration.upperBounds[i];
+
+			if( (lower == null) || (upper == null) || (values[i] == null) )
+				continue;
+
+			int lowerCmp;
+			int upperCmp;
+			int boundsCmp;
+			try
+			{
+				if( schema.isStringAttr(i) )
+				{
+					lowerCmp = values[i].compareTo(lower);
+					upperCmp = values[i].compareTo(upper);
+					boundsCmp = lower.compareTo(upper);
+				}
+				else
+				{
+					double value = schema.toNumeric(i, values[i]);
+					double lowerNum = schema.toNumeric(i, lower);
+					double upperNum = schema.toNumeric(i, upper);
+					lowerCmp = schema.compare(i, value, null, lowerNum, null);
+					upperCmp = schema.compare(i, value, null, upperNum, null);
+					boundsCmp = schema.compare(i, lowerNum, null, upperNum, null);
+				}
+			}
+			catch( NumberFormatException nfe )
+			{
+				continue;
+			}
+
+			boolean inRange = (boundsCmp <= 0)? ((lowerCmp >= 0) && (upperCmp <= 0))
+					: ((lowerCmp >= 0) || (upperCmp <= 0));
+			if( !inRange )
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,211 @@
+package edu.umass.cs.contextservice.schemes.components;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.json.JSONException;
+
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.AbstractDataStorageDB;
+import edu.umass.cs.contextservice.logging.ContextServiceLogger;
+import edu.umass.cs.contextservice.messages.SearchExpiredMessage;
+import edu.umass.cs.nio.JSONMessenger;
+
+/**
+ * Deletes the stored search queries when they expire.
+ *
+ * The thread sleeps until the earliest expiry time of the stored queries,
+ * and is woken up when a query that expires earlier is stored. It then
+ * deletes the expired queries in batches of at most maxBatchSize,
+ * so the trigger table is not scanned when no query is due.
+ *
+ * The node that a search query came to also keeps the query here,
+ * and when it expires, tells the querier that it will get no more
+ * triggers for the query's group and deletes the query's record
+ * from the primary trigger subspace, so the query can be stored again.
+ * @author ayadav
+ */
+public class SearchExpiryScheduler implements Runnable
+{
+	private final Integer myID;
+	private final AbstractDataStorageDB dataStorageDB;
+	private final JSONMessenger<Integer> messenger;
+	private final int maxBatchSize;
+
+	// queries that came to this node, guarded by expiryLock.
+	private final PriorityQueue<ExpiringSearch> primarySearchQueue;
+	private final Object expiryLock;
+
+	// time the thread sleeps until, 0 when it is not sleeping.
+	// guarded by expiryLock.
+	private long waitUntil;
+
+	private static class ExpiringSearch
+	{
+		final String query;
+		final String groupGUID;
+		final String userIP;
+		final int userPort;
+		final long expiryTime;
+
+		ExpiringSearch( String query, String groupGUID, String userIP, int userPort,
+				long expiryTime )
+		{
+			this.query = query;
+			this.groupGUID = groupGUID;
+			this.userIP = userIP;
+			this.userPort = userPort;
+			this.expiryTime = expiryTime;
+		}
+	}
+
+	public SearchExpiryScheduler( Integer myID, AbstractDataStorageDB dataStorageDB,
+			JSONMessenger<Integer> messenger, int maxBatchSize )
+	{
+		assert( maxBatchSize > 0 );
+		this.myID = myID;
+		this.dataStorageDB = dataStorageDB;
+		this.messenger = messenger;
+		this.maxBatchSize = maxBatchSize;
+
+		primarySearchQueue = new PriorityQueue<ExpiringSearch>(11, new Comparator<ExpiringSearch>()
+		{
+			@Override
+			public int compare( ExpiringSearch search1, ExpiringSearch search2 )
+			{
+				return Long.compare(search1.expiryTime, search2.expiryTime);
+			}
+		});
+		expiryLock = new Object();
+		waitUntil = 0;
+	}
+
+	/**
+	 * Adds a search query that came to this node from the querier,
+	 * which is told when the query expires.
+	 */
+	public void addPrimarySearch( String query, String groupGUID, String userIP,
+			int userPort, long expiryTime )
+	{
+		synchronized( expiryLock )
+		{
+			primarySearchQueue.add(new ExpiringSearch(query, groupGUID, userIP,
+					userPort, expiryTime));
+		}
+		notifyNewExpiry(expiryTime);
+	}
+
+	/**
+	 * Called after a query is stored, wakes up the thread if the query
+	 * expires before the time the thread sleeps until.
+	 */
+	public void notifyNewExpiry( long expiryTime )
+	{
+		synchronized( expiryLock )
+		{
+			if( expiryTime < waitUntil )
+			{
+				expiryLock.notify();
+			}
+		}
+	}
+
+	@Override
+	public void run()
+	{
+		while( true )
+		{
+			try
+			{
+				synchronized( expiryLock )
+				{
+					long nextExpiryTime = Math.min(dataStorageDB.getNextSearchQueryExpiryTime(),
+							getNextPrimarySearchExpiryTime());
+					long currTime = System.currentTimeMillis();
+
+					if( nextExpiryTime > currTime )
+					{
+						waitUntil = nextExpiryTime;
+						if( nextExpiryTime == Long.MAX_VALUE )
+						{
+							expiryLock.wait();
+						}
+						else
+						{
+							expiryLock.wait(nextExpiryTime - currTime);
+						}
+						waitUntil = 0;
+						continue;
+					}
+				}
+			} catch (InterruptedException e)
+			{
+				e.printStackTrace();
+			}
+
+			long currTime = System.currentTimeMillis();
+
+			int numDeleted = dataStorageDB.deleteExpiredSearchQueries(currTime, maxBatchSize);
+			if( numDeleted > 0 )
+				ContextServiceLogger.getLogger().fine( "Group guids deleted "
+						+" numDeleted "+numDeleted );
+
+			List<ExpiringSearch> expiredList = pollExpiredPrimarySearches(currTime);
+			for( ExpiringSearch expired : expiredList )
+			{
+				processExpiredPrimarySearch(expired);
+			}
+		}
+	}
+
+	private void processExpiredPrimarySearch( ExpiringSearch expired )
+	{
+		try
+		{
+			if( ContextServiceConfig.uniqueGroupGUIDEnabled )
+			{
+				dataStorageDB.deleteSearchQueryRecordFromPrimaryTriggerSubspace
+						(expired.groupGUID, expired.userIP, expired.userPort);
+			}
+
+			SearchExpiredMessage searchExpired = new SearchExpiredMessage(myID,
+					expired.query, expired.groupGUID, expired.expiryTime);
+
+			this.messenger.sendToAddress( new InetSocketAddress(expired.userIP,
+					expired.userPort), searchExpired.toJSONObject() );
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		} catch (JSONException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Must be called with expiryLock held.
+	 */
+	private long getNextPrimarySearchExpiryTime()
+	{
+		ExpiringSearch first = primarySearchQueue.peek();
+		return (first == null)? Long.MAX_VALUE : first.expiryTime;
+	}
+
+	private List<ExpiringSearch> pollExpiredPrimarySearches( long currTime )
+	{
+		List<ExpiringSearch> expiredList = new LinkedList<ExpiringSearch>();
+		synchronized( expiryLock )
+		{
+			while( (expiredList.size() < maxBatchSize) && !primarySearchQueue.isEmpty()
+					&& (primarySearchQueue.peek().expiryTime <= currTime) )
+			{
+				expiredList.add(primarySearchQueue.poll());
+			}
+		}
+		return expiredList;
+	}
+}
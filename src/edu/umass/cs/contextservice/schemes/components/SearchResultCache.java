@@ -0,0 +1,245 @@
+package edu.umass.cs.contextservice.schemes.components;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+
+/**
+ * Results of searches, cached at the node that receives searches from users,
+ * keyed by the canonical query, so that queries that differ only in how
+ * they are written share an entry.
+ *
+ * The cache holds at most maxEntries results, and evicts the least recently
+ * used one. A result is used for at most ttlMs from when its search started.
+ * An entry is filled by a search started with startFill, and completed with
+ * completeFill once all its replies are received. invalidate removes the
+ * entry of a key, and makes the fills in progress for the key stale, as
+ * their replies may have been read before the update that caused the
+ * invalidation, so a stale fill doesn't put a result in the cache.
+ * Thread safe.
+ * @author ayadav
+ */
+public class SearchResultCache
+{
+	private final int maxEntries;
+	private final long ttlMs;
+
+	// in access order, the first entry is the least recently used.
+	private final LinkedHashMap<String, CacheEntry> entryMap;
+	// fills in progress for a key.
+	private final HashMap<String, List<CacheFill>> pendingFills;
+
+	private long numHits;
+	private long numMisses;
+	private long numInvalidations;
+	private long numEvictions;
+
+	/**
+	 * A cached search result, as sent to the user.
+	 */
+	public static class CacheEntry
+	{
+		private final JSONArray resultArray;
+		private final int numResults;
+		private final long expiryTime;
+
+		CacheEntry( JSONArray resultArray, int numResults, long expiryTime )
+		{
+			this.resultArray = resultArray;
+			this.numResults = numResults;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * Shared by all hits, must not be modified.
+		 */
+		public JSONArray getResultArray()
+		{
+			return this.resultArray;
+		}
+
+		public int getNumResults()
+		{
+			return this.numResults;
+		}
+	}
+
+	/**
+	 * A search whose result will be cached, if it completes
+	 * before its key is invalidated.
+	 */
+	public static class CacheFill
+	{
+		private final String key;
+		private final long startTime;
+		private boolean stale;
+
+		CacheFill( String key, long startTime )
+		{
+			this.key = key;
+			this.startTime = startTime;
+			this.stale = false;
+		}
+
+		public String getKey()
+		{
+			return this.key;
+		}
+	}
+
+	public SearchResultCache( int maxEntries, long ttlMs )
+	{
+		assert( maxEntries > 0 );
+		assert( ttlMs > 0 );
+		this.maxEntries = maxEntries;
+		this.ttlMs = ttlMs;
+
+		entryMap = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+		pendingFills = new HashMap<String, List<CacheFill>>();
+		numHits = 0;
+		numMisses = 0;
+		numInvalidations = 0;
+		numEvictions = 0;
+	}
+
+	/**
+	 * Returns the cached result of the key, or null if there is none.
+	 */
+	public synchronized CacheEntry get( String key )
+	{
+		CacheEntry entry = entryMap.get(key);
+		if( (entry != null) && (System.currentTimeMillis() >= entry.expiryTime) )
+		{
+			entryMap.remove(key);
+			entry = null;
+		}
+
+		if( entry == null )
+		{
+			numMisses++;
+		}
+		else
+		{
+			numHits++;
+		}
+		return entry;
+	}
+
+	/**
+	 * Called before the search of the key is sent to the nodes.
+	 */
+	public synchronized CacheFill startFill( String key )
+	{
+		CacheFill fill = new CacheFill(key, System.currentTimeMillis());
+		List<CacheFill> fills = pendingFills.get(key);
+		if( fills == null )
+		{
+			fills = new LinkedList<CacheFill>();
+			pendingFills.put(key, fills);
+		}
+		fills.add(fill);
+		return fill;
+	}
+
+	/**
+	 * Caches the result of a search started with startFill,
+	 * unless its key was invalidated since.
+	 */
+	public synchronized void completeFill( CacheFill fill, JSONArray resultArray,
+			int numResults )
+	{
+		if( !removePendingFill(fill) || fill.stale )
+			return;
+
+		long expiryTime = fill.startTime + ttlMs;
+		if( System.currentTimeMillis() >= expiryTime )
+			return;
+
+		entryMap.put(fill.key, new CacheEntry(resultArray, numResults, expiryTime));
+
+		if( entryMap.size() > maxEntries )
+		{
+			Iterator<Map.Entry<String, CacheEntry>> entryIter
+								= entryMap.entrySet().iterator();
+			entryIter.next();
+			entryIter.remove();
+			numEvictions++;
+		}
+	}
+
+	/**
+	 * Called instead of completeFill for a search
+	 * whose result is not to be cached.
+	 */
+	public synchronized void abandonFill( CacheFill fill )
+	{
+		removePendingFill(fill);
+	}
+
+	/**
+	 * Removes the cached result of the key, and makes the fills
+	 * in progress for the key stale.
+	 */
+	public synchronized void invalidate( String key )
+	{
+		numInvalidations++;
+		entryMap.remove(key);
+
+		List<CacheFill> fills = pendingFills.get(key);
+		if( fills != null )
+		{
+			Iterator<CacheFill> fillIter = fills.iterator();
+			while( fillIter.hasNext() )
+			{
+				fillIter.next().stale = true;
+			}
+		}
+	}
+
+	public synchronized int getNumEntries()
+	{
+		return entryMap.size();
+	}
+
+	public synchronized long getNumHits()
+	{
+		return numHits;
+	}
+
+	public synchronized long getNumMisses()
+	{
+		return numMisses;
+	}
+
+	public synchronized long getNumInvalidations()
+	{
+		return numInvalidations;
+	}
+
+	public synchronized long getNumEvictions()
+	{
+		return numEvictions;
+	}
+
+	/**
+	 * Returns false if the fill was completed or abandoned before.
+	 * Must be called with the cache's lock held.
+	 */
+	private boolean removePendingFill( CacheFill fill )
+	{
+		List<CacheFill> fills = pendingFills.get(fill.key);
+		if( (fills == null) || !fills.remove(fill) )
+			return false;
+
+		if( fills.isEmpty() )
+		{
+			pendingFills.remove(fill.key);
+		}
+		return true;
+	}
+}
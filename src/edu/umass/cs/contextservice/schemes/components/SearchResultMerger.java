@@ -0,0 +1,145 @@
+package edu.umass.cs.contextservice.schemes.components;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+
+/**
+ * Merges the results of a search with ORDER BY at the query coordinator.
+ * Each node returns its results in the order, with the value of the ORDER BY
+ * attribute, so a heap with the next result of each node gives the results
+ * of all nodes in the order, reading only as many as the limit.
+ * Unset values come first in ascending order, like NULL in MySQL.
+ * Results of different nodes with equal values are in no particular order.
+ * @author ayadav
+ */
+public class SearchResultMerger
+{
+	private final boolean numericOrder;
+	private final boolean descending;
+
+	public SearchResultMerger( SearchQueryOptions queryOptions )
+	{
+		assert( queryOptions.hasOrderBy() );
+		AttributeMetaInfo attrMetaInfo
+				= AttributeTypes.attributeMap.get(queryOptions.getOrderByAttr());
+		this.numericOrder = (attrMetaInfo != null)
+				&& !AttributeTypes.StringType.equals(attrMetaInfo.getDataType());
+		this.descending = queryOptions.isDescending();
+	}
+
+	/**
+	 * Returns the first resultLimit results of the ordered result arrays,
+	 * all of them if resultLimit is NO_LIMIT. Null arrays, of nodes that
+	 * didn't reply, are skipped.
+	 */
+	public JSONArray merge( List<JSONArray> nodeResults, int resultLimit ) throws JSONException
+	{
+		JSONArray mergedArray = new JSONArray();
+		PriorityQueue<ResultCursor> cursorHeap = new PriorityQueue<ResultCursor>
+				(Math.max(1, nodeResults.size()), new ResultCursorComparator());
+
+		for( int i=0; i<nodeResults.size(); i++ )
+		{
+			JSONArray resultArray = nodeResults.get(i);
+			if( (resultArray == null) || (resultArray.length() == 0) )
+				continue;
+
+			ResultCursor cursor = new ResultCursor(resultArray);
+			readOrderValue(cursor);
+			cursorHeap.add(cursor);
+		}
+
+		while( !cursorHeap.isEmpty() )
+		{
+			if( (resultLimit != SearchQueryOptions.NO_LIMIT)
+					&& (mergedArray.length() >= resultLimit) )
+				break;
+
+			ResultCursor cursor = cursorHeap.poll();
+			mergedArray.put(cursor.currResult);
+
+			cursor.position++;
+			if( cursor.position < cursor.resultArray.length() )
+			{
+				readOrderValue(cursor);
+				cursorHeap.add(cursor);
+			}
+		}
+		return mergedArray;
+	}
+
+	private void readOrderValue( ResultCursor cursor ) throws JSONException
+	{
+		cursor.currResult = cursor.resultArray.getJSONObject(cursor.position);
+		cursor.strValue = SearchReplyGUIDRepresentationJSON.getOrderValue(cursor.currResult);
+		cursor.isSet = (cursor.strValue != null);
+
+		if( cursor.isSet && numericOrder )
+		{
+			try
+			{
+				cursor.numValue = Double.parseDouble(cursor.strValue);
+			}
+			catch( NumberFormatException nfe )
+			{
+				cursor.isSet = false;
+			}
+		}
+	}
+
+	/**
+	 * Next result of the results of a node.
+	 */
+	private static class ResultCursor
+	{
+		final JSONArray resultArray;
+		int position;
+
+		JSONObject currResult;
+		boolean isSet;
+		String strValue;
+		double numValue;
+
+		ResultCursor( JSONArray resultArray )
+		{
+			this.resultArray = resultArray;
+			this.position = 0;
+		}
+	}
+
+	private class ResultCursorComparator implements Comparator<ResultCursor>
+	{
+		@Override
+		public int compare( ResultCursor cursor1, ResultCursor cursor2 )
+		{
+			int valCompare;
+			if( cursor1.isSet && cursor2.isSet )
+			{
+				if( numericOrder )
+				{
+					valCompare = (cursor1.numValue < cursor2.numValue)? -1
+							: ((cursor1.numValue > cursor2.numValue)? 1 : 0);
+				}
+				else
+				{
+					valCompare = cursor1.strValue.compareTo(cursor2.strValue);
+				}
+			}
+			else
+			{
+				valCompare = (cursor1.isSet?1:0) - (cursor2.isSet?1:0);
+			}
+			return descending? -valCompare : valCompare;
+		}
+	}
+}
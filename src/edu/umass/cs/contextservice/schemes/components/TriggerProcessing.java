@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -19,6 +20,7 @@ import edu.umass.cs.contextservice.messages.RefreshTrigger;
 import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionMessage;
 import edu.umass.cs.contextservice.queryparsing.QueryInfo;
 import edu.umass.cs.contextservice.regionmapper.AbstractRegionMappingPolicy;
+import edu.umass.cs.contextservice.utils.Utils;
 import edu.umass.cs.nio.JSONMessenger;
 
 /**
@@ -36,6 +38,15 @@ public class TriggerProcessing implements
 	
 	private final JSONMessenger<Integer> messenger;
 	
+	private final SearchExpiryScheduler searchExpiryScheduler;
+	
+	// null if refresh triggers are not batched.
+	private final RefreshTriggerOutbox refreshTriggerOutbox;
+	
+	// finds the triggered groups of updates, null if 
+	// ContextServiceConfig.triggerEvalThreadPoolSize is 0.
+	private final ExecutorService triggerEvalES;
+	
 	public TriggerProcessing(Integer myID, 
 				AbstractRegionMappingPolicy regionMappingPolicy, 
 						AbstractDataStorageDB regionMappingDataStorageDB, 
@@ -48,7 +59,39 @@ public class TriggerProcessing implements
 		ContextServiceLogger.getLogger().fine("generateSubspacePartitions completed");
 	
 
-		new Thread( new DeleteExpiredSearchesThread( regionMappingDataStorageDB) ).start();
+		searchExpiryScheduler = new SearchExpiryScheduler(myID, regionMappingDataStorageDB, 
+				messenger, ContextServiceConfig.searchExpiryBatchSize);
+		new Thread( searchExpiryScheduler ).start();
+		
+		if( ContextServiceConfig.triggerBatchIntervalMs > 0 )
+		{
+			refreshTriggerOutbox = new RefreshTriggerOutbox(myID, messenger, 
+					ContextServiceConfig.triggerBatchIntervalMs, 
+					ContextServiceConfig.triggerBatchMaxSize);
+			new Thread( refreshTriggerOutbox ).start();
+		}
+		else
+		{
+			refreshTriggerOutbox = null;
+		}
+		
+		if( ContextServiceConfig.triggerEvalThreadPoolSize > 0 )
+		{
+			triggerEvalES = Utils.createBoundedExecutor
+					(ContextServiceConfig.triggerEvalThreadPoolSize);
+		}
+		else
+		{
+			triggerEvalES = null;
+		}
+	}
+	
+	/**
+	 * Returns null if refresh triggers are not batched.
+	 */
+	public RefreshTriggerOutbox getRefreshTriggerOutbox()
+	{
+		return this.refreshTriggerOutbox;
 	}
 	
 	public boolean processTriggerOnQueryMsgFromUser( QueryInfo currReq)
@@ -74,6 +117,13 @@ public class TriggerProcessing implements
 		return found;
 	}
 	
+	public void processSearchExpiryOnQueryMsgFromUser( QueryInfo currReq )
+	{
+		searchExpiryScheduler.addPrimarySearch(currReq.getQuery(), currReq.getGroupGUID(), 
+				currReq.getUserIP(), currReq.getUserPort(), 
+				System.currentTimeMillis() + currReq.getExpiryTime());
+	}
+	
 	public void processQuerySubspaceRegionMessageForTrigger
 				( QueryMesgToSubspaceRegion queryMesgToSubspaceRegion )
 	{
@@ -88,7 +138,30 @@ public class TriggerProcessing implements
 			long expiryTimeFromNow = System.currentTimeMillis() + expiryTime;
 			this.regionMappingDataStorageDB.insertIntoTriggerDataStorage( 
 					query, groupGUID, userIP, userPort, expiryTimeFromNow);
+			searchExpiryScheduler.notifyNewExpiry(expiryTimeFromNow);
+		}
+	}
+	
+	public boolean mayTriggerGroups
+		( ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage )
+	{
+		HashIndexGUIDRecord oldGuidRec 
+						= HashIndexGUIDRecord.fromJSON(
+								valueUpdateToSubspaceRegionMessage.getOldValJSON());
+		
+		boolean mayTrigger = this.regionMappingDataStorageDB.mayTriggerGroups( oldGuidRec, 
+				valueUpdateToSubspaceRegionMessage.getUpdateAttrValJSON(), 
+				valueUpdateToSubspaceRegionMessage.getOperType(), 
+				valueUpdateToSubspaceRegionMessage.getNewUnsetAttrs(), 
+				valueUpdateToSubspaceRegionMessage.getFirstTimeInsert() );
+		
+		if( !mayTrigger )
+		{
+			ContextServiceLogger.getLogger().fine("trigger processing skipped for GUID "
+					+valueUpdateToSubspaceRegionMessage.getGUID()+" requestID "
+					+valueUpdateToSubspaceRegionMessage.getRequestID());
 		}
+		return mayTrigger;
 	}
 	
 	public void processTriggerForValueUpdateToSubspaceRegion
@@ -110,13 +183,55 @@ public class TriggerProcessing implements
 				removedGroups, addedGroups, requestType, newUnsetAttr, firstTimeInsert); 
 	}
 	
+	public void processTriggerForValueUpdateToSubspaceRegion
+		( final ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage, 
+		final HashMap<String, GroupGUIDInfoClass> removedGroups, 
+		final HashMap<String, GroupGUIDInfoClass> addedGroups, final Runnable onDone )
+	{
+		Runnable triggerEvalTask = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					processTriggerForValueUpdateToSubspaceRegion
+						(valueUpdateToSubspaceRegionMessage, removedGroups, addedGroups);
+				} catch (InterruptedException e)
+				{
+					e.printStackTrace();
+				}
+				finally
+				{
+					onDone.run();
+				}
+			}
+		};
+		
+		if( triggerEvalES != null )
+		{
+			triggerEvalES.execute(triggerEvalTask);
+		}
+		else
+		{
+			triggerEvalTask.run();
+		}
+	}
+	
 	public void sendOutAggregatedRefreshTrigger
 				( HashMap<String, GroupGUIDInfoClass> removedGroups, 
 				HashMap<String, GroupGUIDInfoClass> addedGroups, String updateGUID, 
-				long versionNum,
+				long versionNum, long updateSeqNum, 
 				long updateStartTime)
 							throws JSONException
 	{
+		if( refreshTriggerOutbox != null )
+		{
+			refreshTriggerOutbox.addTriggers(removedGroups, addedGroups, updateGUID, 
+					versionNum, updateSeqNum, updateStartTime);
+			return;
+		}
+		
 		HashMap<String, JSONArray> sameClientRemovedTrigger 
 												= new HashMap<String, JSONArray>();
 		HashMap<String, JSONArray> sameClientAddedTrigger 
@@ -125,8 +240,8 @@ public class TriggerProcessing implements
 		Iterator<String> removedIter = removedGroups.keySet().iterator();
 		while( removedIter.hasNext() )
 		{
-			String groupGUID = removedIter.next();
-			GroupGUIDInfoClass groupInfo = removedGroups.get(groupGUID);
+			GroupGUIDInfoClass groupInfo = removedGroups.get(removedIter.next());
+			String groupGUID = groupInfo.getGroupGUID();
 			String ipPortKey = groupInfo.getUserIP()+":"+groupInfo.getUserPort();
 			
 			JSONArray removedGroupGUIDArray = sameClientRemovedTrigger.get(ipPortKey);
@@ -147,8 +262,8 @@ public class TriggerProcessing implements
 		Iterator<String> addedIter = addedGroups.keySet().iterator();
 		while( addedIter.hasNext() )
 		{
-			String groupGUID = addedIter.next();
-			GroupGUIDInfoClass groupInfo = addedGroups.get(groupGUID);
+			GroupGUIDInfoClass groupInfo = addedGroups.get(addedIter.next());
+			String groupGUID = groupInfo.getGroupGUID();
 			String ipPortKey = groupInfo.getUserIP()+":"+groupInfo.getUserPort();
 			
 			JSONArray addedGroupGUIDArray = sameClientAddedTrigger.get(ipPortKey);
@@ -182,7 +297,8 @@ public class TriggerProcessing implements
 					(myID, toBeRemovedGroupGUIDs, 
 						(toBeAddedGroupGUIDs!=null)?toBeAddedGroupGUIDs:new JSONArray(),
 						versionNum, updateGUID, updateStartTime, toBeRemovedGroupGUIDs.length(),
-						(toBeAddedGroupGUIDs!=null)?toBeAddedGroupGUIDs.length():0);
+						(toBeAddedGroupGUIDs!=null)?toBeAddedGroupGUIDs.length():0, 
+						null, null, updateSeqNum, null, null);
 			}
 			else
 			{
@@ -230,7 +346,8 @@ public class TriggerProcessing implements
 					(myID, new JSONArray(), 
 							sameClientAddedTrigger.get(ipPort),
 							versionNum, updateGUID, updateStartTime, 0, 
-							sameClientAddedTrigger.get(ipPort).length());
+							sameClientAddedTrigger.get(ipPort).length(), 
+							null, null, updateSeqNum, null, null);
 			}
 			else
 			{
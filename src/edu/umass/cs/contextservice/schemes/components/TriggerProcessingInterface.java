@@ -18,17 +18,44 @@ public interface TriggerProcessingInterface
 {
 	public boolean processTriggerOnQueryMsgFromUser(QueryInfo currReq );
 	
+	/**
+	 * Called on the node a search query came to, when the query is stored 
+	 * for triggers. The querier is told when the query expires.
+	 */
+	public void processSearchExpiryOnQueryMsgFromUser( QueryInfo currReq );
+	
 	public void processQuerySubspaceRegionMessageForTrigger
 		( QueryMesgToSubspaceRegion queryMesgToSubspaceRegion );
 	
+	/**
+	 * Returns false if the stored queries of this node can't be triggered 
+	 * by the update, then its trigger processing can be skipped.
+	 */
+	public boolean mayTriggerGroups
+		( ValueUpdateToSubspaceRegionMessage valueUpdateToSubspaceRegionMessage );
+	
 	public void processTriggerForValueUpdateToSubspaceRegion
 		( ValueUpdateToSubspaceRegionMessage 
 		valueUpdateToSubspaceRegionMessage, HashMap<String, GroupGUIDInfoClass> removedGroups, 
 		HashMap<String, GroupGUIDInfoClass> addedGroups ) throws InterruptedException;
 	
+	/**
+	 * Same as processTriggerForValueUpdateToSubspaceRegion, but can find the 
+	 * groups on another thread, so the caller can write the update meanwhile.
+	 * onDone is run once removedGroups and addedGroups are filled in.
+	 */
+	public void processTriggerForValueUpdateToSubspaceRegion
+		( ValueUpdateToSubspaceRegionMessage 
+		valueUpdateToSubspaceRegionMessage, HashMap<String, GroupGUIDInfoClass> removedGroups, 
+		HashMap<String, GroupGUIDInfoClass> addedGroups, Runnable onDone );
+	
+	/**
+	 * updateSeqNum orders the updates of updateGUID, 
+	 * see RefreshTrigger.getUpdateSeqNum.
+	 */
 	public void sendOutAggregatedRefreshTrigger
 		( HashMap<String, GroupGUIDInfoClass> removedGroups, 
 			HashMap<String, GroupGUIDInfoClass> addedGroups, String updateGUID, 
-			long versionNum,
+			long versionNum, long updateSeqNum, 
 			long updateStartTime) throws JSONException;
 }
\ No newline at end of file
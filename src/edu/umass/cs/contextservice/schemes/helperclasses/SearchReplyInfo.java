@@ -13,4 +13,9 @@ public class SearchReplyInfo
 	public int respNodeId;
 	public JSONArray replyArray;
 	public int numReplies;
+	
+	// for streamed replies, number of result chunks received from the node
+	// and number of chunks the node sent, which is known from its last reply.
+	public int numChunksRecvd					= 0;
+	public int numChunksExpected				= -1;
 }
\ No newline at end of file
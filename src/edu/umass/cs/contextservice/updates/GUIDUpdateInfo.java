@@ -1,11 +1,11 @@
 package edu.umass.cs.contextservice.updates;
 
 import java.util.LinkedList;
-import java.util.Queue;
 
 /**
  * To store pending update requests for a GUID.
- * The operations of this class is synchronized by external lock.
+ * The operations of this class are synchronized by GUIDUpdateSerializer,
+ * which only calls them inside ConcurrentHashMap.compute for the GUID.
  * 
  * @author adipc
  * @param <Integer>
@@ -14,7 +14,7 @@ public class GUIDUpdateInfo
 {
 	// GUID associated with this object
 	private final String GUID;
-	private Queue<Long> pendingRequstsQueue;
+	private LinkedList<Long> pendingRequstsQueue;
 	
 	public GUIDUpdateInfo(String guid)
 	{
@@ -46,4 +46,19 @@ public class GUIDUpdateInfo
 	{
 		return pendingRequstsQueue.peek();
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * returns the last request in the queue, 
+	 * which is the outstanding one if the queue has one request.
+	 * @return
+	 */
+	public Long getLastRequestID()
+	{
+		return pendingRequstsQueue.peekLast();
+	}
+	
+	public int getNumRequests()
+	{
+		return pendingRequstsQueue.size();
+	}
+}
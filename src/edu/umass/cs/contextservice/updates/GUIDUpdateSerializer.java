@@ -0,0 +1,200 @@
+package edu.umass.cs.contextservice.updates;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import org.json.JSONException;
+
+/**
+ * Serializes the updates of each GUID, so that only one update
+ * is outstanding for a GUID at a time, but updates of different GUIDs
+ * proceed in parallel.
+ *
+ * Each GUID with outstanding updates has a GUIDUpdateInfo queue of update
+ * request IDs, whose head is the outstanding update. The queues are only
+ * changed inside ConcurrentHashMap.compute, which is atomic per GUID,
+ * so there is no lock shared by all GUIDs.
+ *
+ * @author ayadav
+ */
+public class GUIDUpdateSerializer
+{
+	// results of addOrCoalesceUpdate
+	// no other outstanding update, the caller has to start the update now.
+	public static final int START_UPDATE						= 1;
+	// the update is started once the updates before it complete.
+	public static final int UPDATE_QUEUED						= 2;
+	// the update was merged into the queued update of the GUID.
+	public static final int UPDATE_COALESCED					= 3;
+	
+	private final ConcurrentHashMap<String, GUIDUpdateInfo> guidUpdateInfoMap;
+
+	public GUIDUpdateSerializer()
+	{
+		guidUpdateInfoMap = new ConcurrentHashMap<String, GUIDUpdateInfo>();
+	}
+
+	/**
+	 * Adds an update to the queue of its GUID.
+	 * Returns true if there is no other outstanding update for the GUID,
+	 * then the caller has to start the update now. Otherwise, the update
+	 * is started once the updates before it complete.
+	 */
+	public boolean addUpdate( String GUID, long requestID )
+	{
+		AddUpdateFunction addFunction = new AddUpdateFunction(requestID);
+		guidUpdateInfoMap.compute(GUID, addFunction);
+		return addFunction.isOnlyUpdate;
+	}
+
+	/**
+	 * Like addUpdate, but if the GUID has an update queued behind the 
+	 * outstanding one, merges the update into the queued one instead.
+	 * So there are at most two updates for a GUID, the outstanding one and one 
+	 * that has all the attribute values received since the outstanding one started.
+	 * Adds the update to pendingUpdateRequests unless it is coalesced.
+	 * Returns START_UPDATE, UPDATE_QUEUED or UPDATE_COALESCED.
+	 */
+	public int addOrCoalesceUpdate( String GUID, UpdateInfo updateInfo, 
+			ConcurrentHashMap<Long, UpdateInfo> pendingUpdateRequests )
+	{
+		CoalesceUpdateFunction coalesceFunction 
+				= new CoalesceUpdateFunction(updateInfo, pendingUpdateRequests);
+		guidUpdateInfoMap.compute(GUID, coalesceFunction);
+		return coalesceFunction.addResult;
+	}
+	
+	/**
+	 * Removes a completed update, which must be the outstanding update
+	 * of the GUID. Returns the request ID of the next update of the GUID,
+	 * which the caller has to start now, or null if there is none.
+	 */
+	public Long completeUpdate( String GUID, long requestID )
+	{
+		CompleteUpdateFunction completeFunction = new CompleteUpdateFunction(requestID);
+		guidUpdateInfoMap.compute(GUID, completeFunction);
+		return completeFunction.nextRequestID;
+	}
+
+	/**
+	 * Returns the number of GUIDs with outstanding updates.
+	 */
+	public int getNumGUIDsWithUpdates()
+	{
+		return guidUpdateInfoMap.size();
+	}
+
+
+	private static class AddUpdateFunction
+				implements BiFunction<String, GUIDUpdateInfo, GUIDUpdateInfo>
+	{
+		private final long requestID;
+		private boolean isOnlyUpdate;
+
+		public AddUpdateFunction( long requestID )
+		{
+			this.requestID = requestID;
+			this.isOnlyUpdate = false;
+		}
+
+		@Override
+		public GUIDUpdateInfo apply( String GUID, GUIDUpdateInfo guidUpdateInfo )
+		{
+			if( guidUpdateInfo == null )
+			{
+				guidUpdateInfo = new GUIDUpdateInfo(GUID);
+				isOnlyUpdate = true;
+			}
+			guidUpdateInfo.addUpdateReqNumToQueue(requestID);
+			return guidUpdateInfo;
+		}
+	}
+
+	private static class CoalesceUpdateFunction
+				implements BiFunction<String, GUIDUpdateInfo, GUIDUpdateInfo>
+	{
+		private final UpdateInfo updateInfo;
+		private final ConcurrentHashMap<Long, UpdateInfo> pendingUpdateRequests;
+		private int addResult;
+		
+		public CoalesceUpdateFunction( UpdateInfo updateInfo, 
+				ConcurrentHashMap<Long, UpdateInfo> pendingUpdateRequests )
+		{
+			this.updateInfo = updateInfo;
+			this.pendingUpdateRequests = pendingUpdateRequests;
+			this.addResult = -1;
+		}
+		
+		@Override
+		public GUIDUpdateInfo apply( String GUID, GUIDUpdateInfo guidUpdateInfo )
+		{
+			if( guidUpdateInfo == null )
+			{
+				guidUpdateInfo = new GUIDUpdateInfo(GUID);
+				addResult = START_UPDATE;
+			}
+			else if( guidUpdateInfo.getNumRequests() > 1 )
+			{
+				// the last update has not started, as only the first one is outstanding.
+				UpdateInfo queuedUpdate 
+						= pendingUpdateRequests.get(guidUpdateInfo.getLastRequestID());
+				assert(queuedUpdate != null);
+				
+				if( queuedUpdate.canCoalesce(updateInfo.getValueUpdateFromGNS()) )
+				{
+					try
+					{
+						queuedUpdate.coalesceUpdate(updateInfo.getValueUpdateFromGNS());
+						addResult = UPDATE_COALESCED;
+						return guidUpdateInfo;
+					}
+					catch( JSONException je )
+					{
+						// queued as a separate update below
+						je.printStackTrace();
+					}
+				}
+				addResult = UPDATE_QUEUED;
+			}
+			else
+			{
+				addResult = UPDATE_QUEUED;
+			}
+			
+			// added before the request ID is queued, so that it is there 
+			// when the update before it completes and starts it.
+			pendingUpdateRequests.put(updateInfo.getRequestId(), updateInfo);
+			guidUpdateInfo.addUpdateReqNumToQueue(updateInfo.getRequestId());
+			return guidUpdateInfo;
+		}
+	}
+	
+	private static class CompleteUpdateFunction
+				implements BiFunction<String, GUIDUpdateInfo, GUIDUpdateInfo>
+	{
+		private final long requestID;
+		private Long nextRequestID;
+
+		public CompleteUpdateFunction( long requestID )
+		{
+			this.requestID = requestID;
+			this.nextRequestID = null;
+		}
+
+		@Override
+		public GUIDUpdateInfo apply( String GUID, GUIDUpdateInfo guidUpdateInfo )
+		{
+			assert(guidUpdateInfo != null);
+			Long currRequestID = guidUpdateInfo.removeFromQueue();
+			// it must not be null
+			assert(currRequestID != null);
+			// it should be same as the completed requestID
+			assert(requestID == currRequestID);
+
+			nextRequestID = guidUpdateInfo.getNextRequestID();
+
+			// returning null removes the GUID, as there are no more updates for it.
+			return (nextRequestID == null)?null:guidUpdateInfo;
+		}
+	}
+}
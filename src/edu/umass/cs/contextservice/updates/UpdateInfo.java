@@ -1,19 +1,29 @@
 package edu.umass.cs.contextservice.updates;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import edu.umass.cs.contextservice.config.ContextServiceConfig;
 
 import edu.umass.cs.contextservice.database.triggers.GroupGUIDInfoClass;
 import edu.umass.cs.contextservice.messages.ValueUpdateFromGNS;
 import edu.umass.cs.contextservice.profilers.UpdateStats;
+import edu.umass.cs.contextservice.utils.TimerWheel;
 
 public class UpdateInfo
 {	
-	private final ValueUpdateFromGNS valUpdMsgFromGNS;
+	// replaced by the merged update when later updates are coalesced into this one.
+	private volatile ValueUpdateFromGNS valUpdMsgFromGNS;
+	
+	// updates that were coalesced into this one, in the order they were received,
+	// excluding the last one, which is valUpdMsgFromGNS. Each one still gets a reply. 
+	private List<ValueUpdateFromGNS> coalescedUpdates;
 	
 	private final long updateRequestId;
 	
@@ -29,12 +39,16 @@ public class UpdateInfo
 	
 	private UpdateStats updateStat;
 	
+	// deadline for the replies, null if requests have no deadlines.
+	private volatile TimerWheel.Timeout replyTimeout;
+	
 	public UpdateInfo( ValueUpdateFromGNS valUpdMsgFromGNS, long updateRequestId )
 	{
 		this.valUpdMsgFromGNS = valUpdMsgFromGNS;
 		this.updateRequestId  = updateRequestId;
 		
 		updateReqCompl = false;
+		coalescedUpdates = null;
 		
 		if( ContextServiceConfig.triggerEnabled )
 		{
@@ -58,6 +72,73 @@ public class UpdateInfo
 		return this.valUpdMsgFromGNS;
 	}
 	
+	/**
+	 * Returns true if a later update of the same GUID can be merged 
+	 * into this update. Updates with anonymized ID mappings, which
+	 * are used in privacy schemes, are not merged.
+	 */
+	public boolean canCoalesce( ValueUpdateFromGNS laterUpdate )
+	{
+		return valUpdMsgFromGNS.getGUID().equals(laterUpdate.getGUID())
+				&& valUpdMsgFromGNS.getAnonymizedIDToGuidMapping() == null
+				&& laterUpdate.getAnonymizedIDToGuidMapping() == null
+				&& valUpdMsgFromGNS.getPrivacySchemeOrdinal() 
+									== laterUpdate.getPrivacySchemeOrdinal();
+	}
+	
+	/**
+	 * Merges a later update of the same GUID into this update, which must 
+	 * not have started yet. The attribute values of the later update 
+	 * overwrite the ones of this update, other attribute values are kept. 
+	 * The merged update takes the version number and the requester 
+	 * of the later update, the requesters of this update are 
+	 * replied to when the merged update completes.
+	 */
+	public void coalesceUpdate( ValueUpdateFromGNS laterUpdate ) throws JSONException
+	{
+		assert( canCoalesce(laterUpdate) );
+		
+		JSONObject mergedAttrValuePairs = new JSONObject();
+		
+		JSONObject currAttrValuePairs = valUpdMsgFromGNS.getAttrValuePairs();
+		Iterator<String> attrIter = currAttrValuePairs.keys();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			mergedAttrValuePairs.put(attrName, currAttrValuePairs.get(attrName));
+		}
+		
+		JSONObject laterAttrValuePairs = laterUpdate.getAttrValuePairs();
+		attrIter = laterAttrValuePairs.keys();
+		while( attrIter.hasNext() )
+		{
+			String attrName = attrIter.next();
+			mergedAttrValuePairs.put(attrName, laterAttrValuePairs.get(attrName));
+		}
+		
+		if( coalescedUpdates == null )
+		{
+			coalescedUpdates = new LinkedList<ValueUpdateFromGNS>();
+		}
+		coalescedUpdates.add(valUpdMsgFromGNS);
+		
+		valUpdMsgFromGNS = new ValueUpdateFromGNS( laterUpdate.getInitiator(), 
+				laterUpdate.getVersionNum(), laterUpdate.getGUID(), mergedAttrValuePairs, 
+				laterUpdate.getUserRequestID(), laterUpdate.getSourceIP(), 
+				laterUpdate.getSourcePort(), laterUpdate.getUpdateStartTime(), 
+				null, laterUpdate.getPrivacySchemeOrdinal(), 
+				laterUpdate.getAttrSetArray() );
+	}
+	
+	/**
+	 * Returns the updates that were merged into this update, 
+	 * except the last one, or null if there are none.
+	 */
+	public List<ValueUpdateFromGNS> getCoalescedUpdates()
+	{
+		return this.coalescedUpdates;
+	}
+	
 	public boolean getUpdComl()
 	{
 		return this.updateReqCompl;
@@ -84,11 +165,9 @@ public class UpdateInfo
 						GroupGUIDInfoClass groupGUIDInfo 
 								= new GroupGUIDInfoClass(toBeRemovedGroups.getJSONObject(i));
 						
-						String groupGUID = groupGUIDInfo.getGroupGUID();
-						
 						// doing duplicate elimination right here.
 						// as a query can span multiple nodes in a subspace.
-						toBeRemovedMap.put(groupGUID, groupGUIDInfo);
+						toBeRemovedMap.put(groupGUIDInfo.getSubscriptionKey(), groupGUIDInfo);
 					}
 					catch (JSONException e)
 					{
@@ -105,11 +184,9 @@ public class UpdateInfo
 						groupGUIDInfo 
 							= new GroupGUIDInfoClass(toBeAddedGroups.getJSONObject(i));
 						
-						String groupGUID = groupGUIDInfo.getGroupGUID();
-						
 						// doing duplicate elimination right here.
 						// as a query can span multiple nodes in a subspace.
-						toBeAddedMap.put(groupGUID, groupGUIDInfo);
+						toBeAddedMap.put(groupGUIDInfo.getSubscriptionKey(), groupGUIDInfo);
 					} catch (JSONException e) 
 					{
 						e.printStackTrace();
@@ -164,5 +241,22 @@ public class UpdateInfo
 		return this.updateStat;
 	}
 	
+	public void setReplyTimeout(TimerWheel.Timeout replyTimeout)
+	{
+		this.replyTimeout = replyTimeout;
+	}
+	
+	/**
+	 * Cancels the deadline of the replies, called when the update completes.
+	 */
+	public void cancelReplyTimeout()
+	{
+		TimerWheel.Timeout currTimeout = this.replyTimeout;
+		if( currTimeout != null )
+		{
+			currTimeout.cancel();
+		}
+	}
+	
 	
 }
\ No newline at end of file
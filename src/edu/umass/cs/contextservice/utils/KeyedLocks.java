@@ -0,0 +1,73 @@
+package edu.umass.cs.contextservice.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mutual exclusion per key, so that threads using the same key run
+ * one at a time, while threads using different keys don't wait for each other.
+ *
+ * The holder of a key has a future in the map, other threads locking the key
+ * wait for that future, which is completed when the holder unlocks the key.
+ * All the waiting threads are then woken up and try to put their own future
+ * again, so a wakeup can't be lost. There is no lock shared by all keys,
+ * and a key that is not locked takes no space.
+ * The locks are not reentrant.
+ * @author ayadav
+ */
+public class KeyedLocks
+{
+	private final ConcurrentHashMap<String, CompletableFuture<Void>> lockMap;
+
+	public KeyedLocks()
+	{
+		lockMap = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+	}
+
+	/**
+	 * Blocks until no other thread holds the key, and takes it.
+	 */
+	public void lock( String key )
+	{
+		CompletableFuture<Void> myFuture = new CompletableFuture<Void>();
+		while( true )
+		{
+			CompletableFuture<Void> holderFuture = lockMap.putIfAbsent(key, myFuture);
+			if( holderFuture == null )
+				return;
+
+			// not interruptible, like synchronized.
+			holderFuture.join();
+		}
+	}
+
+	/**
+	 * Takes the key if no other thread holds it, returns false otherwise.
+	 */
+	public boolean tryLock( String key )
+	{
+		return lockMap.putIfAbsent(key, new CompletableFuture<Void>()) == null;
+	}
+
+	/**
+	 * Releases a key taken by lock or tryLock,
+	 * must be called by the thread holding it.
+	 */
+	public void unlock( String key )
+	{
+		CompletableFuture<Void> holderFuture = lockMap.remove(key);
+		assert( holderFuture != null );
+		if( holderFuture != null )
+		{
+			holderFuture.complete(null);
+		}
+	}
+
+	/**
+	 * Returns the number of keys held.
+	 */
+	public int getNumLocked()
+	{
+		return lockMap.size();
+	}
+}
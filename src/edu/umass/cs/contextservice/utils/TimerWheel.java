@@ -0,0 +1,168 @@
+package edu.umass.cs.contextservice.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Hashed timer wheel for request deadlines.
+ *
+ * Time is divided into ticks of tickMs. A timeout is kept in the bucket
+ * of its deadline tick modulo the number of buckets, so scheduling and
+ * cancelling are constant time however many requests are outstanding,
+ * and the wheel thread only looks at one bucket per tick.
+ * New timeouts are handed to the wheel thread through a concurrent queue,
+ * so the buckets are only accessed by the wheel thread and need no locks.
+ * Cancelled timeouts are removed when the wheel thread reaches their bucket.
+ *
+ * Expired tasks are run on the given executor, not on the wheel thread.
+ * Deadlines are accurate to a tick.
+ * @author ayadav
+ */
+public class TimerWheel implements Runnable
+{
+	private final long tickNanos;
+	private final List<LinkedList<Timeout>> buckets;
+	private final ConcurrentLinkedQueue<Timeout> newTimeouts;
+	private final ExecutorService expiryExecutor;
+	private final long startTime;
+
+	// last tick processed, only accessed by the wheel thread.
+	private long currTick;
+
+	/**
+	 * Deadline of a scheduled task, can be used to cancel it.
+	 */
+	public static class Timeout
+	{
+		private final Runnable task;
+		private final long deadlineTick;
+		private volatile boolean cancelled;
+
+		private Timeout( Runnable task, long deadlineTick )
+		{
+			this.task = task;
+			this.deadlineTick = deadlineTick;
+			this.cancelled = false;
+		}
+
+		/**
+		 * The task is not run if it hasn't been run already.
+		 */
+		public void cancel()
+		{
+			this.cancelled = true;
+		}
+
+		public boolean isCancelled()
+		{
+			return this.cancelled;
+		}
+	}
+
+	public TimerWheel( long tickMs, int numBuckets, ExecutorService expiryExecutor )
+	{
+		assert( tickMs > 0 );
+		assert( numBuckets > 0 );
+		this.tickNanos = tickMs*1000000L;
+		this.expiryExecutor = expiryExecutor;
+
+		buckets = new ArrayList<LinkedList<Timeout>>(numBuckets);
+		for( int i=0; i<numBuckets; i++ )
+		{
+			buckets.add(new LinkedList<Timeout>());
+		}
+		newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+		startTime = System.nanoTime();
+		currTick = 0;
+	}
+
+	/**
+	 * Runs the task on the expiry executor after delayMs,
+	 * unless the returned timeout is cancelled before that.
+	 */
+	public Timeout schedule( Runnable task, long delayMs )
+	{
+		long deadline = System.nanoTime() - startTime + delayMs*1000000L;
+		// rounded up, so that a task never runs early.
+		long deadlineTick = (deadline + tickNanos - 1)/tickNanos;
+
+		Timeout timeout = new Timeout(task, deadlineTick);
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void run()
+	{
+		while( true )
+		{
+			long sleepNanos = (currTick+1)*tickNanos - (System.nanoTime() - startTime);
+			if( sleepNanos > 0 )
+			{
+				try
+				{
+					Thread.sleep(sleepNanos/1000000L, (int)(sleepNanos%1000000L));
+				}
+				catch (InterruptedException e)
+				{
+					e.printStackTrace();
+				}
+				continue;
+			}
+			currTick++;
+
+			transferNewTimeouts();
+			expireTimeouts();
+		}
+	}
+
+	private void transferNewTimeouts()
+	{
+		Timeout timeout = newTimeouts.poll();
+		while( timeout != null )
+		{
+			if( !timeout.isCancelled() )
+			{
+				// deadline passed while the timeout was waiting to be
+				// transferred, it expires in this tick.
+				long tick = Math.max(timeout.deadlineTick, currTick);
+				buckets.get((int)(tick % buckets.size())).add(timeout);
+			}
+			timeout = newTimeouts.poll();
+		}
+	}
+
+	private void expireTimeouts()
+	{
+		LinkedList<Timeout> bucket = buckets.get((int)(currTick % buckets.size()));
+		Iterator<Timeout> timeoutIter = bucket.iterator();
+
+		while( timeoutIter.hasNext() )
+		{
+			Timeout timeout = timeoutIter.next();
+
+			if( timeout.isCancelled() )
+			{
+				timeoutIter.remove();
+			}
+			else if( timeout.deadlineTick <= currTick )
+			{
+				timeoutIter.remove();
+				try
+				{
+					expiryExecutor.execute(timeout.task);
+				}
+				catch( Exception ex )
+				{
+					ex.printStackTrace();
+				}
+			}
+			// otherwise the deadline is in a later turn of the wheel.
+		}
+	}
+}
@@ -19,6 +19,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -47,6 +51,22 @@ public class Utils
 {
 	public static final int GUID_SIZE				= 20; // 20 bytes
 	
+	// tasks that can wait per thread of a bounded executor.
+	private static final int BOUNDED_EXECUTOR_QUEUE_PER_THREAD	= 64;
+	
+	/**
+	 * Returns a thread pool with a bounded queue, when the queue is full
+	 * the submitting thread runs the task itself, which slows down the 
+	 * submitter instead of queueing tasks without bound.
+	 * Tasks run on it should not wait for other tasks of the same pool.
+	 */
+	public static ExecutorService createBoundedExecutor( int numThreads )
+	{
+		return new ThreadPoolExecutor( numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(numThreads*BOUNDED_EXECUTOR_QUEUE_PER_THREAD), 
+				new ThreadPoolExecutor.CallerRunsPolicy() );
+	}
+	
 	public static Vector<String> getActiveInterfaceStringAddresses()
 	{
 		Vector<String> CurrentInterfaceIPs = new Vector<String>();
@@ -0,0 +1,137 @@
+package edu.umass.cs.contextservice.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
+import edu.umass.cs.contextservice.profilers.CNSProfiler;
+
+/**
+ * Helpers of the tests of attribute-index searches: the in-memory storage of
+ * several nodes with random GUIDs, and the check that an SQL template has
+ * as many placeholders as the values bound for it, without a database.
+ * The attributes are the ones of AttributeTypes, which the tests initialize.
+ * @author ayadav
+ */
+public class AttrIndexTestFixture
+{
+	// about one in this many GUIDs doesn't set the optional attribute.
+	private static final int UNSET_ATTR_FRACTION					= 10;
+
+	/**
+	 * Counts the values bound to the statement it returns.
+	 */
+	public static class BindCounter implements InvocationHandler
+	{
+		private int numBound = 0;
+
+		public PreparedStatement newStatement()
+		{
+			return (PreparedStatement) Proxy.newProxyInstance(
+					PreparedStatement.class.getClassLoader(),
+					new Class<?>[]{PreparedStatement.class}, this);
+		}
+
+		public int getNumBound()
+		{
+			return numBound;
+		}
+
+		@Override
+		public Object invoke( Object proxy, Method method, Object[] args )
+		{
+			if( method.getName().startsWith("set") )
+				numBound++;
+			return null;
+		}
+	}
+
+	public static InMemoryGUIDStorage[] createNodes( int numNodes )
+	{
+		InMemoryGUIDStorage[] nodes = new InMemoryGUIDStorage[numNodes];
+		CNSProfiler profiler = new CNSProfiler();
+		for( int i=0; i<numNodes; i++ )
+		{
+			nodes[i] = new InMemoryGUIDStorage(i, profiler);
+			nodes[i].createDataStorageTables();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Stores numGUIDs GUIDs with random values in [0, attrMax], round robin
+	 * on the nodes, and returns the values of each GUID in the order of
+	 * AttributeTypes.attributeInOrderList. Values of Int attributes are
+	 * integers, others have two decimals. optionalAttr is not set for
+	 * about a tenth of the GUIDs, its value is NaN for them.
+	 */
+	public static List<double[]> storeRandomGUIDs( InMemoryGUIDStorage[] nodes, int numGUIDs,
+			int attrMax, String optionalAttr, Random rand ) throws JSONException
+	{
+		List<String> attrList = AttributeTypes.attributeInOrderList;
+		List<double[]> guidValues = new ArrayList<double[]>();
+		for( int i=0; i<numGUIDs; i++ )
+		{
+			String guid = String.format("%040x", i+1);
+			JSONObject attrValJSON = new JSONObject();
+			double[] values = new double[attrList.size()];
+			for( int j=0; j<attrList.size(); j++ )
+			{
+				String attrName = attrList.get(j);
+				if( attrName.equals(optionalAttr) && (rand.nextInt(UNSET_ATTR_FRACTION) == 0) )
+				{
+					values[j] = Double.NaN;
+					continue;
+				}
+
+				if( AttributeTypes.IntType.equals(
+						AttributeTypes.attributeMap.get(attrName).getDataType()) )
+				{
+					values[j] = rand.nextInt(attrMax+1);
+					attrValJSON.put(attrName, ((int)values[j])+"");
+				}
+				else
+				{
+					values[j] = Math.floor(rand.nextDouble()*attrMax*100)/100;
+					attrValJSON.put(attrName, values[j]+"");
+				}
+			}
+			guidValues.add(values);
+			nodes[i % nodes.length].storeGUIDUsingAttrIndex(null, guid, attrValJSON,
+					DBConstants.INSERT_REC);
+		}
+		return guidValues;
+	}
+
+	public static int countPlaceholders( String template )
+	{
+		return template.length() - template.replace("?", "").length();
+	}
+
+	/**
+	 * Checks that the values bound with bindCounter's statement fill
+	 * the placeholders of template.
+	 */
+	public static void checkBoundValues( String template, BindCounter bindCounter )
+	{
+		int numPlaceholders = countPlaceholders(template);
+		check( numPlaceholders == bindCounter.getNumBound(), "template "+template+" has "
+				+numPlaceholders+" placeholders, "+bindCounter.getNumBound()+" values bound" );
+	}
+
+	public static void check( boolean condition, String message )
+	{
+		if( !condition )
+			throw new IllegalStateException(message);
+	}
+}
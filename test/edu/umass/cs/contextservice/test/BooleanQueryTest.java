@@ -0,0 +1,275 @@
+package edu.umass.cs.contextservice.test;
+
+import static edu.umass.cs.contextservice.test.AttrIndexTestFixture.check;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
+import edu.umass.cs.contextservice.database.guidattributes.SQLStatementTemplates;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Test of searches with OR, NOT, IN and BETWEEN.
+ * It checks that the union of the boxes of a query, searched on the
+ * in-memory storage of several nodes, gives each GUID the query selects
+ * once, compared with evaluating the query on all GUIDs, that the
+ * canonical form doesn't depend on how the query is written. It also
+ * binds the SQL templates of unions of boxes, and checks their OR.
+ * @author ayadav
+ */
+public class BooleanQueryTest
+{
+	private static final int NUM_ATTRS								= 3;
+	private static final int NUM_NODES								= 4;
+	private static final int NUM_GUIDS								= 5000;
+	private static final int NUM_SEARCHES							= 100;
+	private static final int ATTR_MAX								= 1000;
+
+	/**
+	 * A query and its evaluation on the values of a GUID,
+	 * NaN for an unset attribute.
+	 */
+	private static abstract class TestQuery
+	{
+		final String query;
+
+		TestQuery( String query )
+		{
+			this.query = query;
+		}
+
+		abstract boolean selects( double[] values );
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			// attr1 and attr2 are Int attributes, for < and > on integers.
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, "0", ATTR_MAX+"",
+					(i == 0)? AttributeTypes.DoubleType : AttributeTypes.IntType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sendFullRepliesWithinCS = true;
+
+		checkParsing();
+		checkSearches();
+		checkTemplates();
+		System.out.println("BooleanQueryTest passed");
+	}
+
+	private static void checkParsing()
+	{
+		String legacy = "attr0 >= 10 AND attr0 <= 500 AND attr1 >= 900 AND attr1 <= 100";
+		List<HashMap<String, AttributeValueRange>> boxes = QueryParser.parseQueryBoxes(legacy);
+		check( (boxes.size() == 1) && QueryParser.getCanonicalQuery(boxes.get(0)).equals(
+				QueryParser.getCanonicalQuery(QueryParser.parseQuery(legacy))), "boxes of "+legacy );
+
+		String canonical1 = QueryParser.getCanonicalQuery(
+				"attr1 IN (3, 5) OR (attr0 <= 10 AND attr0 >= 2)");
+		String canonical2 = QueryParser.getCanonicalQuery(
+				"attr0 BETWEEN 2.0 AND 10 OR attr1 IN (5, 3)");
+		check( canonical1.equals(canonical2), canonical1+" != "+canonical2 );
+		check( QueryParser.parseQueryBoxes(canonical1).size() == 3, "boxes of "+canonical1 );
+
+		// circular BETWEEN, as a circular range of a conjunctive search.
+		check( QueryParser.parseQueryBoxes("attr1 BETWEEN 900 AND 100").size() == 2,
+				"circular BETWEEN" );
+		// a box within another box is dropped.
+		check( QueryParser.parseQueryBoxes("attr1 <= 100 OR attr1 IN (5, 50)").size() == 1,
+				"contained boxes" );
+
+		String[] noBoxes = new String[]{"attr0 >= 10 OR", "attr9 IN (1)",
+				"attr1 < 0", "attr1 > 5 AND attr1 < 5", "(attr0 >= 1"};
+		for( int i=0; i<noBoxes.length; i++ )
+		{
+			check( QueryParser.parseQueryBoxes(noBoxes[i]).isEmpty(), "boxes of "+noBoxes[i] );
+		}
+
+		// the query sent to a node with some of the boxes.
+		String query = "SELECT COUNT(*) WHERE attr1 IN (3, 5, 7) OR attr2 > 10 LIMIT 4";
+		boxes = QueryParser.parseQueryBoxes(query);
+		List<HashMap<String, AttributeValueRange>> nodeBoxes
+				= new LinkedList<HashMap<String, AttributeValueRange>>(boxes.subList(1, 3));
+		String nodeQuery = QueryParser.getQueryForBoxes(nodeBoxes,
+				QueryParser.parseSearchAggregates(query), QueryParser.parseQueryOptions(query));
+		check( QueryParser.getCanonicalQuery(QueryParser.parseQueryBoxes(nodeQuery)).equals(
+				QueryParser.getCanonicalQuery(nodeBoxes)), "boxes of "+nodeQuery );
+		check( QueryParser.parseSearchAggregates(nodeQuery) != null, "aggregates of "+nodeQuery );
+		System.out.println("parsing checked, canonical "+canonical1+", node query "+nodeQuery);
+	}
+
+	private static void checkSearches() throws Exception
+	{
+		Random rand = new Random(23);
+		InMemoryGUIDStorage[] nodes = AttrIndexTestFixture.createNodes(NUM_NODES);
+		// some GUIDs don't set attr1, NOT doesn't select them.
+		List<double[]> guidValues = AttrIndexTestFixture.storeRandomGUIDs(nodes, NUM_GUIDS,
+				ATTR_MAX, "attr1", rand);
+
+		SearchAggregates countAggregate = QueryParser.parseSearchAggregates(
+				"SELECT COUNT(*) WHERE attr0 >= 0 AND attr0 <= "+ATTR_MAX);
+		int numMultiBox = 0;
+		for( int s=0; s<NUM_SEARCHES; s++ )
+		{
+			TestQuery testQuery = getTestQuery(s, rand);
+			List<HashMap<String, AttributeValueRange>> boxes
+					= QueryParser.parseQueryBoxes(testQuery.query);
+			if( boxes.size() > 1 )
+				numMultiBox++;
+
+			HashSet<String> expected = new HashSet<String>();
+			for( int i=0; i<guidValues.size(); i++ )
+			{
+				if( testQuery.selects(guidValues.get(i)) )
+					expected.add(String.format("%040x", i+1));
+			}
+
+			HashSet<String> results = new HashSet<String>();
+			long numCounted = 0;
+			for( int i=0; i<NUM_NODES; i++ )
+			{
+				JSONArray resultArray = new JSONArray();
+				int resultSize = nodes[i].processSearchQueryUsingAttrIndex(boxes,
+						SearchQueryOptions.NO_OPTIONS, resultArray, null);
+				check( resultSize == resultArray.length(), "result size of node "+i );
+				for( int j=0; j<resultArray.length(); j++ )
+				{
+					String guid = SearchReplyGUIDRepresentationJSON.fromJSONObject(
+							resultArray.getJSONObject(j)).getID();
+					check( results.add(guid), testQuery.query+" returned "+guid+" twice" );
+				}
+				numCounted += nodes[i].processAggregateQueryUsingAttrIndex(boxes,
+						countAggregate).getNumGUIDs();
+			}
+			check( results.equals(expected), testQuery.query+" returned "+results.size()
+					+" GUIDs, expected "+expected.size() );
+			check( numCounted == expected.size(), testQuery.query+" counted "+numCounted
+					+" GUIDs, expected "+expected.size() );
+
+			// the limit applies to the union, not to each box.
+			JSONArray limitedArray = new JSONArray();
+			int limitedSize = nodes[0].processSearchQueryUsingAttrIndex(boxes,
+					new SearchQueryOptions(null, false, 3), limitedArray, null);
+			check( limitedSize <= 3, testQuery.query+" limited to "+limitedSize );
+		}
+		System.out.println("searches checked "+NUM_SEARCHES+", of several boxes "+numMultiBox);
+	}
+
+	private static TestQuery getTestQuery( int s, Random rand )
+	{
+		final double a = Math.floor(rand.nextDouble()*ATTR_MAX);
+		final double b = Math.floor(rand.nextDouble()*ATTR_MAX);
+		final int x = rand.nextInt(ATTR_MAX);
+		final int y = rand.nextInt(ATTR_MAX);
+		final int z = rand.nextInt(ATTR_MAX);
+
+		switch( s % 6 )
+		{
+			case 0:
+				return new TestQuery("attr0 >= "+Math.min(a, b)+" AND attr0 <= "+Math.max(a, b)
+						+" OR attr1 IN ("+x+", "+y+", "+z+")")
+				{
+					boolean selects( double[] v )
+					{
+						return ((v[0] >= Math.min(a, b)) && (v[0] <= Math.max(a, b)))
+								|| (v[1] == x) || (v[1] == y) || (v[1] == z);
+					}
+				};
+			case 1:
+				return new TestQuery("NOT (attr0 BETWEEN "+Math.min(a, b)+" AND "
+						+Math.max(a, b)+") AND attr2 < "+x)
+				{
+					boolean selects( double[] v )
+					{
+						return ((v[0] < Math.min(a, b)) || (v[0] > Math.max(a, b))) && (v[2] < x);
+					}
+				};
+			case 2:
+				return new TestQuery("(attr1 > "+x+" OR attr2 != "+y+") AND attr0 <= "+a)
+				{
+					boolean selects( double[] v )
+					{
+						return ((v[1] > x) || (v[2] != y)) && (v[0] <= a);
+					}
+				};
+			case 3:
+				// circular if a > b.
+				return new TestQuery("attr1 NOT IN ("+x+", "+y+") AND attr0 BETWEEN "+a+" AND "+b)
+				{
+					boolean selects( double[] v )
+					{
+						boolean inRange = (a <= b)? ((v[0] >= a) && (v[0] <= b))
+								: ((v[0] >= a) || (v[0] <= b));
+						return !Double.isNaN(v[1]) && (v[1] != x) && (v[1] != y) && inRange;
+					}
+				};
+			case 4:
+				return new TestQuery("NOT (attr0 < "+a+" OR attr1 >= "+x+")")
+				{
+					boolean selects( double[] v )
+					{
+						return (v[0] >= a) && (v[1] < x);
+					}
+				};
+			default:
+				return new TestQuery("(attr1 <= "+x+" OR attr2 >= "+y+") AND (attr1 >= "+z
+						+" OR attr0 > "+a+")")
+				{
+					boolean selects( double[] v )
+					{
+						return ((v[1] <= x) || (v[2] >= y)) && ((v[1] >= z) || (v[0] > a));
+					}
+				};
+		}
+	}
+
+	private static void checkTemplates() throws Exception
+	{
+		SQLStatementTemplates templates = new SQLStatementTemplates(
+				AttributeTypes.attributeInOrderList);
+		String[] queries = new String[]{
+				"attr0 >= 10 AND attr0 <= 500 OR attr1 IN (3, 5)",
+				"attr1 BETWEEN 900 AND 100 AND attr2 != 7 ORDER BY attr0 DESC LIMIT 10",
+				"SELECT COUNT(*), HISTOGRAM(attr0, 4) WHERE attr1 < 10 OR attr2 > 900"};
+
+		for( int i=0; i<queries.length; i++ )
+		{
+			List<HashMap<String, AttributeValueRange>> boxes
+					= QueryParser.parseQueryBoxes(queries[i]);
+			SearchAggregates searchAggregates = QueryParser.parseSearchAggregates(queries[i]);
+			SearchQueryOptions queryOptions = QueryParser.parseQueryOptions(queries[i]);
+
+			String template = (searchAggregates != null)?
+					templates.getAggregateTemplate(boxes, searchAggregates)
+					: templates.getSearchTemplate(boxes, null, queryOptions);
+
+			AttrIndexTestFixture.BindCounter bindCounter = new AttrIndexTestFixture.BindCounter();
+			if( searchAggregates != null )
+				templates.bindAggregateValues(bindCounter.newStatement(), boxes, searchAggregates);
+			else
+				templates.bindSearchValues(bindCounter.newStatement(), boxes, null, queryOptions);
+
+			AttrIndexTestFixture.checkBoundValues(template, bindCounter);
+			check( template.contains(" OR "), "union in "+template );
+			System.out.println(template);
+		}
+	}
+}
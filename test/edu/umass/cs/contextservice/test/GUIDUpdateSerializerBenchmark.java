@@ -0,0 +1,206 @@
+package edu.umass.cs.contextservice.test;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.contextservice.updates.GUIDUpdateInfo;
+import edu.umass.cs.contextservice.updates.GUIDUpdateSerializer;
+
+/**
+ * Contention benchmark of the per GUID update serialization.
+ * Compares GUIDUpdateSerializer to the earlier scheme, a HashMap of
+ * GUIDUpdateInfo and a request ID counter guarded by one global lock,
+ * with an increasing number of threads. Each thread adds updates for
+ * random GUIDs and, like the update reply processing, completes the
+ * outstanding update of the GUID and the ones queued after it, when its
+ * update was the only one.
+ * Prints the update throughput for each number of threads and checks
+ * that every added update was completed.
+ * @author ayadav
+ */
+public class GUIDUpdateSerializerBenchmark
+{
+	private static final int NUM_GUIDS							= 10000;
+	private static final int UPDATES_PER_THREAD					= 500000;
+	private static final int WARMUP_RUNS						= 2;
+
+	/**
+	 * Interface of the two serialization schemes, as used by the scheme classes.
+	 */
+	private static abstract class UpdateSerialization
+	{
+		public abstract long nextRequestID();
+		public abstract boolean addUpdate( String GUID, long requestID );
+		public abstract Long completeUpdate( String GUID, long requestID );
+	}
+
+	private static class GlobalLockSerialization extends UpdateSerialization
+	{
+		private final Object pendingUpdateLock 					= new Object();
+		private final HashMap<String, GUIDUpdateInfo> guidUpdateInfoMap
+												= new HashMap<String, GUIDUpdateInfo>();
+		private long updateIdCounter							= 0;
+
+		@Override
+		public long nextRequestID()
+		{
+			synchronized( pendingUpdateLock )
+			{
+				return updateIdCounter++;
+			}
+		}
+
+		@Override
+		public boolean addUpdate( String GUID, long requestID )
+		{
+			synchronized( pendingUpdateLock )
+			{
+				GUIDUpdateInfo guidUpdateInfo = guidUpdateInfoMap.get(GUID);
+				if( guidUpdateInfo == null )
+				{
+					guidUpdateInfo = new GUIDUpdateInfo(GUID);
+					guidUpdateInfo.addUpdateReqNumToQueue(requestID);
+					guidUpdateInfoMap.put(GUID, guidUpdateInfo);
+					return true;
+				}
+				guidUpdateInfo.addUpdateReqNumToQueue(requestID);
+				return false;
+			}
+		}
+
+		@Override
+		public Long completeUpdate( String GUID, long requestID )
+		{
+			synchronized( pendingUpdateLock )
+			{
+				GUIDUpdateInfo guidUpdateInfo = guidUpdateInfoMap.get(GUID);
+				guidUpdateInfo.removeFromQueue();
+				Long nextRequestID = guidUpdateInfo.getNextRequestID();
+				if( nextRequestID == null )
+				{
+					guidUpdateInfoMap.remove(GUID);
+				}
+				return nextRequestID;
+			}
+		}
+	}
+
+	private static class ConcurrentSerialization extends UpdateSerialization
+	{
+		private final GUIDUpdateSerializer guidUpdateSerializer = new GUIDUpdateSerializer();
+		private final AtomicLong updateIdCounter 				= new AtomicLong(0);
+
+		@Override
+		public long nextRequestID()
+		{
+			return updateIdCounter.getAndIncrement();
+		}
+
+		@Override
+		public boolean addUpdate( String GUID, long requestID )
+		{
+			return guidUpdateSerializer.addUpdate(GUID, requestID);
+		}
+
+		@Override
+		public Long completeUpdate( String GUID, long requestID )
+		{
+			return guidUpdateSerializer.completeUpdate(GUID, requestID);
+		}
+	}
+
+	private static class UpdateThread implements Runnable
+	{
+		private final UpdateSerialization serialization;
+		private final String[] guids;
+		private final Random rand;
+		private final AtomicLong numCompleted;
+
+		public UpdateThread( UpdateSerialization serialization, String[] guids,
+				long seed, AtomicLong numCompleted )
+		{
+			this.serialization = serialization;
+			this.guids = guids;
+			this.rand = new Random(seed);
+			this.numCompleted = numCompleted;
+		}
+
+		@Override
+		public void run()
+		{
+			long completed = 0;
+			for( int i=0; i<UPDATES_PER_THREAD; i++ )
+			{
+				String GUID = guids[rand.nextInt(guids.length)];
+				long requestID = serialization.nextRequestID();
+
+				if( serialization.addUpdate(GUID, requestID) )
+				{
+					// the update and the ones queued behind it complete one by one.
+					Long currRequestID = requestID;
+					while( currRequestID != null )
+					{
+						completed++;
+						currRequestID = serialization.completeUpdate(GUID, currRequestID);
+					}
+				}
+			}
+			numCompleted.addAndGet(completed);
+		}
+	}
+
+	private static double runUpdates( UpdateSerialization serialization, String[] guids,
+			int numThreads ) throws InterruptedException
+	{
+		AtomicLong numCompleted = new AtomicLong(0);
+		Thread[] threads = new Thread[numThreads];
+
+		long start = System.nanoTime();
+		for( int i=0; i<numThreads; i++ )
+		{
+			threads[i] = new Thread(new UpdateThread(serialization, guids, i, numCompleted));
+			threads[i].start();
+		}
+		for( int i=0; i<numThreads; i++ )
+		{
+			threads[i].join();
+		}
+		long end = System.nanoTime();
+
+		long numUpdates = ((long)numThreads)*UPDATES_PER_THREAD;
+		if( numCompleted.get() != numUpdates )
+		{
+			throw new IllegalStateException("completed "+numCompleted.get()
+					+" of "+numUpdates+" updates");
+		}
+		return numUpdates/((end-start)/1000000000.0);
+	}
+
+	public static void main( String[] args ) throws InterruptedException
+	{
+		String[] guids = new String[NUM_GUIDS];
+		for( int i=0; i<NUM_GUIDS; i++ )
+		{
+			guids[i] = "guid"+i;
+		}
+
+		int maxThreads = 2*Runtime.getRuntime().availableProcessors();
+
+		for( int numThreads=1; numThreads<=maxThreads; numThreads=numThreads*2 )
+		{
+			for( int i=0; i<WARMUP_RUNS; i++ )
+			{
+				runUpdates(new GlobalLockSerialization(), guids, numThreads);
+				runUpdates(new ConcurrentSerialization(), guids, numThreads);
+			}
+
+			double globalLockRate = runUpdates(new GlobalLockSerialization(), guids, numThreads);
+			double concurrentRate = runUpdates(new ConcurrentSerialization(), guids, numThreads);
+
+			System.out.println("threads "+numThreads
+					+" global lock "+(long)globalLockRate+" updates/s"
+					+" GUIDUpdateSerializer "+(long)concurrentRate+" updates/s");
+		}
+	}
+}
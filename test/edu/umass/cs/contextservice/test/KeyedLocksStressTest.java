@@ -0,0 +1,238 @@
+package edu.umass.cs.contextservice.test;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.contextservice.utils.KeyedLocks;
+
+/**
+ * Stress test of the per key locking of search queries with triggers.
+ * Threads lock random groupGUID:userIP:userPort keys, mostly distinct ones
+ * and some repeated, like clients resending the same query. While a key is
+ * held, the thread checks that no other thread is inside the key, and
+ * does some work, like the primary trigger subspace lookup.
+ * Compares KeyedLocks to the earlier scheme, one HashMap whose
+ * monitor all keys wait on, with an increasing number of threads.
+ * Prints the throughput for each number of threads, and fails if two
+ * threads were inside a key at once, a key is left locked, or a thread
+ * doesn't finish within TIMEOUT_MS, which would be a lost wakeup.
+ * @author ayadav
+ */
+public class KeyedLocksStressTest
+{
+	private static final int NUM_KEYS							= 1000;
+	// fraction of the locks on the few hot keys, as duplicate submissions.
+	private static final double HOT_KEY_FRACTION				= 0.2;
+	private static final int NUM_HOT_KEYS						= 4;
+	private static final int LOCKS_PER_THREAD					= 200000;
+	private static final int WORK_PER_LOCK						= 200;
+	private static final long TIMEOUT_MS						= 120000;
+	private static final int WARMUP_RUNS						= 1;
+
+	// prevents the JIT from removing the work
+	private static volatile long blackhole						= 0;
+
+	private static abstract class KeySync
+	{
+		public abstract void lock( String key );
+		public abstract void unlock( String key );
+		public abstract int getNumLocked();
+	}
+
+	/**
+	 * The earlier scheme, waiters of all keys wait on one monitor.
+	 * Uses notifyAll, as with notify a waiter of another key can take
+	 * the wakeup and the waiter of the freed key then waits forever.
+	 */
+	private static class GlobalMonitorSync extends KeySync
+	{
+		private final HashMap<String, Boolean> syncMap = new HashMap<String, Boolean>();
+
+		@Override
+		public void lock( String key )
+		{
+			synchronized( syncMap )
+			{
+				while( syncMap.get(key) != null )
+				{
+					try
+					{
+						syncMap.wait();
+					} catch (InterruptedException e)
+					{
+						e.printStackTrace();
+					}
+				}
+				syncMap.put(key, true);
+			}
+		}
+
+		@Override
+		public void unlock( String key )
+		{
+			synchronized( syncMap )
+			{
+				syncMap.remove(key);
+				syncMap.notifyAll();
+			}
+		}
+
+		@Override
+		public int getNumLocked()
+		{
+			synchronized( syncMap )
+			{
+				return syncMap.size();
+			}
+		}
+	}
+
+	private static class KeyedLocksSync extends KeySync
+	{
+		private final KeyedLocks keyedLocks = new KeyedLocks();
+
+		@Override
+		public void lock( String key )
+		{
+			keyedLocks.lock(key);
+		}
+
+		@Override
+		public void unlock( String key )
+		{
+			keyedLocks.unlock(key);
+		}
+
+		@Override
+		public int getNumLocked()
+		{
+			return keyedLocks.getNumLocked();
+		}
+	}
+
+	private static class LockThread implements Runnable
+	{
+		private final KeySync keySync;
+		private final String[] keys;
+		private final AtomicInteger[] numInside;
+		private final Random rand;
+		private final AtomicLong numViolations;
+		private final AtomicLong numDone;
+
+		public LockThread( KeySync keySync, String[] keys, AtomicInteger[] numInside,
+				long seed, AtomicLong numViolations, AtomicLong numDone )
+		{
+			this.keySync = keySync;
+			this.keys = keys;
+			this.numInside = numInside;
+			this.rand = new Random(seed);
+			this.numViolations = numViolations;
+			this.numDone = numDone;
+		}
+
+		@Override
+		public void run()
+		{
+			long sum = 0;
+			for( int i=0; i<LOCKS_PER_THREAD; i++ )
+			{
+				int keyIndex = (rand.nextDouble() < HOT_KEY_FRACTION)?
+						rand.nextInt(NUM_HOT_KEYS) : rand.nextInt(keys.length);
+
+				keySync.lock(keys[keyIndex]);
+				try
+				{
+					if( numInside[keyIndex].incrementAndGet() != 1 )
+						numViolations.incrementAndGet();
+
+					for( int j=0; j<WORK_PER_LOCK; j++ )
+						sum += j*keyIndex;
+
+					numInside[keyIndex].decrementAndGet();
+				}
+				finally
+				{
+					keySync.unlock(keys[keyIndex]);
+				}
+			}
+			blackhole += sum;
+			numDone.incrementAndGet();
+		}
+	}
+
+	private static double runLocks( KeySync keySync, String[] keys, int numThreads )
+			throws InterruptedException
+	{
+		AtomicInteger[] numInside = new AtomicInteger[keys.length];
+		for( int i=0; i<keys.length; i++ )
+		{
+			numInside[i] = new AtomicInteger(0);
+		}
+		AtomicLong numViolations = new AtomicLong(0);
+		AtomicLong numDone = new AtomicLong(0);
+		Thread[] threads = new Thread[numThreads];
+
+		long start = System.nanoTime();
+		for( int i=0; i<numThreads; i++ )
+		{
+			threads[i] = new Thread(new LockThread(keySync, keys, numInside, i,
+					numViolations, numDone));
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		for( int i=0; i<numThreads; i++ )
+		{
+			threads[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+		long end = System.nanoTime();
+
+		if( numDone.get() != numThreads )
+		{
+			throw new IllegalStateException(numDone.get()+" of "+numThreads
+					+" threads finished in "+TIMEOUT_MS+" ms");
+		}
+		if( numViolations.get() != 0 )
+		{
+			throw new IllegalStateException(numViolations.get()
+					+" times two threads held a key at once");
+		}
+		if( keySync.getNumLocked() != 0 )
+		{
+			throw new IllegalStateException(keySync.getNumLocked()+" keys left locked");
+		}
+
+		long numLocks = ((long)numThreads)*LOCKS_PER_THREAD;
+		return numLocks/((end-start)/1000000000.0);
+	}
+
+	public static void main( String[] args ) throws InterruptedException
+	{
+		String[] keys = new String[NUM_KEYS];
+		for( int i=0; i<NUM_KEYS; i++ )
+		{
+			keys[i] = String.format("%040x", i)+":127.0.0.1:"+(5000+i);
+		}
+
+		int maxThreads = 2*Runtime.getRuntime().availableProcessors();
+
+		for( int numThreads=1; numThreads<=maxThreads; numThreads=numThreads*2 )
+		{
+			for( int i=0; i<WARMUP_RUNS; i++ )
+			{
+				runLocks(new GlobalMonitorSync(), keys, numThreads);
+				runLocks(new KeyedLocksSync(), keys, numThreads);
+			}
+
+			double globalRate = runLocks(new GlobalMonitorSync(), keys, numThreads);
+			double keyedRate = runLocks(new KeyedLocksSync(), keys, numThreads);
+
+			System.out.println("threads "+numThreads
+					+" global monitor "+(long)globalRate+" locks/s"
+					+" KeyedLocks "+(long)keyedRate+" locks/s");
+		}
+	}
+}
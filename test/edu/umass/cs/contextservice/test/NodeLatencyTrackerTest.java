@@ -0,0 +1,211 @@
+package edu.umass.cs.contextservice.test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+import edu.umass.cs.contextservice.queryparsing.QueryInfo;
+import edu.umass.cs.contextservice.regionmapper.helper.NodeLatencyTracker;
+
+/**
+ * Test of the latency based choice of the replica a search is sent to,
+ * and of hedged searches. It checks that replicas are chosen by their
+ * average latency and outstanding searches, the hedge delay, and that
+ * the replies of the node that replies first are used when a node is
+ * replaced by other replicas.
+ * @author ayadav
+ */
+public class NodeLatencyTrackerTest
+{
+	private static final int NUM_NODES								= 4;
+	private static final int NUM_CHOICES							= 10000;
+	private static final long MS_NANOS								= 1000000L;
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		givenMap.put("attr0", new AttributeMetaInfo("attr0", "0", "1000",
+				AttributeTypes.DoubleType));
+		attrList.add("attr0");
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sendFullRepliesWithinCS = true;
+
+		checkChoiceByLatency();
+		checkOutstandingPenalty();
+		checkHedgeDelay();
+		checkFirstReplyWins();
+		System.out.println("NodeLatencyTrackerTest passed");
+	}
+
+	/**
+	 * Node i replies in (i+1) ms, the slowest node is never the better of
+	 * two, and a faster node is chosen more often than a slower one.
+	 */
+	private static void checkChoiceByLatency()
+	{
+		NodeLatencyTracker tracker = new NodeLatencyTracker(0);
+		List<Integer> nodeList = new LinkedList<Integer>();
+		for( int i=0; i<NUM_NODES; i++ )
+		{
+			nodeList.add(i);
+			for( int j=0; j<10; j++ )
+			{
+				tracker.recordSend(i);
+				tracker.recordReply(i, (i+1)*MS_NANOS);
+			}
+		}
+
+		int[] numChosen = new int[NUM_NODES];
+		Random randGen = new Random(17);
+		for( int i=0; i<NUM_CHOICES; i++ )
+		{
+			numChosen[tracker.chooseNode(nodeList, randGen, null)]++;
+		}
+
+		assert(numChosen[NUM_NODES-1] == 0);
+		for( int i=1; i<NUM_NODES; i++ )
+		{
+			assert(numChosen[i-1] > numChosen[i]) : "node "+(i-1)+" chosen "+numChosen[i-1]
+					+" times, node "+i+" chosen "+numChosen[i]+" times";
+		}
+
+		// only the excluded nodes are never chosen.
+		List<Integer> excludedNodes = new LinkedList<Integer>();
+		excludedNodes.add(0);
+		excludedNodes.add(2);
+		for( int i=0; i<100; i++ )
+		{
+			Integer nodeid = tracker.chooseNode(nodeList, randGen, excludedNodes);
+			assert(nodeid == 1) : nodeid;
+		}
+		excludedNodes.add(1);
+		assert(tracker.chooseNode(nodeList, randGen, excludedNodes) == 3);
+		excludedNodes.add(3);
+		assert(tracker.chooseNode(nodeList, randGen, excludedNodes) == null);
+		System.out.println("choice by latency "+Arrays.toString(numChosen));
+	}
+
+	/**
+	 * A node with searches queued loses to a slower node without.
+	 */
+	private static void checkOutstandingPenalty()
+	{
+		NodeLatencyTracker tracker = new NodeLatencyTracker(0);
+		tracker.recordSend(0);
+		tracker.recordReply(0, 1*MS_NANOS);
+		tracker.recordSend(1);
+		tracker.recordReply(1, 4*MS_NANOS);
+		assert(tracker.getNodeScore(0) < tracker.getNodeScore(1));
+
+		for( int i=0; i<2; i++ )
+		{
+			tracker.recordSend(0);
+		}
+		assert(tracker.getNumOutstanding(0) == 2);
+		assert(tracker.getNodeScore(0) > tracker.getNodeScore(1));
+
+		// a node that doesn't reply is as slow as the wait for it.
+		tracker.recordNoReply(0, 20*MS_NANOS);
+		tracker.recordNoReply(0, 20*MS_NANOS);
+		assert(tracker.getNumOutstanding(0) == 0);
+		assert(tracker.getAverageLatencyNanos(0) == 20*MS_NANOS);
+		assert(tracker.getNodeScore(0) > tracker.getNodeScore(1));
+
+		// a node without replies is tried.
+		assert(tracker.getNodeScore(2) < tracker.getNodeScore(1));
+	}
+
+	private static void checkHedgeDelay()
+	{
+		NodeLatencyTracker tracker = new NodeLatencyTracker(90);
+		for( int i=1; i<=31; i++ )
+		{
+			tracker.recordReply(i%NUM_NODES, i*MS_NANOS);
+		}
+		assert(tracker.getHedgeDelayNanos() == -1);
+
+		for( int i=32; i<=100; i++ )
+		{
+			tracker.recordReply(i%NUM_NODES, i*MS_NANOS);
+		}
+		// updated at 32 and then after 64 more latencies.
+		assert(tracker.getHedgeDelayNanos() == 87*MS_NANOS) : tracker.getHedgeDelayNanos();
+
+		for( int i=101; i<=160; i++ )
+		{
+			tracker.recordReply(i%NUM_NODES, i*MS_NANOS);
+		}
+		// 90th percentile of 1..160 ms.
+		assert(tracker.getHedgeDelayNanos() == 144*MS_NANOS) : tracker.getHedgeDelayNanos();
+
+		NodeLatencyTracker noHedgeTracker = new NodeLatencyTracker(0);
+		for( int i=1; i<=100; i++ )
+		{
+			noHedgeTracker.recordReply(0, i*MS_NANOS);
+		}
+		assert(noHedgeTracker.getHedgeDelayNanos() == -1);
+	}
+
+	/**
+	 * Node 1 is replaced by nodes 2 and 3. A reply of node 1 before any
+	 * of theirs puts it back, and their replies are then not used.
+	 * Once node 3 has sent a chunk, node 4's replacement is kept.
+	 */
+	private static void checkFirstReplyWins()
+	{
+		QueryInfo queryInfo = new QueryInfo(
+				"SELECT GUID_TABLE.guid FROM GUID_TABLE WHERE attr0 >= 10 AND attr0 <= 20",
+				0, "group", 1, "127.0.0.1", 5000, -1);
+		List<Integer> nodeList = new LinkedList<Integer>();
+		nodeList.add(1);
+		nodeList.add(4);
+		queryInfo.initializeSearchQueryReplyInfo(nodeList);
+
+		List<Integer> alternateNodes = new LinkedList<Integer>();
+		alternateNodes.add(2);
+		alternateNodes.add(3);
+		List<Integer> newNodes = queryInfo.replaceNodeWithoutReply(1, alternateNodes);
+		assert(newNodes.equals(alternateNodes));
+		assert(!queryInfo.isQueriedNode(1));
+
+		assert(!queryInfo.addReplyFromANode(1, newReply(1, 5)));
+		assert(queryInfo.isQueriedNode(1));
+		assert(!queryInfo.isQueriedNode(2) && !queryInfo.isQueriedNode(3));
+		assert(!queryInfo.acceptsReplyFrom(2));
+		assert(!queryInfo.addReplyFromANode(2, newReply(2, 7)));
+		assert(queryInfo.getNumNodesNotReplied() == 1);
+
+		List<Integer> alternateNodes4 = new LinkedList<Integer>();
+		alternateNodes4.add(3);
+		alternateNodes4.add(5);
+		newNodes = queryInfo.replaceNodeWithoutReply(4, alternateNodes4);
+		assert(newNodes.equals(alternateNodes4));
+
+		// a chunk of node 3 before node 4's reply.
+		assert(queryInfo.acceptsReplyFrom(3));
+		assert(!queryInfo.addReplyFromANode(3, new QueryMesgToSubspaceRegionReply(3, 1,
+				"group", new JSONArray(), 2, 0, 0, false)));
+		assert(!queryInfo.acceptsReplyFrom(4));
+		assert(!queryInfo.addReplyFromANode(4, newReply(4, 3)));
+
+		assert(!queryInfo.addReplyFromANode(3, new QueryMesgToSubspaceRegionReply(3, 1,
+				"group", new JSONArray(), 0, 0, 1, true)));
+		assert(queryInfo.addReplyFromANode(5, newReply(5, 1)));
+		assert(queryInfo.checkAllRepliesRecvd());
+	}
+
+	private static QueryMesgToSubspaceRegionReply newReply( int senderID, int numResults )
+	{
+		return new QueryMesgToSubspaceRegionReply(senderID, 1, "group",
+				new JSONArray(), numResults, 0);
+	}
+}
@@ -0,0 +1,183 @@
+package edu.umass.cs.contextservice.test;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegion;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+import edu.umass.cs.contextservice.messages.ValueUpdateToSubspaceRegionReplyMessage;
+import edu.umass.cs.protocoltask.ProtocolEvent;
+import edu.umass.cs.protocoltask.ProtocolTask;
+
+/**
+ * Micro benchmark of the per hop cost of turning a received JSONObject into a
+ * packet and calling its handler method. Compares the reflection based
+ * dispatch, that created packets with Class.forName and found handlers with
+ * getMethod, to the decoder table of ContextServicePacket and a direct call,
+ * as done by the handler table of AbstractScheme.
+ * Each case is run for WARMUP_ROUNDS rounds first, so that the JIT compiles it,
+ * and then the average time per packet over MEASURE_ROUNDS rounds is printed.
+ * @author ayadav
+ */
+public class PacketDispatchBenchmark
+{
+	private static final int WARMUP_ROUNDS						= 5;
+	private static final int MEASURE_ROUNDS						= 10;
+	private static final int PACKETS_PER_ROUND					= 200000;
+
+	// prevents the JIT from removing the benchmarked code
+	private static long blackhole								= 0;
+
+	/**
+	 * Stand-in for a scheme, with handler methods named like the ones of AbstractScheme.
+	 */
+	public static class CountingHandlers
+	{
+		public void handleQueryMesgToSubspaceRegion(
+				ProtocolEvent<ContextServicePacket.PacketType, String> event,
+				ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks)
+		{
+			blackhole++;
+		}
+
+		public void handleQueryMesgToSubspaceRegionReply(
+				ProtocolEvent<ContextServicePacket.PacketType, String> event,
+				ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks)
+		{
+			blackhole++;
+		}
+
+		public void handleValueUpdateToSubspaceRegionReplyMessage(
+				ProtocolEvent<ContextServicePacket.PacketType, String> event,
+				ProtocolTask<Integer, ContextServicePacket.PacketType, String>[] ptasks)
+		{
+			blackhole++;
+		}
+	}
+
+	private static ContextServicePacket reflectionDecode( JSONObject json )
+			throws JSONException
+	{
+		ContextServicePacket.PacketType csType
+				= ContextServicePacket.getContextServicePacketType(json);
+		try
+		{
+			return (ContextServicePacket)(Class.forName(
+					"edu.umass.cs.contextservice.messages." +
+					ContextServicePacket.getPacketTypeClassName(csType))
+					.getConstructor(JSONObject.class).newInstance(json));
+		}
+		catch(ClassNotFoundException | NoSuchMethodException | InstantiationException
+				| IllegalAccessException | InvocationTargetException ex)
+		{
+			ex.printStackTrace();
+		}
+		return null;
+	}
+
+	private static void reflectionDispatch( CountingHandlers handlers,
+			ContextServicePacket csPacket )
+	{
+		try
+		{
+			handlers.getClass().getMethod(ContextServicePacket.HANDLER_METHOD_PREFIX+
+				ContextServicePacket.getPacketTypeClassName(csPacket.getType()),
+				ProtocolEvent.class, ProtocolTask[].class).invoke(handlers,
+						csPacket, null);
+		}
+		catch(NoSuchMethodException | IllegalAccessException | InvocationTargetException ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	private static void tableDispatch( CountingHandlers handlers,
+			ContextServicePacket csPacket )
+	{
+		switch( csPacket.getType() )
+		{
+			case QUERY_MESG_TO_SUBSPACE_REGION:
+				handlers.handleQueryMesgToSubspaceRegion(csPacket, null);
+				break;
+			case QUERY_MESG_TO_SUBSPACE_REGION_REPLY:
+				handlers.handleQueryMesgToSubspaceRegionReply(csPacket, null);
+				break;
+			case VALUEUPDATE_TO_SUBSPACE_REGION_REPLY_MESSAGE:
+				handlers.handleValueUpdateToSubspaceRegionReplyMessage(csPacket, null);
+				break;
+			default:
+				assert(false);
+		}
+	}
+
+	private static double runRound( JSONObject[] packetJSONs, CountingHandlers handlers,
+			boolean useReflection ) throws JSONException
+	{
+		long start = System.nanoTime();
+		for( int i=0; i<PACKETS_PER_ROUND; i++ )
+		{
+			JSONObject json = packetJSONs[i % packetJSONs.length];
+			if( useReflection )
+			{
+				reflectionDispatch(handlers, reflectionDecode(json));
+			}
+			else
+			{
+				tableDispatch(handlers, ContextServicePacket.getContextServicePacket(json));
+			}
+		}
+		long end = System.nanoTime();
+		return ((double)(end-start))/PACKETS_PER_ROUND;
+	}
+
+	private static double measure( JSONObject[] packetJSONs, CountingHandlers handlers,
+			boolean useReflection ) throws JSONException
+	{
+		for( int i=0; i<WARMUP_ROUNDS; i++ )
+		{
+			runRound(packetJSONs, handlers, useReflection);
+		}
+
+		double sum = 0;
+		for( int i=0; i<MEASURE_ROUNDS; i++ )
+		{
+			sum = sum + runRound(packetJSONs, handlers, useReflection);
+		}
+		return sum/MEASURE_ROUNDS;
+	}
+
+	public static void main( String[] args ) throws JSONException
+	{
+		JSONArray resultGUIDs = new JSONArray();
+		for( int i=0; i<10; i++ )
+		{
+			JSONObject guidJSON = new JSONObject();
+			guidJSON.put("ID", "0123456789abcdef0123456789abcdef0123456"+i);
+			resultGUIDs.put(guidJSON);
+		}
+
+		JSONObject[] packetJSONs = new JSONObject[3];
+		packetJSONs[0] = new QueryMesgToSubspaceRegion( 1, 10,
+				"SELECT GUID_TABLE.guid FROM GUID_TABLE WHERE attr0 >= 10 AND attr0 <= 20",
+				"0123456789abcdef0123456789abcdef01234567", "127.0.0.1", 5000,
+				false, 0, 0 ).toJSONObject();
+		packetJSONs[1] = new QueryMesgToSubspaceRegionReply( 1, 10,
+				"0123456789abcdef0123456789abcdef01234567", resultGUIDs,
+				resultGUIDs.length(), 0 ).toJSONObject();
+		packetJSONs[2] = new ValueUpdateToSubspaceRegionReplyMessage( 1, 0, 10,
+				new JSONArray(), new JSONArray() ).toJSONObject();
+
+		CountingHandlers handlers = new CountingHandlers();
+
+		double reflectionNs = measure(packetJSONs, handlers, true);
+		double tableNs 		= measure(packetJSONs, handlers, false);
+
+		System.out.println("reflection dispatch "+reflectionNs+" ns/packet, "
+				+"table dispatch "+tableNs+" ns/packet, "
+				+"speedup "+(reflectionNs/tableNs)+" blackhole "+blackhole);
+	}
+}
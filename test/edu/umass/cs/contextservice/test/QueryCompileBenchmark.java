@@ -0,0 +1,306 @@
+package edu.umass.cs.contextservice.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.regionmapper.helper.CompiledValueSpace;
+import edu.umass.cs.contextservice.regionmapper.helper.RegionInfo;
+import edu.umass.cs.contextservice.regionmapper.helper.RegionIntervalIndex;
+import edu.umass.cs.contextservice.regionmapper.helper.ValueSpaceInfo;
+
+/**
+ * Micro benchmark of parsing a search query and finding the regions it
+ * overlaps. Compares the ranges with String bounds of QueryParser.parseQuery,
+ * checked against each region with AttributeTypes.checkOverlapOfTwoIntervals,
+ * to the primitive bounds of QueryParser.compileQuery, checked with
+ * CompiledValueSpace.overlaps, and the RegionIntervalIndex lookup of both.
+ * It first checks that both give the same regions for each query, also for
+ * queries the single pass parser leaves to the regular expressions, and
+ * that compileQuery parses the values like Double.parseDouble.
+ * Each case is run for WARMUP_ROUNDS rounds first, so that the JIT compiles it,
+ * and then the average time and bytes allocated per search over
+ * MEASURE_ROUNDS rounds are printed.
+ * @author ayadav
+ */
+public class QueryCompileBenchmark
+{
+	private static final int NUM_ATTRS							= 6;
+	private static final int NUM_SPLITS							= 8;
+	private static final double ATTR_MAX						= 1000.0;
+	private static final int NUM_QUERIES						= 1000;
+
+	private static final int WARMUP_ROUNDS						= 5;
+	private static final int MEASURE_ROUNDS						= 10;
+	private static final int SEARCHES_PER_ROUND					= 100000;
+
+	private static final int STRING_OVERLAP						= 0;
+	private static final int COMPILED_OVERLAP					= 1;
+	private static final int STRING_INDEX						= 2;
+	private static final int COMPILED_INDEX						= 3;
+	private static final String[] CASE_NAMES 	= {"string overlap", "compiled overlap",
+			"string index", "compiled index"};
+
+	// prevents the JIT from removing the benchmarked code
+	private static long blackhole								= 0;
+
+	private static List<RegionInfo> regionList;
+	private static RegionIntervalIndex regionIndex;
+
+	public static void main( String[] args )
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			// attr2 is an Int attribute, for the integral values.
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, "0", ((int)ATTR_MAX)+"",
+					(i == 2)? AttributeTypes.IntType : AttributeTypes.DoubleType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+
+		createRegions();
+		String[] queries = createQueries(new Random(7));
+
+		checkValues(new Random(9));
+		checkRegions(queries);
+		checkRegions(new String[]{
+				"attr0 >= 100 AND attr0 <= 300 AND attr1 >= 800 AND attr1 <= 200",
+				"attr0 >= 100 AND attr0 <= 300 OR attr1 = 20",
+				"attr0 >= 100 AND attr0 <= 300 AND NOT attr2 BETWEEN 1 AND 900",
+				"attr0 >= 1.0e2 AND attr0 <= 3E2 AND attr2 >= +10 ORDER BY attr0 DESC LIMIT 5",
+				"  attr0>=100  AND  attr0<=300	LIMIT 5",
+				"select count(*), avg(attr1) where attr3 >= 100.125 AND attr3 <= 0.00000000000000000000001"});
+		System.out.println("regions checked for "+(queries.length+6)+" queries");
+
+		double[][] results = new double[4][];
+		for( int c=0; c<results.length; c++ )
+		{
+			results[c] = measure(queries, c);
+		}
+		for( int c=0; c<results.length; c++ )
+		{
+			System.out.println(CASE_NAMES[c]+" "+results[c][0]+" ns/search "
+					+results[c][1]+" bytes/search");
+		}
+		System.out.println("blackhole "+blackhole);
+	}
+
+	/**
+	 * Regions that split attr0 and attr1 into NUM_SPLITS ranges each.
+	 */
+	private static void createRegions()
+	{
+		regionList = new ArrayList<RegionInfo>();
+		double splitSize = ATTR_MAX/NUM_SPLITS;
+		for( int i=0; i<NUM_SPLITS; i++ )
+		{
+			for( int j=0; j<NUM_SPLITS; j++ )
+			{
+				ValueSpaceInfo valSpace = new ValueSpaceInfo();
+				for( int a=0; a<NUM_ATTRS; a++ )
+				{
+					String attrName = "attr"+a;
+					AttributeMetaInfo attrMetaInfo = AttributeTypes.attributeMap.get(attrName);
+					AttributeValueRange attrValRange = new AttributeValueRange(
+							attrMetaInfo.getMinValue(), attrMetaInfo.getMaxValue());
+					if( a < 2 )
+					{
+						int split = (a == 0)? i : j;
+						attrValRange = new AttributeValueRange(split*splitSize+"",
+								(split+1)*splitSize+"");
+					}
+					valSpace.getValueSpaceBoundary().put(attrName, attrValRange);
+				}
+				RegionInfo regionInfo = new RegionInfo();
+				regionInfo.setRegionKey(regionList.size());
+				regionInfo.setValueSpaceInfo(valSpace);
+				regionList.add(regionInfo);
+			}
+		}
+		regionIndex = new RegionIntervalIndex(regionList, AttributeTypes.attributeMap);
+	}
+
+	private static String[] createQueries( Random rand )
+	{
+		String[] queries = new String[NUM_QUERIES];
+		for( int q=0; q<NUM_QUERIES; q++ )
+		{
+			StringBuilder query = new StringBuilder("SELECT GUID_TABLE.guid FROM GUID_TABLE WHERE ");
+			int numPredAttrs = 1 + rand.nextInt(3);
+			for( int p=0; p<numPredAttrs; p++ )
+			{
+				int attrNum = rand.nextInt(NUM_ATTRS);
+				if( p > 0 )
+					query.append(" AND ");
+
+				if( attrNum == 2 )
+				{
+					int lower = rand.nextInt((int)ATTR_MAX);
+					query.append("attr2 >= "+lower+" AND attr2 <= "
+							+(lower+rand.nextInt((int)ATTR_MAX/4)));
+				}
+				else
+				{
+					double lower = Math.floor(rand.nextDouble()*ATTR_MAX*100)/100;
+					double upper = lower + Math.floor(rand.nextDouble()*ATTR_MAX*25)/100;
+					query.append("attr"+attrNum+" >= "+lower+" AND attr"+attrNum+" <= "+upper);
+				}
+			}
+			if( rand.nextInt(4) == 0 )
+				query.append(" LIMIT 100");
+			queries[q] = query.toString();
+		}
+		return queries;
+	}
+
+	/**
+	 * Checks that compileQuery parses the numeric values of a query
+	 * like parseQuery and then Double.parseDouble.
+	 */
+	private static void checkValues( Random rand )
+	{
+		String[] values = new String[]{"0", "-0", "007", "1e3", "2.5E-3", "-12.75",
+				"123456789012345678", "0.1", "9007199254740993", "1.7976931348623157E308",
+				"4.9e-324", "0.30000000000000004", ".5", "5."};
+		for( int i=0; i<values.length+1000; i++ )
+		{
+			String value = (i < values.length)? values[i]
+					: Double.toString((rand.nextDouble()-0.5)*Math.pow(10, rand.nextInt(40)-20));
+			CompiledValueSpace valueSpace = QueryParser.compileQuery("attr0 = "+value);
+			int ordinal = CompiledValueSpace.getOrdinal("attr0");
+			check( (valueSpace.getLowerBound(ordinal) == Double.parseDouble(value))
+					&& (valueSpace.getUpperBound(ordinal) == Double.parseDouble(value)),
+					"value "+value+" compiled to "+valueSpace.getLowerBound(ordinal) );
+		}
+	}
+
+	private static void checkRegions( String[] queries )
+	{
+		for( int q=0; q<queries.length; q++ )
+		{
+			TreeSet<Integer> stringOverlap = new TreeSet<Integer>();
+			TreeSet<Integer> compiledOverlap = new TreeSet<Integer>();
+			stringOverlap.addAll(search(queries[q], STRING_OVERLAP));
+			compiledOverlap.addAll(search(queries[q], COMPILED_OVERLAP));
+			check( stringOverlap.equals(compiledOverlap), queries[q]+" overlaps "
+					+stringOverlap+" compiled overlaps "+compiledOverlap );
+
+			TreeSet<Integer> stringIndex = new TreeSet<Integer>();
+			TreeSet<Integer> compiledIndex = new TreeSet<Integer>();
+			stringIndex.addAll(search(queries[q], STRING_INDEX));
+			compiledIndex.addAll(search(queries[q], COMPILED_INDEX));
+			check( stringIndex.equals(compiledIndex), queries[q]+" index "
+					+stringIndex+" compiled index "+compiledIndex );
+
+			check( QueryParser.getCanonicalQuery(QueryParser.parseQuery(queries[q])).equals(
+					QueryParser.getCanonicalQuery(QueryParser.compileQuery(queries[q])
+							.toAttrValRangeMap())), "compiled ranges of "+queries[q] );
+		}
+	}
+
+	private static List<Integer> search( String query, int searchCase )
+	{
+		List<Integer> regionKeyList = new LinkedList<Integer>();
+		switch( searchCase )
+		{
+			case STRING_OVERLAP:
+			{
+				HashMap<String, AttributeValueRange> queryAttrValMap = QueryParser.parseQuery(query);
+				for( int i=0; i<regionList.size(); i++ )
+				{
+					HashMap<String, AttributeValueRange> regionBoundary
+							= regionList.get(i).getValueSpaceInfo().getValueSpaceBoundary();
+					boolean overlap = true;
+					Iterator<String> attrIter = queryAttrValMap.keySet().iterator();
+					while( overlap && attrIter.hasNext() )
+					{
+						String attrName = attrIter.next();
+						overlap = AttributeTypes.checkOverlapOfTwoIntervals(
+								queryAttrValMap.get(attrName), regionBoundary.get(attrName),
+								AttributeTypes.attributeMap.get(attrName).getDataType());
+					}
+					if( overlap )
+						regionKeyList.add(regionList.get(i).getRegionKey());
+				}
+				break;
+			}
+			case COMPILED_OVERLAP:
+			{
+				CompiledValueSpace queryValueSpace = QueryParser.compileQuery(query);
+				for( int i=0; i<regionList.size(); i++ )
+				{
+					if( queryValueSpace.overlaps(
+							regionList.get(i).getValueSpaceInfo().getCompiledValueSpace()) )
+						regionKeyList.add(regionList.get(i).getRegionKey());
+				}
+				break;
+			}
+			case STRING_INDEX:
+			{
+				regionKeyList = regionIndex.getRegionKeysForSearch(QueryParser.parseQuery(query));
+				break;
+			}
+			case COMPILED_INDEX:
+			{
+				regionKeyList = regionIndex.getRegionKeysForSearch(QueryParser.compileQuery(query));
+				break;
+			}
+			default:
+				assert(false);
+		}
+		return regionKeyList;
+	}
+
+	private static void runRound( String[] queries, int searchCase )
+	{
+		for( int i=0; i<SEARCHES_PER_ROUND; i++ )
+		{
+			blackhole = blackhole + search(queries[i % queries.length], searchCase).size();
+		}
+	}
+
+	/**
+	 * Returns the ns and bytes allocated per search.
+	 */
+	private static double[] measure( String[] queries, int searchCase )
+	{
+		com.sun.management.ThreadMXBean threadBean
+				= (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		for( int i=0; i<WARMUP_ROUNDS; i++ )
+		{
+			runRound(queries, searchCase);
+		}
+
+		long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for( int i=0; i<MEASURE_ROUNDS; i++ )
+		{
+			runRound(queries, searchCase);
+		}
+		long end = System.nanoTime();
+		long endBytes = threadBean.getThreadAllocatedBytes(threadId);
+
+		double numSearches = ((double)MEASURE_ROUNDS)*SEARCHES_PER_ROUND;
+		return new double[]{(end-start)/numSearches, (endBytes-startBytes)/numSearches};
+	}
+
+	private static void check( boolean condition, String message )
+	{
+		if( !condition )
+			throw new IllegalStateException(message);
+	}
+}
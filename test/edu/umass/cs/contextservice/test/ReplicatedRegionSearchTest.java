@@ -0,0 +1,236 @@
+package edu.umass.cs.contextservice.test;
+
+import static edu.umass.cs.contextservice.test.AttrIndexTestFixture.check;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.common.CSNodeConfig;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.config.ContextServiceConfig.SQL_DB_TYPE;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+import edu.umass.cs.contextservice.queryparsing.QueryInfo;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+import edu.umass.cs.contextservice.regionmapper.UniformGreedyRegionMappingPolicyWithDB;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Test of searches of several boxes on regions stored on several nodes.
+ * GUIDs are stored on all nodes of their region, as updates are.
+ * A search is routed by the region mapping policy, each node searches
+ * the boxes it is sent and the coordinator merges the replies. It checks
+ * that the GUIDs in two boxes are returned and counted once, also when
+ * a node that doesn't reply is replaced by other nodes of its regions.
+ * @author ayadav
+ */
+public class ReplicatedRegionSearchTest
+{
+	private static final int NUM_ATTRS								= 2;
+	// 3 regions of 3 nodes.
+	private static final int NUM_NODES								= 9;
+	private static final int NUM_GUIDS								= 3000;
+	private static final int NUM_SEARCHES							= 100;
+	private static final int ATTR_MAX								= 1000;
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, "0", ATTR_MAX+"",
+					AttributeTypes.DoubleType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sendFullRepliesWithinCS = true;
+		ContextServiceConfig.sqlDBType = SQL_DB_TYPE.IN_MEMORY;
+
+		CSNodeConfig nodeConfig = new CSNodeConfig();
+		for( int i=0; i<NUM_NODES; i++ )
+		{
+			nodeConfig.add(i, new InetSocketAddress(InetAddress.getByName("localhost"), 3000+i));
+		}
+		UniformGreedyRegionMappingPolicyWithDB regionMappingPolicy
+				= new UniformGreedyRegionMappingPolicyWithDB(null,
+						AttributeTypes.attributeMap, AttributeTypes.attributeInOrderList, nodeConfig);
+		regionMappingPolicy.computeRegionMapping();
+
+		Random rand = new Random(29);
+		InMemoryGUIDStorage[] nodes = AttrIndexTestFixture.createNodes(NUM_NODES);
+		List<double[]> guidValues = storeOnRegionNodes(regionMappingPolicy, nodes, rand);
+
+		int numHedged = 0;
+		for( int s=0; s<NUM_SEARCHES; s++ )
+		{
+			// two boxes that overlap, each on more than one region.
+			double lower0 = Math.floor(rand.nextDouble()*ATTR_MAX/2);
+			double upper0 = lower0 + ATTR_MAX/2;
+			double lower1 = Math.floor(rand.nextDouble()*ATTR_MAX/2);
+			double upper1 = lower1 + ATTR_MAX/2;
+			String predicates = "attr0 >= "+lower0+" AND attr0 <= "+upper0
+					+" OR attr1 >= "+lower1+" AND attr1 <= "+upper1;
+
+			HashSet<String> expected = new HashSet<String>();
+			for( int i=0; i<guidValues.size(); i++ )
+			{
+				double[] values = guidValues.get(i);
+				if( ((values[0] >= lower0) && (values[0] <= upper0))
+						|| ((values[1] >= lower1) && (values[1] <= upper1)) )
+				{
+					expected.add(String.format("%040x", i+1));
+				}
+			}
+
+			boolean hedge = (s % 2 == 1);
+			QueryInfo searchInfo = search(regionMappingPolicy, nodes,
+					"SELECT GUID_TABLE.guid FROM GUID_TABLE WHERE "+predicates, hedge);
+			if( hedge )
+				numHedged++;
+
+			HashSet<String> results = new HashSet<String>();
+			int numResults = 0;
+			for( Integer nodeid : searchInfo.getSearchReplyMap().keySet() )
+			{
+				JSONArray replyArray = searchInfo.getSearchReplyMap().get(nodeid).replyArray;
+				numResults += searchInfo.getSearchReplyMap().get(nodeid).numReplies;
+				for( int j=0; j<replyArray.length(); j++ )
+				{
+					String guid = SearchReplyGUIDRepresentationJSON.fromJSONObject(
+							replyArray.getJSONObject(j)).getID();
+					check( results.add(guid), predicates+" returned "+guid+" twice" );
+				}
+			}
+			check( results.equals(expected), predicates+" returned "+results.size()
+					+" GUIDs, expected "+expected.size() );
+			check( numResults == expected.size(), predicates+" reply size "+numResults
+					+", expected "+expected.size() );
+
+			QueryInfo countInfo = search(regionMappingPolicy, nodes,
+					"SELECT COUNT(*) WHERE "+predicates, hedge);
+			JSONObject countResult = countInfo.getAggregateResult();
+			check( countResult.getLong("COUNT(*)") == expected.size(), predicates+" counted "
+					+countResult.getLong("COUNT(*)")+" GUIDs, expected "+expected.size() );
+		}
+		System.out.println("searches checked "+NUM_SEARCHES+", hedged "+numHedged);
+		System.out.println("ReplicatedRegionSearchTest passed");
+	}
+
+	/**
+	 * Stores GUIDs with random values on the nodes their updates are sent to,
+	 * all nodes of their region, and returns the values of each GUID.
+	 */
+	private static List<double[]> storeOnRegionNodes(
+			UniformGreedyRegionMappingPolicyWithDB regionMappingPolicy,
+			InMemoryGUIDStorage[] nodes, Random rand ) throws Exception
+	{
+		List<double[]> guidValues = new LinkedList<double[]>();
+		for( int i=0; i<NUM_GUIDS; i++ )
+		{
+			String guid = String.format("%040x", i+1);
+			JSONObject attrValJSON = new JSONObject();
+			HashMap<String, AttributeValueRange> attrValRangeMap
+					= new HashMap<String, AttributeValueRange>();
+			double[] values = new double[NUM_ATTRS];
+			for( int j=0; j<NUM_ATTRS; j++ )
+			{
+				values[j] = Math.floor(rand.nextDouble()*ATTR_MAX*100)/100;
+				attrValJSON.put("attr"+j, values[j]+"");
+				attrValRangeMap.put("attr"+j, new AttributeValueRange(values[j]+"", values[j]+""));
+			}
+			guidValues.add(values);
+
+			List<Integer> nodeList = regionMappingPolicy.getNodeIDsForUpdate(guid, attrValRangeMap);
+			check( nodeList.size() == NUM_NODES/3, guid+" stored on "+nodeList );
+			for( int j=0; j<nodeList.size(); j++ )
+			{
+				nodes[nodeList.get(j)].storeGUIDUsingAttrIndex(null, guid, attrValJSON,
+						DBConstants.INSERT_REC);
+			}
+		}
+		return guidValues;
+	}
+
+	/**
+	 * Routes a search as the coordinator does and adds the replies of the
+	 * nodes. If hedge, the first node is replaced by other nodes of its
+	 * regions, and doesn't reply.
+	 */
+	private static QueryInfo search( UniformGreedyRegionMappingPolicyWithDB regionMappingPolicy,
+			InMemoryGUIDStorage[] nodes, String query, boolean hedge ) throws Exception
+	{
+		QueryInfo queryInfo = new QueryInfo(query, 0, "group", 1, "127.0.0.1", 5000, -1);
+		check( queryInfo.getSearchBoxes().size() == 2, "boxes of "+query );
+
+		LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> nodeBoxesMap
+				= regionMappingPolicy.getNodeIDsForSearchBoxes(queryInfo.getSearchBoxes());
+		List<Integer> nodeList = new LinkedList<Integer>(nodeBoxesMap.keySet());
+		for( int i=0; i<nodeList.size(); i++ )
+		{
+			queryInfo.setBoxesForNode(nodeList.get(i), nodeBoxesMap.get(nodeList.get(i)));
+		}
+		queryInfo.initializeSearchQueryReplyInfo(nodeList);
+
+		if( hedge )
+		{
+			int slowNode = nodeList.get(0);
+			LinkedHashMap<Integer, List<HashMap<String, AttributeValueRange>>> alternateBoxesMap
+					= regionMappingPolicy.getAlternateNodeIDsForSearchBoxes(
+							queryInfo.getBoxesForNode(slowNode), slowNode);
+			check( alternateBoxesMap != null, "no alternate nodes of "+slowNode );
+			Iterator<Integer> alternateIter = alternateBoxesMap.keySet().iterator();
+			while( alternateIter.hasNext() )
+			{
+				int alternateNode = alternateIter.next();
+				// another node of the region of a node, which is the only one searched.
+				check( !queryInfo.isQueriedNode(alternateNode), alternateNode+" searched" );
+				queryInfo.setBoxesForNode(alternateNode, alternateBoxesMap.get(alternateNode));
+			}
+			check( queryInfo.replaceNodeWithoutReply(slowNode,
+					new LinkedList<Integer>(alternateBoxesMap.keySet())) != null, "replacing "+slowNode );
+		}
+
+		List<Integer> repliedNodes = new LinkedList<Integer>(queryInfo.getSearchReplyMap().keySet());
+		for( int i=0; i<repliedNodes.size(); i++ )
+		{
+			int nodeid = repliedNodes.get(i);
+			String nodeQuery = queryInfo.getQueryForNode(nodeid);
+			List<HashMap<String, AttributeValueRange>> boxes = QueryParser.parseQueryBoxes(nodeQuery);
+
+			JSONArray resultArray = new JSONArray();
+			int resultSize;
+			if( queryInfo.getSearchAggregates() != null )
+			{
+				resultArray.put(nodes[nodeid].processAggregateQueryUsingAttrIndex(boxes,
+						QueryParser.parseSearchAggregates(nodeQuery)).toPartialJSON());
+				resultSize = 1;
+			}
+			else
+			{
+				resultSize = nodes[nodeid].processSearchQueryUsingAttrIndex(boxes,
+						SearchQueryOptions.NO_OPTIONS, resultArray, null);
+			}
+			queryInfo.addReplyFromANode(nodeid, new QueryMesgToSubspaceRegionReply(nodeid, 1,
+					"group", resultArray, resultSize, 0));
+		}
+		check( queryInfo.checkAllRepliesRecvd(), "replies of "+query );
+		return queryInfo;
+	}
+}
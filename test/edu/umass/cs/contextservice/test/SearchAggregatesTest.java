@@ -0,0 +1,203 @@
+package edu.umass.cs.contextservice.test;
+
+import static edu.umass.cs.contextservice.test.AttrIndexTestFixture.check;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
+import edu.umass.cs.contextservice.database.guidattributes.SQLStatementTemplates;
+import edu.umass.cs.contextservice.messages.ContextServicePacket;
+import edu.umass.cs.contextservice.messages.QueryMesgToSubspaceRegionReply;
+import edu.umass.cs.contextservice.messages.wireformat.BinaryWireFormat;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.queryparsing.SearchAggregates;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Test of aggregate queries.
+ * It checks the parsing of the aggregates, that merging the partial
+ * aggregates of the in-memory storage of several nodes, sent in the binary
+ * wire format, gives the aggregates computed over all matching GUIDs.
+ * It also binds the SQL aggregate templates of a few queries.
+ * @author ayadav
+ */
+public class SearchAggregatesTest
+{
+	private static final int NUM_ATTRS								= 3;
+	private static final int NUM_NODES								= 4;
+	private static final int NUM_GUIDS								= 5000;
+	private static final int NUM_SEARCHES							= 200;
+	private static final double ATTR_MAX							= 1000.0;
+	private static final int NUM_BUCKETS							= 10;
+
+	private static final String SELECT_LIST 	= "SELECT COUNT(*), COUNT(attr1), MIN(attr1), "
+			+ "MAX(attr2), SUM(attr2), AVG(attr1), HISTOGRAM(attr1, "+NUM_BUCKETS+") WHERE ";
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			// attr2 is an Int attribute, for the integral SUM and MAX.
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, "0", ((int)ATTR_MAX)+"",
+					(i == 2)? AttributeTypes.IntType : AttributeTypes.DoubleType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sendFullRepliesWithinCS = true;
+		ContextServiceConfig.binaryWireFormat = true;
+
+		checkParsing();
+		checkAggregates();
+		checkTemplates();
+		System.out.println("SearchAggregatesTest passed");
+	}
+
+	private static void checkParsing()
+	{
+		String query = "select count(*), histogram(attr1, 5), min(attr2) "
+				+ "WHERE attr0 >= 10 AND attr0 <= 500";
+		SearchAggregates searchAggregates = QueryParser.parseSearchAggregates(query);
+		check( (searchAggregates != null) && (searchAggregates.getNumAggregates() == 3),
+				"aggregates of "+query );
+		check( searchAggregates.toString().equals(
+				"SELECT COUNT(*), HISTOGRAM(attr1, 5), MIN(attr2) WHERE"), searchAggregates.toString() );
+		check( QueryParser.parseQuery(query).size() == 1, "predicates of "+query );
+
+		// not valid aggregates are ignored.
+		searchAggregates = QueryParser.parseSearchAggregates(
+				"SELECT COUNT(*), SUM(foo), MIN(attr1, 3) WHERE attr0 >= 10 AND attr0 <= 500");
+		check( searchAggregates.getNumAggregates() == 1, "not valid aggregates" );
+
+		String search = "SELECT GUID_TABLE.guid FROM GUID_TABLE WHERE attr0 >= 10 AND attr0 <= 500";
+		check( QueryParser.parseSearchAggregates(search) == null, "search of GUIDs" );
+		check( QueryParser.parseQuery(search).size() == 1, "predicates of "+search );
+		check( QueryParser.parseSearchAggregates("attr0 >= 10 AND attr0 <= 500") == null,
+				"query without SELECT" );
+		System.out.println("parsing checked");
+	}
+
+	private static void checkAggregates() throws Exception
+	{
+		Random rand = new Random(11);
+		InMemoryGUIDStorage[] nodes = AttrIndexTestFixture.createNodes(NUM_NODES);
+		// some GUIDs don't set attr1, it is not counted for them.
+		List<double[]> guidValues = AttrIndexTestFixture.storeRandomGUIDs(nodes, NUM_GUIDS,
+				(int)ATTR_MAX, "attr1", rand);
+
+		for( int s=0; s<NUM_SEARCHES; s++ )
+		{
+			double lower = Math.floor(rand.nextDouble()*ATTR_MAX);
+			double upper = lower + Math.floor(rand.nextDouble()*ATTR_MAX/4);
+			String query = SELECT_LIST+"attr0 >= "+lower+" AND attr0 <= "+upper;
+			SearchAggregates searchAggregates = QueryParser.parseSearchAggregates(query);
+			HashMap<String, AttributeValueRange> queryAttrValMap = QueryParser.parseQuery(query);
+
+			long numGUIDs = 0;
+			long count1 = 0;
+			double min1 = Double.MAX_VALUE;
+			double sum1 = 0;
+			long max2 = Long.MIN_VALUE;
+			long sum2 = 0;
+			long[] buckets = new long[NUM_BUCKETS];
+			for( int i=0; i<guidValues.size(); i++ )
+			{
+				double[] values = guidValues.get(i);
+				if( (values[0] < lower) || (values[0] > upper) )
+					continue;
+
+				numGUIDs++;
+				max2 = Math.max(max2, (long)values[2]);
+				sum2 = sum2 + (long)values[2];
+				if( !Double.isNaN(values[1]) )
+				{
+					count1++;
+					min1 = Math.min(min1, values[1]);
+					sum1 = sum1 + values[1];
+					int bucket = (int)(values[1]*NUM_BUCKETS/ATTR_MAX);
+					buckets[Math.min(bucket, NUM_BUCKETS-1)]++;
+				}
+			}
+
+			// partial aggregates of each node, sent to the coordinator in a reply.
+			SearchAggregates.Accumulator merged = searchAggregates.newAccumulator();
+			for( int i=0; i<NUM_NODES; i++ )
+			{
+				SearchAggregates.Accumulator accumulator = nodes[i]
+						.processAggregateQueryUsingAttrIndex(queryAttrValMap, searchAggregates);
+				JSONArray resultGUIDs = new JSONArray();
+				resultGUIDs.put(accumulator.toPartialJSON());
+				QueryMesgToSubspaceRegionReply reply = new QueryMesgToSubspaceRegionReply(i, s,
+						String.format("%040x", s+1), resultGUIDs, (int)accumulator.getNumGUIDs(), 0);
+
+				ContextServicePacket received = BinaryWireFormat.fromBinaryFrameJSON(
+						BinaryWireFormat.toWireJSON(reply));
+				merged.mergePartial(((QueryMesgToSubspaceRegionReply)received)
+						.getResultGUIDs().getJSONArray(0));
+			}
+
+			JSONObject resultJSON = merged.toResultJSON();
+			check( resultJSON.getLong("COUNT(*)") == numGUIDs, query+" COUNT(*) "+resultJSON );
+			check( resultJSON.getLong("COUNT(attr1)") == count1, query+" COUNT(attr1) "+resultJSON );
+			if( numGUIDs == 0 )
+			{
+				check( JSONObject.NULL.equals(resultJSON.get("MAX(attr2)")), query+" MAX of none" );
+				check( JSONObject.NULL.equals(resultJSON.get("AVG(attr1)")), query+" AVG of none" );
+			}
+			else
+			{
+				check( resultJSON.getLong("MAX(attr2)") == max2, query+" MAX(attr2) "+resultJSON );
+				check( resultJSON.getLong("SUM(attr2)") == sum2, query+" SUM(attr2) "+resultJSON );
+			}
+			if( count1 > 0 )
+			{
+				check( resultJSON.getDouble("MIN(attr1)") == min1, query+" MIN(attr1) "+resultJSON );
+				check( Math.abs(resultJSON.getDouble("AVG(attr1)") - sum1/count1) < 1e-6,
+						query+" AVG(attr1) "+resultJSON );
+			}
+
+			JSONArray bucketJSON = resultJSON.getJSONArray("HISTOGRAM(attr1, "+NUM_BUCKETS+")");
+			for( int b=0; b<NUM_BUCKETS; b++ )
+			{
+				check( bucketJSON.getLong(b) == buckets[b], query+" bucket "+b+" "+resultJSON );
+			}
+		}
+		System.out.println("aggregate queries checked "+NUM_SEARCHES);
+	}
+
+	private static void checkTemplates() throws Exception
+	{
+		SQLStatementTemplates templates = new SQLStatementTemplates(
+				AttributeTypes.attributeInOrderList);
+		String[] queries = new String[]{
+				SELECT_LIST+"attr0 >= 10 AND attr0 <= 500",
+				"SELECT COUNT(*) WHERE attr0 >= 10 AND attr0 <= 500 AND attr2 >= 900 AND attr2 <= 100",
+				"SELECT HISTOGRAM(attr2, 3), MIN(attr0) WHERE attr1 >= 10 AND attr1 <= 500"};
+
+		for( int i=0; i<queries.length; i++ )
+		{
+			SearchAggregates searchAggregates = QueryParser.parseSearchAggregates(queries[i]);
+			HashMap<String, AttributeValueRange> queryAttrValMap
+					= QueryParser.parseQuery(queries[i]);
+			String template = templates.getAggregateTemplate(queryAttrValMap, searchAggregates);
+
+			AttrIndexTestFixture.BindCounter bindCounter = new AttrIndexTestFixture.BindCounter();
+			templates.bindAggregateValues(bindCounter.newStatement(), queryAttrValMap,
+					searchAggregates);
+
+			AttrIndexTestFixture.checkBoundValues(template, bindCounter);
+			System.out.println(template);
+		}
+	}
+}
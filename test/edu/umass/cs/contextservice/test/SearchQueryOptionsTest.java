@@ -0,0 +1,201 @@
+package edu.umass.cs.contextservice.test;
+
+import static edu.umass.cs.contextservice.test.AttrIndexTestFixture.check;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONArray;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.database.guidattributes.InMemoryGUIDStorage;
+import edu.umass.cs.contextservice.database.guidattributes.SQLStatementTemplates;
+import edu.umass.cs.contextservice.messages.dataformat.SearchReplyGUIDRepresentationJSON;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.queryparsing.SearchQueryOptions;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+import edu.umass.cs.contextservice.schemes.components.SearchResultMerger;
+
+/**
+ * Test of the ORDER BY and LIMIT options of searches.
+ * It checks the parsing of the options, that the in-memory storage of
+ * each of several nodes returns its first results in the order, and that
+ * merging them gives the first results of all GUIDs, compared with sorting
+ * the matching GUIDs. It also binds the SQL templates of each combination
+ * of the options, and checks their ORDER BY clause.
+ * @author ayadav
+ */
+public class SearchQueryOptionsTest
+{
+	private static final int NUM_ATTRS								= 3;
+	private static final int NUM_NODES								= 4;
+	private static final int NUM_GUIDS								= 5000;
+	private static final int NUM_SEARCHES							= 200;
+	private static final double ATTR_MAX							= 1000.0;
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			// attr2 is an Int attribute, for the numeric order of its values.
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, "0", ((int)ATTR_MAX)+"",
+					(i == 2)? AttributeTypes.IntType : AttributeTypes.DoubleType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sendFullRepliesWithinCS = true;
+		ContextServiceConfig.sendFullRepliesToClient = false;
+
+		checkParsing();
+		checkOrderedSearches();
+		checkTemplates();
+		System.out.println("SearchQueryOptionsTest passed");
+	}
+
+	private static void checkParsing()
+	{
+		String query = "attr0 >= 10 AND attr0 <= 500 ORDER BY attr1 DESC LIMIT 7";
+		SearchQueryOptions queryOptions = QueryParser.parseQueryOptions(query);
+		check( "attr1".equals(queryOptions.getOrderByAttr()) && queryOptions.isDescending()
+				&& (queryOptions.getLimit() == 7), "options of "+query );
+		check( QueryParser.parseQuery(query).size() == 1, "predicates of "+query );
+
+		queryOptions = QueryParser.parseQueryOptions("attr0 >= 10 AND attr0 <= 500 limit 5");
+		check( !queryOptions.hasOrderBy() && (queryOptions.getLimit() == 5), "lower case limit" );
+
+		queryOptions = QueryParser.parseQueryOptions("attr0 >= 10 AND attr0 <= 500 ORDER BY attr2");
+		check( queryOptions.hasOrderBy() && !queryOptions.isDescending()
+				&& (queryOptions.getLimit() == SearchQueryOptions.NO_LIMIT), "ascending default" );
+
+		check( QueryParser.parseQueryOptions("attr0 >= 10 AND attr0 <= 500")
+				== SearchQueryOptions.NO_OPTIONS, "no options" );
+		check( !QueryParser.parseQueryOptions("attr0 >= 10 AND attr0 <= 500 ORDER BY foo")
+				.hasOrderBy(), "unknown ORDER BY attribute" );
+
+		String canonical1 = QueryParser.getCanonicalQuery(
+				QueryParser.parseQuery("attr0 <= 500 AND attr0 >= 10 LIMIT 3"),
+				QueryParser.parseQueryOptions("attr0 <= 500 AND attr0 >= 10 LIMIT 3"));
+		String canonical2 = QueryParser.getCanonicalQuery(
+				QueryParser.parseQuery("attr0 >= 10.0 AND attr0 <= 500   limit 3"),
+				QueryParser.parseQueryOptions("attr0 >= 10.0 AND attr0 <= 500   limit 3"));
+		check( canonical1.equals(canonical2), canonical1+" != "+canonical2 );
+		System.out.println("parsing checked, canonical "+canonical1);
+	}
+
+	private static void checkOrderedSearches() throws Exception
+	{
+		Random rand = new Random(7);
+		InMemoryGUIDStorage[] nodes = AttrIndexTestFixture.createNodes(NUM_NODES);
+		// some GUIDs don't set attr1, it is NULL for them.
+		List<double[]> guidValues = AttrIndexTestFixture.storeRandomGUIDs(nodes, NUM_GUIDS,
+				(int)ATTR_MAX, "attr1", rand);
+
+		int numLimited = 0;
+		for( int s=0; s<NUM_SEARCHES; s++ )
+		{
+			double lower = Math.floor(rand.nextDouble()*ATTR_MAX/2);
+			double upper = lower + Math.floor(rand.nextDouble()*ATTR_MAX/2);
+			HashMap<String, AttributeValueRange> queryAttrValMap
+					= new HashMap<String, AttributeValueRange>();
+			queryAttrValMap.put("attr0", new AttributeValueRange(lower+"", upper+""));
+
+			int orderAttr = 1 + rand.nextInt(NUM_ATTRS-1);
+			boolean descending = rand.nextBoolean();
+			int limit = (s % 4 == 0)? SearchQueryOptions.NO_LIMIT : 1+rand.nextInt(50);
+			SearchQueryOptions queryOptions = new SearchQueryOptions(
+					(s % 5 == 0)? null : ("attr"+orderAttr), descending, limit);
+
+			// values of the ORDER BY attribute of the matching GUIDs,
+			// -Infinity for NULL, which is first in ascending order.
+			List<Double> expected = new ArrayList<Double>();
+			for( int i=0; i<guidValues.size(); i++ )
+			{
+				double[] values = guidValues.get(i);
+				if( (values[0] >= lower) && (values[0] <= upper) )
+					expected.add(Double.isNaN(values[orderAttr])?
+							Double.NEGATIVE_INFINITY : values[orderAttr]);
+			}
+			Collections.sort(expected);
+			if( descending )
+				Collections.reverse(expected);
+			int expectedNum = (limit == SearchQueryOptions.NO_LIMIT)? expected.size()
+					: Math.min(limit, expected.size());
+
+			List<JSONArray> nodeResults = new ArrayList<JSONArray>();
+			int numResults = 0;
+			for( int i=0; i<NUM_NODES; i++ )
+			{
+				JSONArray resultArray = new JSONArray();
+				int resultSize = nodes[i].processSearchQueryUsingAttrIndex(queryAttrValMap,
+						queryOptions, resultArray, null);
+				check( resultSize == resultArray.length(), "result size of node "+i );
+				check( (limit == SearchQueryOptions.NO_LIMIT) || (resultSize <= limit),
+						"limit of node "+i );
+				nodeResults.add(resultArray);
+				numResults += resultSize;
+			}
+
+			if( !queryOptions.hasOrderBy() )
+			{
+				check( Math.min(numResults, expectedNum) == expectedNum,
+						"unordered results "+numResults+" expected "+expectedNum );
+				continue;
+			}
+
+			JSONArray merged = new SearchResultMerger(queryOptions).merge(nodeResults, limit);
+			check( merged.length() == expectedNum, "merged "+merged.length()
+					+" expected "+expectedNum );
+			for( int i=0; i<merged.length(); i++ )
+			{
+				String orderValue = SearchReplyGUIDRepresentationJSON.getOrderValue(
+						merged.getJSONObject(i));
+				double value = (orderValue == null)? Double.NEGATIVE_INFINITY
+						: Double.parseDouble(orderValue);
+				check( value == expected.get(i), "result "+i+" of "+queryOptions
+						+" is "+value+" expected "+expected.get(i) );
+			}
+			if( limit != SearchQueryOptions.NO_LIMIT )
+				numLimited++;
+		}
+		System.out.println("searches checked "+NUM_SEARCHES+", ordered with limit "+numLimited);
+	}
+
+	private static void checkTemplates() throws Exception
+	{
+		SQLStatementTemplates templates = new SQLStatementTemplates(
+				AttributeTypes.attributeInOrderList);
+		HashMap<String, AttributeValueRange> queryAttrValMap
+				= new HashMap<String, AttributeValueRange>();
+		queryAttrValMap.put("attr0", new AttributeValueRange("10", "500"));
+		queryAttrValMap.put("attr2", new AttributeValueRange("900", "100"));
+
+		SearchQueryOptions[] optionsList = new SearchQueryOptions[]{
+				SearchQueryOptions.NO_OPTIONS,
+				new SearchQueryOptions(null, false, 10),
+				new SearchQueryOptions("attr1", true, SearchQueryOptions.NO_LIMIT),
+				new SearchQueryOptions("attr1", false, 10)};
+
+		for( int i=0; i<optionsList.length; i++ )
+		{
+			String template = templates.getSearchTemplate(queryAttrValMap, null, optionsList[i]);
+
+			AttrIndexTestFixture.BindCounter bindCounter = new AttrIndexTestFixture.BindCounter();
+			templates.bindSearchValues(bindCounter.newStatement(), queryAttrValMap,
+					null, optionsList[i]);
+
+			AttrIndexTestFixture.checkBoundValues(template, bindCounter);
+			check( !optionsList[i].hasOrderBy() || template.contains(" ORDER BY attr1 "),
+					"ORDER BY in "+template );
+			System.out.println(template);
+		}
+	}
+}
@@ -0,0 +1,429 @@
+package edu.umass.cs.contextservice.test;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.contextservice.attributeInfo.AttributeMetaInfo;
+import edu.umass.cs.contextservice.attributeInfo.AttributeTypes;
+import edu.umass.cs.contextservice.config.ContextServiceConfig;
+import edu.umass.cs.contextservice.config.ContextServiceConfig.SQL_DB_TYPE;
+import edu.umass.cs.contextservice.database.DBConstants;
+import edu.umass.cs.contextservice.database.datasource.AbstractDataSource;
+import edu.umass.cs.contextservice.database.guidattributes.SQLGUIDStorage;
+import edu.umass.cs.contextservice.database.guidattributes.SQLStatementTemplates;
+import edu.umass.cs.contextservice.database.guidattributes.SearchQueryPlan;
+import edu.umass.cs.contextservice.database.guidattributes.SearchQueryPlanner;
+import edu.umass.cs.contextservice.profilers.CNSProfiler;
+import edu.umass.cs.contextservice.queryparsing.QueryParser;
+import edu.umass.cs.contextservice.regionmapper.helper.AttributeValueRange;
+
+/**
+ * Regression test of the attribute-index search planner on the gaussian trace.
+ * The GUIDs of the update trace are sampled by the planner, and for each
+ * search of the search trace it checks that
+ * the estimated selectivity of each range is close to the fraction of
+ * the GUIDs in it, that the chosen plan costs, with the true selectivities,
+ * close to the cheapest plan, and that the template of each plan has as many
+ * placeholders as the values bound for it, also for circular ranges.
+ *
+ * If a MySQL JDBC URL, user and password are given, it also stores the
+ * GUIDs in an attribute-index table of that database, which must be empty,
+ * and checks with EXPLAIN that MySQL uses the indexes each plan hints.
+ * It prints the time of the searches with and without the hints.
+ * @author ayadav
+ */
+public class SearchQueryPlannerTest
+{
+	private static final String SEARCH_TRACE_FILE					= "traces/guassianTrace/searchFile.txt";
+	private static final String UPDATE_TRACE_FILE					= "traces/guassianTrace/updateFile.txt";
+	private static final int NUM_ATTRS								= 20;
+	private static final double ATTR_MIN							= 0.0;
+	private static final double ATTR_MAX							= 1500.0;
+	private static final String COMPOSITE_INDEXES					= "attr9,attr10;attr11,attr12";
+
+	private static final double MAX_MEAN_SELECTIVITY_ERROR			= 0.03;
+	private static final double MAX_MEAN_COST_RATIO					= 1.1;
+
+	private static class DriverManagerDataSource extends AbstractDataSource
+	{
+		private final String jdbcURL;
+		private final String user;
+		private final String password;
+
+		DriverManagerDataSource( String jdbcURL, String user, String password )
+		{
+			this.jdbcURL = jdbcURL;
+			this.user = user;
+			this.password = password;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException
+		{
+			return DriverManager.getConnection(jdbcURL, user, password);
+		}
+
+		@Override
+		public String getCmdLineConnString()
+		{
+			return jdbcURL;
+		}
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		HashMap<String, AttributeMetaInfo> givenMap = new HashMap<String, AttributeMetaInfo>();
+		List<String> attrList = new LinkedList<String>();
+		for( int i=0; i<NUM_ATTRS; i++ )
+		{
+			String attrName = "attr"+i;
+			givenMap.put(attrName, new AttributeMetaInfo(attrName, ATTR_MIN+"", ATTR_MAX+"",
+					AttributeTypes.DoubleType));
+			attrList.add(attrName);
+		}
+		AttributeTypes.initializeGivenMapAndList(givenMap, attrList);
+		ContextServiceConfig.sqlDBType = SQL_DB_TYPE.MYSQL;
+
+		HashMap<String, JSONObject> guidRecords = readUpdateTrace();
+		List<HashMap<String, AttributeValueRange>> searches = readSearchTrace();
+
+		SearchQueryPlanner planner = new SearchQueryPlanner(
+				ContextServiceConfig.searchPlannerSampleSize, COMPOSITE_INDEXES);
+		Iterator<String> guidIter = guidRecords.keySet().iterator();
+		while( guidIter.hasNext() )
+		{
+			planner.recordWrite(guidRecords.get(guidIter.next()));
+		}
+
+		checkEstimates(planner, guidRecords, searches);
+		checkTemplates(planner, searches);
+
+		if( args.length >= 3 )
+		{
+			checkExplain(planner, guidRecords, searches, args[0], args[1], args[2]);
+		}
+		System.out.println("SearchQueryPlannerTest passed");
+	}
+
+	private static void checkEstimates( SearchQueryPlanner planner,
+			HashMap<String, JSONObject> guidRecords,
+			List<HashMap<String, AttributeValueRange>> searches ) throws JSONException
+	{
+		double sumError = 0;
+		int numRanges = 0;
+		double sumCostRatio = 0;
+		HashMap<SearchQueryPlan.Strategy, Integer> strategyCounts
+				= new HashMap<SearchQueryPlan.Strategy, Integer>();
+
+		for( int i=0; i<searches.size(); i++ )
+		{
+			HashMap<String, AttributeValueRange> query = searches.get(i);
+			HashMap<String, Double> trueSelectivities = new HashMap<String, Double>();
+
+			Iterator<String> attrIter = query.keySet().iterator();
+			while( attrIter.hasNext() )
+			{
+				String attrName = attrIter.next();
+				double trueSel = getTrueSelectivity(guidRecords, attrName, query.get(attrName));
+				double estSel = planner.estimateSelectivity(attrName, query.get(attrName));
+				assert( estSel >= 0 );
+				sumError += Math.abs(trueSel - estSel);
+				numRanges++;
+				trueSelectivities.put(attrName, trueSel);
+			}
+
+			SearchQueryPlan plan = planner.planSearch(query);
+			List<SearchQueryPlan> truePlans = planner.enumeratePlans(trueSelectivities);
+			double minCost = Double.MAX_VALUE;
+			for( int j=0; j<truePlans.size(); j++ )
+			{
+				minCost = Math.min(minCost, truePlans.get(j).getEstimatedCost());
+			}
+			sumCostRatio += planner.getPlanCost(plan, trueSelectivities)/minCost;
+
+			Integer count = strategyCounts.get(plan.getStrategy());
+			strategyCounts.put(plan.getStrategy(), (count == null)? 1 : count+1);
+		}
+
+		double meanError = sumError/numRanges;
+		double meanCostRatio = sumCostRatio/searches.size();
+		System.out.println("GUIDs "+guidRecords.size()+" searches "+searches.size()
+				+" mean selectivity error "+meanError+" mean cost ratio to best "
+				+meanCostRatio+" plans "+strategyCounts);
+
+		if( !(meanError <= MAX_MEAN_SELECTIVITY_ERROR) )
+		{
+			throw new IllegalStateException("mean selectivity error "+meanError
+					+" above "+MAX_MEAN_SELECTIVITY_ERROR);
+		}
+		if( !(meanCostRatio <= MAX_MEAN_COST_RATIO) )
+		{
+			throw new IllegalStateException("mean plan cost ratio "+meanCostRatio
+					+" above "+MAX_MEAN_COST_RATIO);
+		}
+	}
+
+	/**
+	 * Checks placeholders against bound values for each plan of each search,
+	 * and of the searches with their first range made circular.
+	 */
+	private static void checkTemplates( SearchQueryPlanner planner,
+			List<HashMap<String, AttributeValueRange>> searches ) throws SQLException
+	{
+		SQLStatementTemplates templates = new SQLStatementTemplates(
+				AttributeTypes.attributeInOrderList);
+		int numChecked = 0;
+
+		for( int i=0; i<searches.size(); i++ )
+		{
+			HashMap<String, AttributeValueRange> query = searches.get(i);
+			List<HashMap<String, AttributeValueRange>> variants
+					= new ArrayList<HashMap<String, AttributeValueRange>>();
+			variants.add(query);
+
+			HashMap<String, AttributeValueRange> circularQuery
+					= new HashMap<String, AttributeValueRange>(query);
+			String firstAttr = query.keySet().iterator().next();
+			AttributeValueRange range = query.get(firstAttr);
+			circularQuery.put(firstAttr, new AttributeValueRange(range.getUpperBound(),
+					range.getLowerBound()));
+			variants.add(circularQuery);
+
+			for( int j=0; j<variants.size(); j++ )
+			{
+				HashMap<String, AttributeValueRange> variant = variants.get(j);
+				HashMap<String, Double> attrSelectivities = new HashMap<String, Double>();
+				Iterator<String> attrIter = variant.keySet().iterator();
+				while( attrIter.hasNext() )
+				{
+					String attrName = attrIter.next();
+					attrSelectivities.put(attrName,
+							planner.estimateSelectivity(attrName, variant.get(attrName)));
+				}
+
+				List<SearchQueryPlan> plans = planner.enumeratePlans(attrSelectivities);
+				plans.add(null);
+				for( int k=0; k<plans.size(); k++ )
+				{
+					String template = templates.getSearchTemplate(variant, plans.get(k));
+
+					AttrIndexTestFixture.BindCounter bindCounter 
+							= new AttrIndexTestFixture.BindCounter();
+					int nextIndex = templates.bindSearchValues(bindCounter.newStatement(),
+							variant, plans.get(k));
+
+					AttrIndexTestFixture.checkBoundValues(template, bindCounter);
+					AttrIndexTestFixture.check( 
+							nextIndex == AttrIndexTestFixture.countPlaceholders(template)+1,
+							"next index "+nextIndex+" after binding "+template );
+					numChecked++;
+				}
+			}
+		}
+		System.out.println("templates checked "+numChecked);
+	}
+
+	/**
+	 * Runs EXPLAIN for the plan of each search and checks the keys MySQL uses.
+	 */
+	private static void checkExplain( SearchQueryPlanner planner,
+			HashMap<String, JSONObject> guidRecords,
+			List<HashMap<String, AttributeValueRange>> searches,
+			String jdbcURL, String user, String password ) throws Exception
+	{
+		ContextServiceConfig.searchCompositeIndexes = COMPOSITE_INDEXES;
+		ContextServiceConfig.searchQueryPlannerEnabled = false;
+		AbstractDataSource dataSource = new DriverManagerDataSource(jdbcURL, user, password);
+		SQLGUIDStorage guidStorage = new SQLGUIDStorage(0, dataSource, new CNSProfiler());
+		guidStorage.createDataStorageTables();
+
+		Iterator<String> guidIter = guidRecords.keySet().iterator();
+		while( guidIter.hasNext() )
+		{
+			String guid = guidIter.next();
+			guidStorage.storeGUIDUsingAttrIndex(DBConstants.ATTR_INDEX_TABLE_NAME, guid,
+					guidRecords.get(guid), DBConstants.INSERT_REC);
+		}
+
+		SQLStatementTemplates templates = new SQLStatementTemplates(
+				AttributeTypes.attributeInOrderList);
+		Connection myConn = dataSource.getConnection();
+		int numMismatches = 0;
+		long hintedTime = 0;
+		long defaultTime = 0;
+		try
+		{
+			Statement stmt = myConn.createStatement();
+			stmt.execute("ANALYZE TABLE "+DBConstants.ATTR_INDEX_TABLE_NAME);
+			stmt.close();
+
+			for( int i=0; i<searches.size(); i++ )
+			{
+				HashMap<String, AttributeValueRange> query = searches.get(i);
+				SearchQueryPlan plan = planner.planSearch(query);
+
+				String template = templates.getSearchTemplate(query, plan);
+				PreparedStatement pstmt = myConn.prepareStatement("EXPLAIN "+template);
+				templates.bindSearchValues(pstmt, query, plan);
+				ResultSet rs = pstmt.executeQuery();
+				HashSet<String> keysUsed = new HashSet<String>();
+				boolean tableScan = false;
+				while( rs.next() )
+				{
+					if( rs.getString("key") != null )
+						keysUsed.add(rs.getString("key"));
+					if( DBConstants.ATTR_INDEX_TABLE_NAME.equals(rs.getString("table"))
+							&& "ALL".equals(rs.getString("type")) )
+						tableScan = true;
+				}
+				rs.close();
+				pstmt.close();
+
+				if( !explainMatches(plan, keysUsed, tableScan) )
+				{
+					numMismatches++;
+					System.out.println("EXPLAIN mismatch plan "+plan+" keys "+keysUsed
+							+" table scan "+tableScan+" for "+template);
+				}
+
+				hintedTime += timeSearch(myConn, templates, query, plan);
+				defaultTime += timeSearch(myConn, templates, query, null);
+			}
+		}
+		finally
+		{
+			myConn.close();
+		}
+
+		System.out.println("EXPLAIN mismatches "+numMismatches+" search time with hints "
+				+(hintedTime/1000000)+" ms without hints "+(defaultTime/1000000)+" ms");
+		if( numMismatches > 0 )
+		{
+			throw new IllegalStateException(numMismatches+" plans not used by MySQL");
+		}
+	}
+
+	private static boolean explainMatches( SearchQueryPlan plan, HashSet<String> keysUsed,
+			boolean tableScan )
+	{
+		switch( plan.getStrategy() )
+		{
+			case TABLE_SCAN:
+				return tableScan;
+			case INDEX_INTERSECTION:
+			{
+				String[] intersectAttrs = plan.getIntersectAttrs();
+				for( int i=0; i<intersectAttrs.length; i++ )
+				{
+					if( !keysUsed.contains(intersectAttrs[i]) )
+						return false;
+				}
+				return keysUsed.contains("PRIMARY");
+			}
+			default:
+				return !tableScan && keysUsed.contains(plan.getIndexNames()[0]);
+		}
+	}
+
+	private static long timeSearch( Connection myConn, SQLStatementTemplates templates,
+			HashMap<String, AttributeValueRange> query, SearchQueryPlan plan ) throws SQLException
+	{
+		long start = System.nanoTime();
+		PreparedStatement pstmt = myConn.prepareStatement(
+				templates.getSearchTemplate(query, plan));
+		templates.bindSearchValues(pstmt, query, plan);
+		ResultSet rs = pstmt.executeQuery();
+		while( rs.next() )
+		{
+			rs.getBytes(1);
+		}
+		rs.close();
+		pstmt.close();
+		return System.nanoTime() - start;
+	}
+
+	private static double getTrueSelectivity( HashMap<String, JSONObject> guidRecords,
+			String attrName, AttributeValueRange range ) throws JSONException
+	{
+		double lower = Double.parseDouble(range.getLowerBound());
+		double upper = Double.parseDouble(range.getUpperBound());
+		int numInRange = 0;
+		Iterator<String> guidIter = guidRecords.keySet().iterator();
+		while( guidIter.hasNext() )
+		{
+			double value = guidRecords.get(guidIter.next()).getDouble(attrName);
+			if( (value >= lower) && (value <= upper) )
+				numInRange++;
+		}
+		// at least half a GUID, like the planner's estimates.
+		return Math.max(numInRange, 0.5)/guidRecords.size();
+	}
+
+	/**
+	 * Each line is a GUID followed by attribute and value pairs,
+	 * a later pair of an attribute overrides an earlier one.
+	 */
+	private static HashMap<String, JSONObject> readUpdateTrace()
+			throws IOException, JSONException
+	{
+		HashMap<String, JSONObject> guidRecords = new HashMap<String, JSONObject>();
+		BufferedReader br = new BufferedReader(new FileReader(UPDATE_TRACE_FILE));
+		try
+		{
+			String line;
+			while( (line = br.readLine()) != null )
+			{
+				String[] parsed = line.split(",");
+				JSONObject record = new JSONObject();
+				for( int i=1; i+1<parsed.length; i=i+2 )
+				{
+					record.put(parsed[i], Double.parseDouble(parsed[i+1]));
+				}
+				guidRecords.put(parsed[0], record);
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+		return guidRecords;
+	}
+
+	private static List<HashMap<String, AttributeValueRange>> readSearchTrace()
+			throws IOException
+	{
+		List<HashMap<String, AttributeValueRange>> searches
+				= new ArrayList<HashMap<String, AttributeValueRange>>();
+		BufferedReader br = new BufferedReader(new FileReader(SEARCH_TRACE_FILE));
+		try
+		{
+			String line;
+			while( (line = br.readLine()) != null )
+			{
+				if( line.trim().length() > 0 )
+					searches.add(QueryParser.parseQuery(line));
+			}
+		}
+		finally
+		{
+			br.close();
+		}
+		return searches;
+	}
+}